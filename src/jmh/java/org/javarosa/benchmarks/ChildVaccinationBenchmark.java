@@ -35,15 +35,19 @@ import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 import org.javarosa.core.model.instance.TreeReference;
 import org.javarosa.test.Scenario;
 import org.javarosa.xform.parse.XFormParser;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.infra.Blackhole;
 
 public class ChildVaccinationBenchmark {
@@ -81,6 +85,39 @@ public class ChildVaccinationBenchmark {
         }
     }
 
+    @State(Scope.Thread)
+    public static class ChildVaccinationInitializationState {
+        @Param({"false", "true"})
+        boolean parallelInitialization;
+
+        Scenario scenario;
+        ExecutorService executor;
+
+        @Setup(Level.Trial)
+        public void initialize() throws XFormParser.ParseException {
+            scenario = init(prepareAssets("child_vaccination_VOL_tool_v12.xml").resolve("child_vaccination_VOL_tool_v12.xml").toFile());
+
+            if (parallelInitialization) {
+                executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+                scenario.getFormDef().enableParallelInitialization(executor);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Benchmark
+    // Measures evaluating every triggerable in the form when a new instance is loaded
+    public void initialize(ChildVaccinationInitializationState state, Blackhole bh) {
+        state.scenario.newInstance();
+        bh.consume(state.scenario.getFormDef().getMainInstance());
+    }
+
     @Benchmark
     public void run_1_times(ChildVaccinationState state, Blackhole bh) {
         doRuns(state, bh, 1);
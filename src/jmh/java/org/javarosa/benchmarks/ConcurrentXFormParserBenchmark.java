@@ -0,0 +1,68 @@
+package org.javarosa.benchmarks;
+
+import static org.javarosa.benchmarks.BenchmarkUtils.dryRun;
+import static org.javarosa.benchmarks.BenchmarkUtils.getNigeriaWardsXMLWithInternal2ndryInstance;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.javarosa.core.model.FormDef;
+import org.javarosa.xform.parse.FormParserHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parses one form per thread concurrently for each invocation. If parsing scales linearly with the number of threads
+ * (up to the number of cores) the time per invocation stays the same as the thread count goes up.
+ */
+public class ConcurrentXFormParserBenchmark {
+    public static void main(String[] args) {
+        dryRun(ConcurrentXFormParserBenchmark.class);
+    }
+
+    @State(Scope.Benchmark)
+    public static class ConcurrentXFormParserBenchmarkState {
+        @Param({"1", "2", "4", "8"})
+        int threadCount = 2;
+
+        Path xFormFilePath;
+        ExecutorService executor;
+
+        @Setup(Level.Trial)
+        public void initialize() {
+            xFormFilePath = getNigeriaWardsXMLWithInternal2ndryInstance();
+            executor = Executors.newFixedThreadPool(threadCount, runnable -> {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        @TearDown(Level.Trial)
+        public void shutdown() {
+            executor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public void
+    benchmarkParseFormOnEachThread(ConcurrentXFormParserBenchmarkState state, Blackhole bh) throws Exception {
+        List<Future<FormDef>> parses = new ArrayList<>(state.threadCount);
+        for (int i = 0; i < state.threadCount; i++) {
+            parses.add(state.executor.submit(() -> FormParserHelper.parse(state.xFormFilePath.toFile())));
+        }
+
+        for (Future<FormDef> parse : parses) {
+            bh.consume(parse.get());
+        }
+    }
+}
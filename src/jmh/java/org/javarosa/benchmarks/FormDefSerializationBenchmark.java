@@ -0,0 +1,110 @@
+package org.javarosa.benchmarks;
+
+import org.javarosa.core.model.CoreModelModule;
+import org.javarosa.core.model.FormDef;
+import org.javarosa.core.services.PrototypeManager;
+import org.javarosa.core.util.JavaRosaCoreModule;
+import org.javarosa.core.util.externalizable.CompactDataInputStream;
+import org.javarosa.core.util.externalizable.CompactDataOutputStream;
+import org.javarosa.core.util.externalizable.DeserializationException;
+import org.javarosa.core.util.externalizable.ExtUtil;
+import org.javarosa.model.xform.XFormsModule;
+import org.javarosa.xform.parse.FormParserHelper;
+import org.javarosa.xform.parse.XFormParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.javarosa.benchmarks.BenchmarkUtils.dryRun;
+
+/**
+ * Serializes and deserializes a FormDef in memory to measure the cost of the externalization framework (class
+ * tags, prototype lookups and instantiation) without the file system getting in the way, in both the plain and the
+ * compact format.
+ */
+public class FormDefSerializationBenchmark {
+    public static void main(String[] args) {
+        dryRun(FormDefSerializationBenchmark.class);
+    }
+
+    @State(Scope.Thread)
+    public static class FormDefSerializationState {
+        FormDef formDef;
+        byte[] serializedFormDef;
+        byte[] compactSerializedFormDef;
+
+        @Setup(Level.Trial)
+        public void
+        initialize() throws IOException, XFormParser.ParseException {
+            formDef = FormParserHelper.parse(BenchmarkUtils.getNigeriaWardsXMLWithInternal2ndryInstance().toFile());
+            PrototypeManager.registerPrototypes(JavaRosaCoreModule.classNames);
+            PrototypeManager.registerPrototypes(CoreModelModule.classNames);
+            new XFormsModule().registerModule();
+            serializedFormDef = serialize(formDef);
+            compactSerializedFormDef = serializeCompact(formDef);
+        }
+    }
+
+    @Benchmark
+    public void
+    benchmarkFormDefWrite(FormDefSerializationState state, Blackhole bh) throws IOException {
+        bh.consume(serialize(state.formDef));
+    }
+
+    @Benchmark
+    public void
+    benchmarkFormDefRead(FormDefSerializationState state, Blackhole bh) throws IOException, DeserializationException {
+        bh.consume(deserialize(state.serializedFormDef));
+    }
+
+    @Benchmark
+    public void
+    benchmarkFormDefRoundTrip(FormDefSerializationState state, Blackhole bh) throws IOException, DeserializationException {
+        bh.consume(deserialize(serialize(state.formDef)));
+    }
+
+    @Benchmark
+    public void
+    benchmarkFormDefCompactWrite(FormDefSerializationState state, Blackhole bh) throws IOException {
+        bh.consume(serializeCompact(state.formDef));
+    }
+
+    @Benchmark
+    public void
+    benchmarkFormDefCompactRead(FormDefSerializationState state, Blackhole bh) throws IOException, DeserializationException {
+        bh.consume(deserializeCompact(state.compactSerializedFormDef));
+    }
+
+    private static byte[] serialize(FormDef formDef) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        formDef.writeExternal(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static byte[] serializeCompact(FormDef formDef) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        formDef.writeExternal(new CompactDataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static FormDef deserializeCompact(byte[] serializedFormDef) throws IOException, DeserializationException {
+        FormDef formDef = new FormDef();
+        formDef.readExternal(new CompactDataInputStream(new ByteArrayInputStream(serializedFormDef)), ExtUtil.defaultPrototypes());
+        return formDef;
+    }
+
+    private static FormDef deserialize(byte[] serializedFormDef) throws IOException, DeserializationException {
+        FormDef formDef = new FormDef();
+        formDef.readExternal(new DataInputStream(new ByteArrayInputStream(serializedFormDef)), ExtUtil.defaultPrototypes());
+        return formDef;
+    }
+}
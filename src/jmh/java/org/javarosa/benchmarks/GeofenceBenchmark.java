@@ -0,0 +1,141 @@
+package org.javarosa.benchmarks;
+
+import org.javarosa.test.Scenario;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.javarosa.benchmarks.BenchmarkUtils.dryRun;
+import static org.javarosa.benchmarks.BenchmarkUtils.getCachePath;
+import static org.javarosa.core.reference.ReferenceManagerTestUtils.setUpSimpleReferenceManager;
+import static org.javarosa.test.BindBuilderXFormsElement.bind;
+import static org.javarosa.test.XFormsElement.body;
+import static org.javarosa.test.XFormsElement.head;
+import static org.javarosa.test.XFormsElement.html;
+import static org.javarosa.test.XFormsElement.input;
+import static org.javarosa.test.XFormsElement.mainInstance;
+import static org.javarosa.test.XFormsElement.model;
+import static org.javarosa.test.XFormsElement.t;
+import static org.javarosa.test.XFormsElement.title;
+
+/**
+ * Looks up which of a large synthetic GeoJSON FeatureCollection's polygons contain a point ("which district am I in")
+ * using a {@code geofence()} predicate that can be answered from a spatial index and an equivalent one that has to
+ * evaluate every feature.
+ */
+public class GeofenceBenchmark {
+    public static void main(String[] args) {
+        dryRun(GeofenceBenchmark.class);
+    }
+
+    @State(Scope.Thread)
+    public static class GeofenceState {
+        @Param({"1000", "10000"})
+        int featureCount;
+
+        Scenario indexedScenario;
+        Scenario unindexedScenario;
+        String[] locations;
+        int next;
+
+        @Setup(Level.Trial)
+        public void initialize() throws Exception {
+            Path directory = getCachePath();
+            writeFeatureCollection(directory.resolve("districts.geojson"), featureCount);
+            setUpSimpleReferenceManager(directory.toFile(), "file");
+
+            indexedScenario = initScenario("geofence(/data/location, geometry)");
+            // Comparing to true() hides the geofence() call from the index
+            unindexedScenario = initScenario("geofence(/data/location, geometry) = true()");
+
+            Random random = new Random(0);
+            locations = new String[100];
+            for (int i = 0; i < locations.length; i++) {
+                locations[i] = random.nextDouble() * 10 + " " + random.nextDouble() * 10 + " 0 0";
+            }
+        }
+
+        String nextLocation() {
+            next = (next + 1) % locations.length;
+            return locations[next];
+        }
+    }
+
+    @Benchmark
+    public void benchmarkIndexedGeofence(GeofenceState state, Blackhole bh) {
+        state.indexedScenario.answer("/data/location", state.nextLocation());
+        bh.consume(state.indexedScenario.answerOf("/data/district"));
+    }
+
+    @Benchmark
+    public void benchmarkUnindexedGeofence(GeofenceState state, Blackhole bh) {
+        state.unindexedScenario.answer("/data/location", state.nextLocation());
+        bh.consume(state.unindexedScenario.answerOf("/data/district"));
+    }
+
+    private static Scenario initScenario(String predicate) throws Exception {
+        return Scenario.init("Geofence", html(
+            head(
+                title("Geofence"),
+                model(
+                    mainInstance(t("data id=\"geofence\"",
+                        t("location"),
+                        t("district")
+                    )),
+                    t("instance id=\"districts\" src=\"jr://file/districts.geojson\""),
+                    bind("/data/location").type("geopoint"),
+                    bind("/data/district").type("string")
+                        .calculate("instance('districts')/root/item[" + predicate + "]/name")
+                )
+            ),
+            body(
+                input("/data/location")
+            )
+        ));
+    }
+
+    /**
+     * Writes a FeatureCollection of square polygons tiling the area between 0 and 10 degrees of latitude and longitude
+     * with each square described by many coordinates like real district boundaries are.
+     */
+    private static void writeFeatureCollection(Path path, int featureCount) throws IOException {
+        int side = (int) Math.ceil(Math.sqrt(featureCount));
+        double size = 10.0 / side;
+        int pointsPerEdge = 10;
+
+        StringBuilder geoJson = new StringBuilder("{\"type\":\"FeatureCollection\",\"features\":[");
+        for (int i = 0; i < featureCount; i++) {
+            double minLatitude = (i / side) * size;
+            double minLongitude = (i % side) * size;
+
+            if (i > 0) {
+                geoJson.append(',');
+            }
+
+            geoJson.append("{\"type\":\"Feature\",\"geometry\":{\"type\":\"Polygon\",\"coordinates\":[[");
+            for (int edge = 0; edge < 4; edge++) {
+                for (int point = 0; point < pointsPerEdge; point++) {
+                    double offset = size * point / pointsPerEdge;
+                    double latitude = minLatitude + (edge == 0 ? 0 : edge == 1 ? offset : edge == 2 ? size : size - offset);
+                    double longitude = minLongitude + (edge == 0 ? offset : edge == 1 ? size : edge == 2 ? size - offset : 0);
+                    geoJson.append('[').append(longitude).append(',').append(latitude).append("],");
+                }
+            }
+            geoJson.append('[').append(minLongitude).append(',').append(minLatitude).append("]]]}");
+            geoJson.append(",\"properties\":{\"name\":\"district-").append(i).append("\"}}");
+        }
+        geoJson.append("]}");
+
+        Files.write(path, geoJson.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
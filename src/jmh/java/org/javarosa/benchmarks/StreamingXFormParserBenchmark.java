@@ -0,0 +1,50 @@
+package org.javarosa.benchmarks;
+
+import static org.javarosa.benchmarks.BenchmarkUtils.dryRun;
+import static org.javarosa.benchmarks.BenchmarkUtils.getNigeriaWardsXMLWithInternal2ndryInstance;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Path;
+import org.javarosa.xform.parse.XFormParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares parsing a form with large internal secondary instances through the DOM with streaming the instances
+ * (see {@link XFormParser#setStreamSecondaryInstances(boolean)}). Run with {@code -prof gc} to compare the memory
+ * allocated per parse ({@code gc.alloc.rate.norm}) as well as the time.
+ */
+public class StreamingXFormParserBenchmark {
+    public static void main(String[] args) {
+        dryRun(StreamingXFormParserBenchmark.class);
+    }
+
+    @State(Scope.Thread)
+    public static class StreamingXFormParserBenchmarkState {
+        @Param({"false", "true"})
+        boolean streamSecondaryInstances;
+
+        Path xFormFilePath;
+
+        @Setup(Level.Trial)
+        public void initialize() {
+            xFormFilePath = getNigeriaWardsXMLWithInternal2ndryInstance();
+        }
+    }
+
+    @Benchmark
+    public void
+    benchmarkParseInternalSecondaryInstanceForm(StreamingXFormParserBenchmarkState state, Blackhole bh) throws IOException, XFormParser.ParseException {
+        try (FileReader reader = new FileReader(state.xFormFilePath.toFile())) {
+            XFormParser parser = new XFormParser(reader);
+            parser.setStreamSecondaryInstances(state.streamSecondaryInstances);
+            bh.consume(parser.parse());
+        }
+    }
+}
@@ -22,14 +22,18 @@ import static org.javarosa.benchmarks.BenchmarkUtils.prepareAssets;
 import static org.javarosa.test.Scenario.init;
 
 import java.time.LocalDate;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.IntStream;
 import org.javarosa.test.Scenario;
 import org.javarosa.xform.parse.XFormParser;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.infra.Blackhole;
 
 public class WhoVaBenchmark {
@@ -48,6 +52,39 @@ public class WhoVaBenchmark {
         }
     }
 
+    @State(Scope.Thread)
+    public static class WhoVaInitializationState {
+        @Param({"false", "true"})
+        boolean parallelInitialization;
+
+        Scenario scenario;
+        ExecutorService executor;
+
+        @Setup(Level.Trial)
+        public void initialize() throws XFormParser.ParseException {
+            scenario = init(prepareAssets("whova_form.xml").resolve("whova_form.xml").toFile());
+
+            if (parallelInitialization) {
+                executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+                scenario.getFormDef().enableParallelInitialization(executor);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Benchmark
+    // Measures evaluating every triggerable in the form when a new instance is loaded
+    public void initialize(WhoVaInitializationState state, Blackhole bh) {
+        state.scenario.newInstance();
+        bh.consume(state.scenario.getFormDef().getMainInstance());
+    }
+
     @Benchmark
     public void run_1_times(WhoVaState state, Blackhole bh) {
         doRuns(state, bh, 1);
@@ -48,11 +48,15 @@ public class CompareToNodeExpression {
     }
 
     public Object evalContextSide(DataInstance sourceInstance, EvaluationContext evaluationContext) {
+        Object value;
         if (contextSide instanceof XPathPathExpr) {
-            return ((XPathPathExpr) getContextSide()).eval(sourceInstance, evaluationContext).unpack();
+            value = ((XPathPathExpr) getContextSide()).eval(sourceInstance, evaluationContext).unpack();
         } else {
-            return contextSide.eval(sourceInstance, evaluationContext);
+            value = contextSide.eval(sourceInstance, evaluationContext);
         }
+
+        evaluationContext.setPredicateContextValue(original, value);
+        return value;
     }
 
     public XPathPathExpr getNodeSide() {
@@ -4,24 +4,33 @@ import org.javarosa.core.model.condition.EvaluationContext;
 import org.javarosa.core.model.condition.FilterStrategy;
 import org.javarosa.core.model.instance.DataInstance;
 import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.core.util.BoundedCache;
+import org.javarosa.core.util.BoundedCache.CacheStats;
 import org.javarosa.xpath.expr.XPathBoolExpr;
 import org.javarosa.xpath.expr.XPathCmpExpr;
 import org.javarosa.xpath.expr.XPathEqExpr;
 import org.javarosa.xpath.expr.XPathExpression;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.function.Supplier;
 
 /**
  * Caches down stream evaluations (in the {@link FilterStrategy} chain) for supported expressions - currently just
- * {@link XPathCmpExpr} and {@link XPathEqExpr}. Repeated evaluations are fetched in O(1) time.
+ * {@link XPathCmpExpr} and {@link XPathEqExpr}. Repeated evaluations are fetched in O(1) time from a
+ * {@link BoundedCache}.
  */
 public class ComparisonExpressionCacheFilterStrategy implements FilterStrategy {
 
-    private final Map<String, List<TreeReference>> cachedEvaluations = new HashMap<>();
+    private final BoundedCache<FilterCacheKey, List<TreeReference>> cachedEvaluations;
+
+    public ComparisonExpressionCacheFilterStrategy() {
+        this(FormDef.DEFAULT_PREDICATE_CACHE_MAXIMUM_WEIGHT);
+    }
+
+    public ComparisonExpressionCacheFilterStrategy(long maximumWeight) {
+        cachedEvaluations = new BoundedCache<>(maximumWeight, filtered -> filtered.size() + 1);
+    }
 
     @NotNull
     @Override
@@ -32,7 +41,7 @@ public class ComparisonExpressionCacheFilterStrategy implements FilterStrategy {
 
         CompareToNodeExpression candidate = CompareToNodeExpression.parse(predicate);
         if (candidate != null) {
-            String key = getExpressionKey(sourceInstance, nodeSet, predicate, evaluationContext, candidate);
+            FilterCacheKey key = getExpressionKey(sourceInstance, nodeSet, predicate, evaluationContext, candidate);
 
             return getCachedEvaluations(next, key);
         } else if (predicate instanceof XPathBoolExpr) {
@@ -43,9 +52,9 @@ public class ComparisonExpressionCacheFilterStrategy implements FilterStrategy {
             CompareToNodeExpression candidateB = CompareToNodeExpression.parse(b);
 
             if (candidateA != null && candidateB != null) {
-                String keyA = getExpressionKey(sourceInstance, nodeSet, a, evaluationContext, candidateA);
-                String keyB = getExpressionKey(sourceInstance, nodeSet, b, evaluationContext, candidateB);
-                String key = "XPathBoolExpr:" + ((XPathBoolExpr) predicate).op + keyA + keyB;
+                FilterCacheKey keyA = getExpressionKey(sourceInstance, nodeSet, a, evaluationContext, candidateA);
+                FilterCacheKey keyB = getExpressionKey(sourceInstance, nodeSet, b, evaluationContext, candidateB);
+                FilterCacheKey key = new FilterCacheKey(nodeSet, XPathBoolExpr.class, ((XPathBoolExpr) predicate).op, keyA, keyB);
 
                 return getCachedEvaluations(next, key);
             } else {
@@ -56,22 +65,22 @@ public class ComparisonExpressionCacheFilterStrategy implements FilterStrategy {
         }
     }
 
-    /**
-     * Synchronized to prevent two or more threads from modifying {@link #cachedEvaluations} at once
-     */
-    private synchronized List<TreeReference> getCachedEvaluations(@NotNull Supplier<List<TreeReference>> next, String key) {
-        if (cachedEvaluations.containsKey(key)) {
-            return cachedEvaluations.get(key);
-        } else {
-            List<TreeReference> filtered = next.get();
-            cachedEvaluations.put(key, filtered);
-            return filtered;
-        }
+    private List<TreeReference> getCachedEvaluations(@NotNull Supplier<List<TreeReference>> next, FilterCacheKey key) {
+        return cachedEvaluations.get(key, k -> next.get());
+    }
+
+    public void setMaximumWeight(long maximumWeight) {
+        cachedEvaluations.setMaximumWeight(maximumWeight);
+    }
+
+    @NotNull
+    public CacheStats getCacheStats() {
+        return cachedEvaluations.getStats();
     }
 
     @NotNull
-    private static String getExpressionKey(@NotNull DataInstance sourceInstance, @NotNull TreeReference nodeSet, @NotNull XPathExpression predicate, @NotNull EvaluationContext evaluationContext, CompareToNodeExpression candidate) {
+    private static FilterCacheKey getExpressionKey(@NotNull DataInstance sourceInstance, @NotNull TreeReference nodeSet, @NotNull XPathExpression predicate, @NotNull EvaluationContext evaluationContext, CompareToNodeExpression candidate) {
         Object absoluteValue = candidate.evalContextSide(sourceInstance, evaluationContext);
-        return nodeSet.toString() + predicate + candidate.getNodeSide() + absoluteValue.toString();
+        return new FilterCacheKey(nodeSet, predicate, absoluteValue);
     }
 }
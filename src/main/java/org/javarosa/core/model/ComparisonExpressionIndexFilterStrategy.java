@@ -0,0 +1,264 @@
+package org.javarosa.core.model;
+
+import org.javarosa.core.model.condition.EvaluationContext;
+import org.javarosa.core.model.condition.FilterStrategy;
+import org.javarosa.core.model.instance.DataInstance;
+import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.core.util.BoundedCache;
+import org.javarosa.core.util.BoundedCache.CacheStats;
+import org.javarosa.measure.Measure;
+import org.javarosa.xpath.expr.XPathBinaryOpExpr;
+import org.javarosa.xpath.expr.XPathCmpExpr;
+import org.javarosa.xpath.expr.XPathExpression;
+import org.javarosa.xpath.expr.XPathFuncExpr;
+import org.javarosa.xpath.expr.XPathNumericLiteral;
+import org.javarosa.xpath.expr.XPathPathExpr;
+import org.javarosa.xpath.expr.XPathStringLiteral;
+import org.javarosa.xpath.expr.XPathUnaryOpExpr;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Uses a (lazily constructed) sorted index to evaluate a predicate for supported expressions - currently just
+ * {@link XPathCmpExpr} where one side is relative to the instance child being filtered and the other is either
+ * something {@link CompareToNodeExpression} supports or a calculation that doesn't depend on the child (like
+ * {@code today()} or {@code /data/start - 7}) which is re-evaluated for every lookup. Node side values are
+ * converted to numbers the same way {@link XPathCmpExpr#eval} does (so dates and numeric strings are supported) and
+ * evaluations are answered with a binary search range scan in O(log n + k) time. O(n) expression evaluations are only
+ * required the first time a relative side is evaluated (or after its section of the index's {@link BoundedCache} was
+ * evicted).
+ */
+public class ComparisonExpressionIndexFilterStrategy implements FilterStrategy {
+
+    private final BoundedCache<FilterCacheKey, SortedTreeReferenceIndex> index;
+
+    public ComparisonExpressionIndexFilterStrategy() {
+        this(FormDef.DEFAULT_PREDICATE_CACHE_MAXIMUM_WEIGHT);
+    }
+
+    public ComparisonExpressionIndexFilterStrategy(long maximumWeight) {
+        index = new BoundedCache<>(maximumWeight, sectionIndex -> sectionIndex.children.size() + 1);
+    }
+
+    @NotNull
+    @Override
+    public List<TreeReference> filter(@NotNull DataInstance sourceInstance, @NotNull TreeReference nodeSet, @NotNull XPathExpression predicate, @NotNull List<TreeReference> children, @NotNull EvaluationContext evaluationContext, @NotNull Supplier<List<TreeReference>> next) {
+        if (sourceInstance.getInstanceId() == null || !(predicate instanceof XPathCmpExpr)) {
+            return next.get();
+        }
+
+        CompareToNodeExpression candidate = parse((XPathCmpExpr) predicate);
+        if (candidate != null) {
+            XPathCmpExpr original = (XPathCmpExpr) candidate.getOriginal();
+            int op = original.a == candidate.getNodeSide() ? original.op : flip(original.op);
+
+            FilterCacheKey section = new FilterCacheKey(nodeSet, candidate.getNodeSide());
+            SortedTreeReferenceIndex sectionIndex = index.get(section, key -> buildIndex(sourceInstance, candidate, children, evaluationContext));
+
+            Object absoluteValue = candidate.evalContextSide(sourceInstance, evaluationContext);
+            return sectionIndex.lookup(op, XPathFuncExpr.toNumeric(absoluteValue));
+        } else {
+            return next.get();
+        }
+    }
+
+    public void setMaximumWeight(long maximumWeight) {
+        index.setMaximumWeight(maximumWeight);
+    }
+
+    @NotNull
+    public CacheStats getCacheStats() {
+        return index.getStats();
+    }
+
+    @Nullable
+    private static CompareToNodeExpression parse(XPathCmpExpr predicate) {
+        CompareToNodeExpression candidate = CompareToNodeExpression.parse(predicate);
+        if (candidate != null) {
+            return candidate;
+        } else if (isRelativePath(predicate.a) && isChildIndependent(predicate.b)) {
+            return new CompareToNodeExpression((XPathPathExpr) predicate.a, predicate.b, predicate);
+        } else if (isRelativePath(predicate.b) && isChildIndependent(predicate.a)) {
+            return new CompareToNodeExpression((XPathPathExpr) predicate.b, predicate.a, predicate);
+        } else {
+            return null;
+        }
+    }
+
+    private static boolean isRelativePath(XPathExpression expression) {
+        return expression instanceof XPathPathExpr && ((XPathPathExpr) expression).init_context == XPathPathExpr.INIT_CONTEXT_RELATIVE;
+    }
+
+    /**
+     * Whether the expression evaluates the same for every child so that it only needs to be evaluated once per
+     * lookup. Functions that depend on the child's position or are random are excluded.
+     */
+    private static boolean isChildIndependent(XPathExpression expression) {
+        if (expression instanceof XPathPathExpr) {
+            return ((XPathPathExpr) expression).init_context != XPathPathExpr.INIT_CONTEXT_RELATIVE;
+        } else if (expression instanceof XPathNumericLiteral || expression instanceof XPathStringLiteral) {
+            return true;
+        } else if (expression instanceof XPathFuncExpr) {
+            XPathFuncExpr funcExpr = (XPathFuncExpr) expression;
+            return !Arrays.asList(CHILD_DEPENDENT_FUNCTIONS).contains(funcExpr.id.toString())
+                && Arrays.stream(funcExpr.args).allMatch(ComparisonExpressionIndexFilterStrategy::isChildIndependent);
+        } else if (expression instanceof XPathBinaryOpExpr) {
+            return isChildIndependent(((XPathBinaryOpExpr) expression).a) && isChildIndependent(((XPathBinaryOpExpr) expression).b);
+        } else if (expression instanceof XPathUnaryOpExpr) {
+            return isChildIndependent(((XPathUnaryOpExpr) expression).a);
+        } else {
+            return false;
+        }
+    }
+
+    private static final String[] CHILD_DEPENDENT_FUNCTIONS = new String[]{
+        "position",
+        "last",
+        "random",
+        "randomize",
+        "uuid"
+    };
+
+    private static SortedTreeReferenceIndex buildIndex(DataInstance sourceInstance, CompareToNodeExpression predicate, List<TreeReference> children, EvaluationContext evaluationContext) {
+        double[] values = new double[children.size()];
+        for (int i = 0; i < children.size(); i++) {
+            Measure.log("IndexEvaluation");
+            values[i] = XPathFuncExpr.toNumeric(predicate.evalNodeSide(sourceInstance, evaluationContext, children.get(i), i));
+        }
+
+        return new SortedTreeReferenceIndex(values, new ArrayList<>(children));
+    }
+
+    /**
+     * Converts "value op node" into the equivalent "node op value".
+     */
+    private static int flip(int op) {
+        switch (op) {
+            case XPathCmpExpr.LT:
+                return XPathCmpExpr.GT;
+            case XPathCmpExpr.GT:
+                return XPathCmpExpr.LT;
+            case XPathCmpExpr.LTE:
+                return XPathCmpExpr.GTE;
+            case XPathCmpExpr.GTE:
+                return XPathCmpExpr.LTE;
+            default:
+                throw new IllegalArgumentException("Unknown comparison operator " + op);
+        }
+    }
+
+    /**
+     * Immutable index of tree references sorted by a numeric key. References with a NaN key are left out as they
+     * can never pass a comparison.
+     */
+    private static class SortedTreeReferenceIndex {
+
+        private final double[] keys;
+        private final int[] positions;
+        private final List<TreeReference> children;
+
+        SortedTreeReferenceIndex(double[] values, List<TreeReference> children) {
+            this.children = children;
+
+            Integer[] order = new Integer[values.length];
+            int count = 0;
+            for (int i = 0; i < values.length; i++) {
+                if (!Double.isNaN(values[i])) {
+                    order[count++] = i;
+                }
+            }
+
+            Arrays.sort(order, 0, count, (i1, i2) -> Double.compare(values[i1], values[i2]));
+
+            keys = new double[count];
+            positions = new int[count];
+            for (int i = 0; i < count; i++) {
+                positions[i] = order[i];
+                keys[i] = values[order[i]];
+            }
+        }
+
+        /**
+         * Returns the references whose key satisfies "key op value" in document order.
+         */
+        List<TreeReference> lookup(int op, double value) {
+            if (Double.isNaN(value)) {
+                return emptyList();
+            }
+
+            int from;
+            int to;
+            switch (op) {
+                case XPathCmpExpr.LT:
+                    from = 0;
+                    to = firstNotLessThan(value);
+                    break;
+                case XPathCmpExpr.LTE:
+                    from = 0;
+                    to = firstGreaterThan(value);
+                    break;
+                case XPathCmpExpr.GT:
+                    from = firstGreaterThan(value);
+                    to = keys.length;
+                    break;
+                case XPathCmpExpr.GTE:
+                    from = firstNotLessThan(value);
+                    to = keys.length;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown comparison operator " + op);
+            }
+
+            if (from >= to) {
+                return emptyList();
+            }
+
+            int[] matches = Arrays.copyOfRange(positions, from, to);
+            Arrays.sort(matches);
+
+            List<TreeReference> result = new ArrayList<>(matches.length);
+            for (int position : matches) {
+                result.add(children.get(position));
+            }
+
+            return result;
+        }
+
+        private int firstNotLessThan(double value) {
+            int low = 0;
+            int high = keys.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            return low;
+        }
+
+        private int firstGreaterThan(double value) {
+            int low = 0;
+            int high = keys.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] <= value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            return low;
+        }
+    }
+}
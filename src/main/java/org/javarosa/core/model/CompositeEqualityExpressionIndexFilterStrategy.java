@@ -0,0 +1,159 @@
+package org.javarosa.core.model;
+
+import org.javarosa.core.model.condition.EvaluationContext;
+import org.javarosa.core.model.condition.FilterStrategy;
+import org.javarosa.core.model.instance.DataInstance;
+import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.core.util.BoundedCache;
+import org.javarosa.core.util.BoundedCache.CacheStats;
+import org.javarosa.measure.Measure;
+import org.javarosa.xpath.expr.XPathBoolExpr;
+import org.javarosa.xpath.expr.XPathEqExpr;
+import org.javarosa.xpath.expr.XPathExpression;
+import org.javarosa.xpath.expr.XPathPathExpr;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * Uses a (lazily constructed) composite index to evaluate a predicate for supported expressions - currently
+ * {@link XPathBoolExpr} "and" trees where every operand is an {@link XPathEqExpr} with one side relative to the
+ * instance child being filtered (like {@code state = /data/state and lga = /data/lga}). The index is keyed by the
+ * tuple of relative side values so evaluations are fetched in O(1) time no matter how many conditions are chained.
+ * O(n) expression evaluations are only required the first time a combination of relative sides is evaluated (or
+ * after its section of the index's {@link BoundedCache} was evicted).
+ */
+public class CompositeEqualityExpressionIndexFilterStrategy implements FilterStrategy {
+
+    private final BoundedCache<FilterCacheKey, Map<List<String>, List<TreeReference>>> index;
+
+    public CompositeEqualityExpressionIndexFilterStrategy() {
+        this(FormDef.DEFAULT_PREDICATE_CACHE_MAXIMUM_WEIGHT);
+    }
+
+    public CompositeEqualityExpressionIndexFilterStrategy(long maximumWeight) {
+        index = new BoundedCache<>(maximumWeight, CompositeEqualityExpressionIndexFilterStrategy::weigh);
+    }
+
+    @NotNull
+    @Override
+    public List<TreeReference> filter(@NotNull DataInstance sourceInstance, @NotNull TreeReference nodeSet, @NotNull XPathExpression predicate, @NotNull List<TreeReference> children, @NotNull EvaluationContext evaluationContext, @NotNull Supplier<List<TreeReference>> next) {
+        if (sourceInstance.getInstanceId() == null || !(predicate instanceof XPathBoolExpr)) {
+            return next.get();
+        }
+
+        List<CompareToNodeExpression> candidates = parseAndedEqualities(predicate);
+        if (candidates != null) {
+            // Operands comparing the same node side share a column so that it is only evaluated once per child
+            List<XPathPathExpr> nodeSides = new ArrayList<>();
+            int[] columns = new int[candidates.size()];
+            for (int i = 0; i < candidates.size(); i++) {
+                XPathPathExpr nodeSide = candidates.get(i).getNodeSide();
+                int column = nodeSides.indexOf(nodeSide);
+                if (column == -1) {
+                    column = nodeSides.size();
+                    nodeSides.add(nodeSide);
+                }
+
+                columns[i] = column;
+            }
+
+            FilterCacheKey section = new FilterCacheKey(nodeSet, nodeSides.toArray());
+            Map<List<String>, List<TreeReference>> sectionIndex = index.get(section, key -> buildIndex(sourceInstance, nodeSides, children, evaluationContext));
+
+            String[] key = new String[nodeSides.size()];
+            for (int i = 0; i < candidates.size(); i++) {
+                Object absoluteValue = candidates.get(i).evalContextSide(sourceInstance, evaluationContext);
+                if (!(absoluteValue instanceof String)) {
+                    return next.get();
+                }
+
+                if (key[columns[i]] == null) {
+                    key[columns[i]] = (String) absoluteValue;
+                } else if (!key[columns[i]].equals(absoluteValue)) {
+                    return emptyList();
+                }
+            }
+
+            List<TreeReference> filtered = sectionIndex.get(Arrays.asList(key));
+            return filtered != null ? filtered : emptyList();
+        } else {
+            return next.get();
+        }
+    }
+
+    public void setMaximumWeight(long maximumWeight) {
+        index.setMaximumWeight(maximumWeight);
+    }
+
+    @NotNull
+    public CacheStats getCacheStats() {
+        return index.getStats();
+    }
+
+    private static Map<List<String>, List<TreeReference>> buildIndex(DataInstance sourceInstance, List<XPathPathExpr> nodeSides, List<TreeReference> children, EvaluationContext evaluationContext) {
+        Map<List<String>, List<TreeReference>> sectionIndex = new HashMap<>();
+
+        for (int i = 0; i < children.size(); i++) {
+            TreeReference child = children.get(i);
+            EvaluationContext rescopedContext = evaluationContext.rescope(child, i);
+
+            String[] key = new String[nodeSides.size()];
+            for (int j = 0; j < nodeSides.size(); j++) {
+                Measure.log("IndexEvaluation");
+                key[j] = nodeSides.get(j).eval(sourceInstance, rescopedContext).unpack().toString();
+            }
+
+            sectionIndex.computeIfAbsent(Arrays.asList(key), k -> new ArrayList<>()).add(child);
+        }
+
+        return sectionIndex;
+    }
+
+    private static int weigh(Map<List<String>, List<TreeReference>> sectionIndex) {
+        int weight = 1;
+        for (List<TreeReference> references : sectionIndex.values()) {
+            weight += references.size();
+        }
+
+        return weight;
+    }
+
+    /**
+     * Flattens a tree of "and" expressions into its operands if they are all equality comparisons to a node.
+     *
+     * @return the operands in order or null if the expression isn't supported
+     */
+    @Nullable
+    private static List<CompareToNodeExpression> parseAndedEqualities(XPathExpression expression) {
+        List<CompareToNodeExpression> candidates = new ArrayList<>();
+        return collectAndedEqualities(expression, candidates) ? candidates : null;
+    }
+
+    private static boolean collectAndedEqualities(XPathExpression expression, List<CompareToNodeExpression> candidates) {
+        if (expression instanceof XPathBoolExpr) {
+            XPathBoolExpr boolExpr = (XPathBoolExpr) expression;
+            return boolExpr.op == XPathBoolExpr.AND
+                && collectAndedEqualities(boolExpr.a, candidates)
+                && collectAndedEqualities(boolExpr.b, candidates);
+        } else if (expression instanceof XPathEqExpr && ((XPathEqExpr) expression).isEqual()) {
+            CompareToNodeExpression candidate = CompareToNodeExpression.parse(expression);
+            if (candidate != null) {
+                candidates.add(candidate);
+                return true;
+            } else {
+                return false;
+            }
+        } else {
+            return false;
+        }
+    }
+}
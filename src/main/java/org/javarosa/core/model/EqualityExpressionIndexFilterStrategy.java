@@ -4,6 +4,8 @@ import org.javarosa.core.model.condition.EvaluationContext;
 import org.javarosa.core.model.condition.FilterStrategy;
 import org.javarosa.core.model.instance.DataInstance;
 import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.core.util.BoundedCache;
+import org.javarosa.core.util.BoundedCache.CacheStats;
 import org.javarosa.measure.Measure;
 import org.javarosa.xpath.expr.XPathEqExpr;
 import org.javarosa.xpath.expr.XPathExpression;
@@ -20,11 +22,20 @@ import static java.util.Collections.emptyList;
 /**
  * Uses a (lazily constructed) index to evaluate a predicate for supported expressions - currently just
  * {@link XPathEqExpr} where one side is relative to the instance child being filtered. Evaluations are fetched in
- * O(1) time with O(n) expression evaluations only being required the first time a relative side is evaluated.
+ * O(1) time with O(n) expression evaluations only being required the first time a relative side is evaluated (or
+ * after its section of the index's {@link BoundedCache} was evicted).
  */
 public class EqualityExpressionIndexFilterStrategy implements FilterStrategy {
 
-    private final InMemTreeReferenceIndex index = new InMemTreeReferenceIndex();
+    private final BoundedCache<FilterCacheKey, Map<String, List<TreeReference>>> index;
+
+    public EqualityExpressionIndexFilterStrategy() {
+        this(FormDef.DEFAULT_PREDICATE_CACHE_MAXIMUM_WEIGHT);
+    }
+
+    public EqualityExpressionIndexFilterStrategy(long maximumWeight) {
+        index = new BoundedCache<>(maximumWeight, EqualityExpressionIndexFilterStrategy::weigh);
+    }
 
     @NotNull
     @Override
@@ -37,13 +48,14 @@ public class EqualityExpressionIndexFilterStrategy implements FilterStrategy {
         if (candidate != null) {
             XPathEqExpr original = (XPathEqExpr) candidate.getOriginal();
             if (original.isEqual()) {
-                String section = nodeSet + candidate.getNodeSide().toString();
-                buildIndexIfNeeded(sourceInstance, candidate, children, evaluationContext, section);
+                FilterCacheKey section = new FilterCacheKey(nodeSet, candidate.getNodeSide());
+                Map<String, List<TreeReference>> sectionIndex = index.get(section, key -> buildIndex(sourceInstance, candidate, children, evaluationContext));
 
                 Object absoluteValue = candidate.evalContextSide(sourceInstance, evaluationContext);
 
                 if (absoluteValue instanceof String) {
-                    return index.lookup(section, (String) absoluteValue);
+                    List<TreeReference> filtered = sectionIndex.get(absoluteValue);
+                    return filtered != null ? filtered : emptyList();
                 } else {
                     return next.get();
                 }
@@ -55,51 +67,35 @@ public class EqualityExpressionIndexFilterStrategy implements FilterStrategy {
         }
     }
 
-    /**
-     * Synchronized to prevent two or more threads from modifying the index at once
-     */
-    private synchronized void buildIndexIfNeeded(DataInstance sourceInstance, CompareToNodeExpression predicate, List<TreeReference> children, EvaluationContext evaluationContext, String section) {
-        if (!index.contains(section)) {
-            for (int i = 0; i < children.size(); i++) {
-                TreeReference child = children.get(i);
-
-                Measure.log("IndexEvaluation");
-                String relativeValue = predicate.evalNodeSide(sourceInstance, evaluationContext, child, i).toString();
-                index.add(section, relativeValue, child);
-            }
-        }
+    public void setMaximumWeight(long maximumWeight) {
+        index.setMaximumWeight(maximumWeight);
+    }
+
+    @NotNull
+    public CacheStats getCacheStats() {
+        return index.getStats();
     }
 
-    /**
-     * Non thread safe index for tree references based on nested string keys (a "section" and an "item").
-     */
-    private static class InMemTreeReferenceIndex {
+    private static Map<String, List<TreeReference>> buildIndex(DataInstance sourceInstance, CompareToNodeExpression predicate, List<TreeReference> children, EvaluationContext evaluationContext) {
+        Map<String, List<TreeReference>> sectionIndex = new HashMap<>();
 
-        private final Map<String, Map<String, List<TreeReference>>> map = new HashMap<>();
+        for (int i = 0; i < children.size(); i++) {
+            TreeReference child = children.get(i);
 
-        public boolean contains(String section) {
-            return map.containsKey(section);
+            Measure.log("IndexEvaluation");
+            String relativeValue = predicate.evalNodeSide(sourceInstance, evaluationContext, child, i).toString();
+            sectionIndex.computeIfAbsent(relativeValue, key -> new ArrayList<>()).add(child);
         }
 
-        public void add(String section, String item, TreeReference reference) {
-            if (!map.containsKey(section)) {
-                map.put(section, new HashMap<>());
-            }
-
-            Map<String, List<TreeReference>> sectionMap = map.get(section);
-            if (!sectionMap.containsKey(item)) {
-                sectionMap.put(item, new ArrayList<>());
-            }
+        return sectionIndex;
+    }
 
-            sectionMap.get(item).add(reference);
+    private static int weigh(Map<String, List<TreeReference>> sectionIndex) {
+        int weight = 1;
+        for (List<TreeReference> references : sectionIndex.values()) {
+            weight += references.size();
         }
 
-        public List<TreeReference> lookup(String section, String item) {
-            if (map.containsKey(section) && map.get(section).containsKey(item)) {
-                return map.get(section).get(item);
-            } else {
-                return emptyList();
-            }
-        }
+        return weight;
     }
 }
@@ -0,0 +1,43 @@
+package org.javarosa.core.model;
+
+import org.javarosa.core.model.instance.TreeReference;
+
+import java.util.Arrays;
+
+/**
+ * A key for the caches of the {@link org.javarosa.core.model.condition.FilterStrategy} implementations in this
+ * package: the (frozen) reference of the nodeset being filtered and the parts of the predicate that determine which
+ * nodes pass, like expressions and the values they evaluate to. Parts are compared structurally so, unlike the
+ * strings that used to be built for this, building a key doesn't serialize the nodeset or any expression.
+ */
+final class FilterCacheKey {
+
+    private final TreeReference nodeSet;
+    private final Object[] parts;
+    private final int hashCode;
+
+    FilterCacheKey(TreeReference nodeSet, Object... parts) {
+        this.nodeSet = nodeSet.freeze();
+        this.parts = parts;
+        this.hashCode = 31 * this.nodeSet.hashCode() + Arrays.hashCode(parts);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (!(o instanceof FilterCacheKey)) {
+            return false;
+        }
+
+        FilterCacheKey other = (FilterCacheKey) o;
+        return hashCode == other.hashCode && nodeSet.equals(other.nodeSet) && Arrays.equals(parts, other.parts);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+}
@@ -43,6 +43,8 @@ import org.javarosa.core.services.locale.Localizable;
 import org.javarosa.core.services.locale.Localizer;
 import org.javarosa.core.services.storage.IMetaData;
 import org.javarosa.core.services.storage.Persistable;
+import org.javarosa.core.util.BoundedCache;
+import org.javarosa.core.util.BoundedCache.CacheStats;
 import org.javarosa.core.util.Extras;
 import org.javarosa.core.util.externalizable.DeserializationException;
 import org.javarosa.core.util.externalizable.ExtUtil;
@@ -75,12 +77,15 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Optional;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -99,6 +104,17 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
     public static final String STORAGE_KEY = "FORMDEF";
     public static final int TEMPLATING_RECURSION_LIMIT = 10;
 
+    /**
+     * The maximum number of compiled templates kept by {@link #fillTemplateString}
+     */
+    private static final long MAXIMUM_OUTPUT_TEMPLATES = 10_000;
+
+    /**
+     * The default maximum number of tree references each of the built in predicate caches and indexes will hold on to
+     * before evicting least recently used entries.
+     */
+    public static final long DEFAULT_PREDICATE_CACHE_MAXIMUM_WEIGHT = 1_000_000;
+
     private static EventNotifier defaultEventNotifier = new EventNotifierSilent();
     private ExternalizableExtras extras = new ExternalizableExtras();
 
@@ -163,9 +179,19 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
 
     private TriggerableDag dagImpl;
 
-    private final FilterStrategy comparisonExpressionCacheFilterStrategy = new ComparisonExpressionCacheFilterStrategy();
-    private final FilterStrategy equalityExpressionIndexFilterStrategy = new EqualityExpressionIndexFilterStrategy();
+    private final PartialElementLookupFilterStrategy partialElementLookupFilterStrategy = new PartialElementLookupFilterStrategy();
+    private final ComparisonExpressionCacheFilterStrategy comparisonExpressionCacheFilterStrategy = new ComparisonExpressionCacheFilterStrategy();
+    private final EqualityExpressionIndexFilterStrategy equalityExpressionIndexFilterStrategy = new EqualityExpressionIndexFilterStrategy();
+    private final CompositeEqualityExpressionIndexFilterStrategy compositeEqualityExpressionIndexFilterStrategy = new CompositeEqualityExpressionIndexFilterStrategy();
+    private final ComparisonExpressionIndexFilterStrategy comparisonExpressionIndexFilterStrategy = new ComparisonExpressionIndexFilterStrategy();
+    private final GeofenceIndexFilterStrategy geofenceIndexFilterStrategy = new GeofenceIndexFilterStrategy();
     private final Queue<FilterStrategy> customFilterStrategies = new LinkedList<>();
+    private final ItemsetChoiceCache itemsetChoiceCache = new ItemsetChoiceCache();
+    private final OutputValueCache outputValueCache = new OutputValueCache();
+    /**
+     * Templates passed to {@link #fillTemplateString} compiled by their text (empty for those that can't be compiled)
+     */
+    private final BoundedCache<String, Optional<OutputTemplate>> outputTemplates = new BoundedCache<>(MAXIMUM_OUTPUT_TEMPLATES, template -> 1);
     private final List<IFunctionHandler> customFunctionHandlers = new ArrayList<>();
 
     private QuestionPreloader preloader = new QuestionPreloader();
@@ -266,6 +292,8 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
 
     public void setInstance(FormInstance fi) {
         resetEvaluationContext();
+        itemsetChoiceCache.clear();
+        outputValueCache.clear();
 
         mainInstance = fi;
         fi.setFormId(getID());
@@ -707,7 +735,17 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
      */
     private Collection<QuickTriggerable> initializeTriggerables(TreeReference rootRef) {
 
-        return dagImpl.initializeTriggerables(getMainInstance(), getEvaluationContext(), rootRef);
+        return dagImpl.initializeTriggerables(getMainInstance(), getEvaluationContext(), rootRef, !hasPartialSecondaryInstances());
+    }
+
+    private boolean hasPartialSecondaryInstances() {
+        for (DataInstance instance : getFormInstances().values()) {
+            if (instance instanceof ExternalDataInstance && ((ExternalDataInstance) instance).hasPartialElements()) {
+                return true;
+            }
+        }
+
+        return false;
     }
 
     /**
@@ -720,6 +758,30 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
         return dagImpl.triggerTriggerables(getMainInstance(), getEvaluationContext(), ref);
     }
 
+    /**
+     * Opts in to only continuing down DAG cascades from triggerables that changed the value or state of their targets.
+     * See {@link TriggerableDag#enableValueChangePropagation()}.
+     */
+    public void enableValueChangePropagation() {
+        dagImpl.enableValueChangePropagation();
+    }
+
+    /**
+     * Opts out of evaluating the sub-expressions that triggerables have in common once per cascade.
+     * See {@link TriggerableDag#disableSubexpressionSharing()}.
+     */
+    public void disableSubexpressionSharing() {
+        dagImpl.disableSubexpressionSharing();
+    }
+
+    /**
+     * Opts in to evaluating independent triggerables concurrently on the given executor when the form is initialized.
+     * See {@link TriggerableDag#enableParallelInitialization(Executor)}.
+     */
+    public void enableParallelInitialization(Executor executor) {
+        dagImpl.enableParallelInitialization(executor);
+    }
+
     public ValidateOutcome validate() {
         return validate(true);
     }
@@ -832,7 +894,14 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
 
             List<FilterStrategy> filters = Stream.concat(
                 customFilterStrategies.stream(),
-                Stream.of(equalityExpressionIndexFilterStrategy, comparisonExpressionCacheFilterStrategy)
+                Stream.of(
+                    partialElementLookupFilterStrategy,
+                    equalityExpressionIndexFilterStrategy,
+                    compositeEqualityExpressionIndexFilterStrategy,
+                    comparisonExpressionIndexFilterStrategy,
+                    geofenceIndexFilterStrategy,
+                    comparisonExpressionCacheFilterStrategy
+                )
             ).collect(Collectors.toList());
 
             evaluationContext = new EvaluationContext(evaluationContext, filters);
@@ -849,8 +918,68 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
         return fillTemplateString(template, contextRef, new HashMap<>());
     }
 
+    /**
+     * Replaces the {@code ${n}} arguments in the template with the values of the form's output fragments evaluated
+     * in the given context. Templates are compiled the first time they're filled and output values are reused from
+     * the form's {@link OutputValueCache} while the values they depend on don't change (unless there are variables).
+     */
     public String fillTemplateString(String template, TreeReference contextRef,
                                      HashMap<String, ?> variables) {
+        OutputTemplate compiled = outputTemplates.get(template, text -> Optional.ofNullable(OutputTemplate.compile(text))).orElse(null);
+
+        if (compiled == null) {
+            return fillTemplateStringByScanning(template, contextRef, variables);
+        }
+
+        int[] outputs = compiled.getOutputs();
+        String[] values = new String[outputs.length];
+        boolean cacheable = contextRef != null && (variables == null || variables.isEmpty());
+        EvaluationContext ec = null;
+
+        for (int i = 0; i < outputs.length; i++) {
+            int output = outputs[i];
+            if (output >= outputFragments.size()) {
+                return fillTemplateStringByScanning(template, contextRef, variables);
+            }
+
+            String value = null;
+            for (int j = 0; j < i && value == null; j++) {
+                if (outputs[j] == output) {
+                    value = values[j];
+                }
+            }
+
+            if (value == null && cacheable) {
+                value = outputValueCache.get(output, contextRef, getMainInstance());
+            }
+
+            if (value == null) {
+                if (ec == null) {
+                    ec = new EvaluationContext(getEvaluationContext(), contextRef);
+                    ec.setOriginalContext(contextRef);
+                    ec.setVariables(variables);
+                }
+
+                IConditionExpr expr = outputFragments.get(output);
+                value = expr.evalReadable(this.getMainInstance(), ec);
+                if (value != null && cacheable) {
+                    outputValueCache.put(output, contextRef, expr, getMainInstance(), value);
+                }
+            }
+
+            // Values that are themselves templates (or can't be rendered) need the full treatment
+            if (value == null || value.contains("${")) {
+                return fillTemplateStringByScanning(template, contextRef, variables);
+            }
+
+            values[i] = value;
+        }
+
+        return compiled.render(values);
+    }
+
+    private String fillTemplateStringByScanning(String template, TreeReference contextRef,
+                                                HashMap<String, ?> variables) {
         HashMap<String, String> args = new HashMap<>();
 
         int depth = 0;
@@ -1016,6 +1145,7 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
         finalizeTriggerables();
 
         outputFragments = (List<IConditionExpr>) ExtUtil.read(dis, new ExtWrapListPoly(), pf);
+        outputValueCache.clear();
 
         submissionProfiles = (HashMap<String, SubmissionProfile>) ExtUtil.read(dis, new ExtWrapMap(
             String.class, SubmissionProfile.class));
@@ -1320,6 +1450,7 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
 
     public void setOutputFragments(List<IConditionExpr> outputFragments) {
         this.outputFragments = outputFragments;
+        outputValueCache.clear();
     }
 
     @Override
@@ -1639,6 +1770,46 @@ public class FormDef implements IFormElement, Localizable, Persistable, IMetaDat
     }
 
 
+    /**
+     * Sets the maximum number of tree references each of the built in predicate caches and indexes will hold on to.
+     * Least recently used entries are evicted (immediately if needed) to stay under the limit.
+     */
+    public void setPredicateCacheMaximumWeight(long maximumWeight) {
+        equalityExpressionIndexFilterStrategy.setMaximumWeight(maximumWeight);
+        compositeEqualityExpressionIndexFilterStrategy.setMaximumWeight(maximumWeight);
+        comparisonExpressionIndexFilterStrategy.setMaximumWeight(maximumWeight);
+        geofenceIndexFilterStrategy.setMaximumWeight(maximumWeight);
+        comparisonExpressionCacheFilterStrategy.setMaximumWeight(maximumWeight);
+    }
+
+    /**
+     * @return hit, miss, eviction and build time counters for each of the built in predicate caches and indexes keyed
+     * by the name of the {@link FilterStrategy} using them
+     */
+    public Map<String, CacheStats> getPredicateCacheStats() {
+        Map<String, CacheStats> stats = new LinkedHashMap<>();
+        stats.put(EqualityExpressionIndexFilterStrategy.class.getSimpleName(), equalityExpressionIndexFilterStrategy.getCacheStats());
+        stats.put(CompositeEqualityExpressionIndexFilterStrategy.class.getSimpleName(), compositeEqualityExpressionIndexFilterStrategy.getCacheStats());
+        stats.put(ComparisonExpressionIndexFilterStrategy.class.getSimpleName(), comparisonExpressionIndexFilterStrategy.getCacheStats());
+        stats.put(GeofenceIndexFilterStrategy.class.getSimpleName(), geofenceIndexFilterStrategy.getCacheStats());
+        stats.put(ComparisonExpressionCacheFilterStrategy.class.getSimpleName(), comparisonExpressionCacheFilterStrategy.getCacheStats());
+        return stats;
+    }
+
+    /**
+     * @return the cache of choice lists shared by all of the form's {@link ItemsetBinding}s
+     */
+    public ItemsetChoiceCache getItemsetChoiceCache() {
+        return itemsetChoiceCache;
+    }
+
+    /**
+     * @return the cache of {@code <output>} values used by {@link #fillTemplateString}
+     */
+    public OutputValueCache getOutputValueCache() {
+        return outputValueCache;
+    }
+
     /**
      * @deprecated use {@link FormEntryController#addFunctionHandler(IFunctionHandler)} instead
      */
@@ -0,0 +1,340 @@
+package org.javarosa.core.model;
+
+import org.javarosa.core.model.condition.EvaluationContext;
+import org.javarosa.core.model.condition.FilterStrategy;
+import org.javarosa.core.model.data.GeoPointData;
+import org.javarosa.core.model.data.UncastData;
+import org.javarosa.core.model.instance.DataInstance;
+import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.core.util.BoundedCache;
+import org.javarosa.core.util.BoundedCache.CacheStats;
+import org.javarosa.core.util.GeoUtils;
+import org.javarosa.measure.Measure;
+import org.javarosa.xpath.expr.XPathExpression;
+import org.javarosa.xpath.expr.XPathFuncExpr;
+import org.javarosa.xpath.expr.XPathFuncExprGeo;
+import org.javarosa.xpath.expr.XPathPathExpr;
+import org.javarosa.xpath.expr.XPathStringLiteral;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Uses a (lazily constructed) spatial index to evaluate {@code geofence()} predicates that test whether a point from
+ * the form is inside a shape relative to the instance child being filtered like:
+ * <p/>
+ * instance('districts')/root/item[geofence(/data/location, geometry)]
+ * <p/>
+ * Each child's shape is parsed once when the index is built and kept as coordinate arrays along with its bounding box.
+ * The boxes are bucketed into a uniform grid over the instance's extent so that a lookup only runs the exact
+ * point-in-polygon test ({@link GeoUtils#calculateIsPointInGPSPolygon}) for the few shapes whose box contains the point
+ * rather than for every child. If any of the shapes can't be parsed, the predicate is left to the next strategy so
+ * that it fails the way it always has. Sections of the index are held in a {@link BoundedCache} weighted by the number of
+ * references they hold.
+ */
+public class GeofenceIndexFilterStrategy implements FilterStrategy {
+
+    private static final String GEOFENCE = "geofence";
+
+    private final BoundedCache<FilterCacheKey, ShapeIndex> index;
+
+    public GeofenceIndexFilterStrategy() {
+        this(FormDef.DEFAULT_PREDICATE_CACHE_MAXIMUM_WEIGHT);
+    }
+
+    public GeofenceIndexFilterStrategy(long maximumWeight) {
+        index = new BoundedCache<>(maximumWeight, sectionIndex -> sectionIndex.children.size() + 1);
+    }
+
+    @NotNull
+    @Override
+    public List<TreeReference> filter(@NotNull DataInstance sourceInstance, @NotNull TreeReference nodeSet, @NotNull XPathExpression predicate, @NotNull List<TreeReference> children, @NotNull EvaluationContext evaluationContext, @NotNull Supplier<List<TreeReference>> next) {
+        if (sourceInstance.getInstanceId() == null || !isGeofence(predicate)) {
+            return next.get();
+        }
+
+        CompareToNodeExpression candidate = parse((XPathFuncExpr) predicate);
+        if (candidate == null) {
+            return next.get();
+        }
+
+        FilterCacheKey section = new FilterCacheKey(nodeSet, candidate.getNodeSide());
+        ShapeIndex sectionIndex = index.get(section, key -> buildIndex(sourceInstance, candidate, children, evaluationContext));
+        if (sectionIndex.shapes == null) {
+            return next.get();
+        }
+
+        GeoPointData point;
+        try {
+            Object absoluteValue = candidate.evalContextSide(sourceInstance, evaluationContext);
+            point = new GeoPointData().cast(new UncastData(XPathFuncExpr.toString(absoluteValue)));
+        } catch (RuntimeException e) {
+            // Let geofence() report the problem
+            return next.get();
+        }
+
+        return sectionIndex.lookup(point.getPart(0), point.getPart(1));
+    }
+
+    public void setMaximumWeight(long maximumWeight) {
+        index.setMaximumWeight(maximumWeight);
+    }
+
+    @NotNull
+    public CacheStats getCacheStats() {
+        return index.getStats();
+    }
+
+    private static boolean isGeofence(XPathExpression predicate) {
+        return predicate instanceof XPathFuncExpr
+            && ((XPathFuncExpr) predicate).args.length == 2
+            && ((XPathFuncExpr) predicate).id.toString().equals(GEOFENCE);
+    }
+
+    /**
+     * Identifies calls with a point from the form (an absolute path or a literal) and a shape relative to the child
+     * being filtered. Calls with the point relative to the child aren't supported as only shapes are indexed.
+     */
+    @Nullable
+    private static CompareToNodeExpression parse(XPathFuncExpr geofence) {
+        XPathExpression point = geofence.args[0];
+        XPathExpression shape = geofence.args[1];
+
+        boolean relativeShape = shape instanceof XPathPathExpr && ((XPathPathExpr) shape).init_context == XPathPathExpr.INIT_CONTEXT_RELATIVE;
+        boolean absolutePoint = point instanceof XPathStringLiteral
+            || point instanceof XPathPathExpr && ((XPathPathExpr) point).init_context != XPathPathExpr.INIT_CONTEXT_RELATIVE;
+
+        if (relativeShape && absolutePoint && shape.isIdempotent() && point.isIdempotent()) {
+            return new CompareToNodeExpression((XPathPathExpr) shape, point, geofence);
+        } else {
+            return null;
+        }
+    }
+
+    private static ShapeIndex buildIndex(DataInstance sourceInstance, CompareToNodeExpression predicate, List<TreeReference> children, EvaluationContext evaluationContext) {
+        Shape[] shapes = new Shape[children.size()];
+        for (int i = 0; i < children.size(); i++) {
+            Measure.log("IndexEvaluation");
+            EvaluationContext rescopedContext = evaluationContext.rescope(children.get(i), i);
+
+            List<GeoUtils.LatLong> latLongs;
+            try {
+                latLongs = new XPathFuncExprGeo().getGpsCoordinatesFromNodeset(GEOFENCE, predicate.getNodeSide().eval(sourceInstance, rescopedContext));
+            } catch (RuntimeException e) {
+                return new ShapeIndex(null, children);
+            }
+
+            shapes[i] = new Shape(latLongs);
+        }
+
+        return new ShapeIndex(shapes, new ArrayList<>(children));
+    }
+
+    /**
+     * A shape's coordinates and bounding box.
+     */
+    private static class Shape {
+
+        final double[] latitudes;
+        final double[] longitudes;
+        double minLatitude = Double.POSITIVE_INFINITY;
+        double maxLatitude = Double.NEGATIVE_INFINITY;
+        double minLongitude = Double.POSITIVE_INFINITY;
+        double maxLongitude = Double.NEGATIVE_INFINITY;
+
+        Shape(List<GeoUtils.LatLong> latLongs) {
+            latitudes = new double[latLongs.size()];
+            longitudes = new double[latLongs.size()];
+            for (int i = 0; i < latitudes.length; i++) {
+                latitudes[i] = latLongs.get(i).getLatitude();
+                longitudes[i] = latLongs.get(i).getLongitude();
+
+                minLatitude = Math.min(minLatitude, latitudes[i]);
+                maxLatitude = Math.max(maxLatitude, latitudes[i]);
+                minLongitude = Math.min(minLongitude, longitudes[i]);
+                maxLongitude = Math.max(maxLongitude, longitudes[i]);
+            }
+        }
+
+        /**
+         * Whether a point can only be inside the shape if it's inside its bounding box. That's true for closed shapes
+         * (any ray from a point outside the box crosses them an even number of times), but geotraces that don't end
+         * where they start can contain points outside of it.
+         */
+        boolean isBounded() {
+            int last = latitudes.length - 1;
+            return latitudes[0] == latitudes[last] && longitudes[0] == longitudes[last]
+                && Double.isFinite(minLatitude) && Double.isFinite(maxLatitude)
+                && Double.isFinite(minLongitude) && Double.isFinite(maxLongitude);
+        }
+
+        boolean boxContains(double latitude, double longitude) {
+            return latitude >= minLatitude && latitude <= maxLatitude && longitude >= minLongitude && longitude <= maxLongitude;
+        }
+
+        boolean contains(double latitude, double longitude) {
+            return GeoUtils.calculateIsPointInGPSPolygon(latitude, longitude, latitudes, longitudes);
+        }
+    }
+
+    /**
+     * Immutable grid of shapes bucketed by the cells their bounding boxes overlap. Shapes that aren't bounded by their
+     * box or that would cover a large part of the grid are checked for every lookup instead.
+     */
+    private static class ShapeIndex {
+
+        private static final int MAXIMUM_CELLS_PER_SIDE = 1024;
+
+        /**
+         * The shape of each child or null if one of them couldn't be parsed (and the index can't be used)
+         */
+        private final Shape[] shapes;
+        private final List<TreeReference> children;
+
+        private int[] unbucketed;
+        private int[][] cells;
+        private int cellsPerSide;
+        private double minLatitude;
+        private double maxLatitude;
+        private double minLongitude;
+        private double maxLongitude;
+        private double cellHeight;
+        private double cellWidth;
+
+        ShapeIndex(Shape[] shapes, List<TreeReference> children) {
+            this.shapes = shapes;
+            this.children = children;
+
+            if (shapes != null) {
+                bucket();
+            }
+        }
+
+        private void bucket() {
+            // Shapes with less than two coordinates can't contain anything
+            List<Integer> bounded = new ArrayList<>();
+            List<Integer> unbounded = new ArrayList<>();
+            for (int i = 0; i < shapes.length; i++) {
+                if (shapes[i].latitudes.length < 2) {
+                    continue;
+                }
+
+                if (shapes[i].isBounded()) {
+                    bounded.add(i);
+                } else {
+                    unbounded.add(i);
+                }
+            }
+
+            minLatitude = Double.POSITIVE_INFINITY;
+            minLongitude = Double.POSITIVE_INFINITY;
+            maxLatitude = Double.NEGATIVE_INFINITY;
+            maxLongitude = Double.NEGATIVE_INFINITY;
+            for (int i : bounded) {
+                minLatitude = Math.min(minLatitude, shapes[i].minLatitude);
+                maxLatitude = Math.max(maxLatitude, shapes[i].maxLatitude);
+                minLongitude = Math.min(minLongitude, shapes[i].minLongitude);
+                maxLongitude = Math.max(maxLongitude, shapes[i].maxLongitude);
+            }
+
+            cellsPerSide = (int) Math.min(MAXIMUM_CELLS_PER_SIDE, Math.max(1, Math.ceil(Math.sqrt(bounded.size()))));
+            cellHeight = (maxLatitude - minLatitude) / cellsPerSide;
+            cellWidth = (maxLongitude - minLongitude) / cellsPerSide;
+
+            List<List<Integer>> buckets = new ArrayList<>(cellsPerSide * cellsPerSide);
+            for (int i = 0; i < cellsPerSide * cellsPerSide; i++) {
+                buckets.add(new ArrayList<>());
+            }
+
+            int maximumCellsPerShape = Math.max(4, cellsPerSide * cellsPerSide / 4);
+            for (int i : bounded) {
+                Shape shape = shapes[i];
+                int fromRow = row(shape.minLatitude);
+                int toRow = row(shape.maxLatitude);
+                int fromColumn = column(shape.minLongitude);
+                int toColumn = column(shape.maxLongitude);
+
+                if ((toRow - fromRow + 1) * (toColumn - fromColumn + 1) > maximumCellsPerShape) {
+                    unbounded.add(i);
+                    continue;
+                }
+
+                for (int row = fromRow; row <= toRow; row++) {
+                    for (int column = fromColumn; column <= toColumn; column++) {
+                        buckets.get(row * cellsPerSide + column).add(i);
+                    }
+                }
+            }
+
+            cells = new int[buckets.size()][];
+            for (int i = 0; i < cells.length; i++) {
+                cells[i] = toArray(buckets.get(i));
+            }
+
+            unbucketed = toArray(unbounded);
+            Arrays.sort(unbucketed);
+        }
+
+        /**
+         * Returns the references whose shape contains the point in document order.
+         */
+        List<TreeReference> lookup(double latitude, double longitude) {
+            int[] bucket = new int[0];
+            if (latitude >= minLatitude && latitude <= maxLatitude && longitude >= minLongitude && longitude <= maxLongitude) {
+                bucket = cells[row(latitude) * cellsPerSide + column(longitude)];
+            }
+
+            int[] matches = new int[bucket.length + unbucketed.length];
+            int count = 0;
+            for (int i : bucket) {
+                if (shapes[i].boxContains(latitude, longitude) && shapes[i].contains(latitude, longitude)) {
+                    matches[count++] = i;
+                }
+            }
+
+            for (int i : unbucketed) {
+                if (shapes[i].contains(latitude, longitude)) {
+                    matches[count++] = i;
+                }
+            }
+
+            Arrays.sort(matches, 0, count);
+
+            List<TreeReference> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                result.add(children.get(matches[i]));
+            }
+
+            return result;
+        }
+
+        private int row(double latitude) {
+            return cell(latitude, minLatitude, cellHeight);
+        }
+
+        private int column(double longitude) {
+            return cell(longitude, minLongitude, cellWidth);
+        }
+
+        private int cell(double value, double min, double size) {
+            if (size <= 0) {
+                return 0;
+            }
+
+            return Math.max(0, Math.min(cellsPerSide - 1, (int) ((value - min) / size)));
+        }
+
+        private static int[] toArray(List<Integer> list) {
+            int[] array = new int[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = list.get(i);
+            }
+
+            return array;
+        }
+    }
+}
@@ -7,27 +7,28 @@ import org.javarosa.core.model.instance.TreeReference;
 import org.javarosa.xpath.expr.XPathExpression;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 
 /**
  * Caches down stream evaluations (in the {@link FilterStrategy} chain) for "idempotent" (with respect to current form
  * state) predicates. Can only be used for static instances or in cases where form state won't change - will cause
- * clashes otherwise. Repeated evaluations are fetched in O(1) time.
+ * clashes otherwise. Repeated evaluations are fetched in O(1) time. Safe to share between threads evaluating in parallel.
  */
 public class IdempotentExpressionCacheFilterStrategy implements FilterStrategy {
 
-    private final Map<String, List<TreeReference>> cachedEvaluations = new HashMap<>();
+    private final Map<FilterCacheKey, List<TreeReference>> cachedEvaluations = new ConcurrentHashMap<>();
 
     @NotNull
     @Override
     public List<TreeReference> filter(@NotNull DataInstance sourceInstance, @NotNull TreeReference nodeSet, @NotNull XPathExpression predicate, @NotNull List<TreeReference> children, @NotNull EvaluationContext evaluationContext, @NotNull Supplier<List<TreeReference>> next) {
-        String key = getKey(nodeSet, predicate);
+        FilterCacheKey key = new FilterCacheKey(nodeSet, predicate);
 
-        if (cachedEvaluations.containsKey(key)) {
-            return cachedEvaluations.get(key);
+        List<TreeReference> cached = cachedEvaluations.get(key);
+        if (cached != null) {
+            return cached;
         } else {
             List<TreeReference> filtered = next.get();
             if (isCacheable(predicate)) {
@@ -38,10 +39,6 @@ public class IdempotentExpressionCacheFilterStrategy implements FilterStrategy {
         }
     }
 
-    private String getKey(TreeReference nodeSet, XPathExpression predicate) {
-        return nodeSet.toString() + predicate.toString();
-    }
-
     private boolean isCacheable(XPathExpression predicate) {
         return predicate.isIdempotent();
     }
@@ -33,20 +33,19 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 
+import static java.util.Collections.unmodifiableList;
 import static org.javarosa.core.model.FormDef.getAbsRef;
 import static org.javarosa.xform.parse.RandomizeHelper.shuffle;
 import static org.javarosa.xform.parse.RandomizeHelper.toNumericWithLongHash;
 
 public class ItemsetBinding implements Externalizable, Localizable {
-    // Temporarily cached filtered list (not serialized)
+    // The most recently returned filtered list (not serialized)
     private List<SelectChoice> cachedFilteredChoiceList;
 
-    // Values needed to determine whether the cached list should be expired (not serialized)
-    private Map<TreeReference, IAnswerData> cachedTriggerValues;
-    private Long cachedRandomizeSeed;
+    // Identifies this binding's expressions in the form's ItemsetChoiceCache (not serialized)
+    private String cacheSignature;
 
     /**
      * note that storing both the ref and expr for everything is kind of redundant, but we're forced
@@ -89,9 +88,10 @@ public class ItemsetBinding implements Externalizable, Localizable {
     public TreeReference copyRef;      //absolute ref to copy
 
     /**
-     * Returns a list of <code>SelectChoice</code> objects based on the data in the model. If any of the itemset expression
-     * triggers or the random seed have changed since the last request, a new list will be computed which may be time consuming.
-     * Otherwise, a cached list is returned.
+     * Returns a list of <code>SelectChoice</code> objects based on the data in the model. Lists are cached in the form's
+     * {@link ItemsetChoiceCache} by the current values of the itemset expression triggers and the random seed (and
+     * shared with other bindings with the same expressions). If there is no cached list for the current values, a new
+     * list will be computed which may be time consuming. Returned lists are unmodifiable.
      *
      * SIDE EFFECT: any item currently selected as part of the current question's answer that is no longer
      * part of the new filtered list is removed and the new answer is saved back to the model.
@@ -103,11 +103,13 @@ public class ItemsetBinding implements Externalizable, Localizable {
         Long currentRandomizeSeed = resolveRandomSeed(formDef.getMainInstance(), new EvaluationContext(formDef.getEvaluationContext(), contextRef.contextualize(curQRef)));
 
         // Return cached list if possible
-        if (cachedFilteredChoiceList != null && allTriggerRefsBound && Objects.equals(currentTriggerValues, cachedTriggerValues)
-            && Objects.equals(currentRandomizeSeed, cachedRandomizeSeed)) {
+        ItemsetChoiceCache.Key cacheKey = allTriggerRefsBound ? getCacheKey(curQRef, currentTriggerValues, currentRandomizeSeed) : null;
+        List<SelectChoice> cachedChoices = cacheKey != null ? formDef.getItemsetChoiceCache().get(cacheKey) : null;
+        if (cachedChoices != null) {
+            cachedFilteredChoiceList = cachedChoices;
             updateQuestionAnswerInModel(formDef, curQRef);
 
-            return randomize && cachedRandomizeSeed == null ? shuffle(cachedFilteredChoiceList) : cachedFilteredChoiceList;
+            return randomize && currentRandomizeSeed == null ? unmodifiableList(shuffle(cachedChoices)) : cachedChoices;
         }
 
         formDef.getEventNotifier().publishEvent(new Event("Dynamic choices", new EvaluationResult(curQRef, null)));
@@ -143,7 +145,7 @@ public class ItemsetBinding implements Externalizable, Localizable {
 
         updateQuestionAnswerInModel(formDef, curQRef, selectChoicesForAnswer);
 
-        cachedFilteredChoiceList = randomize ? shuffle(filteredChoiceList, currentRandomizeSeed) : filteredChoiceList;
+        cachedFilteredChoiceList = unmodifiableList(randomize ? shuffle(filteredChoiceList, currentRandomizeSeed) : filteredChoiceList);
 
         // TODO: write a test that fails if this is removed. It looks like a no-op because it's not accessing the shuffled collection.
         if (randomize) {
@@ -161,12 +163,51 @@ public class ItemsetBinding implements Externalizable, Localizable {
             }
         }
 
-        cachedTriggerValues = currentTriggerValues;
-        cachedRandomizeSeed = currentRandomizeSeed;
+        if (cacheKey != null) {
+            formDef.getItemsetChoiceCache().put(cacheKey, cachedFilteredChoiceList);
+        }
 
         return cachedFilteredChoiceList;
     }
 
+    /**
+     * Choices built from a secondary instance only depend on the nodeset's triggers (the instance itself never changes)
+     * so they can be shared between evaluation contexts (like different repeat instances) by keying them on generic
+     * trigger references. Choices built from the main instance are tied to the context they were built in.
+     */
+    private ItemsetChoiceCache.Key getCacheKey(TreeReference curQRef, Map<TreeReference, IAnswerData> currentTriggerValues, Long currentRandomizeSeed) {
+        if (cacheSignature == null) {
+            cacheSignature = nodesetRef + "|" + nodesetExpr + "|" + labelExpr + "|" + valueExpr + "|" + labelIsItext
+                + "|" + randomize + "|" + randomSeedExpr + "|" + copyMode + "|" + copyExpr;
+        }
+
+        boolean contextIndependent = nodesetRef.getInstanceName() != null;
+
+        Map<TreeReference, String> triggerValues = new HashMap<>();
+        for (Map.Entry<TreeReference, IAnswerData> entry : currentTriggerValues.entrySet()) {
+            TreeReference trigger = contextIndependent ? entry.getKey().genericize() : entry.getKey();
+            if (triggerValues.put(trigger, toCacheValue(entry.getValue())) != null) {
+                // Two triggers with the same generic reference: fall back to keying on the specific references
+                return new ItemsetChoiceCache.Key(cacheSignature, contextRef.contextualize(curQRef), toCacheValues(currentTriggerValues), currentRandomizeSeed);
+            }
+        }
+
+        return new ItemsetChoiceCache.Key(cacheSignature, contextIndependent ? null : contextRef.contextualize(curQRef), triggerValues, currentRandomizeSeed);
+    }
+
+    private static Map<TreeReference, String> toCacheValues(Map<TreeReference, IAnswerData> values) {
+        Map<TreeReference, String> cacheValues = new HashMap<>();
+        for (Map.Entry<TreeReference, IAnswerData> entry : values.entrySet()) {
+            cacheValues.put(entry.getKey(), toCacheValue(entry.getValue()));
+        }
+
+        return cacheValues;
+    }
+
+    private static String toCacheValue(IAnswerData value) {
+        return value == null ? null : value.getClass().getName() + ":" + value.uncast().getString();
+    }
+
     /**
      * Returns a map:
      *  - keys: the references that are triggers for the nodeset expression
@@ -341,6 +382,8 @@ public class ItemsetBinding implements Externalizable, Localizable {
     }
 
     public void initReferences(QuestionDef q) {
+        cacheSignature = null;
+
         // To construct the xxxRef, we need the full model, which wasn't available before now.
         // Compute the xxxRefs now.
 
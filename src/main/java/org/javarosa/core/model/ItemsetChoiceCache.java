@@ -0,0 +1,97 @@
+package org.javarosa.core.model;
+
+import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.core.util.BoundedCache;
+import org.javarosa.core.util.BoundedCache.CacheStats;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Choice lists built by the {@link ItemsetBinding}s of a form. Lists are keyed by the binding's expressions and the
+ * current values of the nodeset's triggers (and the randomization seed) rather than by binding. This means that
+ * bindings with identical expressions (like the same question in different repeat instances) share lists and that
+ * alternating between trigger values doesn't throw away the previously built lists. Lists are held in a
+ * {@link BoundedCache} weighted by their number of choices.
+ * <p>
+ * Cached lists are unmodifiable as they can be returned to any number of callers.
+ */
+public class ItemsetChoiceCache {
+
+    /**
+     * The default maximum number of choices held
+     */
+    public static final long DEFAULT_MAXIMUM_WEIGHT = 100_000;
+
+    private final BoundedCache<Key, List<SelectChoice>> cache = new BoundedCache<>(DEFAULT_MAXIMUM_WEIGHT, choices -> choices.size() + 1);
+
+    @Nullable
+    List<SelectChoice> get(@NotNull Key key) {
+        return cache.getIfPresent(key);
+    }
+
+    void put(@NotNull Key key, @NotNull List<SelectChoice> choices) {
+        cache.put(key, choices);
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public void setMaximumWeight(long maximumWeight) {
+        cache.setMaximumWeight(maximumWeight);
+    }
+
+    @NotNull
+    public CacheStats getStats() {
+        return cache.getStats();
+    }
+
+    static final class Key {
+        private final String signature;
+        private final TreeReference context;
+        private final Map<TreeReference, String> triggerValues;
+        private final Long randomizeSeed;
+        private final int hashCode;
+
+        /**
+         * @param signature     identifies the binding's expressions
+         * @param context       the evaluation context if the choices depend on it or null if they don't
+         * @param triggerValues the values of the nodeset's triggers
+         * @param randomizeSeed the seed used to shuffle the choices (if any)
+         */
+        Key(@NotNull String signature, @Nullable TreeReference context, @NotNull Map<TreeReference, String> triggerValues, @Nullable Long randomizeSeed) {
+            this.signature = signature;
+            this.context = context;
+            this.triggerValues = triggerValues;
+            this.randomizeSeed = randomizeSeed;
+            this.hashCode = Objects.hash(signature, context, triggerValues, randomizeSeed);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) o;
+            return hashCode == key.hashCode
+                && signature.equals(key.signature)
+                && Objects.equals(context, key.context)
+                && triggerValues.equals(key.triggerValues)
+                && Objects.equals(randomizeSeed, key.randomizeSeed);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.javarosa.core.model;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Text with {@code <output>}s (like a label or hint) compiled into the literal text around each output and the index
+ * of each output's expression in the form's output fragments so that it doesn't have to be scanned for {@code ${n}}
+ * arguments every time it's rendered.
+ */
+final class OutputTemplate {
+
+    /**
+     * The text before each output followed by the text after the last one
+     */
+    private final String[] literals;
+    private final int[] outputs;
+
+    private OutputTemplate(String[] literals, int[] outputs) {
+        this.literals = literals;
+        this.outputs = outputs;
+    }
+
+    /**
+     * Returns the compiled template or null if it has arguments that aren't output indexes. Those are left for
+     * {@link FormDef#fillTemplateString} to deal with the way it always has.
+     */
+    @Nullable
+    static OutputTemplate compile(String template) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> outputs = new ArrayList<>();
+
+        int start = 0;
+        int i = template.indexOf("${");
+        while (i != -1) {
+            int j = template.indexOf("}", i);
+            if (j == -1) {
+                // Unterminated arguments are left as they are
+                break;
+            }
+
+            int output;
+            try {
+                output = Integer.parseInt(template.substring(i + 2, j));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+
+            if (output < 0) {
+                return null;
+            }
+
+            literals.add(template.substring(start, i));
+            outputs.add(output);
+
+            start = j + 1;
+            i = template.indexOf("${", start);
+        }
+        literals.add(template.substring(start));
+
+        int[] outputArray = new int[outputs.size()];
+        for (int k = 0; k < outputArray.length; k++) {
+            outputArray[k] = outputs.get(k);
+        }
+
+        return new OutputTemplate(literals.toArray(new String[0]), outputArray);
+    }
+
+    /**
+     * @return the output fragment index of each output in the order they appear in
+     */
+    int[] getOutputs() {
+        return outputs;
+    }
+
+    /**
+     * @param values the value of each output in the order returned by {@link #getOutputs()}
+     */
+    String render(String[] values) {
+        if (outputs.length == 0) {
+            return literals[0];
+        }
+
+        StringBuilder rendered = new StringBuilder();
+        for (int i = 0; i < outputs.length; i++) {
+            rendered.append(literals[i]).append(values[i]);
+        }
+
+        return rendered.append(literals[outputs.length]).toString();
+    }
+}
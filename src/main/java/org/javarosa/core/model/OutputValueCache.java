@@ -0,0 +1,169 @@
+package org.javarosa.core.model;
+
+import org.javarosa.core.model.condition.IConditionExpr;
+import org.javarosa.core.model.data.IAnswerData;
+import org.javarosa.core.model.instance.FormInstance;
+import org.javarosa.core.model.instance.TreeElement;
+import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.core.util.BoundedCache;
+import org.javarosa.core.util.BoundedCache.CacheStats;
+import org.javarosa.xpath.XPathConditional;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The values of a form's {@code <output>}s, kept per output and context reference along with the values of the
+ * output expression's triggers when it was evaluated. A value is only returned while those triggers still have the
+ * same values (and relevance) so outputs are only evaluated again when something they depend on changes. Like
+ * {@link ItemsetBinding} choices, outputs with triggers that don't identify a single node (like a repeat nodeset) or
+ * with expressions that aren't idempotent are never cached. Values are held in a {@link BoundedCache}.
+ */
+public class OutputValueCache {
+
+    /**
+     * The default maximum number of values held
+     */
+    public static final long DEFAULT_MAXIMUM_WEIGHT = 10_000;
+
+    private final BoundedCache<Key, Entry> cache = new BoundedCache<>(DEFAULT_MAXIMUM_WEIGHT, entry -> 1);
+
+    /**
+     * @return the value of the output or null if it's not cached or its triggers have changed since it was
+     */
+    @Nullable
+    String get(int output, @NotNull TreeReference contextRef, @NotNull FormInstance mainInstance) {
+        Entry entry = cache.getIfPresent(new Key(output, contextRef));
+        return entry != null && entry.isCurrent(mainInstance) ? entry.value : null;
+    }
+
+    void put(int output, @NotNull TreeReference contextRef, @NotNull IConditionExpr expr, @NotNull FormInstance mainInstance, @NotNull String value) {
+        if (!contextRef.isAbsolute() || !(expr instanceof XPathConditional) || !((XPathConditional) expr).getExpr().isIdempotent()) {
+            return;
+        }
+
+        Set<TreeReference> triggers = expr.getTriggers(contextRef);
+        TreeReference[] triggerRefs = new TreeReference[triggers.size()];
+        TriggerValue[] triggerValues = new TriggerValue[triggers.size()];
+
+        int i = 0;
+        for (TreeReference trigger : triggers) {
+            // Secondary instances never change
+            if (trigger.getInstanceName() != null) {
+                continue;
+            }
+
+            TreeElement element = mainInstance.resolveReference(trigger);
+            if (element == null || element.isRepeatable()) {
+                return;
+            }
+
+            triggerRefs[i] = trigger.freeze();
+            triggerValues[i] = TriggerValue.of(element);
+            i++;
+        }
+
+        cache.put(new Key(output, contextRef.freeze()), new Entry(value, triggerRefs, triggerValues, i));
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    public void setMaximumWeight(long maximumWeight) {
+        cache.setMaximumWeight(maximumWeight);
+    }
+
+    @NotNull
+    public CacheStats getStats() {
+        return cache.getStats();
+    }
+
+    private static final class Key {
+        private final int output;
+        private final TreeReference contextRef;
+        private final int hashCode;
+
+        Key(int output, TreeReference contextRef) {
+            this.output = output;
+            this.contextRef = contextRef;
+            this.hashCode = 31 * output + contextRef.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) o;
+            return output == other.output && contextRef.equals(other.contextRef);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class Entry {
+        private final String value;
+        private final TreeReference[] triggerRefs;
+        private final TriggerValue[] triggerValues;
+        private final int triggerCount;
+
+        Entry(String value, TreeReference[] triggerRefs, TriggerValue[] triggerValues, int triggerCount) {
+            this.value = value;
+            this.triggerRefs = triggerRefs;
+            this.triggerValues = triggerValues;
+            this.triggerCount = triggerCount;
+        }
+
+        boolean isCurrent(FormInstance mainInstance) {
+            for (int i = 0; i < triggerCount; i++) {
+                TreeElement element = mainInstance.resolveReference(triggerRefs[i]);
+                if (element == null || !triggerValues[i].matches(element)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    private static final class TriggerValue {
+        private final boolean relevant;
+        private final Class<?> type;
+        private final String value;
+
+        private TriggerValue(boolean relevant, Class<?> type, String value) {
+            this.relevant = relevant;
+            this.type = type;
+            this.value = value;
+        }
+
+        static TriggerValue of(TreeElement element) {
+            IAnswerData value = element.getValue();
+            return value == null
+                ? new TriggerValue(element.isRelevant(), null, null)
+                : new TriggerValue(element.isRelevant(), value.getClass(), value.uncast().getString());
+        }
+
+        boolean matches(TreeElement element) {
+            if (element.isRelevant() != relevant) {
+                return false;
+            }
+
+            IAnswerData current = element.getValue();
+            return current == null
+                ? type == null
+                : current.getClass() == type && Objects.equals(current.uncast().getString(), value);
+        }
+    }
+}
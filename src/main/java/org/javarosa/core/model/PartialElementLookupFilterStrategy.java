@@ -0,0 +1,82 @@
+package org.javarosa.core.model;
+
+import org.javarosa.core.model.condition.EvaluationContext;
+import org.javarosa.core.model.condition.FilterStrategy;
+import org.javarosa.core.model.instance.DataInstance;
+import org.javarosa.core.model.instance.ExternalDataInstance;
+import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.xpath.expr.XPathEqExpr;
+import org.javarosa.xpath.expr.XPathExpression;
+import org.javarosa.xpath.expr.XPathPathExpr;
+import org.javarosa.xpath.expr.XPathStep;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Filters the children of an {@link ExternalDataInstance}'s root for predicates like {@code name = /data/search}
+ * using {@link ExternalDataInstance#lookupPartialElements(String, String)}. This means that only the children that
+ * are actually selected need to be loaded for instances with partial elements (rather than every child having to be
+ * loaded to evaluate the predicate against it).
+ */
+public class PartialElementLookupFilterStrategy implements FilterStrategy {
+
+    @NotNull
+    @Override
+    public List<TreeReference> filter(@NotNull DataInstance sourceInstance, @NotNull TreeReference nodeSet, @NotNull XPathExpression predicate, @NotNull List<TreeReference> children, @NotNull EvaluationContext evaluationContext, @NotNull Supplier<List<TreeReference>> next) {
+        if (!(sourceInstance instanceof ExternalDataInstance) || nodeSet.size() != 2 || !(predicate instanceof XPathEqExpr) || !((XPathEqExpr) predicate).isEqual()) {
+            return next.get();
+        }
+
+        CompareToNodeExpression candidate = CompareToNodeExpression.parse(predicate);
+        if (candidate == null) {
+            return next.get();
+        }
+
+        String name = getChildName(candidate.getNodeSide());
+        if (name == null) {
+            return next.get();
+        }
+
+        Object absoluteValue = candidate.evalContextSide(sourceInstance, evaluationContext);
+        if (!(absoluteValue instanceof String)) {
+            return next.get();
+        }
+
+        int[] multiplicities = ((ExternalDataInstance) sourceInstance).lookupPartialElements(name, (String) absoluteValue);
+        if (multiplicities == null) {
+            return next.get();
+        }
+
+        List<TreeReference> filtered = new ArrayList<>(multiplicities.length);
+        for (int multiplicity : multiplicities) {
+            if (multiplicity >= children.size()) {
+                return next.get();
+            }
+
+            TreeReference child = children.get(multiplicity);
+            if (child.getMultiplicity(child.size() - 1) != multiplicity) {
+                return next.get();
+            }
+
+            filtered.add(child);
+        }
+
+        return filtered;
+    }
+
+    private static String getChildName(XPathPathExpr nodeSide) {
+        if (nodeSide.steps.length != 1) {
+            return null;
+        }
+
+        XPathStep step = nodeSide.steps[0];
+        if (step.axis != XPathStep.AXIS_CHILD || step.test != XPathStep.TEST_NAME || step.predicates.length != 0) {
+            return null;
+        }
+
+        return step.name.toString();
+    }
+}
@@ -20,6 +20,11 @@ public final class QuickTriggerable {
     private final Triggerable triggerable;
     private final int hashCode;
 
+    /**
+     * Position of this triggerable in the sorted DAG, assigned when the DAG is finalized.
+     */
+    private int ordinal = -1;
+
     private QuickTriggerable(Triggerable triggerable, int hashCode) {
         this.triggerable = triggerable;
         this.hashCode = hashCode;
@@ -41,6 +46,10 @@ public final class QuickTriggerable {
         return triggerable.apply(mainInstance, ec, qualified);
     }
 
+    List<EvaluationResult> apply(FormInstance mainInstance, EvaluationContext ec, TreeReference qualified, boolean detectChanges) {
+        return triggerable.apply(mainInstance, ec, qualified, detectChanges);
+    }
+
     Set<TreeReference> getTargets() {
         return triggerable.getTargets();
     }
@@ -78,6 +87,14 @@ public final class QuickTriggerable {
         return triggerable.eval(mainInstance, evaluationContext);
     }
 
+    int getOrdinal() {
+        return ordinal;
+    }
+
+    void setOrdinal(int ordinal) {
+        this.ordinal = ordinal;
+    }
+
     public TreeReference getContext() {
         return triggerable.getContext();
     }
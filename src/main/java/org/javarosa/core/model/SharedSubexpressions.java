@@ -0,0 +1,304 @@
+package org.javarosa.core.model;
+
+import org.javarosa.core.model.condition.IConditionExpr;
+import org.javarosa.core.model.condition.SubexpressionCache;
+import org.javarosa.core.model.condition.Triggerable;
+import org.javarosa.core.model.instance.FormInstance;
+import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.xpath.XPathConditional;
+import org.javarosa.xpath.expr.XPathBinaryOpExpr;
+import org.javarosa.xpath.expr.XPathExpression;
+import org.javarosa.xpath.expr.XPathFuncExpr;
+import org.javarosa.xpath.expr.XPathNumericLiteral;
+import org.javarosa.xpath.expr.XPathPathExpr;
+import org.javarosa.xpath.expr.XPathStep;
+import org.javarosa.xpath.expr.XPathStringLiteral;
+import org.javarosa.xpath.expr.XPathUnaryOpExpr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static java.util.Collections.emptyMap;
+
+/**
+ * The sub-expressions that the triggerables of a form have in common. Function calls that only depend on the state of
+ * the form's instances (and not on when or where they're evaluated) are grouped by equality and every group with more
+ * than one occurrence gets a slot in the {@link SubexpressionCache} of each cascade so that it's only evaluated once.
+ * <p>
+ * A slot is invalidated whenever a triggerable changes a node that would trigger one of the slot's occurrences, which
+ * is the same rule the DAG uses to decide what to evaluate after a change. Only function calls outside of predicates
+ * are considered: predicates are already cached by {@link IdempotentExpressionCacheFilterStrategy} where possible.
+ */
+class SharedSubexpressions {
+
+    static final SharedSubexpressions NONE = new SharedSubexpressions(emptyMap(), 0, new int[0][]);
+
+    /**
+     * Built-in functions that always evaluate to the same result for the same state of the form's instances
+     */
+    private static final Set<String> DETERMINISTIC_FUNCTIONS = new HashSet<>(Arrays.asList(
+        "true", "false", "boolean", "number", "int", "round", "string", "date", "date-time", "decimal-date-time",
+        "decimal-time", "not", "boolean-from-string", "format-date", "format-date-time",
+        "abs", "acos", "asin", "atan", "atan2", "cos", "exp", "exp10", "log", "log10", "pi", "sin", "sqrt", "tan", "pow",
+        "selected", "is-selected", "count-selected", "selected-at", "position", "count", "count-non-empty", "sum",
+        "max", "min", "concat", "join", "substr", "substring-before", "substring-after", "translate", "contains",
+        "starts-with", "ends-with", "string-length", "normalize-space", "checklist", "weighted-checklist", "regex",
+        "if", "coalesce", "indexed-repeat", "area", "distance", "base64-decode"
+    ));
+
+    /**
+     * Built-in functions that use the context node (or position) when they're called without arguments
+     */
+    private static final Set<String> CONTEXT_DEFAULT_FUNCTIONS = new HashSet<>(Arrays.asList(
+        "string-length", "normalize-space", "position"
+    ));
+
+    private final Map<XPathExpression, SubexpressionCache.Occurrence> occurrences;
+    private final int slotCount;
+
+    /**
+     * The slots to invalidate when a triggerable changes anything, indexed by the triggerable's ordinal
+     */
+    private final int[][] invalidatedSlots;
+
+    private SharedSubexpressions(Map<XPathExpression, SubexpressionCache.Occurrence> occurrences, int slotCount, int[][] invalidatedSlots) {
+        this.occurrences = occurrences;
+        this.slotCount = slotCount;
+        this.invalidatedSlots = invalidatedSlots;
+    }
+
+    /**
+     * @param sortedTriggerables the triggerables of the form indexed by ordinal
+     * @param updatedReferences  the references each triggerable can update (see {@link TriggerableDag})
+     */
+    static SharedSubexpressions find(QuickTriggerable[] sortedTriggerables, Map<QuickTriggerable, Set<TreeReference>> updatedReferences, FormInstance mainInstance) {
+        Map<XPathExpression, List<XPathFuncExpr>> candidates = new LinkedHashMap<>();
+        Map<XPathFuncExpr, Triggerable> owners = new IdentityHashMap<>();
+        for (QuickTriggerable quickTriggerable : sortedTriggerables) {
+            IConditionExpr expr = quickTriggerable.getTriggerable().getExpr();
+            if (expr instanceof XPathConditional) {
+                List<XPathFuncExpr> found = new ArrayList<>();
+                findCandidates(((XPathConditional) expr).getExpr(), found);
+
+                for (XPathFuncExpr candidate : found) {
+                    candidates.computeIfAbsent(candidate, key -> new ArrayList<>()).add(candidate);
+                    owners.put(candidate, quickTriggerable.getTriggerable());
+                }
+            }
+        }
+
+        Map<XPathExpression, SubexpressionCache.Occurrence> occurrences = new IdentityHashMap<>();
+        List<Set<TreeReference>> slotTriggers = new ArrayList<>();
+        for (List<XPathFuncExpr> equalCandidates : candidates.values()) {
+            if (equalCandidates.size() < 2) {
+                continue;
+            }
+
+            int slot = slotTriggers.size();
+            boolean repeatDependent = isRepeatDependent(equalCandidates.get(0), mainInstance);
+
+            Set<TreeReference> triggers = new HashSet<>();
+            for (XPathFuncExpr candidate : equalCandidates) {
+                TreeReference context = owners.get(candidate).getOriginalContext();
+
+                triggers.addAll(new XPathConditional(candidate).getTriggers(context));
+                occurrences.put(candidate, new SubexpressionCache.Occurrence(slot, repeatDependent ? getInnermostRepeatLevel(context, mainInstance) : -1));
+            }
+
+            slotTriggers.add(triggers);
+        }
+
+        if (slotTriggers.isEmpty()) {
+            return NONE;
+        }
+
+        int[][] invalidatedSlots = new int[sortedTriggerables.length][];
+        for (QuickTriggerable quickTriggerable : sortedTriggerables) {
+            Set<TreeReference> updated = new HashSet<>();
+            for (TreeReference reference : updatedReferences.get(quickTriggerable)) {
+                updated.add(reference.hasPredicates() ? reference.removePredicates() : reference);
+            }
+
+            invalidatedSlots[quickTriggerable.getOrdinal()] = IntStream.range(0, slotTriggers.size())
+                .filter(slot -> slotTriggers.get(slot).stream().anyMatch(updated::contains))
+                .toArray();
+        }
+
+        return new SharedSubexpressions(occurrences, slotTriggers.size(), invalidatedSlots);
+    }
+
+    /**
+     * @return a cache for a new cascade or null if there's nothing to share
+     */
+    SubexpressionCache newCache() {
+        return slotCount == 0 ? null : new SubexpressionCache(occurrences, slotCount);
+    }
+
+    /**
+     * Invalidates the slots that might have changed after the triggerable with the given ordinal changed something.
+     */
+    void invalidate(SubexpressionCache cache, int ordinal) {
+        if (cache != null) {
+            for (int slot : invalidatedSlots[ordinal]) {
+                cache.invalidate(slot);
+            }
+        }
+    }
+
+    /**
+     * Collects the function calls outside of predicates that can be shared. Calls without any path in them are
+     * skipped as they're cheap (or could be folded at parse time).
+     */
+    private static void findCandidates(XPathExpression expression, List<XPathFuncExpr> found) {
+        if (expression instanceof XPathFuncExpr) {
+            XPathFuncExpr funcExpr = (XPathFuncExpr) expression;
+            if (isShareable(funcExpr, false) && !getPaths(funcExpr).isEmpty()) {
+                found.add(funcExpr);
+            }
+
+            for (XPathExpression arg : funcExpr.args) {
+                findCandidates(arg, found);
+            }
+        } else if (expression instanceof XPathBinaryOpExpr) {
+            findCandidates(((XPathBinaryOpExpr) expression).a, found);
+            findCandidates(((XPathBinaryOpExpr) expression).b, found);
+        } else if (expression instanceof XPathUnaryOpExpr) {
+            findCandidates(((XPathUnaryOpExpr) expression).a, found);
+        }
+    }
+
+    /**
+     * Whether the expression evaluates to the same value wherever in the form it's used. Relative paths and
+     * functions using the context node are only allowed in predicates, where they refer to the node being filtered.
+     */
+    private static boolean isShareable(XPathExpression expression, boolean inPredicate) {
+        if (expression instanceof XPathStringLiteral || expression instanceof XPathNumericLiteral) {
+            return true;
+        } else if (expression instanceof XPathFuncExpr) {
+            XPathFuncExpr funcExpr = (XPathFuncExpr) expression;
+            if (funcExpr.id.namespace != null || !DETERMINISTIC_FUNCTIONS.contains(funcExpr.id.name) || !funcExpr.isBuiltIn()) {
+                return false;
+            }
+
+            if (!inPredicate && funcExpr.args.length == 0 && CONTEXT_DEFAULT_FUNCTIONS.contains(funcExpr.id.name)) {
+                return false;
+            }
+
+            return areShareable(funcExpr.args, inPredicate);
+        } else if (expression instanceof XPathBinaryOpExpr) {
+            return isShareable(((XPathBinaryOpExpr) expression).a, inPredicate) && isShareable(((XPathBinaryOpExpr) expression).b, inPredicate);
+        } else if (expression instanceof XPathUnaryOpExpr) {
+            return isShareable(((XPathUnaryOpExpr) expression).a, inPredicate);
+        } else if (expression instanceof XPathPathExpr) {
+            XPathPathExpr pathExpr = (XPathPathExpr) expression;
+            if (pathExpr.init_context == XPathPathExpr.INIT_CONTEXT_RELATIVE && !inPredicate) {
+                return false;
+            }
+
+            if (pathExpr.init_context == XPathPathExpr.INIT_CONTEXT_EXPR) {
+                // Only instance('id') can start a path that's evaluated the same everywhere (current() can't)
+                if (!(pathExpr.filtExpr.x instanceof XPathFuncExpr) || !((XPathFuncExpr) pathExpr.filtExpr.x).id.toString().equals("instance")
+                    || !areShareable(pathExpr.filtExpr.predicates, true)) {
+                    return false;
+                }
+            }
+
+            for (XPathStep step : pathExpr.steps) {
+                if (!areShareable(step.predicates, true)) {
+                    return false;
+                }
+            }
+
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private static boolean areShareable(XPathExpression[] expressions, boolean inPredicate) {
+        for (XPathExpression expression : expressions) {
+            if (!isShareable(expression, inPredicate)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Whether the expression refers to nodes in a repeat of the main instance. Absolute paths are contextualized
+     * against the context they're evaluated in so they refer to the current repeat instance where there is one.
+     */
+    private static boolean isRepeatDependent(XPathExpression expression, FormInstance mainInstance) {
+        for (XPathPathExpr pathExpr : getPaths(expression)) {
+            if (pathExpr.init_context == XPathPathExpr.INIT_CONTEXT_ROOT) {
+                TreeReference reference = pathExpr.getReference();
+                for (int i = 0; i < reference.size(); i++) {
+                    if (mainInstance.getTemplate(reference.getSubReference(i)) != null) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static int getInnermostRepeatLevel(TreeReference context, FormInstance mainInstance) {
+        if (context == null || !context.isAbsolute()) {
+            return -1;
+        }
+
+        for (int i = context.size() - 1; i >= 0; i--) {
+            if (mainInstance.getTemplate(context.getSubReference(i)) != null) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns all paths in the expression, including those in predicates.
+     */
+    private static List<XPathPathExpr> getPaths(XPathExpression expression) {
+        List<XPathPathExpr> paths = new ArrayList<>();
+        collectPaths(expression, paths);
+        return paths;
+    }
+
+    private static void collectPaths(XPathExpression expression, List<XPathPathExpr> paths) {
+        if (expression instanceof XPathFuncExpr) {
+            for (XPathExpression arg : ((XPathFuncExpr) expression).args) {
+                collectPaths(arg, paths);
+            }
+        } else if (expression instanceof XPathBinaryOpExpr) {
+            collectPaths(((XPathBinaryOpExpr) expression).a, paths);
+            collectPaths(((XPathBinaryOpExpr) expression).b, paths);
+        } else if (expression instanceof XPathUnaryOpExpr) {
+            collectPaths(((XPathUnaryOpExpr) expression).a, paths);
+        } else if (expression instanceof XPathPathExpr) {
+            XPathPathExpr pathExpr = (XPathPathExpr) expression;
+            paths.add(pathExpr);
+
+            if (pathExpr.filtExpr != null) {
+                for (XPathExpression predicate : pathExpr.filtExpr.predicates) {
+                    collectPaths(predicate, paths);
+                }
+            }
+
+            for (XPathStep step : pathExpr.steps) {
+                for (XPathExpression predicate : step.predicates) {
+                    collectPaths(predicate, paths);
+                }
+            }
+        }
+    }
+}
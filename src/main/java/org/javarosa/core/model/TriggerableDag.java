@@ -19,6 +19,7 @@ package org.javarosa.core.model;
 import org.javarosa.core.model.condition.Condition;
 import org.javarosa.core.model.condition.EvaluationContext;
 import org.javarosa.core.model.condition.Recalculate;
+import org.javarosa.core.model.condition.SubexpressionCache;
 import org.javarosa.core.model.condition.Triggerable;
 import org.javarosa.core.model.instance.AbstractTreeElement;
 import org.javarosa.core.model.instance.FormInstance;
@@ -39,15 +40,23 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 import static java.util.Collections.emptySet;
 
@@ -92,6 +101,39 @@ public class TriggerableDag {
      */
     private final Map<TreeReference, Set<QuickTriggerable>> triggerablesPerTrigger = new HashMap<>();
 
+    /**
+     * The triggerables of {@link #triggerablesDAG} indexed by their ordinal
+     * (see {@link QuickTriggerable#getOrdinal()}).
+     */
+    private QuickTriggerable[] sortedTriggerables = new QuickTriggerable[0];
+
+    /**
+     * Stores the ordinals of the immediate cascades of each triggerable,
+     * indexed by the triggerable's ordinal.
+     */
+    private int[][] immediateCascades = new int[0][];
+
+    /**
+     * Stores the precomputed cascade of each trigger reference in
+     * {@link #triggerablesPerTrigger} as sets of ordinals.
+     */
+    private Map<TreeReference, Cascade> cascadesPerTrigger = new HashMap<>();
+
+    /**
+     * Stores the dependency level of each triggerable, indexed by ordinal.
+     * Triggerables with no dependencies are at level 0 and every other
+     * triggerable is one level deeper than the deepest triggerable it depends
+     * on. Ordinals are sorted by level.
+     */
+    private int[] levels = new int[0];
+
+    /**
+     * Stores, for each ordinal, the lowest ordinal of the triggerables at the
+     * same level with targets equal to, or ancestors or descendants of, its
+     * own. Triggerables sharing a group can't be evaluated concurrently.
+     */
+    private int[] targetGroups = new int[0];
+
     /**
      * An index to look up relevance conditions for each repeat. See buildRelevancePerRepeat.
      */
@@ -99,6 +141,28 @@ public class TriggerableDag {
 
     private boolean predicateCaching = true;
 
+    /**
+     * The sub-expressions that triggerables have in common, which are evaluated once per cascade. See
+     * {@link SharedSubexpressions}.
+     */
+    private SharedSubexpressions sharedSubexpressions = SharedSubexpressions.NONE;
+
+    private boolean subexpressionSharing = true;
+
+    /**
+     * When enabled, triggerables downstream of a cascade root are only evaluated if one of the triggerables they
+     * immediately depend on changed the state of one of its targets during the same cascade. See
+     * {@link #enableValueChangePropagation()}.
+     */
+    private boolean valueChangePropagation = false;
+
+    /**
+     * Used to evaluate independent triggerables concurrently when initializing
+     * the form. Initialization is serial when null. See
+     * {@link #enableParallelInitialization(Executor)}.
+     */
+    private Executor initializationExecutor;
+
     TriggerableDag(EventNotifierAccessor accessor) {
         this.accessor = accessor;
     }
@@ -131,12 +195,11 @@ public class TriggerableDag {
         QuickTriggerable newQuickTriggerable = QuickTriggerable.of(triggerable);
         allTriggerables.add(newQuickTriggerable);
 
-        // Build the triggerable per trigger index
+        // Build the triggerable per trigger index. Triggers are frozen so that their hashes are only computed once
+        // for all the lookups with the generic reference of each changed value.
         Set<TreeReference> triggers = triggerable.getTriggers();
         for (TreeReference trigger : triggers) {
-            if (!triggerablesPerTrigger.containsKey(trigger))
-                triggerablesPerTrigger.put(trigger, new HashSet<>());
-            triggerablesPerTrigger.get(trigger).add(newQuickTriggerable);
+            triggerablesPerTrigger.computeIfAbsent(trigger.freeze(), key -> new HashSet<>()).add(newQuickTriggerable);
         }
 
         return triggerable;
@@ -157,8 +220,117 @@ public class TriggerableDag {
      * conditions will be evaluated in the appropriate orders.
      */
     void finalizeTriggerables(FormInstance mainInstance, EvaluationContext ec) throws IllegalStateException {
-        triggerablesDAG = buildDag(allTriggerables, getDagEdges(mainInstance, ec));
+        Map<QuickTriggerable, Set<TreeReference>> updatedReferences = new HashMap<>();
+        triggerablesDAG = buildDag(allTriggerables, getDagEdges(mainInstance, ec, updatedReferences));
         relevancePerRepeat = buildRelevancePerRepeat(mainInstance, triggerablesDAG);
+        buildTopologicalIndex();
+        sharedSubexpressions = SharedSubexpressions.find(sortedTriggerables, updatedReferences, mainInstance);
+    }
+
+    /**
+     * Assigns each triggerable a dense ordinal following the order of
+     * {@link #triggerablesDAG} and precomputes the cascade of every trigger
+     * reference so that selecting the triggerables to evaluate after a change
+     * doesn't require walking the whole DAG.
+     */
+    private void buildTopologicalIndex() {
+        sortedTriggerables = triggerablesDAG.toArray(new QuickTriggerable[0]);
+        for (int i = 0; i < sortedTriggerables.length; i++) {
+            sortedTriggerables[i].setOrdinal(i);
+        }
+
+        immediateCascades = new int[sortedTriggerables.length][];
+        for (int i = 0; i < sortedTriggerables.length; i++) {
+            Set<QuickTriggerable> cascades = sortedTriggerables[i].getImmediateCascades();
+
+            int[] ordinals = new int[cascades.size()];
+            int j = 0;
+            for (QuickTriggerable cascade : cascades) {
+                ordinals[j++] = cascade.getOrdinal();
+            }
+            immediateCascades[i] = ordinals;
+        }
+
+        cascadesPerTrigger = new HashMap<>();
+        for (Map.Entry<TreeReference, Set<QuickTriggerable>> entry : triggerablesPerTrigger.entrySet()) {
+            BitSet roots = toOrdinals(entry.getValue());
+            cascadesPerTrigger.put(entry.getKey(), new Cascade(roots, getAllToTrigger(roots)));
+        }
+
+        levels = new int[sortedTriggerables.length];
+        for (int i = 0; i < sortedTriggerables.length; i++) {
+            for (int cascade : immediateCascades[i]) {
+                levels[cascade] = Math.max(levels[cascade], levels[i] + 1);
+            }
+        }
+
+        targetGroups = buildTargetGroups(sortedTriggerables, levels);
+    }
+
+    /**
+     * Groups the triggerables of each level that write to the same part of the
+     * main instance, either because they share a target or because one's
+     * target is an ancestor of the other's.
+     *
+     * @return the lowest ordinal in the group of each triggerable, indexed by ordinal
+     */
+    private static int[] buildTargetGroups(QuickTriggerable[] sortedTriggerables, int[] levels) {
+        int[] groups = new int[sortedTriggerables.length];
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = i;
+        }
+
+        Map<TreeReference, Integer> targetOwners = new HashMap<>();
+        Map<TreeReference, Integer> ancestorOwners = new HashMap<>();
+        for (int i = 0; i < sortedTriggerables.length; i++) {
+            if (i > 0 && levels[i] != levels[i - 1]) {
+                targetOwners.clear();
+                ancestorOwners.clear();
+            }
+
+            for (TreeReference target : sortedTriggerables[i].getTargets()) {
+                Integer owner = targetOwners.get(target);
+                if (owner != null) {
+                    union(groups, owner, i);
+                }
+
+                Integer descendantOwner = ancestorOwners.get(target);
+                if (descendantOwner != null) {
+                    union(groups, descendantOwner, i);
+                }
+
+                for (TreeReference ancestor = target.getParentRef(); ancestor != null; ancestor = ancestor.getParentRef()) {
+                    Integer ancestorOwner = targetOwners.get(ancestor);
+                    if (ancestorOwner != null) {
+                        union(groups, ancestorOwner, i);
+                    }
+
+                    ancestorOwners.putIfAbsent(ancestor, i);
+                }
+
+                targetOwners.putIfAbsent(target, i);
+            }
+        }
+
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = find(groups, i);
+        }
+
+        return groups;
+    }
+
+    private static int find(int[] groups, int i) {
+        while (groups[i] != i) {
+            groups[i] = groups[groups[i]];
+            i = groups[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] groups, int a, int b) {
+        int rootA = find(groups, a);
+        int rootB = find(groups, b);
+        groups[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
     }
 
     /**
@@ -174,14 +346,16 @@ public class TriggerableDag {
      *     the DAG again {@link Triggerable#getImmediateCascades()}</li>
      * </ul>
      */
-    private Set<QuickTriggerable[]> getDagEdges(FormInstance mainInstance, EvaluationContext ec) {
+    private Set<QuickTriggerable[]> getDagEdges(FormInstance mainInstance, EvaluationContext ec, Map<QuickTriggerable, Set<TreeReference>> updatedReferences) {
         Set<QuickTriggerable[]> edges = new HashSet<>();
         for (QuickTriggerable source : allTriggerables) {
             // Compute the set of edge targets from the source vertex in this
             // loop using the triggerable's target tree reference set.
             // We will create an edge for all the source's target references
             // that, in turn, trigger another triggerable.
-            Set<QuickTriggerable> targets = getDependantTriggerables(mainInstance, ec, source, triggerablesPerTrigger);
+            Set<TreeReference> updated = getUpdatedReferences(mainInstance, ec, source);
+            updatedReferences.put(source, updated);
+            Set<QuickTriggerable> targets = getDependantTriggerables(updated, triggerablesPerTrigger);
 
             // Account for cycles by self-reference
             if (targets.contains(source))
@@ -196,8 +370,11 @@ public class TriggerableDag {
         return edges;
     }
 
-    private static Set<QuickTriggerable> getDependantTriggerables(FormInstance mainInstance, EvaluationContext ec, QuickTriggerable triggerable, Map<TreeReference, Set<QuickTriggerable>> triggerIndex) {
-        Set<QuickTriggerable> allDependantTriggerables = new LinkedHashSet<>();
+    /**
+     * Returns the references of the nodes that evaluating the triggerable can update: its targets and, for
+     * triggerables that cascade to children, everything below them.
+     */
+    private static Set<TreeReference> getUpdatedReferences(FormInstance mainInstance, EvaluationContext ec, QuickTriggerable triggerable) {
         Set<TreeReference> targets = new HashSet<>();
         for (TreeReference target : triggerable.getTargets()) {
 
@@ -212,6 +389,12 @@ public class TriggerableDag {
             }
         }
 
+        return targets;
+    }
+
+    private static Set<QuickTriggerable> getDependantTriggerables(Set<TreeReference> targets, Map<TreeReference, Set<QuickTriggerable>> triggerIndex) {
+        Set<QuickTriggerable> allDependantTriggerables = new LinkedHashSet<>();
+
         // Now go through each of these updated nodes (generally
         // just 1 for a normal calculation,
         // multiple nodes if there's a relevance cascade.
@@ -443,26 +626,43 @@ public class TriggerableDag {
     /**
      * Walks the current set of conditions, and evaluates each of them with the
      * current context.
+     *
+     * @param parallelizable whether the triggerables can be evaluated concurrently if parallel initialization is
+     *                       enabled. See {@link #enableParallelInitialization(Executor)}.
      */
-    Collection<QuickTriggerable> initializeTriggerables(FormInstance mainInstance, EvaluationContext evalContext, TreeReference rootRef) {
-        return initializeTriggerables(mainInstance, evalContext, rootRef, new HashSet<>());
+    Collection<QuickTriggerable> initializeTriggerables(FormInstance mainInstance, EvaluationContext evalContext, TreeReference rootRef, boolean parallelizable) {
+        if (initializationExecutor != null && parallelizable) {
+            BitSet applicable = getApplicableTriggerables(rootRef);
+            BitSet toTrigger = getAllToTrigger(applicable);
+            return toTriggerables(doEvaluateTriggerablesInParallel(mainInstance, evalContext, toTrigger, applicable, rootRef, initializationExecutor));
+        }
+
+        return toTriggerables(initializeTriggerables(mainInstance, evalContext, rootRef, new BitSet()));
     }
 
-    private Set<QuickTriggerable> initializeTriggerables(FormInstance mainInstance, EvaluationContext evalContext, TreeReference rootRef, Set<QuickTriggerable> alreadyEvaluated) {
+    private BitSet initializeTriggerables(FormInstance mainInstance, EvaluationContext evalContext, TreeReference rootRef, BitSet alreadyEvaluated) {
+        BitSet applicable = getApplicableTriggerables(rootRef);
+        BitSet toTrigger = getAllToTrigger(applicable);
+        return doEvaluateTriggerables(mainInstance, evalContext, toTrigger, applicable, rootRef, new BitSet(), alreadyEvaluated);
+    }
+
+    /**
+     * Returns the ordinals of the triggerables with a target at or below the given reference.
+     */
+    private BitSet getApplicableTriggerables(TreeReference rootRef) {
         TreeReference genericRoot = rootRef.genericize();
 
-        Set<QuickTriggerable> applicable = new HashSet<>();
-        for (QuickTriggerable qt : triggerablesDAG) {
+        BitSet applicable = new BitSet(sortedTriggerables.length);
+        for (QuickTriggerable qt : sortedTriggerables) {
             for (TreeReference target : qt.getTargets()) {
                 if (genericRoot.isAncestorOf(target, false)) {
-                    applicable.add(qt);
+                    applicable.set(qt.getOrdinal());
                     break;
                 }
             }
         }
 
-        Set<QuickTriggerable> toTrigger = getAllToTrigger(applicable);
-        return doEvaluateTriggerables(mainInstance, evalContext, toTrigger, rootRef, new HashSet<>(), alreadyEvaluated);
+        return applicable;
     }
     //endregion
 
@@ -475,82 +675,200 @@ public class TriggerableDag {
      *            that was changed.
      */
     Collection<QuickTriggerable> triggerTriggerables(FormInstance mainInstance, EvaluationContext evalContext, TreeReference changedRef) {
-        return triggerTriggerables(mainInstance, evalContext, changedRef, new HashSet<>(), new HashSet<>());
+        return toTriggerables(triggerTriggerables(mainInstance, evalContext, changedRef, new BitSet(), new BitSet()));
     }
 
     /**
      * Step 2 in evaluating DAG computation updates from a value being changed in the instance. Identifies all triggerables to be evaluated and
      * evaluates them.
      */
-    private Set<QuickTriggerable> triggerTriggerables(FormInstance mainInstance, EvaluationContext evalContext, TreeReference changedRef, Set<QuickTriggerable> affectAllRepeatInstances, Set<QuickTriggerable> alreadyEvaluated) {
+    private BitSet triggerTriggerables(FormInstance mainInstance, EvaluationContext evalContext, TreeReference changedRef, BitSet affectAllRepeatInstances, BitSet alreadyEvaluated) {
         // The DAG uses generic references as keys
         TreeReference genericRef = changedRef.genericize();
 
-        Set<QuickTriggerable> cascadeRoots = triggerablesPerTrigger.get(genericRef);
-        if (cascadeRoots == null) {
+        Cascade cascade = cascadesPerTrigger.get(genericRef);
+        if (cascade == null) {
             return alreadyEvaluated;
         }
 
-        Set<QuickTriggerable> toTrigger = getAllToTrigger(cascadeRoots);
-        return doEvaluateTriggerables(mainInstance, evalContext, toTrigger, changedRef, affectAllRepeatInstances, alreadyEvaluated);
+        return doEvaluateTriggerables(mainInstance, evalContext, cascade.toTrigger, cascade.roots, changedRef, affectAllRepeatInstances, alreadyEvaluated);
     }
 
     /**
      * Given a set of cascade roots, return a set of all triggerables across those cascades.
+     * <p>
+     * Immediate cascades always have a greater ordinal than the triggerable that triggers them so a single sweep in
+     * ordinal order is enough to compute the transitive closure.
      *
      *  @param cascadeRoots  The roots of the triggerable cascades that must be triggered. Guaranteed not to be modified.
      */
-    private Set<QuickTriggerable> getAllToTrigger(Set<QuickTriggerable> cascadeRoots) {
-        Set<QuickTriggerable> refSet = new HashSet<>(cascadeRoots);
-        Set<QuickTriggerable> toTrigger = new HashSet<>(cascadeRoots);
-
-        while (!refSet.isEmpty()) {
-            Set<QuickTriggerable> newSet = new HashSet<>();
-            for (QuickTriggerable qt : refSet) {
-                // Leverage the saved DAG edges. This may over-fill the set of triggerables but should be faster than
-                // recomputing the edges. With value-change optimizations, this should be much faster.
-                for (QuickTriggerable qu : qt.getImmediateCascades()) {
-                    if (!toTrigger.contains(qu)) {
-                        toTrigger.add(qu);
-                        newSet.add(qu);
+    private BitSet getAllToTrigger(BitSet cascadeRoots) {
+        BitSet toTrigger = (BitSet) cascadeRoots.clone();
+
+        // Leverage the saved DAG edges. This may over-fill the set of triggerables but should be faster than
+        // recomputing the edges. With value-change optimizations, this should be much faster.
+        for (int i = toTrigger.nextSetBit(0); i >= 0; i = toTrigger.nextSetBit(i + 1)) {
+            for (int cascade : immediateCascades[i]) {
+                toTrigger.set(cascade);
+            }
+        }
+
+        return toTrigger;
+    }
+
+    /**
+     * Evaluates the given triggerables in DAG order.
+     *
+     * @param toTrigger    ordinals of the triggerables to evaluate. Not modified.
+     * @param cascadeRoots ordinals of the triggerables directly affected by the change. These are always evaluated.
+     *                     Other triggerables in toTrigger are skipped if value change propagation is enabled and none
+     *                     of the triggerables they depend on changed anything. Not modified.
+     * @return ordinals of the triggerables that were evaluated
+     */
+    private BitSet doEvaluateTriggerables(FormInstance mainInstance, EvaluationContext evalContext, BitSet toTrigger,
+                                          BitSet cascadeRoots, TreeReference changedRef,
+                                          BitSet affectAllRepeatInstances, BitSet alreadyEvaluated) {
+        BitSet evaluated = new BitSet(sortedTriggerables.length);
+        BitSet dirty = valueChangePropagation ? (BitSet) cascadeRoots.clone() : toTrigger;
+        SubexpressionCache subexpressionCache = subexpressionSharing ? sharedSubexpressions.newCache() : null;
+        EvaluationContext context = getCascadeContext(evalContext, subexpressionCache);
+        boolean detectChanges = valueChangePropagation || subexpressionCache != null;
+
+        // Ordinals follow the sorted DAG so iterating them in ascending order
+        // ensures the correct sequence of evaluations
+        for (int i = toTrigger.nextSetBit(0); i >= 0; i = toTrigger.nextSetBit(i + 1)) {
+            if (!alreadyEvaluated.get(i) && dirty.get(i)) {
+                boolean changed = evaluateTriggerable(mainInstance, context, sortedTriggerables[i], affectAllRepeatInstances.get(i), changedRef, detectChanges);
+
+                evaluated.set(i);
+
+                if (changed) {
+                    sharedSubexpressions.invalidate(subexpressionCache, i);
+                }
+
+                if (valueChangePropagation && changed) {
+                    for (int cascade : immediateCascades[i]) {
+                        dirty.set(cascade);
                     }
                 }
             }
-            refSet = newSet;
         }
 
-        return toTrigger;
+        return evaluated;
     }
 
-    private Set<QuickTriggerable> doEvaluateTriggerables(FormInstance mainInstance, EvaluationContext evalContext, Set<QuickTriggerable> toTrigger,
-                                                         TreeReference changedRef, Set<QuickTriggerable> affectAllRepeatInstances, Set<QuickTriggerable> alreadyEvaluated) {
-        Set<QuickTriggerable> evaluated = new HashSet<>();
+    /**
+     * Evaluates the given triggerables level by level. Triggerables in the same level don't depend on each other so
+     * they are evaluated concurrently using the executor unless they write to overlapping parts of the main instance.
+     * Each level is completed before the next one starts and events are published in DAG order once a level is done
+     * so results are the same as {@link #doEvaluateTriggerables}.
+     *
+     * @return ordinals of the triggerables that were evaluated
+     */
+    private BitSet doEvaluateTriggerablesInParallel(FormInstance mainInstance, EvaluationContext evalContext, BitSet toTrigger,
+                                                    BitSet cascadeRoots, TreeReference changedRef, Executor executor) {
+        BitSet evaluated = new BitSet(sortedTriggerables.length);
+        BitSet dirty = valueChangePropagation ? (BitSet) cascadeRoots.clone() : toTrigger;
+        SubexpressionCache subexpressionCache = subexpressionSharing ? sharedSubexpressions.newCache() : null;
+        EvaluationContext context = getCascadeContext(evalContext, subexpressionCache);
+        boolean detectChanges = valueChangePropagation || subexpressionCache != null;
+
+        int i = toTrigger.nextSetBit(0);
+        while (i >= 0) {
+            int level = levels[i];
+
+            Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+            for (; i >= 0 && levels[i] == level; i = toTrigger.nextSetBit(i + 1)) {
+                if (dirty.get(i)) {
+                    groups.computeIfAbsent(targetGroups[i], group -> new ArrayList<>()).add(i);
+                }
+            }
+
+            List<CompletableFuture<List<List<EvaluationResult>>>> futures = new ArrayList<>(groups.size());
+            for (List<Integer> group : groups.values()) {
+                Supplier<List<List<EvaluationResult>>> task = () -> {
+                    List<List<EvaluationResult>> groupResults = new ArrayList<>(group.size());
+                    for (int ordinal : group) {
+                        groupResults.add(applyTriggerable(mainInstance, context, sortedTriggerables[ordinal], false, changedRef, detectChanges));
+                    }
+                    return groupResults;
+                };
+
+                futures.add(groups.size() == 1
+                    ? CompletableFuture.completedFuture(task.get())
+                    : CompletableFuture.supplyAsync(task, executor));
+            }
+
+            // Publish in DAG order regardless of which group finished first
+            Map<Integer, List<EvaluationResult>> levelResults = new TreeMap<>();
+            Iterator<List<Integer>> groupIterator = groups.values().iterator();
+            for (CompletableFuture<List<List<EvaluationResult>>> future : futures) {
+                List<Integer> group = groupIterator.next();
+                List<List<EvaluationResult>> groupResults;
+                try {
+                    groupResults = future.join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw e;
+                }
 
-        EvaluationContext context;
+                for (int j = 0; j < group.size(); j++) {
+                    levelResults.put(group.get(j), groupResults.get(j));
+                }
+            }
+
+            for (Map.Entry<Integer, List<EvaluationResult>> result : levelResults.entrySet()) {
+                int ordinal = result.getKey();
+                boolean changed = publishResults(sortedTriggerables[ordinal], result.getValue());
+
+                evaluated.set(ordinal);
+
+                if (changed) {
+                    sharedSubexpressions.invalidate(subexpressionCache, ordinal);
+                }
+
+                if (valueChangePropagation && changed) {
+                    for (int cascade : immediateCascades[ordinal]) {
+                        dirty.set(cascade);
+                    }
+                }
+            }
+        }
+
+        return evaluated;
+    }
+
+    private EvaluationContext getCascadeContext(EvaluationContext evalContext, SubexpressionCache subexpressionCache) {
+        EvaluationContext context = evalContext;
         if (predicateCaching) {
-            context = new EvaluationContext(evalContext, Collections.singletonList(
+            context = new EvaluationContext(context, Collections.singletonList(
                 new IdempotentExpressionCacheFilterStrategy()
             ));
-        } else {
-            context = evalContext;
         }
 
-        // Evaluate the provided set of triggerables in the order they appear
-        // in the sorted DAG to ensure the correct sequence of evaluations
-        for (QuickTriggerable qt : triggerablesDAG)
-            if (toTrigger.contains(qt) && !alreadyEvaluated.contains(qt)) {
-                evaluateTriggerable(mainInstance, context, qt, affectAllRepeatInstances.contains(qt), changedRef);
-
-                evaluated.add(qt);
-            }
+        if (subexpressionCache != null) {
+            context = new EvaluationContext(context, subexpressionCache);
+        }
 
-        return evaluated;
+        return context;
     }
 
     /**
      * Step 3 in DAG cascade. Evaluate the individual triggerable expressions.
+     *
+     * @return whether the state of any of the triggerable's targets changed
      */
-    private void evaluateTriggerable(FormInstance mainInstance, EvaluationContext evalContext, QuickTriggerable toTrigger, boolean affectsAllRepeatInstances, TreeReference changedRef) {
+    private boolean evaluateTriggerable(FormInstance mainInstance, EvaluationContext evalContext, QuickTriggerable toTrigger, boolean affectsAllRepeatInstances, TreeReference changedRef, boolean detectChanges) {
+        return publishResults(toTrigger, applyTriggerable(mainInstance, evalContext, toTrigger, affectsAllRepeatInstances, changedRef, detectChanges));
+    }
+
+    /**
+     * @param detectChanges whether the results need to say if the targets changed (only needed for value change
+     *                      propagation and invalidating shared subexpressions)
+     */
+    private List<EvaluationResult> applyTriggerable(FormInstance mainInstance, EvaluationContext evalContext, QuickTriggerable toTrigger, boolean affectsAllRepeatInstances, TreeReference changedRef, boolean detectChanges) {
         // For addition or removal of repeat instances, contextualizing against the changed ref ensures that triggerables with triggers and targets inside
         // the repeat are only triggered for the changed instance. This is important for performance.
         TreeReference contextRef = affectsAllRepeatInstances ? toTrigger.getContext() : toTrigger.getContext().contextualize(changedRef);
@@ -563,52 +881,69 @@ public class TriggerableDag {
         for (TreeReference qualified : qualifiedReferences) {
             try {
                 // apply evaluates the expression in the given context and saves the result in the contextualized target(s).
-                evaluationResults.addAll(toTrigger.apply(mainInstance, new EvaluationContext(evalContext, qualified), qualified));
+                evaluationResults.addAll(toTrigger.apply(mainInstance, new EvaluationContext(evalContext, qualified), qualified, detectChanges));
             } catch (Exception e) {
                 throw new RuntimeException("Error evaluating field '" + contextRef.getNameLast() + "' (" + qualified + "): " + e.getMessage(), e);
             }
         }
 
+        return evaluationResults;
+    }
+
+    /**
+     * Publishes the results of evaluating a triggerable.
+     *
+     * @return whether the state of any of the triggerable's targets changed
+     */
+    private boolean publishResults(QuickTriggerable toTrigger, List<EvaluationResult> evaluationResults) {
         if (evaluationResults.size() > 0) {
             accessor.getEventNotifier().publishEvent(new Event(toTrigger.isCondition() ? "Condition" : "Recalculate", evaluationResults));
         }
+
+        for (EvaluationResult evaluationResult : evaluationResults) {
+            if (evaluationResult.isChanged()) {
+                return true;
+            }
+        }
+
+        return false;
     }
 
-    private void evaluateChildrenTriggerables(FormInstance mainInstance, EvaluationContext evalContext, TreeElement newNode, boolean createdOrDeleted, Set<QuickTriggerable> alreadyEvaluated) {
+    private void evaluateChildrenTriggerables(FormInstance mainInstance, EvaluationContext evalContext, TreeElement newNode, boolean createdOrDeleted, BitSet alreadyEvaluated) {
         // iterate into the group children and evaluate any triggerables that
         // depend on them, if they have not already been calculated.
         int numChildren = newNode.getNumChildren();
         for (int i = 0; i < numChildren; i++) {
             TreeReference anchorRef = newNode.getChildAt(i).getRef();
-            Set<QuickTriggerable> childTriggerables = triggerTriggerables(mainInstance, evalContext, anchorRef, new HashSet<>(), alreadyEvaluated);
-            publishSummary((createdOrDeleted ? "Created" : "Deleted"), anchorRef, childTriggerables);
+            BitSet childTriggerables = triggerTriggerables(mainInstance, evalContext, anchorRef, new BitSet(), alreadyEvaluated);
+            publishSummary((createdOrDeleted ? "Created" : "Deleted"), anchorRef, toTriggerables(childTriggerables));
         }
     }
     //endregion
 
     //region Repeat instance creation and deletion
     void createRepeatInstance(FormInstance mainInstance, EvaluationContext evalContext, TreeReference createdRef, TreeElement createdElement) {
-        Set<QuickTriggerable> affectAllInstances = getTriggerablesAffectingAllInstances(createdRef.genericize());
+        BitSet affectAllInstances = getTriggerablesAffectingAllInstances(createdRef.genericize());
 
         // trigger conditions that depend on the creation of this new node
-        Set<QuickTriggerable> qtSet1 = triggerTriggerables(mainInstance, evalContext, createdRef, affectAllInstances, new HashSet<>(0));
-        publishSummary("Created (phase 1)", createdRef, qtSet1);
+        BitSet qtSet1 = triggerTriggerables(mainInstance, evalContext, createdRef, affectAllInstances, new BitSet());
+        publishSummary("Created (phase 1)", createdRef, toTriggerables(qtSet1));
 
         // initialize conditions for the node (and sub-nodes)
-        Set<QuickTriggerable> qtSet2 = initializeTriggerables(mainInstance, evalContext, createdRef, new HashSet<>());
-        publishSummary("Created (phase 2)", createdRef, qtSet2);
+        BitSet qtSet2 = initializeTriggerables(mainInstance, evalContext, createdRef, new BitSet());
+        publishSummary("Created (phase 2)", createdRef, toTriggerables(qtSet2));
 
-        Set<QuickTriggerable> alreadyEvaluated = new HashSet<>(qtSet1);
-        alreadyEvaluated.addAll(qtSet2);
+        BitSet alreadyEvaluated = (BitSet) qtSet1.clone();
+        alreadyEvaluated.or(qtSet2);
 
         // TODO: add a test that fails without this or remove (all tests on v2.17 pre-DAG simplification pass)
         evaluateChildrenTriggerables(mainInstance, evalContext, createdElement, true, alreadyEvaluated);
     }
 
     void deleteRepeatInstance(FormInstance mainInstance, EvaluationContext evalContext, TreeReference deleteRef, TreeElement deletedElement) {
-        Set<QuickTriggerable> affectAllInstances = getTriggerablesAffectingAllInstances(deleteRef.genericize());
+        BitSet affectAllInstances = getTriggerablesAffectingAllInstances(deleteRef.genericize());
 
-        Set<QuickTriggerable> alreadyEvaluated = triggerTriggerables(mainInstance, evalContext, deleteRef, affectAllInstances, new HashSet<>());
+        BitSet alreadyEvaluated = triggerTriggerables(mainInstance, evalContext, deleteRef, affectAllInstances, new BitSet());
         evaluateChildrenTriggerables(mainInstance, evalContext, deletedElement, false, alreadyEvaluated);
     }
 
@@ -627,8 +962,10 @@ public class TriggerableDag {
      * </ul>
      *
      * This omits one case: references within a repeat instance to another repeat instance.
+     *
+     * @return the ordinals of the triggerables
      */
-    private Set<QuickTriggerable> getTriggerablesAffectingAllInstances(TreeReference genericRepeatRef) {
+    private BitSet getTriggerablesAffectingAllInstances(TreeReference genericRepeatRef) {
         Set<QuickTriggerable> result = new HashSet<>();
         Set<QuickTriggerable> cascadeRoots = triggerablesPerTrigger.get(genericRepeatRef);
         Set<QuickTriggerable> outsideRepeat = new HashSet<>();
@@ -663,7 +1000,7 @@ public class TriggerableDag {
             }
         }
 
-        return result;
+        return toOrdinals(result);
     }
 
     /**
@@ -692,17 +1029,33 @@ public class TriggerableDag {
         TreeReference targetRef = copyToElement.getRef();
 
         // trigger conditions that depend on the creation of these new nodes
-        Set<QuickTriggerable> qtSet1 = triggerTriggerables(mainInstance, evalContext, copyRef, new HashSet<>(), new HashSet<>());
+        BitSet qtSet1 = triggerTriggerables(mainInstance, evalContext, copyRef, new BitSet(), new BitSet());
 
-        publishSummary("Copied itemset answer (phase 1)", targetRef, qtSet1);
+        publishSummary("Copied itemset answer (phase 1)", targetRef, toTriggerables(qtSet1));
 
         // initialize conditions for the node (and sub-nodes)
-        Set<QuickTriggerable> qtSet2 = initializeTriggerables(mainInstance, evalContext, copyRef, qtSet1);
-        publishSummary("Copied itemset answer (phase 2)", targetRef, qtSet2);
+        BitSet qtSet2 = initializeTriggerables(mainInstance, evalContext, copyRef, qtSet1);
+        publishSummary("Copied itemset answer (phase 2)", targetRef, toTriggerables(qtSet2));
         // not 100% sure this will work since destRef is ambiguous as the last
         // step, but i think it's supposed to work
     }
 
+    private List<QuickTriggerable> toTriggerables(BitSet ordinals) {
+        List<QuickTriggerable> triggerables = new ArrayList<>(ordinals.cardinality());
+        for (int i = ordinals.nextSetBit(0); i >= 0; i = ordinals.nextSetBit(i + 1)) {
+            triggerables.add(sortedTriggerables[i]);
+        }
+        return triggerables;
+    }
+
+    private static BitSet toOrdinals(Collection<QuickTriggerable> triggerables) {
+        BitSet ordinals = new BitSet();
+        for (QuickTriggerable qt : triggerables) {
+            ordinals.set(qt.getOrdinal());
+        }
+        return ordinals;
+    }
+
     final void publishSummary(String lead, TreeReference ref, Collection<QuickTriggerable> quickTriggerables) {
         accessor.getEventNotifier().publishEvent(new Event(lead + ": " + (ref != null ? ref.toShortString() + ": " : "") + quickTriggerables.size() + " triggerables were fired."));
     }
@@ -749,4 +1102,53 @@ public class TriggerableDag {
     public void disablePredicateCaching() {
         predicateCaching = false;
     }
+
+    /**
+     * Evaluate every sub-expression that triggerables have in common (see {@link SharedSubexpressions}) each time
+     * it's used instead of once per cascade.
+     */
+    public void disableSubexpressionSharing() {
+        subexpressionSharing = false;
+    }
+
+    /**
+     * Only continue down cascades from triggerables that actually changed the value (or relevance, read only or
+     * required state) of one of their targets. This prunes subtrees of the DAG that would otherwise be re-evaluated
+     * to the same result. Triggerables using non-deterministic functions like random() or now() will only be
+     * re-evaluated when their inputs change.
+     */
+    public void enableValueChangePropagation() {
+        valueChangePropagation = true;
+    }
+
+    /**
+     * Evaluate independent triggerables concurrently using the given executor when initializing the form. The sorted
+     * DAG is split into dependency levels and the triggerables of a level are evaluated in parallel, except for
+     * triggerables targeting the same node (or one of its ancestors or descendants) which are evaluated together in
+     * DAG order. Results and published events are the same as with serial initialization.
+     * <p>
+     * Only initialization is affected. Answers, repeat creation and deletion are always evaluated serially. Expressions
+     * are evaluated against the main instance from the executor's threads so custom functions and filter strategies
+     * must be safe to call concurrently.
+     * <p>
+     * Secondary instances must not be modified while they are read concurrently so initialization is serial when any
+     * of the form's secondary instances still has partial elements (that would be loaded as they are accessed).
+     */
+    public void enableParallelInitialization(Executor executor) {
+        initializationExecutor = executor;
+    }
+
+    /**
+     * The triggerables to evaluate when a trigger changes, as ordinals. These are shared between evaluations so they
+     * must never be modified.
+     */
+    private static class Cascade {
+        final BitSet roots;
+        final BitSet toTrigger;
+
+        Cascade(BitSet roots, BitSet toTrigger) {
+            this.roots = roots;
+            this.toTrigger = toTrigger;
+        }
+    }
 }
@@ -58,8 +58,12 @@ public class Condition extends Triggerable {
     }
 
     @Override
-    public void apply(TreeReference ref, Object result, FormInstance mainInstance) {
+    public boolean apply(TreeReference ref, Object result, FormInstance mainInstance, boolean detectChanges) {
         TreeElement element = mainInstance.resolveReference(ref);
+        boolean wasRelevant = element.isRelevant();
+        boolean wasEnabled = element.isEnabled();
+        boolean wasRequired = element.isRequired();
+
         switch ((boolean) result ? trueAction : falseAction) {
             case RELEVANT:
                 element.setRelevant(true);
@@ -80,6 +84,10 @@ public class Condition extends Triggerable {
                 element.setRequired(false);
                 break;
         }
+
+        return wasRelevant != element.isRelevant()
+            || wasEnabled != element.isEnabled()
+            || wasRequired != element.isRequired();
     }
 
     @Override
@@ -70,6 +70,15 @@ public class EvaluationContext {
     private static final List<FilterStrategy> DEFAULT_FILTER_CHAIN = singletonList(new RawFilterStrategy());
     private List<FilterStrategy> filterStrategyChain = DEFAULT_FILTER_CHAIN;
 
+    private SubexpressionCache subexpressionCache;
+
+    /**
+     * The predicate being applied while expanding a reference and the value of its context side if a filter strategy
+     * evaluated it (see {@link #setPredicateContextValue})
+     */
+    private XPathExpression filteringPredicate;
+    private Object filteringPredicateContextValue;
+
     /**
      * Copy Constructor
      **/
@@ -96,6 +105,7 @@ public class EvaluationContext {
         currentContextPosition = base.currentContextPosition;
 
         filterStrategyChain = base.filterStrategyChain;
+        subexpressionCache = base.subexpressionCache;
     }
 
     public EvaluationContext(EvaluationContext base, List<FilterStrategy> beforeFilterStrategyChain) {
@@ -106,6 +116,15 @@ public class EvaluationContext {
         ).collect(Collectors.toList());
     }
 
+    /**
+     * Creates a context that memoizes the values of shared sub-expressions in the given cache. The cache is
+     * carried over to every context derived from this one.
+     */
+    public EvaluationContext(EvaluationContext base, SubexpressionCache subexpressionCache) {
+        this(base);
+        this.subexpressionCache = subexpressionCache;
+    }
+
     public EvaluationContext(EvaluationContext base, TreeReference context) {
         this(base);
         this.contextNode = context;
@@ -164,6 +183,10 @@ public class EvaluationContext {
         return fallbackFunctionHandler;
     }
 
+    public SubexpressionCache getSubexpressionCache() {
+        return subexpressionCache;
+    }
+
     public HashMap<String, IFunctionHandler> getFunctionHandlers() {
         return functionHandlers;
     }
@@ -234,6 +257,39 @@ public class EvaluationContext {
      *     INDEX_TEMPLATE is explicitly set.
      */
     public List<TreeReference> expandReference(TreeReference ref, boolean includeTemplates) {
+        return expandReference(ref, includeTemplates, null);
+    }
+
+    /**
+     * Expands the reference (see {@link #expandReference(TreeReference)}) and drops the nodes that aren't relevant.
+     * Nodes are checked using the elements found while expanding the reference so this is linear in the number of
+     * nodes rather than resolving every reference again.
+     *
+     * @return Null if 'ref' is relative reference. Otherwise, the unambiguous references of the relevant nodes that
+     *     match 'ref'.
+     */
+    public List<TreeReference> expandRelevantReferences(TreeReference ref) {
+        List<AbstractTreeElement> elements = new ArrayList<>(1);
+        List<TreeReference> treeReferences = expandReference(ref, false, elements);
+        if (treeReferences == null) {
+            return null;
+        }
+
+        int relevant = 0;
+        for (int i = 0; i < treeReferences.size(); i++) {
+            if (elements.get(i).isRelevant()) {
+                treeReferences.set(relevant++, treeReferences.get(i));
+            }
+        }
+        treeReferences.subList(relevant, treeReferences.size()).clear();
+
+        return treeReferences;
+    }
+
+    /**
+     * @param elements if not null, collects the element each of the returned references points to
+     */
+    private List<TreeReference> expandReference(TreeReference ref, boolean includeTemplates, List<AbstractTreeElement> elements) {
         if (!ref.isAbsolute()) {
             return null;
         }
@@ -247,7 +303,7 @@ public class EvaluationContext {
 
         List<TreeReference> treeReferences = new ArrayList<>(1);
         TreeReference workingRef = baseInstance.getRoot().getRef();
-        expandReferenceAccumulator(ref, baseInstance, workingRef, treeReferences, includeTemplates);
+        expandReferenceAccumulator(ref, baseInstance, workingRef, null, treeReferences, elements, includeTemplates);
         return treeReferences;
     }
 
@@ -257,10 +313,14 @@ public class EvaluationContext {
      * @param sourceRef      original path we're matching against
      * @param sourceInstance original node obtained from sourceRef
      * @param workingRef     explicit path that refers to the current node
+     * @param workingNode    the current node if it's already known, null otherwise
      * @param refs           accumulator List to collect matching paths.
+     * @param elements       accumulator List to collect the nodes matching paths point to, in the same order. Null if
+     *                       they're not needed.
      */
     private void expandReferenceAccumulator(TreeReference sourceRef, DataInstance sourceInstance,
-                                            TreeReference workingRef, List<TreeReference> refs,
+                                            TreeReference workingRef, AbstractTreeElement workingNode,
+                                            List<TreeReference> refs, List<AbstractTreeElement> elements,
                                             boolean includeTemplates) {
         final int depth = workingRef.size();
 
@@ -268,6 +328,9 @@ public class EvaluationContext {
         if (depth == sourceRef.size()) {
             //TODO: Do we need to clone these references?
             refs.add(workingRef);
+            if (elements != null) {
+                elements.add(resolve(sourceInstance, workingRef, workingNode));
+            }
             return;
         }
 
@@ -286,12 +349,14 @@ public class EvaluationContext {
         //ETHERTON: Is this where we should test for predicates?
         final int mult = sourceRef.getMultiplicity(depth);
         final List<TreeReference> treeReferences = new ArrayList<>(1);
+        final List<AbstractTreeElement> treeElements = new ArrayList<>(1);
 
-        final AbstractTreeElement node = sourceInstance.resolveReference(workingRef);
+        final AbstractTreeElement node = resolve(sourceInstance, workingRef, workingNode);
+        List<TreeElement> childrenWithName = null;
 
         if (node.getNumChildren() > 0) {
             if (mult == TreeReference.INDEX_UNBOUND) {
-                final List<TreeElement> childrenWithName = node.getChildrenWithName(name);
+                childrenWithName = node.getChildrenWithName(name);
                 final int count = childrenWithName.size();
                 for (int i = 0; i < count; i++) {
                     TreeElement child = childrenWithName.get(i);
@@ -299,11 +364,13 @@ public class EvaluationContext {
                         throw new IllegalStateException("Unexpected multiplicity mismatch");
                     }
                     treeReferences.add(child.getRef());
+                    treeElements.add(child);
                 }
                 if (includeTemplates) {
                     AbstractTreeElement template = node.getChild(name, TreeReference.INDEX_TEMPLATE);
                     if (template != null) {
                         treeReferences.add(template.getRef());
+                        treeElements.add(template);
                     }
                 }
             } else if (mult != TreeReference.INDEX_ATTRIBUTE) {
@@ -313,6 +380,7 @@ public class EvaluationContext {
                 AbstractTreeElement child = node.getChild(name, mult);
                 if (child != null) {
                     treeReferences.add(child.getRef());
+                    treeElements.add(child);
                 }
             }
         }
@@ -321,6 +389,7 @@ public class EvaluationContext {
             AbstractTreeElement attribute = node.getAttribute(null, name);
             if (attribute != null) {
                 treeReferences.add(attribute.getRef());
+                treeElements.add(attribute);
             }
         }
 
@@ -329,47 +398,84 @@ public class EvaluationContext {
         }
 
         if (predicates != null) {
-            TreeReference nodeSetRef = workingRef.clone();
-            nodeSetRef.add(name, -1);
+            TreeReference nodeSetRef = workingRef.extendRef(name, TreeReference.INDEX_UNBOUND).freeze();
+
+            // The working reference is fully qualified so the nodeset reference identifies the children to filter
+            // until a predicate has been applied. After that, it's qualified by the predicates that were applied (see
+            // FilteredNodeSetReference) and only if that's not possible do predicates fall back to raw evaluation.
+            List<FilterStrategy> filterChain = filterStrategyChain;
 
             for (int i = 0; i < predicates.size(); i++) {
-                List<FilterStrategy> filterChain;
-                if (i == 0 && hasNoPredicates(nodeSetRef)) {
-                    filterChain = filterStrategyChain;
-                } else {
-                    filterChain = DEFAULT_FILTER_CHAIN;
+                XPathExpression predicate = predicates.get(i);
+
+                // Evaluating a predicate's context side can expand references against this context too
+                XPathExpression outerPredicate = filteringPredicate;
+                Object outerContextValue = filteringPredicateContextValue;
+                filteringPredicate = predicate;
+                filteringPredicateContextValue = null;
+
+                List<TreeReference> passed;
+                Object contextValue;
+                try {
+                    passed = filterWithPredicate(
+                        sourceInstance,
+                        nodeSetRef,
+                        predicate,
+                        treeReferences,
+                        filterChain
+                    );
+                    contextValue = filteringPredicateContextValue;
+                } finally {
+                    filteringPredicate = outerPredicate;
+                    filteringPredicateContextValue = outerContextValue;
                 }
 
-                List<TreeReference> passed = filterWithPredicate(
-                    sourceInstance,
-                    nodeSetRef,
-                    predicates.get(i),
-                    treeReferences,
-                    filterChain
-                );
-
                 treeReferences.clear();
                 treeReferences.addAll(passed);
 
                 if (predicateEvaluationProgress != null) {
                     predicateEvaluationProgress[0]++;
                 }
+
+                if (filterChain != DEFAULT_FILTER_CHAIN && i < predicates.size() - 1) {
+                    // Nothing is left to filter if no node passed (and the predicate might not have been evaluated)
+                    TreeReference filteredNodeSetRef = treeReferences.isEmpty()
+                        ? null
+                        : FilteredNodeSetReference.filter(nodeSetRef, predicate, contextValue, sourceInstance, this);
+                    if (filteredNodeSetRef != null) {
+                        nodeSetRef = filteredNodeSetRef;
+                    } else {
+                        filterChain = DEFAULT_FILTER_CHAIN;
+                    }
+                }
+            }
+
+            // Filters only return references so find the elements they point to again. Children with the same name
+            // are indexed by multiplicity, anything else is resolved when needed.
+            treeElements.clear();
+            for (TreeReference treeRef : treeReferences) {
+                int childMult = treeRef.getMultiplicity(depth);
+                treeElements.add(childrenWithName != null && childMult >= 0 && childMult < childrenWithName.size()
+                    ? childrenWithName.get(childMult)
+                    : null);
             }
         }
 
-        for (TreeReference treeRef : treeReferences) {
-            expandReferenceAccumulator(sourceRef, sourceInstance, treeRef, refs, includeTemplates);
+        for (int i = 0; i < treeReferences.size(); i++) {
+            expandReferenceAccumulator(sourceRef, sourceInstance, treeReferences.get(i), treeElements.get(i), refs, elements, includeTemplates);
         }
     }
 
-    private static boolean hasNoPredicates(TreeReference nodeSet) {
-        for (int i = 1; i < nodeSet.size(); i++) {
-            if (nodeSet.getMultiplicity(i) > -1) {
-                return false;
-            }
+    /**
+     * Returns the node the reference points to, using the one found while expanding a reference if possible. Partial
+     * elements are always resolved through the instance, which may need to load them.
+     */
+    private static AbstractTreeElement resolve(DataInstance sourceInstance, TreeReference ref, AbstractTreeElement known) {
+        if (known == null || (known instanceof TreeElement && ((TreeElement) known).isPartial())) {
+            return sourceInstance.resolveReference(ref);
         }
 
-        return true;
+        return known;
     }
 
     @NotNull
@@ -384,6 +490,17 @@ public class EvaluationContext {
         });
     }
 
+    /**
+     * Records the value of the context side of a predicate (see {@link org.javarosa.core.model.CompareToNodeExpression})
+     * evaluated by a {@link FilterStrategy} so that it doesn't need to be evaluated again to identify the nodes that
+     * passed it. Ignored unless the predicate is the one currently being applied while expanding a reference.
+     */
+    public void setPredicateContextValue(XPathExpression predicate, Object value) {
+        if (predicate == filteringPredicate) {
+            filteringPredicateContextValue = value;
+        }
+    }
+
     public EvaluationContext rescope(TreeReference treeRef, int currentContextPosition) {
         EvaluationContext ec = new EvaluationContext(this, treeRef);
         // broken:
@@ -0,0 +1,138 @@
+package org.javarosa.core.model.condition;
+
+import org.javarosa.core.model.CompareToNodeExpression;
+import org.javarosa.core.model.instance.DataInstance;
+import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.xpath.expr.XPathBinaryOpExpr;
+import org.javarosa.xpath.expr.XPathExpression;
+import org.javarosa.xpath.expr.XPathFuncExpr;
+import org.javarosa.xpath.expr.XPathNumericLiteral;
+import org.javarosa.xpath.expr.XPathPathExpr;
+import org.javarosa.xpath.expr.XPathStep;
+import org.javarosa.xpath.expr.XPathStringLiteral;
+import org.javarosa.xpath.expr.XPathUnaryOpExpr;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The reference of a nodeset that has already been filtered by some of the predicates of its last level. It's passed
+ * to {@link FilterStrategy} implementations for the predicates that follow (like {@code [b = /data/y]} in
+ * {@code item[a = /data/x][b = /data/y]}) so that they can tell differently filtered nodesets apart: its string form
+ * and equality include the predicates applied so far, with the value their context side had when they were applied.
+ */
+class FilteredNodeSetReference extends TreeReference {
+
+    private final String filters;
+
+    private FilteredNodeSetReference(TreeReference nodeSet, String filters) {
+        setRefLevel(nodeSet.getRefLevel());
+        setInstanceName(nodeSet.getInstanceName());
+        setContextType(nodeSet.getContextType());
+        for (int i = 0; i < nodeSet.size(); i++) {
+            add(nodeSet.getName(i), nodeSet.getMultiplicity(i));
+        }
+
+        this.filters = filters;
+    }
+
+    /**
+     * Returns the reference of the nodeset after filtering it with the predicate or null if the nodes that pass the
+     * predicate can't be identified by a string. That's the case if the predicate depends on anything other than
+     * the nodes being filtered, unless it compares them to a single value (see {@link CompareToNodeExpression}).
+     *
+     * @param contextValue the value of the predicate's context side if a filter strategy already evaluated it (it's
+     *                     evaluated here otherwise)
+     */
+    @Nullable
+    static TreeReference filter(TreeReference nodeSet, XPathExpression predicate, @Nullable Object contextValue, DataInstance sourceInstance, EvaluationContext evaluationContext) {
+        String filter;
+        if (dependsOnNodeOnly(predicate)) {
+            filter = "[" + predicate + "]";
+        } else {
+            CompareToNodeExpression candidate = CompareToNodeExpression.parse(predicate);
+            if (candidate == null || !dependsOnNodeOnly(candidate.getNodeSide())) {
+                return null;
+            }
+
+            if (contextValue == null) {
+                contextValue = candidate.evalContextSide(sourceInstance, evaluationContext);
+            }
+
+            if (contextValue == null) {
+                return null;
+            }
+
+            filter = "[" + predicate + "{" + contextValue.getClass().getSimpleName() + ":" + contextValue + "}]";
+        }
+
+        String filters = nodeSet instanceof FilteredNodeSetReference ? ((FilteredNodeSetReference) nodeSet).filters : "";
+        return new FilteredNodeSetReference(nodeSet, filters + filter);
+    }
+
+    /**
+     * Filtered references are never changed after they're built so they're already safe to use as keys.
+     */
+    @Override
+    public TreeReference freeze() {
+        return this;
+    }
+
+    @Override
+    protected Object getQualifier() {
+        return filters;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + filters.hashCode();
+    }
+
+    @Override
+    public String toString(boolean includePredicates, boolean zeroIndexMult) {
+        String nodeSet = super.toString(includePredicates, zeroIndexMult);
+        return includePredicates ? nodeSet + filters : nodeSet;
+    }
+
+    /**
+     * Whether the expression only depends on the node it's evaluated against (and not on the form's state or the
+     * position of the node in the nodeset).
+     */
+    private static boolean dependsOnNodeOnly(XPathExpression expression) {
+        if (expression instanceof XPathStringLiteral || expression instanceof XPathNumericLiteral) {
+            return true;
+        } else if (expression instanceof XPathPathExpr) {
+            XPathPathExpr pathExpr = (XPathPathExpr) expression;
+            if (pathExpr.init_context != XPathPathExpr.INIT_CONTEXT_RELATIVE) {
+                return false;
+            }
+
+            for (XPathStep step : pathExpr.steps) {
+                for (XPathExpression stepPredicate : step.predicates) {
+                    if (!dependsOnNodeOnly(stepPredicate)) {
+                        return false;
+                    }
+                }
+            }
+
+            return true;
+        } else if (expression instanceof XPathBinaryOpExpr) {
+            return dependsOnNodeOnly(((XPathBinaryOpExpr) expression).a) && dependsOnNodeOnly(((XPathBinaryOpExpr) expression).b);
+        } else if (expression instanceof XPathUnaryOpExpr) {
+            return dependsOnNodeOnly(((XPathUnaryOpExpr) expression).a);
+        } else if (expression instanceof XPathFuncExpr) {
+            XPathFuncExpr funcExpr = (XPathFuncExpr) expression;
+            if (!funcExpr.isIdempotent()) {
+                return false;
+            }
+
+            for (XPathExpression arg : funcExpr.args) {
+                if (!dependsOnNodeOnly(arg)) {
+                    return false;
+                }
+            }
+
+            return true;
+        } else {
+            return false;
+        }
+    }
+}
@@ -55,9 +55,24 @@ public class Recalculate extends Triggerable {
     }
 
     @Override
-    public void apply(TreeReference ref, Object result, FormInstance mainInstance) {
+    public boolean apply(TreeReference ref, Object result, FormInstance mainInstance, boolean detectChanges) {
         TreeElement element = mainInstance.resolveReference(ref);
-        element.setAnswer(IAnswerData.wrapData(result, element.getDataType()));
+        IAnswerData previous = element.getValue();
+        IAnswerData answer = IAnswerData.wrapData(result, element.getDataType());
+        element.setAnswer(answer);
+        return !detectChanges || !isSameAnswer(previous, answer);
+    }
+
+    private static boolean isSameAnswer(IAnswerData a, IAnswerData b) {
+        if (a == b) {
+            return true;
+        }
+
+        if (a == null || b == null || a.getClass() != b.getClass()) {
+            return false;
+        }
+
+        return a.uncast().getString().equals(b.uncast().getString());
     }
 
     @Override
@@ -0,0 +1,104 @@
+package org.javarosa.core.model.condition;
+
+import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.xpath.XPathNodeset;
+import org.javarosa.xpath.expr.XPathExpression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Memoizes the values of sub-expressions that are shared between several triggerables of a form for the duration of
+ * a cascade. Shared occurrences are identified by instance (not by equality) and every occurrence maps to the slot of
+ * the sub-expressions it's equal to. Values of sub-expressions that depend on the repeat instance they're evaluated
+ * in are kept per instance of the innermost repeat of the evaluation context.
+ * <p>
+ * The cache doesn't know which nodes a value was computed from so whoever changes those nodes during the cascade
+ * must {@link #invalidate(int)} the affected slots. Node-sets are never cached as they are bound to the context they
+ * were evaluated in. Safe to share between threads evaluating in parallel.
+ */
+public class SubexpressionCache {
+
+    /**
+     * Stands in for the scope of values that don't depend on the repeat instance
+     */
+    private static final Object UNSCOPED = new Object();
+
+    private final Map<XPathExpression, Occurrence> occurrences;
+    private final List<Map<Object, Object>> values;
+
+    /**
+     * @param occurrences the shared occurrences. Expected to be an identity map and never modified.
+     * @param slotCount   the number of distinct shared sub-expressions
+     */
+    public SubexpressionCache(Map<XPathExpression, Occurrence> occurrences, int slotCount) {
+        this.occurrences = occurrences;
+
+        values = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            values.add(new ConcurrentHashMap<>());
+        }
+    }
+
+    public boolean isShared(XPathExpression expression) {
+        return occurrences.containsKey(expression);
+    }
+
+    /**
+     * Returns the cached value of a shared occurrence or evaluates it if there's none for the occurrence's slot
+     * (and scope) yet.
+     */
+    public Object eval(XPathExpression expression, EvaluationContext evalContext, Supplier<Object> evaluation) {
+        Occurrence occurrence = occurrences.get(expression);
+        Map<Object, Object> slotValues = values.get(occurrence.slot);
+        Object scope = getScope(occurrence, evalContext.getContextRef());
+
+        Object value = slotValues.get(scope);
+        if (value == null) {
+            value = evaluation.get();
+            if (value != null && !(value instanceof XPathNodeset)) {
+                slotValues.put(scope, value);
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Drops the values cached for the given slot in every scope.
+     */
+    public void invalidate(int slot) {
+        values.get(slot).clear();
+    }
+
+    private static Object getScope(Occurrence occurrence, TreeReference contextRef) {
+        if (occurrence.scopeLevel < 0 || contextRef == null) {
+            return UNSCOPED;
+        }
+
+        return occurrence.scopeLevel < contextRef.size() - 1
+            ? contextRef.getSubReference(occurrence.scopeLevel)
+            : contextRef;
+    }
+
+    /**
+     * Where a shared sub-expression is used.
+     */
+    public static class Occurrence {
+        final int slot;
+        final int scopeLevel;
+
+        /**
+         * @param slot       identifies the sub-expressions equal to this one
+         * @param scopeLevel the level of the innermost repeat in the context the occurrence is evaluated in if its
+         *                   value depends on the repeat instance or -1 if it doesn't
+         */
+        public Occurrence(int slot, int scopeLevel) {
+            this.slot = slot;
+            this.scopeLevel = scopeLevel;
+        }
+    }
+}
@@ -97,7 +97,14 @@ public abstract class Triggerable implements Externalizable {
 
     public abstract Object eval(FormInstance instance, EvaluationContext ec);
 
-    protected abstract void apply(TreeReference ref, Object result, FormInstance mainInstance);
+    /**
+     * Applies the result of evaluation to the node at the given reference.
+     *
+     * @param detectChanges whether the caller needs to know if the node changed. If not, implementations can skip
+     *                      comparing the node's state and report it as changed.
+     * @return whether the node's state (value or condition flag) changed as a result
+     */
+    protected abstract boolean apply(TreeReference ref, Object result, FormInstance mainInstance, boolean detectChanges);
 
     public abstract boolean canCascade();
 
@@ -111,6 +118,16 @@ public abstract class Triggerable implements Externalizable {
      * Dispatches all of the evaluation
      */
     public final List<EvaluationResult> apply(FormInstance mainInstance, EvaluationContext parentContext, TreeReference context) {
+        return apply(mainInstance, parentContext, context, true);
+    }
+
+    /**
+     * Dispatches all of the evaluation
+     *
+     * @param detectChanges whether the {@link EvaluationResult}s need to say if the affected nodes changed (they're
+     *                      all reported as changed otherwise)
+     */
+    public final List<EvaluationResult> apply(FormInstance mainInstance, EvaluationContext parentContext, TreeReference context, boolean detectChanges) {
         //The triggeringRoot is the highest level of actual data we can inquire about, but it _isn't_ necessarily the basis
         //for the actual expressions, so we need genericize that ref against the current context
         TreeReference ungenericised = originalContextRef.contextualize(context);
@@ -124,9 +141,9 @@ public abstract class Triggerable implements Externalizable {
             List<TreeReference> v = ec.expandReference(targetRef);
 
             for (TreeReference affectedRef : v) {
-                apply(affectedRef, result, mainInstance);
+                boolean changed = apply(affectedRef, result, mainInstance, detectChanges);
 
-                affectedNodes.add(new EvaluationResult(affectedRef, result));
+                affectedNodes.add(new EvaluationResult(affectedRef, result, changed));
             }
         }
 
@@ -16,6 +16,7 @@
 
 package org.javarosa.core.model.data;
 
+import org.javarosa.core.model.data.helper.SelectedValues;
 import org.javarosa.core.model.data.helper.Selection;
 import org.javarosa.core.model.utils.DateUtils;
 import org.javarosa.core.util.externalizable.DeserializationException;
@@ -40,6 +41,7 @@ import java.util.Objects;
  */
 public class MultipleItemsData implements IAnswerData {
     private List<Selection> vs; //List of Selection
+    private SelectedValues selectedValues;
 
     /**
      * Empty Constructor, necessary for dynamic construction during deserialization.
@@ -80,6 +82,19 @@ public class MultipleItemsData implements IAnswerData {
         return new ArrayList<>(vs);
     }
 
+    /**
+     * @return the selected values as the XPath selection functions see them, tokenized only once for each answer
+     */
+    public @NotNull SelectedValues getSelectedValues() {
+        SelectedValues selectedValues = this.selectedValues;
+        if (selectedValues == null || !selectedValues.isOf(vs)) {
+            selectedValues = SelectedValues.of(vs);
+            this.selectedValues = selectedValues;
+        }
+
+        return selectedValues;
+    }
+
     /**
      * @return THE XMLVALUE!!
      */
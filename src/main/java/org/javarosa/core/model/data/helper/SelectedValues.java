@@ -0,0 +1,103 @@
+package org.javarosa.core.model.data.helper;
+
+import org.javarosa.core.model.utils.DateUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The values of a multiple select answer as the XPath selection functions ({@code selected()},
+ * {@code count-selected()} and {@code selected-at()}) see them: the space separated tokens of the answer's XML value.
+ * Membership tests use a hash set of the values. Views are immutable so they can be shared between threads.
+ * <p>
+ * Views of {@link org.javarosa.core.model.data.MultipleItemsData} answers are built from their selections and kept
+ * with the answer so they're only tokenized again when the answer changes.
+ */
+public final class SelectedValues {
+
+    private final List<String> values;
+    /**
+     * The selection values the view was built from, if it was built from selections
+     */
+    private final String[] sources;
+    private final Set<String> valueSet;
+
+    private SelectedValues(List<String> values, String[] sources) {
+        this.values = values;
+        this.sources = sources;
+        this.valueSet = new HashSet<>(values);
+    }
+
+    /**
+     * @param serialized the XML value of a multiple select answer (space separated values)
+     */
+    @NotNull
+    public static SelectedValues parse(@NotNull String serialized) {
+        return new SelectedValues(DateUtils.split(serialized, " ", true), null);
+    }
+
+    @NotNull
+    public static SelectedValues of(@NotNull List<Selection> selections) {
+        String[] sources = new String[selections.size()];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = selections.get(i).getValue();
+        }
+
+        List<String> values = new ArrayList<>(sources.length);
+        for (String source : sources) {
+            if (source.indexOf(' ') >= 0) {
+                // Values with spaces are more than one token in the XML value
+                values.addAll(DateUtils.split(source, " ", true));
+            } else {
+                values.add(source);
+            }
+        }
+
+        return new SelectedValues(values, sources);
+    }
+
+    /**
+     * Whether this view was built from the given selections and they haven't changed since.
+     */
+    public boolean isOf(@NotNull List<Selection> selections) {
+        if (sources == null || sources.length != selections.size()) {
+            return false;
+        }
+
+        for (int i = 0; i < sources.length; i++) {
+            if (selections.get(i).getValue() != sources[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public boolean contains(@NotNull String value) {
+        return valueSet.contains(value);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public String get(int index) {
+        return values.get(index);
+    }
+
+    public List<String> getValues() {
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * @return the XML value the view represents
+     */
+    @Override
+    public String toString() {
+        return String.join(" ", values);
+    }
+}
@@ -0,0 +1,26 @@
+package org.javarosa.core.model.instance;
+
+import org.javarosa.xform.parse.ExternalInstanceParser;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Alternative to {@link CsvExternalInstance} that stores CSV secondary instances in a {@link CsvTable} rather than
+ * as a tree with an element per cell. This makes a big difference in memory use for large CSV files with repeated
+ * values. The resulting instance is read only.
+ *
+ * @see ExternalInstanceParser#addFileInstanceParser(ExternalInstanceParser.FileInstanceParser)
+ */
+public class ColumnarCsvExternalInstance implements ExternalInstanceParser.FileInstanceParser {
+
+    @Override
+    public TreeElement parse(@NotNull String instanceId, @NotNull String path) throws IOException {
+        return new CsvTableElement(instanceId, CsvTable.parse(path));
+    }
+
+    @Override
+    public boolean isSupported(@NotNull String instanceId, @NotNull String instanceSrc) {
+        return instanceSrc.contains("file-csv");
+    }
+}
@@ -9,16 +9,22 @@ import org.jetbrains.annotations.NotNull;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.Charset;
 
 public class CsvExternalInstance implements ExternalInstanceParser.FileInstanceParser {
 
     public TreeElement parse(@NotNull String instanceId, @NotNull String path) throws IOException {
+        return parse(instanceId, path, Charset.defaultCharset());
+    }
+
+    static TreeElement parse(String instanceId, String path, Charset charset) throws IOException {
         final TreeElement root = new TreeElement("root", 0);
         root.setInstanceName(instanceId);
 
         try (
             final CSVParser csvParser = new SecondaryInstanceCSVParserBuilder()
                 .path(path)
+                .charset(charset)
                 .build()
         ) {
             final String[] fieldNames = csvParser.getHeaderMap().keySet().toArray(new String[0]);
@@ -0,0 +1,270 @@
+package org.javarosa.core.model.instance;
+
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.javarosa.core.util.ByteBufferInputStream;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, column oriented copy of a CSV file. Each column is either stored as a dictionary of its distinct values
+ * plus a code per row (when it has at most {@link #MAX_DICTIONARY_SIZE} distinct values) or as a plain array of
+ * values. Either way, equal values in a column share a single String so memory scales with the number of distinct
+ * values rather than the number of cells.
+ * <p>
+ * Records are streamed straight into the columns as the file is parsed.
+ */
+public final class CsvTable {
+
+    static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+    private final String[] columnNames;
+    private final Map<String, Integer> columnIndexes;
+    private final Column[] columns;
+    private final int rowCount;
+
+    private CsvTable(String[] columnNames, Column[] columns, int rowCount) {
+        this.columnNames = columnNames;
+        this.columns = columns;
+        this.rowCount = rowCount;
+
+        columnIndexes = new HashMap<>();
+        for (int i = 0; i < columnNames.length; i++) {
+            columnIndexes.putIfAbsent(columnNames[i], i);
+        }
+    }
+
+    /**
+     * Reads the file as UTF-8 with the header and delimiter determined by {@link SecondaryInstanceCSVParserBuilder} so
+     * that columns are named the same way {@link CsvExternalInstance} names fields.
+     */
+    public static CsvTable parse(@NotNull String path) throws IOException {
+        try (CSVParser csvParser = new SecondaryInstanceCSVParserBuilder().path(path).charset(StandardCharsets.UTF_8).build()) {
+            String[] columnNames = csvParser.getHeaderMap().keySet().toArray(new String[0]);
+
+            ColumnBuilder[] builders = new ColumnBuilder[columnNames.length];
+            for (int i = 0; i < builders.length; i++) {
+                builders[i] = new ColumnBuilder();
+            }
+
+            int rowCount = 0;
+            for (CSVRecord csvRecord : csvParser) {
+                for (int i = 0; i < builders.length; i++) {
+                    builders[i].add(i < csvRecord.size() ? csvRecord.get(i) : "");
+                }
+                rowCount++;
+            }
+
+            Column[] columns = new Column[builders.length];
+            for (int i = 0; i < builders.length; i++) {
+                columns[i] = builders[i].build(rowCount);
+            }
+
+            return new CsvTable(columnNames, columns, rowCount);
+        }
+    }
+
+    /**
+     * Writes the table in a format that can be read back with {@link #read(ByteBuffer)}. Dictionary codes are written
+     * as raw big-endian chars so they can be bulk copied out of a memory mapped file.
+     */
+    public void write(@NotNull DataOutputStream out) throws IOException {
+        out.writeInt(columnNames.length);
+        for (String columnName : columnNames) {
+            out.writeUTF(columnName);
+        }
+
+        out.writeInt(rowCount);
+        for (Column column : columns) {
+            if (column instanceof DictionaryColumn) {
+                DictionaryColumn dictionaryColumn = (DictionaryColumn) column;
+                out.writeBoolean(true);
+                out.writeInt(dictionaryColumn.dictionary.length);
+                for (String value : dictionaryColumn.dictionary) {
+                    out.writeUTF(value);
+                }
+                for (char code : dictionaryColumn.codes) {
+                    out.writeChar(code);
+                }
+            } else {
+                out.writeBoolean(false);
+                for (String value : ((ValueColumn) column).values) {
+                    out.writeUTF(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a table written with {@link #write(DataOutputStream)} starting at the buffer's current position.
+     */
+    public static CsvTable read(@NotNull ByteBuffer buffer) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteBufferInputStream(buffer));
+
+        String[] columnNames = new String[in.readInt()];
+        for (int i = 0; i < columnNames.length; i++) {
+            columnNames[i] = in.readUTF();
+        }
+
+        int rowCount = in.readInt();
+        Column[] columns = new Column[columnNames.length];
+        for (int i = 0; i < columns.length; i++) {
+            if (in.readBoolean()) {
+                String[] dictionary = new String[in.readInt()];
+                for (int j = 0; j < dictionary.length; j++) {
+                    dictionary[j] = in.readUTF();
+                }
+
+                char[] codes = new char[rowCount];
+                buffer.asCharBuffer().get(codes);
+                buffer.position(buffer.position() + rowCount * Character.BYTES);
+
+                columns[i] = new DictionaryColumn(dictionary, codes);
+            } else {
+                String[] values = new String[rowCount];
+                for (int j = 0; j < rowCount; j++) {
+                    values[j] = in.readUTF();
+                }
+
+                columns[i] = new ValueColumn(values);
+            }
+        }
+
+        return new CsvTable(columnNames, columns, rowCount);
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    /**
+     * @return the index of the first column with the given name or -1 if there isn't one
+     */
+    public int getColumnIndex(String name) {
+        Integer index = columnIndexes.get(name);
+        return index != null ? index : -1;
+    }
+
+    public String get(int row, int column) {
+        return columns[column].get(row);
+    }
+
+    /**
+     * @return whether the column is stored as a dictionary of distinct values
+     */
+    boolean isDictionaryEncoded(int column) {
+        return columns[column] instanceof DictionaryColumn;
+    }
+
+    private interface Column {
+        String get(int row);
+    }
+
+    private static class ValueColumn implements Column {
+        private final String[] values;
+
+        ValueColumn(String[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public String get(int row) {
+            return values[row];
+        }
+    }
+
+    /**
+     * Column with up to {@link #MAX_DICTIONARY_SIZE} distinct values. Codes are stored as chars (unsigned 16 bit
+     * integers) which is enough to index the whole dictionary.
+     */
+    private static class DictionaryColumn implements Column {
+        private final String[] dictionary;
+        private final char[] codes;
+
+        DictionaryColumn(String[] dictionary, char[] codes) {
+            this.dictionary = dictionary;
+            this.codes = codes;
+        }
+
+        @Override
+        public String get(int row) {
+            return dictionary[codes[row]];
+        }
+    }
+
+    /**
+     * Accumulates the values of a column. Values are dictionary encoded until there are more distinct values than a
+     * dictionary can hold at which point the column falls back to storing values directly (still sharing the Strings
+     * that were deduplicated up to that point).
+     */
+    private static class ColumnBuilder {
+        private Map<String, Integer> codesByValue = new HashMap<>();
+        private List<String> dictionary = new ArrayList<>();
+        private char[] codes = new char[16];
+        private String[] values;
+        private int size;
+
+        void add(String value) {
+            if (codesByValue != null) {
+                Integer code = codesByValue.get(value);
+                if (code == null && dictionary.size() == MAX_DICTIONARY_SIZE) {
+                    switchToValues();
+                } else {
+                    if (code == null) {
+                        code = dictionary.size();
+                        codesByValue.put(value, code);
+                        dictionary.add(value);
+                    }
+
+                    if (size == codes.length) {
+                        codes = Arrays.copyOf(codes, size * 2);
+                    }
+                    codes[size++] = (char) code.intValue();
+                    return;
+                }
+            }
+
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private void switchToValues() {
+            values = new String[Math.max(16, codes.length)];
+            for (int i = 0; i < size; i++) {
+                values[i] = dictionary.get(codes[i]);
+            }
+
+            codesByValue = null;
+            dictionary = null;
+            codes = null;
+        }
+
+        Column build(int rowCount) {
+            if (codesByValue != null) {
+                return new DictionaryColumn(dictionary.toArray(new String[0]), Arrays.copyOf(codes, rowCount));
+            } else {
+                return new ValueColumn(Arrays.copyOf(values, rowCount));
+            }
+        }
+    }
+}
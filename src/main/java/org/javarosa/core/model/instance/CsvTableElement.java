@@ -0,0 +1,188 @@
+package org.javarosa.core.model.instance;
+
+import org.javarosa.core.model.data.UncastData;
+import org.javarosa.core.model.instance.utils.ITreeVisitor;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read only root of a secondary instance backed by a {@link CsvTable}. Unlike the tree built by
+ * {@link CsvExternalInstance}, no elements are stored: the "item" children and their fields are synthesized from the
+ * table whenever they are accessed and can be garbage collected as soon as the caller is done with them.
+ * <p>
+ * The synthesized elements are detached views so they can't be modified and two lookups of the same item return
+ * different (but equivalent) objects.
+ */
+public class CsvTableElement extends TreeElement {
+
+    private static final String ITEM = "item";
+
+    private final CsvTable table;
+
+    public CsvTableElement(String instanceId, CsvTable table) {
+        super("root", 0);
+        this.table = table;
+        setInstanceName(instanceId);
+    }
+
+    public CsvTable getTable() {
+        return table;
+    }
+
+    @Override
+    public boolean isLeaf() {
+        return table.getRowCount() == 0;
+    }
+
+    @Override
+    @Nullable
+    public TreeElement getChild(String name, int multiplicity) {
+        if (!isItemName(name) || multiplicity < 0 || multiplicity >= table.getRowCount()) {
+            return null;
+        }
+
+        return new Item(this, multiplicity);
+    }
+
+    @Override
+    public List<TreeElement> getChildrenWithName(String name) {
+        if (!isItemName(name)) {
+            return Collections.emptyList();
+        }
+
+        return new AbstractList<TreeElement>() {
+            @Override
+            public TreeElement get(int index) {
+                return new Item(CsvTableElement.this, index);
+            }
+
+            @Override
+            public int size() {
+                return table.getRowCount();
+            }
+        };
+    }
+
+    @Override
+    public int getNumChildren() {
+        return table.getRowCount();
+    }
+
+    @Override
+    public TreeElement getChildAt(int i) {
+        return new Item(this, i);
+    }
+
+    @Override
+    public int getChildMultiplicity(String name) {
+        return isItemName(name) ? table.getRowCount() : 0;
+    }
+
+    @Override
+    public void accept(ITreeVisitor visitor) {
+        visitor.visit(this);
+
+        for (int i = 0; i < table.getRowCount(); i++) {
+            getChildAt(i).accept(visitor);
+        }
+    }
+
+    @Override
+    public void addChild(TreeElement child) {
+        throw new UnsupportedOperationException("CSV table instances are read only");
+    }
+
+    private static boolean isItemName(String name) {
+        return ITEM.equals(name) || TreeReference.NAME_WILDCARD.equals(name);
+    }
+
+    /**
+     * View of a single row of the table.
+     */
+    private static class Item extends TreeElement {
+        private final CsvTable table;
+        private final int row;
+
+        Item(CsvTableElement parent, int row) {
+            super(ITEM, row);
+            this.table = parent.table;
+            this.row = row;
+            setParent(parent);
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return table.getColumnCount() == 0;
+        }
+
+        @Override
+        @Nullable
+        public TreeElement getChild(String name, int multiplicity) {
+            if (TreeReference.NAME_WILDCARD.equals(name)) {
+                return multiplicity >= 0 && multiplicity < table.getColumnCount() ? getChildAt(multiplicity) : null;
+            }
+
+            int column = table.getColumnIndex(name);
+            return column != -1 && multiplicity == 0 ? getChildAt(column) : null;
+        }
+
+        @Override
+        public List<TreeElement> getChildrenWithName(String name) {
+            if (TreeReference.NAME_WILDCARD.equals(name)) {
+                return new AbstractList<TreeElement>() {
+                    @Override
+                    public TreeElement get(int index) {
+                        return getChildAt(index);
+                    }
+
+                    @Override
+                    public int size() {
+                        return table.getColumnCount();
+                    }
+                };
+            }
+
+            int column = table.getColumnIndex(name);
+            return column != -1 ? Collections.singletonList(getChildAt(column)) : Collections.emptyList();
+        }
+
+        @Override
+        public int getNumChildren() {
+            return table.getColumnCount();
+        }
+
+        @Override
+        public TreeElement getChildAt(int i) {
+            TreeElement field = new TreeElement(table.getColumnName(i), 0);
+            field.setValue(new UncastData(table.get(row, i)));
+            field.setParent(this);
+            return field;
+        }
+
+        @Override
+        public int getChildMultiplicity(String name) {
+            if (TreeReference.NAME_WILDCARD.equals(name)) {
+                return table.getColumnCount();
+            }
+
+            return table.getColumnIndex(name) != -1 ? 1 : 0;
+        }
+
+        @Override
+        public void accept(ITreeVisitor visitor) {
+            visitor.visit(this);
+
+            for (int i = 0; i < table.getColumnCount(); i++) {
+                getChildAt(i).accept(visitor);
+            }
+        }
+
+        @Override
+        public void addChild(TreeElement child) {
+            throw new UnsupportedOperationException("CSV table instances are read only");
+        }
+    }
+}
@@ -84,6 +84,10 @@ public abstract class DataInstance<T extends AbstractTreeElement<T>> implements
             String name = ref.getName(i);
             int mult = ref.getMultiplicity(i);
 
+            if (node instanceof TreeElement && ((TreeElement) node).isPartial()) {
+                throw new PartialElementEncounteredException((TreeElement) node);
+            }
+
             if(mult == TreeReference.INDEX_ATTRIBUTE) {
                 //Should we possibly just return here?
                 //I guess technically we could step back...
@@ -109,7 +113,7 @@ public abstract class DataInstance<T extends AbstractTreeElement<T>> implements
         if (node == getBase() || result == null) {
             return null; // never return a reference to '/'
         } else if (((TreeElement) result).isPartial()) {
-            throw new PartialElementEncounteredException();
+            throw new PartialElementEncounteredException((TreeElement) result);
         } else {
             return result;
         }
@@ -318,5 +322,21 @@ public abstract class DataInstance<T extends AbstractTreeElement<T>> implements
 
     public static class PartialElementEncounteredException extends RuntimeException {
 
+        private final TreeElement element;
+
+        public PartialElementEncounteredException() {
+            this(null);
+        }
+
+        public PartialElementEncounteredException(TreeElement element) {
+            this.element = element;
+        }
+
+        /**
+         * @return the partial element that was encountered (if known)
+         */
+        public TreeElement getElement() {
+            return element;
+        }
     }
 }
\ No newline at end of file
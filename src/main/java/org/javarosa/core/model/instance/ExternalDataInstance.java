@@ -5,11 +5,13 @@ import org.javarosa.core.reference.ReferenceManager;
 import org.javarosa.core.util.externalizable.DeserializationException;
 import org.javarosa.core.util.externalizable.ExtUtil;
 import org.javarosa.core.util.externalizable.PrototypeFactory;
+import org.javarosa.xform.parse.ExternalInstanceParser;
 import org.javarosa.xform.parse.XFormParser;
 import org.javarosa.xform.util.XFormUtils;
 import org.javarosa.xml.TreeElementParser;
 import org.javarosa.xml.util.InvalidStructureException;
 import org.javarosa.xml.util.UnfullfilledRequirementsException;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmlpull.v1.XmlPullParserException;
@@ -25,9 +27,17 @@ public class ExternalDataInstance extends DataInstance {
     public static final TreeElement PLACEHOLDER_ROOT = new TreeElement("missing file", 0);
     private static final Logger logger = LoggerFactory.getLogger(XFormParser.class.getSimpleName());
 
+    /**
+     * Number of partial elements that are loaded together when one of them is accessed
+     */
+    static final int PARTIAL_ELEMENT_PAGE_SIZE = 64;
+
     private String path;
     private TreeElement root;
 
+    private ExternalInstanceParser.PartialElementLoader partialElementLoader;
+    private boolean partialElementLoaderResolved;
+
     // todo Make @mdudzinski’s recommended changes from https://github.com/getodk/javarosa/pull/154#pullrequestreview-51806826
 
     /**
@@ -82,7 +92,9 @@ public class ExternalDataInstance extends DataInstance {
             return super.resolveReference(ref);
         } catch (PartialElementEncounteredException e) {
             try {
-                parseExternalFile(false);
+                if (!loadPartialElements(e.getElement())) {
+                    parseExternalFile(false);
+                }
             } catch (InvalidReferenceException | InvalidStructureException | XmlPullParserException |
                      UnfullfilledRequirementsException | IOException exception) {
                 throw new RuntimeException(new DeserializationException("Unable to parse external instance: " + exception));
@@ -92,6 +104,42 @@ public class ExternalDataInstance extends DataInstance {
         }
     }
 
+    /**
+     * Looks up the multiplicities of the root's children whose child {@code name} has the value {@code value} without
+     * loading any partial elements. Only supported if the instance was provided by a
+     * {@link ExternalInstanceParser.PartialElementProvider}.
+     *
+     * @return the multiplicities (in ascending order) or null if the lookup isn't supported
+     */
+    @Nullable
+    public int[] lookupPartialElements(String name, String value) {
+        if (root.getChildAt(0) == PLACEHOLDER_ROOT) {
+            return null;
+        }
+
+        try {
+            ExternalInstanceParser.PartialElementLoader loader = getPartialElementLoader();
+            return loader != null ? loader.lookup(name, value) : null;
+        } catch (IOException | InvalidReferenceException e) {
+            logger.warn("Unable to look up partial elements", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return whether any of the root's children are still partial (and will be loaded when accessed)
+     */
+    public synchronized boolean hasPartialElements() {
+        TreeElement instanceRoot = root.getChildAt(0);
+        for (int i = 0; i < instanceRoot.getNumChildren(); i++) {
+            if (instanceRoot.getChildAt(i).isPartial()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     @Override
     public AbstractTreeElement getBase() {
         return root;
@@ -141,5 +189,44 @@ public class ExternalDataInstance extends DataInstance {
     private void parseExternalFile(boolean partial) throws UnfullfilledRequirementsException, InvalidStructureException, XmlPullParserException, IOException, InvalidReferenceException {
         String instanceId = getInstanceId();
         setRoot(XFormUtils.getExternalInstance(ReferenceManager.instance(), instanceId, path, partial));
+
+        synchronized (this) {
+            partialElementLoader = null;
+            partialElementLoaderResolved = !partial;
+        }
+    }
+
+    /**
+     * Loads the page of partial elements containing the given one (if it's one of the root's children) using the
+     * instance's {@link ExternalInstanceParser.PartialElementLoader}.
+     *
+     * @return false if the element couldn't be loaded that way and the whole instance needs to be parsed instead
+     */
+    private synchronized boolean loadPartialElements(@Nullable TreeElement element) throws IOException, InvalidReferenceException {
+        if (element == null || element.getParent() != getRoot()) {
+            return false;
+        }
+
+        if (!element.isPartial()) {
+            return true;
+        }
+
+        ExternalInstanceParser.PartialElementLoader loader = getPartialElementLoader();
+        if (loader == null) {
+            return false;
+        }
+
+        int from = element.getMultiplicity() / PARTIAL_ELEMENT_PAGE_SIZE * PARTIAL_ELEMENT_PAGE_SIZE;
+        replacePartialElements(loader.getElements(from, from + PARTIAL_ELEMENT_PAGE_SIZE));
+        return !element.isPartial();
+    }
+
+    private synchronized ExternalInstanceParser.PartialElementLoader getPartialElementLoader() throws IOException, InvalidReferenceException {
+        if (!partialElementLoaderResolved) {
+            partialElementLoader = XFormUtils.getPartialElementLoader(ReferenceManager.instance(), getInstanceId(), path);
+            partialElementLoaderResolved = true;
+        }
+
+        return partialElementLoader;
     }
 }
\ No newline at end of file
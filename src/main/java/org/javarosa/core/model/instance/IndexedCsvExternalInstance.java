@@ -0,0 +1,281 @@
+package org.javarosa.core.model.instance;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.javarosa.core.model.data.UncastData;
+import org.javarosa.core.util.BoundedCache;
+import org.javarosa.core.util.BoundedCache.CacheStats;
+import org.javarosa.xform.parse.ExternalInstanceParser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Alternative to {@link CsvExternalInstance} for large CSV files. When parsing partially, the file is scanned once to
+ * build an index of the byte offset of each record and only the first item is created in full (the others are empty
+ * partial items). Items are then read from the file in pages as they are accessed and can be looked up by the value
+ * of any column (with a column's index being built the first time it's used) so that only the rows a predicate selects
+ * need to be loaded. Files are read as UTF-8 whether parsing partially or not.
+ * <p>
+ * The index built by a partial parse is kept (in a {@link BoundedCache} weighed by record count) so it can be handed
+ * to the instance when it asks for its loader. Indexes for instances that never do are evicted once the maximum is
+ * exceeded and a loader whose index was evicted builds a new one.
+ *
+ * @see ExternalInstanceParser#addFileInstanceParser(ExternalInstanceParser.FileInstanceParser)
+ */
+public class IndexedCsvExternalInstance implements ExternalInstanceParser.FileInstanceParser, ExternalInstanceParser.PartialElementProvider {
+
+    /**
+     * The byte offset index relies on the record separators and quotes being single bytes that can't appear inside
+     * other characters which holds for UTF-8 (but not for every platform default)
+     */
+    private static final Charset CHARSET = StandardCharsets.UTF_8;
+
+    /**
+     * The default maximum number of records the indexes kept between parsing and handing over will add up to
+     */
+    public static final long DEFAULT_MAXIMUM_INDEXED_RECORDS = 1_000_000;
+
+    private final BoundedCache<String, CsvOffsetIndex> offsetIndexes;
+
+    public IndexedCsvExternalInstance() {
+        this(DEFAULT_MAXIMUM_INDEXED_RECORDS);
+    }
+
+    public IndexedCsvExternalInstance(long maximumIndexedRecords) {
+        offsetIndexes = new BoundedCache<>(maximumIndexedRecords, offsetIndex -> offsetIndex.size() + 1);
+    }
+
+    @Override
+    public TreeElement parse(@NotNull String instanceId, @NotNull String path) throws IOException {
+        return CsvExternalInstance.parse(instanceId, path, CHARSET);
+    }
+
+    @Override
+    public TreeElement parse(@NotNull String instanceId, @NotNull String path, boolean partial) throws IOException {
+        if (!partial) {
+            return parse(instanceId, path);
+        }
+
+        CsvOffsetIndex offsetIndex = new CsvOffsetIndex(path);
+        offsetIndexes.put(path, offsetIndex);
+
+        TreeElement root = new TreeElement("root", 0);
+        root.setInstanceName(instanceId);
+
+        // The first item is complete so that the instance's structure is known (for validating references to it)
+        for (TreeElement item : offsetIndex.getElements(0, 1)) {
+            root.addChild(item);
+        }
+
+        for (int i = 1; i < offsetIndex.size(); i++) {
+            root.addChild(new TreeElement("item", i, true));
+        }
+
+        return root;
+    }
+
+    @Override
+    public boolean isSupported(@NotNull String instanceId, @NotNull String instanceSrc) {
+        return instanceSrc.contains("file-csv");
+    }
+
+    /**
+     * Hands over the index built when the file at {@code path} was last parsed or builds a new one if it's no longer
+     * kept.
+     */
+    @Override
+    public ExternalInstanceParser.PartialElementLoader getPartialElementLoader(@NotNull String instanceId, @NotNull String path) throws IOException {
+        CsvOffsetIndex offsetIndex = offsetIndexes.getIfPresent(path);
+        return offsetIndex != null ? offsetIndex : new CsvOffsetIndex(path);
+    }
+
+    @NotNull
+    public CacheStats getCacheStats() {
+        return offsetIndexes.getStats();
+    }
+
+    private static class CsvOffsetIndex implements ExternalInstanceParser.PartialElementLoader {
+
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        private final String path;
+        private final CSVFormat csvFormat;
+        private final String[] fieldNames;
+
+        /**
+         * The start of each record followed by the end of the last one
+         */
+        private final long[] offsets;
+
+        private final Map<String, Map<String, int[]>> keyIndexes = new ConcurrentHashMap<>();
+
+        CsvOffsetIndex(String path) throws IOException {
+            this.path = path;
+
+            long[] offsets = new long[16];
+            int size = 0;
+
+            try (InputStream inputStream = new FileInputStream(path)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long position = 0;
+                long recordStart = 0;
+                boolean recordEmpty = true;
+                boolean inQuotes = false;
+                boolean inHeader = true;
+
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    int start = 0;
+                    if (position == 0 && read >= 3 && (buffer[0] & 0xFF) == 0xEF && (buffer[1] & 0xFF) == 0xBB && (buffer[2] & 0xFF) == 0xBF) {
+                        start = 3;
+                        recordStart = 3;
+                    }
+
+                    for (int i = start; i < read; i++) {
+                        byte b = buffer[i];
+                        if (b == '"') {
+                            inQuotes = !inQuotes;
+                        } else if (b == '\n' && !inQuotes) {
+                            if (!recordEmpty) {
+                                if (inHeader) {
+                                    inHeader = false;
+                                } else {
+                                    offsets = add(offsets, size++, recordStart);
+                                }
+                            }
+
+                            recordStart = position + i + 1;
+                            recordEmpty = true;
+                            continue;
+                        }
+
+                        if (b != '\r') {
+                            recordEmpty = false;
+                        }
+                    }
+
+                    position += read;
+                }
+
+                if (!recordEmpty && !inHeader) {
+                    offsets = add(offsets, size++, recordStart);
+                }
+
+                this.offsets = Arrays.copyOf(add(offsets, size, position), size + 1);
+            }
+
+            // Read the header the same way a full parse does so that items are structured the same
+            try (CSVParser headerParser = new SecondaryInstanceCSVParserBuilder().path(path).charset(CHARSET).build()) {
+                fieldNames = headerParser.getHeaderMap().keySet().toArray(new String[0]);
+                csvFormat = CSVFormat.DEFAULT.withDelimiter(SecondaryInstanceCSVParserBuilder.getDelimiter(path, CHARSET));
+            }
+        }
+
+        int size() {
+            return offsets.length - 1;
+        }
+
+        @Override
+        public List<TreeElement> getElements(int from, int to) throws IOException {
+            from = Math.max(0, from);
+            to = Math.min(size(), to);
+            if (from >= to) {
+                return new ArrayList<>();
+            }
+
+            byte[] bytes = new byte[(int) (offsets[to] - offsets[from])];
+            try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+                file.seek(offsets[from]);
+                file.readFully(bytes);
+            }
+
+            List<TreeElement> elements = new ArrayList<>(to - from);
+            try (CSVParser csvParser = new CSVParser(new InputStreamReader(new ByteArrayInputStream(bytes), CHARSET), csvFormat)) {
+                int multiplicity = from;
+                for (CSVRecord csvRecord : csvParser) {
+                    TreeElement item = new TreeElement("item", multiplicity++);
+
+                    for (int i = 0; i < fieldNames.length; ++i) {
+                        TreeElement field = new TreeElement(fieldNames[i], 0);
+                        field.setValue(new UncastData(i < csvRecord.size() ? csvRecord.get(i) : ""));
+                        item.addChild(field);
+                    }
+
+                    elements.add(item);
+                }
+            }
+
+            return elements;
+        }
+
+        @Nullable
+        @Override
+        public int[] lookup(@NotNull String name, @NotNull String value) throws IOException {
+            int column = Arrays.asList(fieldNames).indexOf(name);
+            if (column == -1) {
+                return null;
+            }
+
+            try {
+                int[] multiplicities = keyIndexes.computeIfAbsent(name, key -> buildKeyIndex(column)).get(value);
+                return multiplicities != null ? multiplicities : new int[0];
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        private Map<String, int[]> buildKeyIndex(int column) {
+            Map<String, List<Integer>> multiplicitiesByValue = new HashMap<>();
+
+            try (InputStream inputStream = new FileInputStream(path)) {
+                long skipped = 0;
+                while (skipped < offsets[0]) {
+                    skipped += inputStream.skip(offsets[0] - skipped);
+                }
+
+                try (CSVParser csvParser = new CSVParser(new InputStreamReader(inputStream, CHARSET), csvFormat)) {
+                    int multiplicity = 0;
+                    for (CSVRecord csvRecord : csvParser) {
+                        String value = column < csvRecord.size() ? csvRecord.get(column) : "";
+                        multiplicitiesByValue.computeIfAbsent(value, key -> new ArrayList<>()).add(multiplicity++);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            Map<String, int[]> keyIndex = new HashMap<>();
+            for (Map.Entry<String, List<Integer>> entry : multiplicitiesByValue.entrySet()) {
+                keyIndex.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+            }
+
+            return keyIndex;
+        }
+
+        private static long[] add(long[] array, int index, long value) {
+            if (index == array.length) {
+                array = Arrays.copyOf(array, array.length * 2);
+            }
+
+            array[index] = value;
+            return array;
+        }
+    }
+}
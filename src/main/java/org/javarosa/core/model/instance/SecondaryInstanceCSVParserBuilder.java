@@ -6,34 +6,43 @@ import org.apache.commons.io.input.BOMInputStream;
 
 import java.io.BufferedReader;
 import java.io.FileInputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.charset.Charset;
 
 public class SecondaryInstanceCSVParserBuilder {
 
     private String path;
+    private Charset charset = Charset.defaultCharset();
 
     public SecondaryInstanceCSVParserBuilder path(String path) {
         this.path = path;
         return this;
     }
 
+    /**
+     * Sets the charset used to decode the file (the platform default if not set).
+     */
+    public SecondaryInstanceCSVParserBuilder charset(Charset charset) {
+        this.charset = charset;
+        return this;
+    }
+
     public CSVParser build() throws IOException {
         final CSVFormat csvFormat = CSVFormat.DEFAULT
-            .withDelimiter(getDelimiter(path))
+            .withDelimiter(getDelimiter(path, charset))
             .withFirstRecordAsHeader();
-        Reader reader = new InputStreamReader(new BOMInputStream(new FileInputStream(path)));
+        Reader reader = new InputStreamReader(new BOMInputStream(new FileInputStream(path)), charset);
         return new CSVParser(reader, csvFormat);
     }
 
-    private static char getDelimiter(String path) throws IOException {
+    static char getDelimiter(String path, Charset charset) throws IOException {
         char delimiter = ',';
-        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), charset))) {
             String header = reader.readLine();
 
-            if (header.contains(";")) {
+            if (header != null && header.contains(";")) {
                 delimiter = ';';
             }
         }
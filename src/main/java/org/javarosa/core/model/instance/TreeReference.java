@@ -23,7 +23,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import org.javarosa.core.util.DataUtil;
+import org.javarosa.core.util.CacheTable;
 import org.javarosa.core.util.externalizable.DeserializationException;
 import org.javarosa.core.util.externalizable.ExtUtil;
 import org.javarosa.core.util.externalizable.ExtWrapNullable;
@@ -88,6 +88,16 @@ public class TreeReference implements Externalizable, Serializable {
     private String instanceName = null;
     private List<TreeReferenceLevel> data = null;
 
+    /** Cached hash code, 0 until it's computed and reset by any change to the reference. */
+    private transient int hashCode;
+    private boolean frozen;
+
+    /** A cache for frozen references, so that equal references used as long-lived keys share one instance. */
+    private static CacheTable<TreeReference> frozenRefs;
+
+    public static void attachCacheTable(CacheTable<TreeReference> frozenRefs) {
+        TreeReference.frozenRefs = frozenRefs;
+    }
 
     public static TreeReference rootRef() {
         TreeReference root = new TreeReference();
@@ -115,6 +125,7 @@ public class TreeReference implements Externalizable, Serializable {
     }
 
     public void setInstanceName(String instanceName) {
+        modify();
         this.instanceName = instanceName;
     }
 
@@ -135,6 +146,7 @@ public class TreeReference implements Externalizable, Serializable {
     }
 
     public void setMultiplicity(int i, int mult) {
+        modify();
         data.set(i, data.get(i).setMultiplicity(mult));
     }
 
@@ -143,6 +155,7 @@ public class TreeReference implements Externalizable, Serializable {
     }
 
     private void add(TreeReferenceLevel level) {
+        modify();
         data.add(level);
     }
 
@@ -151,6 +164,7 @@ public class TreeReference implements Externalizable, Serializable {
     }
 
     public void addPredicate(int key, List<XPathExpression> xpe) {
+        modify();
         data.set(key, data.get(key).setPredicates(xpe));
     }
 
@@ -163,10 +177,12 @@ public class TreeReference implements Externalizable, Serializable {
     }
 
     public void setRefLevel(int refLevel) {
+        modify();
         this.refLevel = refLevel;
     }
 
     public void incrementRefLevel() {
+        modify();
         if (!isAbsolute()) {
             refLevel++;
         }
@@ -209,6 +225,7 @@ public class TreeReference implements Externalizable, Serializable {
      * return true if we successfully got the parent, false if there were no higher levels
      */
     public boolean removeLastLevel() {
+        modify();
         int size = size();
         if (size == 0) {
             if (isAbsolute()) {
@@ -409,9 +426,15 @@ public class TreeReference implements Externalizable, Serializable {
             return true;
         } else if (o instanceof TreeReference) {
             TreeReference ref = (TreeReference) o;
+            if (hashCode != 0 && ref.hashCode != 0 && hashCode != ref.hashCode)
+                return false;
+
             if (!Objects.equals(getInstanceName(), ref.getInstanceName()))
                 return false;
 
+            if (!Objects.equals(getQualifier(), ref.getQualifier()))
+                return false;
+
             if (this.refLevel == ref.refLevel && this.size() == ref.size()) {
                 for (int i = 0; i < this.size(); i++) {
                     String nameA = this.getName(i);
@@ -452,35 +475,66 @@ public class TreeReference implements Externalizable, Serializable {
         }
     }
 
+    /**
+     * The hash covers the instance, the ref level and the name and multiplicity of each level in order so that
+     * references like /a/b and /b/a don't collide. Predicates are left out: they're rarely what tells references
+     * apart and leaving them out keeps the hash consistent with {@link #equals(Object)} for the first level, where
+     * multiplicities 0 and -1 are equivalent.
+     */
+    @Override
     public int hashCode() {
-        int hash = (Integer.valueOf(refLevel)).hashCode();
-        hash ^= instanceName != null ? instanceName.hashCode() : "".hashCode();
-        for (int i = 0; i < size(); i++) {
-            //NOTE(ctsims): It looks like this is only using Integer to
-            //get the hashcode method, but that method
-            //is just returning the int value, I think, so
-            //this should potentially just be replaced by
-            //an int.
-            Integer mult = DataUtil.integer(getMultiplicity(i));
-            if (i == 0 && mult.intValue() == INDEX_UNBOUND)
-                mult = DataUtil.integer(0);
-
-            hash ^= getName(i).hashCode();
-            hash ^= mult.hashCode();
-            List<XPathExpression> predicates = this.getPredicate(i);
-            if (predicates == null) {
-                continue;
-            }
-            int val = 0;
-            for (XPathExpression xpe : predicates) {
-                hash ^= val;
-                hash ^= xpe.hashCode();
-                ++val;
+        int hash = hashCode;
+        if (hash == 0) {
+            hash = 31 * refLevel + Objects.hashCode(instanceName);
+            for (int i = 0; i < size(); i++) {
+                int mult = getMultiplicity(i);
+                if (i == 0 && mult == INDEX_UNBOUND) {
+                    mult = 0;
+                }
+
+                hash = 31 * hash + getName(i).hashCode();
+                hash = 31 * hash + mult;
             }
+
+            hashCode = hash;
         }
         return hash;
     }
 
+    /**
+     * Returns anything a subclass qualifies the reference with beyond its steps or null if there isn't anything.
+     * References are only equal if their qualifiers are so subclasses that have one must include it in their hash code.
+     */
+    protected Object getQualifier() {
+        return null;
+    }
+
+    /**
+     * Returns an immutable copy of this reference that's safe to use as a key in long-lived maps and caches, or this
+     * reference if it's already frozen. If a cache table is attached, equal frozen references are the same instance.
+     * Changing a frozen reference throws an {@link IllegalStateException}; its {@link #clone()} can be changed.
+     */
+    public TreeReference freeze() {
+        if (frozen) {
+            return this;
+        }
+
+        TreeReference frozenRef = clone();
+        frozenRef.frozen = true;
+        return frozenRefs == null ? frozenRef : frozenRefs.intern(frozenRef);
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void modify() {
+        if (frozen) {
+            throw new IllegalStateException("Frozen reference " + this + " can't be changed");
+        }
+        hashCode = 0;
+    }
+
     public String toString() {
         return toString(true);
     }
@@ -570,6 +624,7 @@ public class TreeReference implements Externalizable, Serializable {
     @Override
     public void readExternal(DataInputStream in, PrototypeFactory pf)
         throws IOException, DeserializationException {
+        modify();
         refLevel = ExtUtil.readInt(in);
         instanceName = (String) ExtUtil.read(in, new ExtWrapNullable(String.class), pf);
         contextType = ExtUtil.readInt(in);
@@ -658,6 +713,7 @@ public class TreeReference implements Externalizable, Serializable {
     }
 
     public void setContextType(int contextType) {
+        modify();
         this.contextType = contextType;
     }
 
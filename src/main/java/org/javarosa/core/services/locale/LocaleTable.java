@@ -0,0 +1,78 @@
+package org.javarosa.core.services.locale;
+
+import org.javarosa.core.util.CacheTable;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the text of a locale as a {@link Localizer} resolves it (that is, after falling back to
+ * the default locale). Text IDs are kept sorted in an array next to the text they map to instead of in a map to keep
+ * tables of forms with a lot of itext small.
+ */
+public final class LocaleTable {
+
+    /** A cache for tables, so that forms with the same itext share the tables of their locales. */
+    private static CacheTable<LocaleTable> tables;
+
+    public static void attachCacheTable(CacheTable<LocaleTable> tables) {
+        LocaleTable.tables = tables;
+    }
+
+    private final String[] textIDs;
+    private final String[] texts;
+    private final int hashCode;
+
+    private LocaleTable(String[] textIDs, String[] texts) {
+        this.textIDs = textIDs;
+        this.texts = texts;
+        this.hashCode = 31 * Arrays.hashCode(textIDs) + Arrays.hashCode(texts);
+    }
+
+    /**
+     * Builds the table for the given text, or returns an equal one that's already in use if a cache is attached.
+     */
+    public static LocaleTable of(Map<String, String> data) {
+        String[] textIDs = data.keySet().toArray(new String[0]);
+        Arrays.sort(textIDs);
+
+        String[] texts = new String[textIDs.length];
+        for (int i = 0; i < textIDs.length; i++) {
+            texts[i] = data.get(textIDs[i]);
+        }
+
+        LocaleTable table = new LocaleTable(textIDs, texts);
+        return tables == null ? table : tables.intern(table);
+    }
+
+    /**
+     * @return the text for the text ID or null if there's none
+     */
+    public String get(String textID) {
+        int index = Arrays.binarySearch(textIDs, textID);
+        return index >= 0 ? texts[index] : null;
+    }
+
+    public int size() {
+        return textIDs.length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (!(o instanceof LocaleTable)) {
+            return false;
+        }
+
+        LocaleTable other = (LocaleTable) o;
+        return hashCode == other.hashCode && Arrays.equals(textIDs, other.textIDs) && Arrays.equals(texts, other.texts);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+}
@@ -23,6 +23,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.javarosa.core.util.NoLocalizedTextException;
 import org.javarosa.core.util.OrderedMap;
@@ -51,7 +52,10 @@ public class Localizer implements Externalizable {
 
     private List<String> locales = new ArrayList<>(0);
     private OrderedMap<String, List<LocaleDataSource>> localeResources = new OrderedMap<>();
-    private OrderedMap<String, String> currentLocaleData = new OrderedMap<>();
+    /**
+     * Built lazily from {@link #getText} which may be called from several threads
+     */
+    private final Map<String, LocaleTable> localeTables = new ConcurrentHashMap<>();
     private String defaultLocale = null;
     private String currentLocale = null;
     private boolean fallbackDefaultLocale;
@@ -219,6 +223,9 @@ public class Localizer implements Externalizable {
         if (defaultLocale != null && !hasLocale(defaultLocale))
             throw new UnregisteredLocaleException("Attempted to set default to a locale that is not defined");
 
+        if (!ExtUtil.equals(this.defaultLocale, defaultLocale)) {
+            localeTables.clear();
+        }
         this.defaultLocale = defaultLocale;
     }
 
@@ -250,7 +257,34 @@ public class Localizer implements Externalizable {
      * 4. For each resource file for the current locale, load each definition
      */
     private void loadCurrentLocaleResources() {
-        this.currentLocaleData = getLocaleData(currentLocale);
+        if (currentLocale != null) {
+            getLocaleTable(currentLocale);
+        }
+    }
+
+    /**
+     * Gets the table with the text of a locale, building it from the locale's resources (see
+     * {@link #getLocaleData(String)}) if that hasn't been done since they last changed.
+     *
+     * @throws UnregisteredLocaleException If locale is not defined or null.
+     */
+    private LocaleTable getLocaleTable(String locale) {
+        if (locale == null) {
+            throw new UnregisteredLocaleException("Attempted to access an undefined locale.");
+        }
+
+        return localeTables.computeIfAbsent(locale, key -> LocaleTable.of(getLocaleMap(key)));
+    }
+
+    /**
+     * Drops the tables that include the text of a locale. Every table does when the locale is the default one.
+     */
+    private void invalidateLocaleTables(String locale) {
+        if (locale.equals(defaultLocale)) {
+            localeTables.clear();
+        } else {
+            localeTables.remove(locale);
+        }
     }
 
     /**
@@ -291,6 +325,7 @@ public class Localizer implements Externalizable {
         }
         resources.add(resource);
         localeResources.put(locale, resources);
+        invalidateLocaleTables(locale);
 
         if (locale.equals(currentLocale) || locale.equals(defaultLocale)) {
             loadCurrentLocaleResources();
@@ -412,6 +447,7 @@ public class Localizer implements Externalizable {
             throw new IllegalArgumentException("Attempted to destroy the current locale");
 
         boolean removed = hasLocale(locale);
+        invalidateLocaleTables(locale);
         locales.remove(locale);
         localeResources.remove(locale);
 
@@ -550,8 +586,7 @@ public class Localizer implements Externalizable {
         if (textID == null) {
             throw new NullPointerException("Null textId passed to localizer");
         }
-        return locale.equals(currentLocale) ? currentLocaleData.get(textID) :
-                getLocaleMap(locale).get(textID);
+        return getLocaleTable(locale).get(textID);
     }
 
     /* === MANAGING LOCALIZABLE OBSERVERS === */
@@ -713,6 +748,7 @@ public class Localizer implements Externalizable {
             IOException, DeserializationException {
         fallbackDefaultLocale = ExtUtil.readBool(dis);
         fallbackDefaultForm = ExtUtil.readBool(dis);
+        localeTables.clear();
         localeResources = (OrderedMap<String, List<LocaleDataSource>>)
                 ExtUtil.read(dis, new ExtWrapMap(String.class, new ExtWrapListPoly(), ExtWrapMap.TYPE_ORDERED), pf);
         locales = (List<String>) ExtUtil.read(dis, new ExtWrapList(String.class));
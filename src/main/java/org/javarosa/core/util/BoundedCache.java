@@ -0,0 +1,234 @@
+package org.javarosa.core.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Thread safe cache bounded by the total "weight" of its values (as determined by a weigher function). Entries are
+ * kept in access order so that when the maximum weight is exceeded the least recently used ones are evicted in
+ * constant time per entry. Values are loaded outside of any lock so two threads missing on the same key at once may
+ * both load it (only one result is kept).
+ * <p>
+ * Hit, miss, eviction and load time counters are available through {@link #getStats()}.
+ */
+public class BoundedCache<K, V> {
+
+    /**
+     * Guarded by itself. Iterates from the least to the most recently used entry.
+     */
+    private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<>(16, 0.75f, true);
+    private final ToIntFunction<V> weigher;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong totalLoadTime = new AtomicLong();
+
+    /**
+     * Guarded by {@link #map}
+     */
+    private long weight;
+    private volatile long maximumWeight;
+
+    public BoundedCache(long maximumWeight, @NotNull ToIntFunction<V> weigher) {
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+    }
+
+    /**
+     * Returns the value cached for the key or loads (and caches) it if there isn't one.
+     */
+    public V get(@NotNull K key, @NotNull Function<K, V> loader) {
+        V cached = getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        long loadStart = System.nanoTime();
+        V value = loader.apply(key);
+        totalLoadTime.addAndGet(System.nanoTime() - loadStart);
+
+        put(key, value);
+        return value;
+    }
+
+    @Nullable
+    public V getIfPresent(@NotNull K key) {
+        Entry<V> entry;
+        synchronized (map) {
+            entry = map.get(key);
+        }
+
+        if (entry != null) {
+            hitCount.incrementAndGet();
+            return entry.value;
+        } else {
+            missCount.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Caches the value, replacing any value already cached for the key. Values heavier than the maximum weight are
+     * never cached (and the previous value for the key is dropped as it's no longer current).
+     */
+    public void put(@NotNull K key, @NotNull V value) {
+        int valueWeight = weigher.applyAsInt(value);
+
+        synchronized (map) {
+            Entry<V> previous;
+            if (valueWeight > maximumWeight) {
+                previous = map.remove(key);
+                evictionCount.incrementAndGet();
+            } else {
+                previous = map.put(key, new Entry<>(value, valueWeight));
+                weight += valueWeight;
+            }
+
+            if (previous != null) {
+                weight -= previous.weight;
+            }
+
+            evict();
+        }
+    }
+
+    /**
+     * Changes the maximum weight, evicting entries straight away if the cache is now over it.
+     */
+    public void setMaximumWeight(long maximumWeight) {
+        this.maximumWeight = maximumWeight;
+        synchronized (map) {
+            evict();
+        }
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    public void clear() {
+        synchronized (map) {
+            map.clear();
+            weight = 0;
+        }
+    }
+
+    public int size() {
+        synchronized (map) {
+            return map.size();
+        }
+    }
+
+    @NotNull
+    public CacheStats getStats() {
+        int size;
+        long weight;
+        synchronized (map) {
+            size = map.size();
+            weight = this.weight;
+        }
+
+        return new CacheStats(
+            hitCount.get(),
+            missCount.get(),
+            evictionCount.get(),
+            totalLoadTime.get(),
+            size,
+            weight
+        );
+    }
+
+    /**
+     * Must be called holding the lock on {@link #map}.
+     */
+    private void evict() {
+        Iterator<Entry<V>> leastRecentlyUsed = map.values().iterator();
+        while (weight > maximumWeight && leastRecentlyUsed.hasNext()) {
+            weight -= leastRecentlyUsed.next().weight;
+            leastRecentlyUsed.remove();
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final int weight;
+
+        Entry(V value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Immutable snapshot of a {@link BoundedCache}'s counters.
+     */
+    public static class CacheStats {
+        private final long hitCount;
+        private final long missCount;
+        private final long evictionCount;
+        private final long totalLoadTime;
+        private final int size;
+        private final long weight;
+
+        public CacheStats(long hitCount, long missCount, long evictionCount, long totalLoadTime, int size, long weight) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+            this.totalLoadTime = totalLoadTime;
+            this.size = size;
+            this.weight = weight;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        public double getHitRate() {
+            long requests = hitCount + missCount;
+            return requests == 0 ? 1.0 : (double) hitCount / requests;
+        }
+
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        /**
+         * @return total time spent loading (building) values in nanoseconds
+         */
+        public long getTotalLoadTime() {
+            return totalLoadTime;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public long getWeight() {
+            return weight;
+        }
+
+        @Override
+        public String toString() {
+            return "CacheStats{" +
+                "hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", evictionCount=" + evictionCount +
+                ", totalLoadTime=" + totalLoadTime +
+                ", size=" + size +
+                ", weight=" + weight +
+                '}';
+        }
+    }
+}
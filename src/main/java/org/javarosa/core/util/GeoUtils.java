@@ -131,6 +131,26 @@ public final class GeoUtils {
         return c;
     }
 
+    /**
+     * Like {@link #calculateIsPointInGPSPolygon(LatLong, List)} but with the polygon's coordinates already parsed into
+     * arrays so that shapes that are tested repeatedly (like those in an index) don't need to be unpacked every time.
+     *
+     * @param latitudes  the latitude of each of the polygon's coordinates
+     * @param longitudes the longitude of each of the polygon's coordinates
+     */
+    public static boolean calculateIsPointInGPSPolygon(double latitude, double longitude, double[] latitudes, double[] longitudes) {
+        double testx = longitude;
+        double testy = latitude;
+        boolean c = false;
+        for (int i = 1; i < latitudes.length; i++) {
+            if (((latitudes[i] > testy) != (latitudes[i - 1] > testy)) &&
+                (testx < (longitudes[i - 1] - longitudes[i]) * (testy - latitudes[i]) / (latitudes[i - 1] - latitudes[i]) + longitudes[i])) {
+                c = !c;
+            }
+        }
+        return c;
+    }
+
     private static void logDistance(LatLong p1, LatLong p2, double distance, double totalDistance) {
         logger.trace("\t{}\t{}\t{}\t{}\t{}\t{}",
             p1.latitude, p1.longitude,
@@ -174,5 +194,13 @@ public final class GeoUtils {
             this.latitude = latitude;
             this.longitude = longitude;
         }
+
+        public double getLatitude() {
+            return latitude;
+        }
+
+        public double getLongitude() {
+            return longitude;
+        }
     }
 }
@@ -0,0 +1,75 @@
+package org.javarosa.core.util.externalizable;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads objects written with a {@link CompactDataOutputStream}.
+ */
+public class CompactDataInputStream extends DataInputStream {
+    private final List<String> strings = new ArrayList<>();
+    private final List<byte[]> tags = new ArrayList<>();
+
+    /**
+     * @throws DeserializationException if the stream doesn't start with the header of a supported version of the
+     *                                  format
+     */
+    public CompactDataInputStream(InputStream in) throws IOException, DeserializationException {
+        super(in);
+
+        byte[] magic = new byte[CompactDataOutputStream.MAGIC.length];
+        readFully(magic);
+        if (!PrototypeFactory.compareHash(magic, CompactDataOutputStream.MAGIC)) {
+            throw new DeserializationException("Not in the compact serialization format");
+        }
+
+        int version = readVarint();
+        if (version != CompactDataOutputStream.VERSION) {
+            throw new DeserializationException("Unsupported version of the compact serialization format: " + version);
+        }
+    }
+
+    String readTableString() throws IOException {
+        int index = readVarint();
+        if (index == 0) {
+            String value = readUTF();
+            if (ExtUtil.interning && ExtUtil.stringCache != null) {
+                value = ExtUtil.stringCache.intern(value);
+            }
+
+            strings.add(value);
+            return value;
+        } else {
+            return strings.get(index - 1);
+        }
+    }
+
+    byte[] readTag() throws IOException {
+        int index = readVarint();
+        if (index == 0) {
+            byte[] tag = new byte[PrototypeFactory.CLASS_HASH_SIZE];
+            readFully(tag);
+
+            tags.add(tag);
+            return tag;
+        } else {
+            return tags.get(index - 1);
+        }
+    }
+
+    private int readVarint() throws IOException {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = readByte();
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+}
@@ -0,0 +1,76 @@
+package org.javarosa.core.util.externalizable;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes {@link Externalizable} objects in a compact format meant for caches of big objects like
+ * {@link org.javarosa.core.model.FormDef}. The format starts with a header that identifies it and its version.
+ * After that, objects are written as with a plain {@link DataOutputStream} except that strings and class tags are
+ * written in full only the first time they're used. They're then referred to by their index in a string table and a
+ * tag table that are built as the stream is written (and rebuilt the same way as it's read by
+ * {@link CompactDataInputStream}). Indexes are written as variable length integers.
+ * <p>
+ * A form's element names, XPath expressions and itext mostly come from a small set of strings so writing each one
+ * once makes the cache smaller and faster to read.
+ */
+public class CompactDataOutputStream extends DataOutputStream {
+    static final byte[] MAGIC = {'J', 'R', 'C', 'F'};
+    static final int VERSION = 1;
+
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final Map<Integer, Integer> tags = new HashMap<>();
+
+    public CompactDataOutputStream(OutputStream out) throws IOException {
+        super(out);
+
+        write(MAGIC);
+        writeVarint(VERSION);
+    }
+
+    /**
+     * Writes the index of the string in the string table or, if the string isn't in it yet, adds it and writes it
+     * in full.
+     */
+    void writeTableString(String value) throws IOException {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+
+        Integer index = strings.get(value);
+        if (index == null) {
+            strings.put(value, strings.size());
+            writeVarint(0);
+            writeUTF(value);
+        } else {
+            writeVarint(index + 1);
+        }
+    }
+
+    /**
+     * Writes the index of the class tag (or {@link ExtWrapTagged#WRAPPER_TAG}) in the tag table or, if the tag
+     * isn't in it yet, adds it and writes it in full.
+     */
+    void writeTag(byte[] tag) throws IOException {
+        int key = PrototypeFactory.toKey(tag);
+        Integer index = tags.get(key);
+        if (index == null) {
+            tags.put(key, tags.size());
+            writeVarint(0);
+            write(tag, 0, PrototypeFactory.CLASS_HASH_SIZE);
+        } else {
+            writeVarint(index + 1);
+        }
+    }
+
+    private void writeVarint(int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        writeByte(value);
+    }
+}
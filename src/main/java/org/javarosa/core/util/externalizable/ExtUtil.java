@@ -141,8 +141,11 @@ public class ExtUtil {
     }
 
     public static void writeString(DataOutputStream out, String val) throws IOException {
-        out.writeUTF(val);
-        //we could easily come up with more efficient default encoding for string
+        if (out instanceof CompactDataOutputStream) {
+            ((CompactDataOutputStream) out).writeTableString(val);
+        } else {
+            out.writeUTF(val);
+        }
     }
 
     public static void writeDate(DataOutputStream out, Date val) throws IOException {
@@ -255,6 +258,10 @@ public class ExtUtil {
     }
 
     public static String readString(DataInputStream in) throws IOException {
+        if (in instanceof CompactDataInputStream) {
+            return ((CompactDataInputStream) in).readTableString();
+        }
+
         String s = in.readUTF();
         return (interning && stringCache != null) ? stringCache.intern(s) : s;
     }
@@ -70,8 +70,13 @@ public class ExtWrapTagged extends ExternalizableWrapper {
     }
 
     public static ExternalizableWrapper readTag (DataInputStream in, PrototypeFactory pf) throws IOException, DeserializationException {
-        byte[] tag = new byte[PrototypeFactory.CLASS_HASH_SIZE];
-        in.read(tag, 0, tag.length);
+        byte[] tag;
+        if (in instanceof CompactDataInputStream) {
+            tag = ((CompactDataInputStream) in).readTag();
+        } else {
+            tag = new byte[PrototypeFactory.CLASS_HASH_SIZE];
+            in.read(tag, 0, tag.length);
+        }
 
         if (PrototypeFactory.compareHash(tag, WRAPPER_TAG)) {
             int wrapperCode = ExtUtil.readInt(in);
@@ -106,7 +111,7 @@ public class ExtWrapTagged extends ExternalizableWrapper {
 
     public static void writeTag (DataOutputStream out, Object o) throws IOException {
         if (o instanceof ExternalizableWrapper && !(o instanceof ExtWrapBase)) {
-            out.write(WRAPPER_TAG, 0, PrototypeFactory.CLASS_HASH_SIZE);
+            writeTagBytes(out, WRAPPER_TAG);
             ExtUtil.writeNumeric(out, WRAPPER_CODES.get(o.getClass()));
             ((ExternalizableWrapper)o).metaWriteExternal(out);
         } else {
@@ -124,7 +129,14 @@ public class ExtWrapTagged extends ExternalizableWrapper {
                 type = o.getClass();
             }
 
-            byte[] tag = PrototypeFactory.getClassHash(type); //cache this?
+            writeTagBytes(out, PrototypeFactory.getCachedClassHash(type));
+        }
+    }
+
+    private static void writeTagBytes (DataOutputStream out, byte[] tag) throws IOException {
+        if (out instanceof CompactDataOutputStream) {
+            ((CompactDataOutputStream) out).writeTag(tag);
+        } else {
             out.write(tag, 0, tag.length);
         }
     }
@@ -18,9 +18,12 @@ package org.javarosa.core.util.externalizable;
 
 import static org.javarosa.xpath.expr.DigestAlgorithm.MD5;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.util.Date;
 import java.util.List;
-import java.util.Vector;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,8 +33,14 @@ public class PrototypeFactory {
 
     public final static int CLASS_HASH_SIZE = 4;
 
-    private final Vector<Class> classes = new Vector<>();
-    private final Vector<byte[]> hashes = new Vector<>();
+    /** The hashes of classes never change so they're computed once for all factories */
+    private static final Map<Class, byte[]> classHashes = new ConcurrentHashMap<>();
+
+    /** The empty constructors of classes that have been instantiated so far */
+    private static final Map<Class, Constructor> constructors = new ConcurrentHashMap<>();
+
+    /** Registered classes by their hash, packed into an int so that it can be looked up without scanning */
+    private final Map<Integer, Class> classes = new ConcurrentHashMap<>();
 
     //lazy evaluation
     private List<String> classNames;
@@ -88,7 +97,7 @@ public class PrototypeFactory {
             lazyInit();
         }
 
-        byte[] hash = getClassHash(c);
+        byte[] hash = getCachedClassHash(c);
 
         if (compareHash(hash, ExtWrapTagged.WRAPPER_TAG)) {
             throw new Error("Hash collision! " + c.getName() + " and reserved wrapper tag");
@@ -99,8 +108,7 @@ public class PrototypeFactory {
             throw new Error("Hash collision! " + c.getName() + " and " + d.getName());
         }
 
-        classes.addElement(c);
-        hashes.addElement(hash);
+        classes.put(toKey(hash), c);
     }
 
     public Class getClass (byte[] hash) {
@@ -108,13 +116,11 @@ public class PrototypeFactory {
             lazyInit();
         }
 
-        for (int i = 0; i < classes.size(); i++) {
-            if (compareHash(hash, hashes.elementAt(i))) {
-                return classes.elementAt(i);
-            }
-        }
+        return hash.length == CLASS_HASH_SIZE ? classes.get(toKey(hash)) : null;
+    }
 
-        return null;
+    static int toKey(byte[] hash) {
+        return (hash[0] & 0xff) << 24 | (hash[1] & 0xff) << 16 | (hash[2] & 0xff) << 8 | (hash[3] & 0xff);
     }
 
     public Object getInstance (byte[] hash) {
@@ -123,15 +129,51 @@ public class PrototypeFactory {
 
     public static Object getInstance (Class c) {
         try {
-            return c.newInstance();
+            return getConstructor(c).newInstance();
         } catch (IllegalAccessException iae) {
             throw new CannotCreateObjectException(c.getName() + ": not accessible or no empty constructor");
-        } catch (InstantiationException e) {
+        } catch (InstantiationException | NoSuchMethodException e) {
             throw new CannotCreateObjectException(c.getName() + ": not instantiable");
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+
+            throw new CannotCreateObjectException(c.getName() + ": " + e.getCause());
+        }
+    }
+
+    private static Constructor getConstructor (Class c) throws NoSuchMethodException {
+        Constructor constructor = constructors.get(c);
+        if (constructor == null) {
+            constructor = c.getDeclaredConstructor();
+            constructors.put(c, constructor);
         }
+
+        return constructor;
     }
 
     public static byte[] getClassHash (Class type) {
+        return getCachedClassHash(type).clone();
+    }
+
+    /**
+     * Like {@link #getClassHash(Class)} but returns the array that's shared by every caller so it must not be
+     * modified.
+     */
+    static byte[] getCachedClassHash (Class type) {
+        byte[] hash = classHashes.get(type);
+        if (hash == null) {
+            hash = computeClassHash(type);
+            classHashes.put(type, hash);
+        }
+
+        return hash;
+    }
+
+    private static byte[] computeClassHash (Class type) {
         byte[] hash = new byte[CLASS_HASH_SIZE];
         byte[] md5 = MD5.digest(type.getName());
 
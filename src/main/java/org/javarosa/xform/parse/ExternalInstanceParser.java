@@ -9,6 +9,7 @@ import org.javarosa.core.reference.ReferenceManager;
 import org.javarosa.xml.util.InvalidStructureException;
 import org.javarosa.xml.util.UnfullfilledRequirementsException;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
@@ -29,6 +30,8 @@ public class ExternalInstanceParser {
 
     private List<InstanceProvider> instanceProviders = emptyList();
 
+    private ExternalInstanceSnapshotStore snapshotStore;
+
     public TreeElement parse(ReferenceManager referenceManager, String instanceId, String instanceSrc, boolean partial) throws IOException, UnfullfilledRequirementsException, InvalidStructureException, XmlPullParserException, InvalidReferenceException {
         Optional<InstanceProvider> instanceProvider = instanceProviders.stream()
             .filter(parser -> parser.isSupported(instanceId, instanceSrc))
@@ -43,12 +46,29 @@ public class ExternalInstanceParser {
                 .filter(parser -> parser.isSupported(instanceId, instanceSrc))
                 .findFirst();
 
+            // Parsers that can return partial elements load them on demand so partial parses never use snapshots
+            // (other parsers parse the whole instance either way)
+            String format = fileParser.isPresent() ? fileParser.get().getClass().getName() : XmlExternalInstance.class.getName();
+            boolean partialParse = partial && fileParser.isPresent() && fileParser.get() instanceof PartialElementProvider;
+            boolean useSnapshot = snapshotStore != null && !partialParse;
+
+            if (useSnapshot) {
+                TreeElement snapshot = snapshotStore.load(instanceId, path, format);
+                if (snapshot != null) {
+                    return snapshot;
+                }
+            }
+
             TreeElement root;
             if (fileParser.isPresent()) {
                 root = fileParser.get().parse(instanceId, path, partial);
             } else {
                 root = XmlExternalInstance.parse(instanceId, path);
             }
+
+            if (useSnapshot) {
+                snapshotStore.save(path, format, root);
+            }
             return root;
         }
     }
@@ -57,6 +77,38 @@ public class ExternalInstanceParser {
         return parse(referenceManager, instanceId, instanceSrc, false);
     }
 
+    /**
+     * Returns a {@link PartialElementLoader} for an instance previously parsed with partial = true if the
+     * {@link InstanceProvider} or {@link FileInstanceParser} that handles it is a {@link PartialElementProvider}.
+     *
+     * @return the loader or null if partial elements can only be loaded by parsing the whole instance again
+     */
+    @Nullable
+    public PartialElementLoader getPartialElementLoader(ReferenceManager referenceManager, String instanceId, String instanceSrc) throws IOException, InvalidReferenceException {
+        Optional<InstanceProvider> instanceProvider = instanceProviders.stream()
+            .filter(parser -> parser.isSupported(instanceId, instanceSrc))
+            .findFirst();
+
+        if (instanceProvider.isPresent()) {
+            if (instanceProvider.get() instanceof PartialElementProvider) {
+                return ((PartialElementProvider) instanceProvider.get()).getPartialElementLoader(instanceId, instanceSrc);
+            } else {
+                return null;
+            }
+        } else {
+            Optional<FileInstanceParser> fileParser = fileInstanceParsers.stream()
+                .filter(parser -> parser.isSupported(instanceId, instanceSrc))
+                .findFirst();
+
+            if (fileParser.isPresent() && fileParser.get() instanceof PartialElementProvider) {
+                String path = getPath(referenceManager, instanceSrc);
+                return ((PartialElementProvider) fileParser.get()).getPartialElementLoader(instanceId, path);
+            } else {
+                return null;
+            }
+        }
+    }
+
     /**
      * Adds {@link FileInstanceParser} before others. The last added {@link FileInstanceParser} will be checked
      * (via {@link FileInstanceParser#isSupported(String, String)}) first.
@@ -79,6 +131,16 @@ public class ExternalInstanceParser {
         ).collect(Collectors.toList());
     }
 
+    /**
+     * Sets a store used to load file based instances from snapshots rather than parsing them and to save snapshots
+     * of newly parsed ones. Snapshots are kept per parser so each instance is only ever loaded from one made by the
+     * parser that would otherwise handle it. Instances from {@link InstanceProvider}s and partial parses by a
+     * {@link PartialElementProvider} are never stored.
+     */
+    public void setSnapshotStore(ExternalInstanceSnapshotStore snapshotStore) {
+        this.snapshotStore = snapshotStore;
+    }
+
     /**
      * Returns the path of the URI at srcLocation.
      *
@@ -109,4 +171,35 @@ public class ExternalInstanceParser {
 
         boolean isSupported(@NotNull String instanceId, @NotNull String instanceSrc);
     }
+
+    /**
+     * Can be implemented by an {@link InstanceProvider} or {@link FileInstanceParser} that returns partial elements so
+     * that they can be loaded on demand (in pages or by key) rather than by parsing the whole instance again when one
+     * of them is accessed.
+     */
+    public interface PartialElementProvider {
+
+        /**
+         * @param source the instance's src for an {@link InstanceProvider} or its path for a
+         *               {@link FileInstanceParser}
+         */
+        @Nullable
+        PartialElementLoader getPartialElementLoader(@NotNull String instanceId, @NotNull String source) throws IOException;
+    }
+
+    public interface PartialElementLoader {
+
+        /**
+         * @return complete versions of the root's children with multiplicities from {@code from} (inclusive) to
+         * {@code to} (exclusive)
+         */
+        List<TreeElement> getElements(int from, int to) throws IOException;
+
+        /**
+         * @return the multiplicities of the root's children whose child {@code name} has the value {@code value} (in
+         * ascending order) or null if lookups by {@code name} aren't supported
+         */
+        @Nullable
+        int[] lookup(@NotNull String name, @NotNull String value) throws IOException;
+    }
 }
@@ -0,0 +1,197 @@
+package org.javarosa.xform.parse;
+
+import org.javarosa.core.model.instance.CsvTable;
+import org.javarosa.core.model.instance.CsvTableElement;
+import org.javarosa.core.model.instance.TreeElement;
+import org.javarosa.core.util.ByteBufferInputStream;
+import org.javarosa.core.util.externalizable.DeserializationException;
+import org.javarosa.core.util.externalizable.ExtUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Stores parsed external secondary instances as binary snapshots in a directory so that they don't have to be parsed
+ * from their source file again every time a form using them is loaded. Snapshots are keyed by the source file's
+ * path and the format it was parsed with (usually the parser's class name) and are discarded as soon as the file's
+ * size or modification time change.
+ * <p>
+ * Snapshots are memory mapped when loaded. Instances parsed by {@link org.javarosa.core.model.instance.ColumnarCsvExternalInstance}
+ * are stored in their columnar form which allows dictionary codes to be copied straight out of the mapped file.
+ * Everything else is stored with {@link TreeElement#writeExternal(DataOutputStream)} so, as with serialized forms,
+ * the {@link org.javarosa.core.model.CoreModelModule} prototypes need to be registered to load those.
+ *
+ * @see ExternalInstanceParser#setSnapshotStore(ExternalInstanceSnapshotStore)
+ */
+public class ExternalInstanceSnapshotStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExternalInstanceSnapshotStore.class);
+
+    private static final int MAGIC = 0x4a525349; // "JRSI"
+    private static final int VERSION = 2;
+
+    private static final byte TREE = 0;
+    private static final byte CSV_TABLE = 1;
+
+    private final File directory;
+
+    public ExternalInstanceSnapshotStore(@NotNull File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param format identifies how the file was parsed so that a snapshot is only loaded in place of the same parse
+     * @return the instance stored for the file at the given path or null if there is no snapshot for the current
+     * version of the file in that format
+     */
+    @Nullable
+    public TreeElement load(@NotNull String instanceId, @NotNull String path, @NotNull String format) {
+        File source = new File(path);
+        File snapshot = getSnapshotFile(source, format);
+        if (!snapshot.exists()) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            DataInputStream in = new DataInputStream(new ByteBufferInputStream(buffer));
+
+            if (in.readInt() != MAGIC
+                || in.readInt() != VERSION
+                || !in.readUTF().equals(source.getCanonicalPath())
+                || !in.readUTF().equals(format)
+                || in.readLong() != source.length()
+                || in.readLong() != source.lastModified()) {
+                delete(snapshot);
+                return null;
+            }
+
+            TreeElement root;
+            byte type = in.readByte();
+            if (type == CSV_TABLE) {
+                root = new CsvTableElement(instanceId, CsvTable.read(buffer));
+            } else if (type == TREE) {
+                root = new TreeElement();
+                root.readExternal(in, ExtUtil.defaultPrototypes());
+                root.setInstanceName(instanceId);
+            } else {
+                throw new IOException("Unknown snapshot type " + type);
+            }
+
+            return root;
+        } catch (IOException | DeserializationException | RuntimeException e) {
+            logger.warn("Discarding unreadable snapshot for {}", path, e);
+            delete(snapshot);
+            return null;
+        }
+    }
+
+    /**
+     * Stores a snapshot of an instance that was just parsed from the file at the given path. Partially loaded
+     * instances and custom {@link TreeElement} subclasses can't be restored from a snapshot so they are skipped.
+     */
+    public void save(@NotNull String path, @NotNull String format, @NotNull TreeElement root) {
+        if (!isSupported(root)) {
+            return;
+        }
+
+        File source = new File(path);
+        File snapshot = getSnapshotFile(source, format);
+        File temp = null;
+
+        try {
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Could not create " + directory);
+            }
+
+            temp = File.createTempFile(snapshot.getName(), ".tmp", directory);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(source.getCanonicalPath());
+                out.writeUTF(format);
+                out.writeLong(source.length());
+                out.writeLong(source.lastModified());
+
+                if (root instanceof CsvTableElement) {
+                    out.writeByte(CSV_TABLE);
+                    ((CsvTableElement) root).getTable().write(out);
+                } else {
+                    out.writeByte(TREE);
+                    root.writeExternal(out);
+                }
+            }
+
+            Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("Could not store snapshot for {}", path, e);
+            if (temp != null) {
+                delete(temp);
+            }
+        }
+    }
+
+    private static boolean isSupported(TreeElement root) {
+        if (root instanceof CsvTableElement) {
+            return true;
+        }
+
+        if (root.getClass() != TreeElement.class) {
+            return false;
+        }
+
+        for (int i = 0; i < root.getNumChildren(); i++) {
+            if (root.getChildAt(i).isPartial()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private File getSnapshotFile(File source, String format) {
+        String key;
+        try {
+            key = source.getCanonicalPath();
+        } catch (IOException e) {
+            key = source.getAbsolutePath();
+        }
+
+        return new File(directory, sha1(key + "\n" + format) + ".snapshot");
+    }
+
+    private static String sha1(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            logger.warn("Could not delete {}", file);
+        }
+    }
+}
@@ -63,6 +63,14 @@ class FormInstanceParser {
     FormInstance parseInstance(Element e, boolean isMainInstance, String name, Map<String, String> namespacePrefixesByUri) {
         TreeElement root = buildInstanceStructure(e, null, !isMainInstance ? name : null, e.getNamespace(),
             namespacePrefixesByUri, null);
+        return parseInstance(e, root, isMainInstance, name);
+    }
+
+    /**
+     * Like {@link #parseInstance(Element, boolean, String, Map)} but for an instance whose tree has already been built
+     * (see {@link StreamingInstanceDocument}). Only the attributes and namespace declarations of {@code e} are used.
+     */
+    FormInstance parseInstance(Element e, TreeElement root, boolean isMainInstance, String name) {
         FormInstance instanceModel = new FormInstance(root);
         instanceModel.setName(isMainInstance ? formDef.getTitle() : name);
 
@@ -0,0 +1,353 @@
+package org.javarosa.xform.parse;
+
+import org.javarosa.core.model.data.UncastData;
+import org.javarosa.core.model.instance.TreeElement;
+import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.core.util.CacheTable;
+import org.kxml2.kdom.Document;
+import org.kxml2.kdom.Element;
+import org.kxml2.kdom.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.javarosa.xform.parse.XFormParser.NAMESPACE_JAVAROSA;
+
+/**
+ * A kXML {@link Document} that builds the {@link TreeElement}s of internal secondary instances straight from the pull
+ * parser's events rather than adding their content to the DOM. This means that large inline instances (like long
+ * choice lists) don't have to be held in memory twice (once as DOM nodes and once as tree elements) while the form is
+ * parsed.
+ * <p>
+ * Each streamed instance's root element is left in the DOM as an empty stand-in with the root's attributes and
+ * namespace declarations so that the rest of the parse sees the same instance declarations it would otherwise. The
+ * tree built for a stand-in can be retrieved with {@link #getStreamedInstance(Element)}. Trees match what
+ * {@link XFormParser#buildInstanceStructure} builds from the DOM but with the values of leaf nodes left as
+ * {@link UncastData} as they can only be cast once the instance's binds have been applied.
+ */
+class StreamingInstanceDocument extends Document {
+    private static final Logger logger = LoggerFactory.getLogger(XFormParser.class.getSimpleName());
+
+    private static final String INSTANCE_ELEMENT = "instance";
+    private static final String MODEL_ELEMENT = "model";
+
+    private final CacheTable<String> stringCache;
+    private final Map<Element, TreeElement> streamedInstances = new HashMap<>();
+
+    StreamingInstanceDocument(CacheTable<String> stringCache) {
+        this.stringCache = stringCache;
+    }
+
+    /**
+     * @return the tree built for the instance whose root element in the DOM is {@code rootElement} or null if that
+     * instance wasn't streamed
+     */
+    TreeElement getStreamedInstance(Element rootElement) {
+        return streamedInstances.get(rootElement);
+    }
+
+    @Override
+    public Element createElement(String namespace, String name) {
+        if (!name.equals(INSTANCE_ELEMENT)) {
+            return super.createElement(namespace, name);
+        }
+
+        Element element = new InstanceElement();
+        element.setNamespace(namespace == null ? "" : namespace);
+        element.setName(name);
+        return element;
+    }
+
+    private class InstanceElement extends Element {
+
+        @Override
+        public void parse(XmlPullParser parser) throws IOException, XmlPullParserException {
+            if (parser.isEmptyElementTag() || !isInternalSecondaryInstance(parser)) {
+                super.parse(parser);
+                return;
+            }
+
+            // Same as Element#parse up to the element's content
+            int depth = parser.getDepth();
+            for (int i = parser.getNamespaceCount(depth - 1); i < parser.getNamespaceCount(depth); i++) {
+                setPrefix(parser.getNamespacePrefix(i), parser.getNamespaceUri(i));
+            }
+
+            for (int i = 0; i < parser.getAttributeCount(); i++) {
+                setAttribute(parser.getAttributeNamespace(i), parser.getAttributeName(i), parser.getAttributeValue(i));
+            }
+
+            parser.nextToken();
+
+            boolean rootStreamed = false;
+            while (parser.getEventType() != XmlPullParser.END_TAG && parser.getEventType() != XmlPullParser.END_DOCUMENT) {
+                if (parser.getEventType() == XmlPullParser.START_TAG) {
+                    Element child = createElement(parser.getNamespace(), parser.getName());
+                    addChild(ELEMENT, child);
+
+                    if (rootStreamed) {
+                        // Leave anything after the root to the DOM so the parser can report it
+                        child.parse(parser);
+                    } else {
+                        rootStreamed = true;
+                        streamedInstances.put(child, streamRoot(parser, child));
+                    }
+                } else {
+                    addToken(this, parser);
+                    parser.nextToken();
+                }
+            }
+
+            if (getChildCount() == 0) {
+                addChild(IGNORABLE_WHITESPACE, "");
+            }
+
+            parser.require(XmlPullParser.END_TAG, getNamespace(), getName());
+            parser.nextToken();
+        }
+
+        private boolean isInternalSecondaryInstance(XmlPullParser parser) {
+            if (!(getParent() instanceof Element) || !((Element) getParent()).getName().equals(MODEL_ELEMENT)) {
+                return false;
+            }
+
+            for (int i = 0; i < parser.getAttributeCount(); i++) {
+                if (parser.getAttributeNamespace(i).isEmpty() && parser.getAttributeName(i).equals("src")) {
+                    return false;
+                }
+            }
+
+            // The first instance is the primary instance
+            Element model = (Element) getParent();
+            for (int i = 0; i < model.getChildCount(); i++) {
+                Element sibling = model.getElement(i);
+                if (sibling == this) {
+                    return false;
+                } else if (sibling != null && sibling.getName().equals(INSTANCE_ELEMENT)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private TreeElement streamRoot(XmlPullParser parser, Element standIn) throws IOException, XmlPullParserException {
+            int depth = parser.getDepth();
+            for (int i = parser.getNamespaceCount(depth - 1); i < parser.getNamespaceCount(depth); i++) {
+                standIn.setPrefix(parser.getNamespacePrefix(i), parser.getNamespaceUri(i));
+            }
+
+            for (int i = 0; i < parser.getAttributeCount(); i++) {
+                standIn.setAttribute(parser.getAttributeNamespace(i), parser.getAttributeName(i), parser.getAttributeValue(i));
+            }
+
+            Node documentRoot = this;
+            while (documentRoot instanceof Element && ((Element) documentRoot).getParent() instanceof Element) {
+                documentRoot = ((Element) documentRoot).getParent();
+            }
+
+            return new TreeBuilder(parser, standIn, getAttributeValue("", "id"), parser.getNamespace(),
+                XFormParser.buildNamespacesMap((Element) documentRoot)).build(null, null);
+        }
+    }
+
+    /**
+     * Builds a tree from the parser's events in the same way as {@link XFormParser#buildInstanceStructure} and
+     * {@code XFormParser#loadInstanceData} do from the DOM (after {@link XmlTextConsolidator} has been run over it).
+     */
+    private class TreeBuilder {
+        private final XmlPullParser parser;
+        private final Element standIn;
+        private final String instanceName;
+        private final String docNamespace;
+        private final Map<String, String> namespacePrefixesByUri;
+
+        TreeBuilder(XmlPullParser parser, Element standIn, String instanceName, String docNamespace, Map<String, String> namespacePrefixesByUri) {
+            this.parser = parser;
+            this.standIn = standIn;
+            this.instanceName = instanceName;
+            this.docNamespace = docNamespace;
+            this.namespacePrefixesByUri = namespacePrefixesByUri;
+        }
+
+        /**
+         * Builds the element at the parser's current start tag and leaves the parser after the matching end tag.
+         *
+         * @param parent                the element's parent or null for the root
+         * @param multiplicitiesByName  the number of non-template siblings seen so far for each name
+         */
+        TreeElement build(TreeElement parent, Map<String, Integer> multiplicitiesByName) throws IOException, XmlPullParserException {
+            final String name = parser.getName();
+            final String namespace = parser.getNamespace();
+
+            final int multiplicity;
+            if (getAttributeValue(NAMESPACE_JAVAROSA, "template") != null) {
+                multiplicity = TreeReference.INDEX_TEMPLATE;
+                if (parent != null && parent.getChild(name, TreeReference.INDEX_TEMPLATE) != null) {
+                    throw new XFormParseException("More than one node declared as the template for the same repeated set [" + name + "]", standIn);
+                }
+            } else if (parent == null) {
+                multiplicity = 0;
+            } else {
+                Integer previous = multiplicitiesByName.get(name);
+                multiplicity = previous == null ? 0 : previous;
+                multiplicitiesByName.put(name, multiplicity + 1);
+            }
+
+            TreeElement element = new TreeElement(name, multiplicity);
+            String modelType = getAttributeValue(NAMESPACE_JAVAROSA, "modeltype");
+            if (modelType == null) {
+                element.setInstanceName(instanceName);
+            } else {
+                if (XFormParser.typeMappings.get(modelType) == null) {
+                    throw new XFormParseException("ModelType " + modelType + " is not recognized.", standIn);
+                }
+                logger.info("No model type prototype available for {}", modelType);
+            }
+
+            if (!namespace.equals(docNamespace)) {
+                element.setNamespace(namespace);
+            }
+            if (namespacePrefixesByUri.containsKey(namespace)) {
+                element.setNamespacePrefix(namespacePrefixesByUri.get(namespace));
+            }
+
+            for (int i = 0; i < parser.getAttributeCount(); i++) {
+                String attrNamespace = parser.getAttributeNamespace(i);
+                String attrName = parser.getAttributeName(i);
+                if (attrNamespace.equals(NAMESPACE_JAVAROSA) && (attrName.equals("template") || attrName.equals("recordset"))) {
+                    continue;
+                }
+
+                element.setAttribute(attrNamespace, attrName, parser.getAttributeValue(i));
+            }
+
+            Map<String, Integer> childMultiplicitiesByName = null;
+            ConsolidatedText text = new ConsolidatedText();
+
+            parser.nextToken();
+            while (parser.getEventType() != XmlPullParser.END_TAG && parser.getEventType() != XmlPullParser.END_DOCUMENT) {
+                if (parser.getEventType() == XmlPullParser.START_TAG) {
+                    if (childMultiplicitiesByName == null) {
+                        childMultiplicitiesByName = new HashMap<>();
+                    }
+
+                    text.add(ELEMENT, null);
+                    element.addChild(build(element, childMultiplicitiesByName));
+                } else {
+                    int type = parser.getEventType();
+                    if (parser.getText() != null) {
+                        text.add(type == ENTITY_REF ? TEXT : type, parser.getText());
+                    } else if (type == ENTITY_REF && parser.getName() != null) {
+                        text.add(ENTITY_REF, parser.getName());
+                    }
+
+                    parser.nextToken();
+                }
+            }
+
+            parser.require(XmlPullParser.END_TAG, namespace, name);
+            parser.nextToken();
+            text.finish();
+
+            boolean hasElements = childMultiplicitiesByName != null;
+            if (hasElements && text.hasText) {
+                logger.warn("instance node '{}' contains both elements and text as children; text ignored", name);
+            }
+
+            if (!hasElements) {
+                String value = text.getXMLText();
+                if (value != null && value.length() > 0) {
+                    element.setValue(new UncastData(stringCache == null ? value : stringCache.intern(value)));
+                }
+            }
+
+            return element;
+        }
+
+        private String getAttributeValue(String namespace, String name) {
+            for (int i = 0; i < parser.getAttributeCount(); i++) {
+                if (parser.getAttributeNamespace(i).equals(namespace) && parser.getAttributeName(i).equals(name)) {
+                    return parser.getAttributeValue(i);
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Tracks the first two children an element would have in the DOM after {@link XmlTextConsolidator} merges its text
+     * so that the text {@link XFormParser#getXMLText(Node, boolean)} would return can be worked out without keeping
+     * the rest.
+     */
+    private static class ConsolidatedText {
+        private final int[] types = new int[2];
+        private final String[] texts = new String[2];
+        private int count;
+        private StringBuilder run;
+        private boolean hasText;
+
+        void add(int type, String text) {
+            if (type == TEXT) {
+                if (run == null) {
+                    run = new StringBuilder();
+                }
+                run.append(text);
+            } else {
+                finish();
+                addChild(type, text);
+            }
+        }
+
+        void finish() {
+            if (run != null) {
+                String merged = run.toString();
+                run = null;
+
+                if (!merged.trim().isEmpty()) {
+                    hasText = true;
+                    addChild(TEXT, merged);
+                }
+            }
+        }
+
+        String getXMLText() {
+            if (count == 0 || !isText(types[0])) {
+                return null;
+            }
+
+            String text = count > 1 && types[1] == TEXT ? texts[0] + texts[1] : texts[0];
+            return text.trim();
+        }
+
+        private void addChild(int type, String text) {
+            if (count < types.length) {
+                types[count] = type;
+                texts[count] = text;
+            }
+            count++;
+        }
+
+        private static boolean isText(int type) {
+            return type == TEXT || type == IGNORABLE_WHITESPACE || type == CDSECT;
+        }
+    }
+
+    /**
+     * Adds the token at the parser's current position to {@code node} in the same way as {@link Node#parse}.
+     */
+    private static void addToken(Node node, XmlPullParser parser) throws XmlPullParserException {
+        int type = parser.getEventType();
+        if (parser.getText() != null) {
+            node.addChild(type == ENTITY_REF ? TEXT : type, parser.getText());
+        } else if (type == ENTITY_REF && parser.getName() != null) {
+            node.addChild(ENTITY_REF, parser.getName());
+        }
+    }
+}
@@ -33,6 +33,7 @@ import org.javarosa.core.model.actions.SetValueAction;
 import org.javarosa.core.model.actions.recordaudio.RecordAudioActionHandler;
 import org.javarosa.core.model.actions.setgeopoint.SetGeopointActionHandler;
 import org.javarosa.core.model.actions.setgeopoint.StubSetGeopointActionHandler;
+import org.javarosa.core.model.data.UncastData;
 import org.javarosa.core.model.instance.AbstractTreeElement;
 import org.javarosa.core.model.instance.DataInstance;
 import org.javarosa.core.model.instance.ExternalDataInstance;
@@ -81,6 +82,7 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -88,8 +90,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import kotlin.Pair;
 import static java.util.Arrays.asList;
@@ -154,7 +154,7 @@ public class XFormParser implements IXFormParserFunctions {
 
     private static HashMap<String, IElementHandler> topLevelHandlers;
     private static HashMap<String, IElementHandler> groupLevelHandlers;
-    private static final Map<String, Integer> typeMappings = TypeMappings.getMap();
+    static final Map<String, Integer> typeMappings = TypeMappings.getMap();
     private static List<SubmissionParser> submissionParsers;
 
     private Reader _reader;
@@ -186,12 +186,11 @@ public class XFormParser implements IXFormParserFunctions {
     private final List<XPathProcessor> xpathProcessors = new ArrayList<>();
     private final List<ExternalDataInstanceProcessor> externalDataInstanceProcessors = new ArrayList<>();;
 
-    public static final List<XPathProcessor> tempXPathProcessors = new ArrayList<>();
-
     /**
-     * The string IDs of all instances that are referenced in a instance() function call in the primary instance
-     **/
-    private static Set<String> referencedInstanceIds;
+     * The state of the parse running on the current thread (if any). Keeping this per parse rather than in statics
+     * means that any number of forms can be parsed concurrently (on different threads).
+     */
+    private static final ThreadLocal<ParseContext> currentParseContext = new ThreadLocal<>();
 
     private final List<WarningCallback> warningCallbacks = new ArrayList<>();
     private final List<ErrorCallback> errorCallbacks = new ArrayList<>();
@@ -205,8 +204,6 @@ public class XFormParser implements IXFormParserFunctions {
         return answerResolver;
     }
 
-    private static final Lock parseLock = new ReentrantLock();
-
     public static void setAnswerResolver(IAnswerResolver answerResolver) {
         XFormParser.answerResolver = answerResolver;
     }
@@ -222,8 +219,6 @@ public class XFormParser implements IXFormParserFunctions {
     private static void staticInit() {
         initProcessingRules();
         submissionParsers = new ArrayList<>(1);
-
-        referencedInstanceIds = new HashSet<>();
     }
 
     private static void initProcessingRules() {
@@ -364,6 +359,8 @@ public class XFormParser implements IXFormParserFunctions {
 
     CacheTable<String> stringCache;
 
+    private boolean streamSecondaryInstances;
+
     public XFormParser(Reader reader) {
         _reader = reader;
     }
@@ -397,19 +394,18 @@ public class XFormParser implements IXFormParserFunctions {
      *                     no data will be loaded and the instance will be blank.
      */
     public FormDef parse(String formXmlSrc, String lastSavedSrc) throws ParseException {
-        try {
-            if (!parseLock.tryLock()) {
-                throw new IllegalStateException("Another XForm is being parsed!");
-            }
-
-            tempXPathProcessors.addAll(xpathProcessors);
+        ParseContext previousParseContext = currentParseContext.get();
+        currentParseContext.set(new ParseContext(xpathProcessors));
 
+        try {
             if (_f == null) {
                 logger.info("Parsing form...");
 
                 if (_xmldoc == null) {
                     try {
-                        _xmldoc = getXMLDocument(_reader, stringCache);
+                        _xmldoc = streamSecondaryInstances
+                            ? getXMLDocument(_reader, stringCache, new StreamingInstanceDocument(stringCache))
+                            : getXMLDocument(_reader, stringCache);
                     } catch (IOException e) {
                         throw new ParseException("IO Exception during parse! " + e.getMessage());
                     }
@@ -435,8 +431,11 @@ public class XFormParser implements IXFormParserFunctions {
 
             return _f;
         } finally {
-            tempXPathProcessors.clear();
-            parseLock.unlock();
+            if (previousParseContext != null) {
+                currentParseContext.set(previousParseContext);
+            } else {
+                currentParseContext.remove();
+            }
         }
     }
 
@@ -481,7 +480,7 @@ public class XFormParser implements IXFormParserFunctions {
     /**
      * Extracts the namespaces from the given element and creates a map of URI to prefix
      */
-    private static Map<String, String> buildNamespacesMap(Element el) {
+    static Map<String, String> buildNamespacesMap(Element el) {
         final Map<String, String> namespacePrefixesByURI = new HashMap<>();
 
         for (int i = 0; i < el.getNamespaceCount(); i++) {
@@ -507,9 +506,13 @@ public class XFormParser implements IXFormParserFunctions {
      */
     @Deprecated
     public static Document getXMLDocument(Reader reader, CacheTable<String> stringCache)
+        throws IOException {
+        return getXMLDocument(reader, stringCache, new Document());
+    }
+
+    static Document getXMLDocument(Reader reader, CacheTable<String> stringCache, Document doc)
         throws IOException {
         final StopWatch ctParse = StopWatch.start();
-        Document doc = new Document();
 
         try {
             KXmlParser parser;
@@ -527,7 +530,7 @@ public class XFormParser implements IXFormParserFunctions {
             String errorMsg = "XML Syntax Error at Line: " + e.getLineNumber() + ", Column: " + e.getColumnNumber() + "!";
             logger.error(errorMsg, e);
             throw new XFormParseException(errorMsg);
-        } catch (IOException e) {
+        } catch (IOException | XFormParseException e) {
             //CTS - 12/09/2012 - Stop swallowing IO Exceptions
             throw e;
         } catch (Exception e) {
@@ -557,6 +560,7 @@ public class XFormParser implements IXFormParserFunctions {
         initState();
         final String defaultNamespace = _xmldoc.getRootElement().getNamespaceUri(null);
 
+        Set<String> referencedInstanceIds = getParseContext().referencedInstanceIds;
         referencedInstanceIds.clear();
         parseElement(_xmldoc.getRootElement(), _f, topLevelHandlers);
 
@@ -593,11 +597,22 @@ public class XFormParser implements IXFormParserFunctions {
                         }
                         _f.addNonMainInstance(externalDataInstance);
                     } else {
-                        FormInstance fi = instanceParser.parseInstance(instance, false,
-                            instanceNodeIdStrs.get(instanceNodes.indexOf(instance)), namespacePrefixesByUri);
-                        loadNamespaces(_xmldoc.getRootElement(), fi); // same situation as below
-                        loadInstanceData(instance, fi.getRoot(), _f);
-                        _f.addNonMainInstance(fi);
+                        TreeElement streamedRoot = _xmldoc instanceof StreamingInstanceDocument
+                            ? ((StreamingInstanceDocument) _xmldoc).getStreamedInstance(instance)
+                            : null;
+
+                        if (streamedRoot != null) {
+                            FormInstance fi = instanceParser.parseInstance(instance, streamedRoot, false, instanceId);
+                            loadNamespaces(_xmldoc.getRootElement(), fi); // same situation as below
+                            castStreamedInstanceData(fi.getRoot(), _f);
+                            _f.addNonMainInstance(fi);
+                        } else {
+                            FormInstance fi = instanceParser.parseInstance(instance, false,
+                                instanceNodeIdStrs.get(instanceNodes.indexOf(instance)), namespacePrefixesByUri);
+                            loadNamespaces(_xmldoc.getRootElement(), fi); // same situation as below
+                            loadInstanceData(instance, fi.getRoot(), _f);
+                            _f.addNonMainInstance(fi);
+                        }
                     }
                 }
             }
@@ -688,10 +703,32 @@ public class XFormParser implements IXFormParserFunctions {
     }
 
     /**
-     * Records that the given instance ID was used as the argument to an instance() function call.
+     * Records that the given instance ID was used as the argument to an instance() function call in the form being
+     * parsed on the current thread. Calls made outside of a parse are ignored.
      */
     public static void recordInstanceFunctionCall(String instanceId) {
-        referencedInstanceIds.add(instanceId);
+        ParseContext parseContext = currentParseContext.get();
+        if (parseContext != null) {
+            parseContext.referencedInstanceIds.add(instanceId);
+        }
+    }
+
+    /**
+     * @return the {@link XPathProcessor}s of the parser running on the current thread or an empty list if no parse is
+     * in progress
+     */
+    public static List<XPathProcessor> getCurrentXPathProcessors() {
+        ParseContext parseContext = currentParseContext.get();
+        return parseContext != null ? parseContext.xpathProcessors : Collections.emptyList();
+    }
+
+    private static ParseContext getParseContext() {
+        ParseContext parseContext = currentParseContext.get();
+        if (parseContext == null) {
+            throw new IllegalStateException("No XForm is being parsed on this thread");
+        }
+
+        return parseContext;
     }
 
     private void parseTitle(Element e) {
@@ -2249,6 +2286,21 @@ public class XFormParser implements IXFormParserFunctions {
         }
     }
 
+    /**
+     * Casts the values of an instance built by {@link StreamingInstanceDocument} (which are left as
+     * {@link UncastData}) in the same way {@link #loadInstanceData(Element, TreeElement, FormDef)} does.
+     */
+    private static void castStreamedInstanceData(TreeElement cur, FormDef f) {
+        if (cur.getValue() instanceof UncastData) {
+            String text = (String) cur.getValue().getValue();
+            cur.setValue(XFormAnswerDataParser.getAnswerData(text, cur.getDataType(), ghettoGetQuestionDef(cur.getDataType(), f, cur.getRef())));
+        }
+
+        for (int i = 0; i < cur.getNumChildren(); i++) {
+            castStreamedInstanceData(cur.getChildAt(i), f);
+        }
+    }
+
     /**
      * Finds a questiondef that binds to ref, if the data type is a 'select' question type
      */
@@ -2445,6 +2497,15 @@ public class XFormParser implements IXFormParserFunctions {
         this.stringCache = stringCache;
     }
 
+    /**
+     * Builds the trees of internal secondary instances directly from the XML parser's events rather than from a DOM
+     * of the whole form. This lowers the peak memory used to parse forms with large inline instances. Has no effect for
+     * parsers created from a {@link Document}.
+     */
+    public void setStreamSecondaryInstances(boolean streamSecondaryInstances) {
+        this.streamSecondaryInstances = streamSecondaryInstances;
+    }
+
     public void onWarning(WarningCallback callback) {
         warningCallbacks.add(callback);
     }
@@ -2540,4 +2601,22 @@ public class XFormParser implements IXFormParserFunctions {
             return name;
         }
     }
+
+    /**
+     * State that is shared between the parser and the code it calls into (like {@link XPathParseTool}) for a single
+     * parse.
+     */
+    private static class ParseContext {
+
+        private final List<XPathProcessor> xpathProcessors;
+
+        /**
+         * The string IDs of all instances that are referenced in a instance() function call in the primary instance
+         **/
+        private final Set<String> referencedInstanceIds = new HashSet<>();
+
+        ParseContext(List<XPathProcessor> xpathProcessors) {
+            this.xpathProcessors = new ArrayList<>(xpathProcessors);
+        }
+    }
 }
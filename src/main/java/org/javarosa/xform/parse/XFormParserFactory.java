@@ -18,6 +18,7 @@ import org.kxml2.kdom.Document;
  */
 public class XFormParserFactory implements IXFormParserFactory {
     CacheTable<String> stringCache;
+    private boolean streamSecondaryInstances;
 
     public XFormParserFactory() {
     }
@@ -26,6 +27,13 @@ public class XFormParserFactory implements IXFormParserFactory {
         this.stringCache = stringCache;
     }
 
+    /**
+     * @see XFormParser#setStreamSecondaryInstances(boolean)
+     */
+    public void setStreamSecondaryInstances(boolean streamSecondaryInstances) {
+        this.streamSecondaryInstances = streamSecondaryInstances;
+    }
+
     public XFormParser getXFormParser(Reader reader) {
         XFormParser parser = new XFormParser(reader);
         init(parser);
@@ -36,6 +44,8 @@ public class XFormParserFactory implements IXFormParserFactory {
         if(stringCache != null) {
             parser.setStringCache(stringCache);
         }
+
+        parser.setStreamSecondaryInstances(streamSecondaryInstances);
     }
 
     public XFormParser getXFormParser(Document doc) {
@@ -187,6 +187,10 @@ public class XFormUtils {
         return getExternalInstance(referenceManager, id, instanceSrc, false);
     }
 
+    public static ExternalInstanceParser.PartialElementLoader getPartialElementLoader(ReferenceManager referenceManager, String id, String instanceSrc) throws IOException, InvalidReferenceException {
+        return externalInstanceParserFactory.getExternalInstanceParser().getPartialElementLoader(referenceManager, id, instanceSrc);
+    }
+
     /////Parser Attribute warning stuff
 
     public static List<String> getAttributeList(Element e){
@@ -0,0 +1,245 @@
+package org.javarosa.xpath;
+
+import org.javarosa.core.model.condition.EvaluationContext;
+import org.javarosa.xform.parse.XFormParser;
+import org.javarosa.xpath.expr.XPathArithExpr;
+import org.javarosa.xpath.expr.XPathBinaryOpExpr;
+import org.javarosa.xpath.expr.XPathBoolExpr;
+import org.javarosa.xpath.expr.XPathCmpExpr;
+import org.javarosa.xpath.expr.XPathEqExpr;
+import org.javarosa.xpath.expr.XPathExpression;
+import org.javarosa.xpath.expr.XPathFilterExpr;
+import org.javarosa.xpath.expr.XPathFuncExpr;
+import org.javarosa.xpath.expr.XPathNumNegExpr;
+import org.javarosa.xpath.expr.XPathNumericLiteral;
+import org.javarosa.xpath.expr.XPathPathExpr;
+import org.javarosa.xpath.expr.XPathQName;
+import org.javarosa.xpath.expr.XPathStep;
+import org.javarosa.xpath.expr.XPathStringLiteral;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.javarosa.xpath.expr.XPathFuncExpr.isNull;
+
+/**
+ * Simplifies XPath expressions as they are parsed by evaluating their constant parts up front. Sub-expressions
+ * that only combine literals with functions that don't depend on the form (like {@code concat('a', 'b')} or
+ * {@code number('3')}) are replaced by the literal they evaluate to and branches that can't be taken (like the second
+ * branch of {@code if(true(), x, y)}) or operands that don't change the result (like {@code true()} in
+ * {@code x and true()}) are dropped. Functions with results that change between evaluations (like {@code now()},
+ * {@code random()} or {@code uuid()}) are never folded and no sub-expression that contains them is ever dropped
+ * unless it could not have been evaluated in the first place.
+ * <p>
+ * Expressions are simplified in place so the top level node of an expression is never replaced (only its
+ * operands are). A sub-expression that fails to evaluate is left as it is so that the error is still reported when
+ * the form is filled.
+ *
+ * @see XFormParser#addProcessor(XFormParser.Processor)
+ */
+public class ConstantFoldingXPathProcessor implements XFormParser.XPathProcessor {
+
+    /**
+     * Built-in functions that always evaluate to the same result when their arguments do
+     */
+    private static final Set<String> FOLDABLE_FUNCTIONS = new HashSet<>(Arrays.asList(
+        "true", "false", "boolean", "number", "int", "round", "string", "not", "boolean-from-string",
+        "abs", "acos", "asin", "atan", "atan2", "cos", "exp", "exp10", "log", "log10", "pi", "sin", "sqrt", "tan", "pow",
+        "selected", "is-selected", "count-selected", "selected-at", "max", "min",
+        "concat", "join", "substr", "substring-before", "substring-after", "translate", "contains", "starts-with",
+        "ends-with", "string-length", "normalize-space", "regex", "checklist", "weighted-checklist", "base64-decode"
+    ));
+
+    /**
+     * Built-in functions that use the context node when they're called without arguments
+     */
+    private static final Set<String> CONTEXT_DEFAULT_FUNCTIONS = new HashSet<>(Arrays.asList(
+        "string-length", "normalize-space"
+    ));
+
+    @Override
+    public void processXPath(@NotNull XPathExpression xPathExpression) {
+        fold(xPathExpression);
+    }
+
+    /**
+     * Simplifies the operands of {@code expression} and returns what {@code expression} itself should be replaced
+     * with (which is {@code expression} if it can't be simplified)
+     */
+    private static XPathExpression fold(XPathExpression expression) {
+        if (expression instanceof XPathFuncExpr) {
+            XPathFuncExpr funcExpr = (XPathFuncExpr) expression;
+            for (int i = 0; i < funcExpr.args.length; i++) {
+                funcExpr.args[i] = fold(funcExpr.args[i]);
+            }
+
+            return foldFunction(funcExpr);
+        } else if (expression instanceof XPathBoolExpr) {
+            XPathBoolExpr boolExpr = (XPathBoolExpr) expression;
+            boolExpr.a = fold(boolExpr.a);
+            boolExpr.b = fold(boolExpr.b);
+
+            return foldBoolean(boolExpr);
+        } else if (expression instanceof XPathArithExpr || expression instanceof XPathCmpExpr || expression instanceof XPathEqExpr) {
+            XPathBinaryOpExpr binaryOpExpr = (XPathBinaryOpExpr) expression;
+            binaryOpExpr.a = fold(binaryOpExpr.a);
+            binaryOpExpr.b = fold(binaryOpExpr.b);
+
+            return isConstant(binaryOpExpr.a) && isConstant(binaryOpExpr.b) ? toLiteral(binaryOpExpr) : binaryOpExpr;
+        } else if (expression instanceof XPathBinaryOpExpr) {
+            XPathBinaryOpExpr binaryOpExpr = (XPathBinaryOpExpr) expression;
+            binaryOpExpr.a = fold(binaryOpExpr.a);
+            binaryOpExpr.b = fold(binaryOpExpr.b);
+
+            return binaryOpExpr;
+        } else if (expression instanceof XPathNumNegExpr) {
+            XPathNumNegExpr numNegExpr = (XPathNumNegExpr) expression;
+            numNegExpr.a = fold(numNegExpr.a);
+
+            return isConstant(numNegExpr.a) ? toLiteral(numNegExpr) : numNegExpr;
+        } else if (expression instanceof XPathPathExpr) {
+            XPathPathExpr pathExpr = (XPathPathExpr) expression;
+
+            // The filter expression's head (like instance('id')) is left alone as paths only support literal arguments there
+            if (pathExpr.filtExpr != null) {
+                foldAll(pathExpr.filtExpr.predicates);
+            }
+
+            for (XPathStep step : pathExpr.steps) {
+                foldAll(step.predicates);
+            }
+
+            return pathExpr;
+        } else if (expression instanceof XPathFilterExpr) {
+            foldAll(((XPathFilterExpr) expression).predicates);
+            return expression;
+        } else {
+            return expression;
+        }
+    }
+
+    private static void foldAll(XPathExpression[] expressions) {
+        for (int i = 0; i < expressions.length; i++) {
+            expressions[i] = fold(expressions[i]);
+        }
+    }
+
+    private static XPathExpression foldFunction(XPathFuncExpr funcExpr) {
+        if (funcExpr.id.namespace != null) {
+            return funcExpr;
+        }
+
+        String name = funcExpr.id.name;
+        XPathExpression[] args = funcExpr.args;
+
+        // Only the branch that's taken is evaluated, so the other one can be dropped
+        if (name.equals("if") && args.length == 3 && isConstant(args[0])) {
+            Object condition = evaluate(args[0]);
+            if (condition != null) {
+                return XPathFuncExpr.toBoolean(condition) ? args[1] : args[2];
+            }
+        } else if (name.equals("coalesce") && args.length == 2 && isConstant(args[0])) {
+            Object first = evaluate(args[0]);
+            if (first != null) {
+                return isNull(first) ? args[1] : args[0];
+            }
+        } else if (isFoldable(funcExpr)) {
+            return toLiteral(funcExpr);
+        }
+
+        return funcExpr;
+    }
+
+    /**
+     * Drops operands that don't affect the result. The first operand is always evaluated (as it is without
+     * simplification) so it can only be dropped if it's constant, while the second operand is only evaluated if
+     * the first doesn't decide the result already.
+     */
+    private static XPathExpression foldBoolean(XPathBoolExpr boolExpr) {
+        boolean shortCircuitValue = boolExpr.op == XPathBoolExpr.OR;
+
+        if (isConstant(boolExpr.a)) {
+            Object a = evaluate(boolExpr.a);
+            if (a != null) {
+                if (XPathFuncExpr.toBoolean(a) == shortCircuitValue) {
+                    return toBooleanLiteral(shortCircuitValue);
+                } else {
+                    return isConstant(boolExpr.b) ? toLiteral(boolExpr) : toBoolean(boolExpr.b);
+                }
+            }
+        } else if (isConstant(boolExpr.b)) {
+            Object b = evaluate(boolExpr.b);
+            if (b != null && XPathFuncExpr.toBoolean(b) != shortCircuitValue) {
+                return toBoolean(boolExpr.a);
+            }
+        }
+
+        return boolExpr;
+    }
+
+    private static boolean isConstant(XPathExpression expression) {
+        return expression instanceof XPathStringLiteral || expression instanceof XPathNumericLiteral ||
+            (expression instanceof XPathFuncExpr && isFoldable((XPathFuncExpr) expression));
+    }
+
+    private static boolean isFoldable(XPathFuncExpr funcExpr) {
+        if (funcExpr.id.namespace != null || !FOLDABLE_FUNCTIONS.contains(funcExpr.id.name)) {
+            return false;
+        }
+
+        if (funcExpr.args.length == 0 && CONTEXT_DEFAULT_FUNCTIONS.contains(funcExpr.id.name)) {
+            return false;
+        }
+
+        for (XPathExpression arg : funcExpr.args) {
+            if (!isConstant(arg)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Replaces a constant expression by a literal with the same value. Expressions that evaluate to something
+     * that can't be written as a literal (like a date) or fail to evaluate are kept.
+     */
+    private static XPathExpression toLiteral(XPathExpression expression) {
+        Object value = evaluate(expression);
+        if (value instanceof String) {
+            return new XPathStringLiteral((String) value);
+        } else if (value instanceof Double) {
+            return new XPathNumericLiteral((Double) value);
+        } else if (value instanceof Boolean) {
+            return toBooleanLiteral((Boolean) value);
+        } else {
+            return expression;
+        }
+    }
+
+    private static XPathExpression toBooleanLiteral(boolean value) {
+        return new XPathFuncExpr(new XPathQName(value ? "true" : "false"));
+    }
+
+    private static XPathExpression toBoolean(XPathExpression expression) {
+        if (expression instanceof XPathBoolExpr || expression instanceof XPathCmpExpr || expression instanceof XPathEqExpr) {
+            return expression;
+        } else {
+            return new XPathFuncExpr(new XPathQName("boolean"), new XPathExpression[]{expression});
+        }
+    }
+
+    /**
+     * @return the value of the constant expression or null if it can't be evaluated
+     */
+    private static Object evaluate(XPathExpression expression) {
+        try {
+            // There's no form: a function that needs one or a custom handler would fail
+            return expression.eval(null, new EvaluationContext(null));
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -50,15 +50,8 @@ public class XPathLazyNodeset extends XPathNodeset {
             if(evaluated.booleanValue()) {
                 return;
             }
-         List<TreeReference> nodes = ec.expandReference(unExpandedRef);
-
             //to fix conditions based on non-relevant data, filter the nodeset by relevancy
-            for (int i = 0; i < nodes.size(); i++) {
-                if (!instance.resolveReference(nodes.get(i)).isRelevant()) {
-                    nodes.remove(i);
-                    i--;
-                }
-            }
+            List<TreeReference> nodes = ec.expandRelevantReferences(unExpandedRef);
             this.setReferences(nodes);
             evaluated = true;
         }
@@ -70,10 +63,10 @@ public class XPathLazyNodeset extends XPathNodeset {
      * reference, or when it represents 0 references after a filtering operation (a reference which _could_ have
      * existed, but didn't, rather than a reference which could not represent a real node).
      */
-    public Object unpack () {
+    public Object unpack (boolean selectedValues) {
         synchronized(evaluated) {
             if(evaluated.booleanValue()) {
-                return super.unpack();
+                return super.unpack(selectedValues);
             }
 
             //this element is the important one. For Basic nodeset evaluations (referring to one node with no
@@ -96,7 +89,7 @@ public class XPathLazyNodeset extends XPathNodeset {
             }
             if(!safe) {
                 performEvaluation();
-                return super.unpack();
+                return super.unpack(selectedValues);
             }
 
             //TOOD: Evaluate error fallbacks, here. I don't know whether this handles the 0 case
@@ -104,11 +97,11 @@ public class XPathLazyNodeset extends XPathNodeset {
             try {
                 //TODO: This doesn't handle templated nodes (repeats which may exist in the future)
                 //figure out if we can roll that in easily. For now the catch handles it
-                return XPathPathExpr.getRefValue(instance, ec, unExpandedRef);
+                return XPathPathExpr.getRefValue(instance, ec, unExpandedRef, selectedValues);
             } catch(XPathException xpe) {
                 //This isn't really a best effort attempt, so if we can, see if evaluating cleany works.
                 performEvaluation();
-                return super.unpack();
+                return super.unpack(selectedValues);
             }
         }
     }
@@ -120,6 +120,14 @@ public class XPathNodeset {
      * existed, but didn't, rather than a reference which could not represent a real node).
      */
     public Object unpack () {
+        return unpack(false);
+    }
+
+    /**
+     * Like {@link #unpack()} but, if {@code selectedValues} is true, multiple select answers are unpacked to their
+     * {@link org.javarosa.core.model.data.helper.SelectedValues} instead of their XML value.
+     */
+    public Object unpack (boolean selectedValues) {
         if(nodes == null) {
             throw getInvalidNodesetException();
         }
@@ -129,7 +137,7 @@ public class XPathNodeset {
         } else if (size() > 1) {
             throw new XPathTypeMismatchException("This field is repeated: \n\n" + nodeContents() + "\n\nYou may need to use the indexed-repeat() function to specify which value you want.");
         } else {
-            return getValAt(0);
+            return XPathPathExpr.getRefValue(instance, ec, getRefAt(0), selectedValues);
         }
     }
 
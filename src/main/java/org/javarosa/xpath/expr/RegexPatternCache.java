@@ -0,0 +1,48 @@
+package org.javarosa.xpath.expr;
+
+import org.javarosa.core.util.BoundedCache;
+import org.javarosa.core.util.BoundedCache.CacheStats;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.regex.Pattern;
+
+/**
+ * Compiled patterns for {@code regex()} calls with patterns that aren't literals (calls with a literal pattern compile
+ * it once when they're bound, see {@link XPathFuncExpr}). Shared by all forms and held in a {@link BoundedCache}.
+ */
+public final class RegexPatternCache {
+
+    /**
+     * The default maximum number of patterns held
+     */
+    public static final long DEFAULT_MAXIMUM_SIZE = 256;
+
+    private static final BoundedCache<String, Pattern> patterns = new BoundedCache<>(DEFAULT_MAXIMUM_SIZE, pattern -> 1);
+
+    private RegexPatternCache() {
+    }
+
+    /**
+     * @throws java.util.regex.PatternSyntaxException if the regular expression isn't valid
+     */
+    @NotNull
+    static Pattern get(@NotNull String regex) {
+        return patterns.get(regex, Pattern::compile);
+    }
+
+    public static void setMaximumSize(long maximumSize) {
+        patterns.setMaximumWeight(maximumSize);
+    }
+
+    public static void clear() {
+        patterns.clear();
+    }
+
+    /**
+     * @return hit, miss, eviction and compile time counters
+     */
+    @NotNull
+    public static CacheStats getStats() {
+        return patterns.getStats();
+    }
+}
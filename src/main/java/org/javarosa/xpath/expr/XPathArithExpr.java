@@ -85,6 +85,10 @@ public class XPathArithExpr extends XPathBinaryOpExpr {
         }
     }
 
+    public int hashCode () {
+        return 31 * super.hashCode() + op;
+    }
+
     public void readExternal(DataInputStream in, PrototypeFactory pf) throws IOException, DeserializationException {
         op = ExtUtil.readInt(in);
         super.readExternal(in, pf);
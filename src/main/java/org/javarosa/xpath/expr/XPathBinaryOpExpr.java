@@ -58,6 +58,10 @@ public abstract class XPathBinaryOpExpr extends XPathOpExpr {
         }
     }
 
+    public int hashCode () {
+        return 31 * a.hashCode() + b.hashCode();
+    }
+
     public void readExternal(DataInputStream in, PrototypeFactory pf) throws IOException, DeserializationException {
         a = (XPathExpression)ExtUtil.read(in, new ExtWrapTagged(), pf);
         b = (XPathExpression)ExtUtil.read(in, new ExtWrapTagged(), pf);
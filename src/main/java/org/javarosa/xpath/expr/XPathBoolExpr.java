@@ -82,6 +82,10 @@ public class XPathBoolExpr extends XPathBinaryOpExpr {
         }
     }
 
+    public int hashCode () {
+        return 31 * super.hashCode() + op;
+    }
+
     public void readExternal(DataInputStream in, PrototypeFactory pf) throws IOException, DeserializationException {
         op = ExtUtil.readInt(in);
         super.readExternal(in, pf);
@@ -86,6 +86,11 @@ public class XPathEqExpr extends XPathBinaryOpExpr {
         return o instanceof XPathEqExpr && (super.equals(o) && equal == ((XPathEqExpr) o).equal);
     }
 
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + (equal ? 1 : 0);
+    }
+
     @Override
     public void readExternal(DataInputStream in, PrototypeFactory pf) throws IOException, DeserializationException {
         equal = ExtUtil.readBool(in);
@@ -82,6 +82,10 @@ public class XPathFilterExpr extends XPathExpression {
         }
     }
 
+    public int hashCode () {
+        return 31 * x.hashCode() + Arrays.hashCode(predicates);
+    }
+
     public void readExternal(DataInputStream in, PrototypeFactory pf) throws IOException, DeserializationException {
         x = (XPathExpression)ExtUtil.read(in, new ExtWrapTagged(), pf);
         List<Object> v = (List<Object>)ExtUtil.read(in, new ExtWrapListPoly(), pf);
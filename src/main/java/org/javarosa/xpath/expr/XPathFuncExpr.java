@@ -20,9 +20,11 @@ import org.bouncycastle.crypto.digests.SHA256Digest;
 import org.javarosa.core.model.condition.EvaluationContext;
 import org.javarosa.core.model.condition.IFallbackFunctionHandler;
 import org.javarosa.core.model.condition.IFunctionHandler;
+import org.javarosa.core.model.condition.SubexpressionCache;
 import org.javarosa.core.model.condition.pivot.UnpivotableExpressionException;
 import org.javarosa.core.model.data.GeoPointData;
 import org.javarosa.core.model.data.UncastData;
+import org.javarosa.core.model.data.helper.SelectedValues;
 import org.javarosa.core.model.instance.DataInstance;
 import org.javarosa.core.model.instance.FormInstance;
 import org.javarosa.core.model.instance.TreeReference;
@@ -57,7 +59,10 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import static java.lang.Double.NaN;
 import static org.javarosa.xform.parse.RandomizeHelper.toNumericWithLongHash;
@@ -76,6 +81,8 @@ public class XPathFuncExpr extends XPathExpression {
     public XPathQName id;            //name of the function
     public XPathExpression[] args;    //argument list
 
+    private Binding binding;
+
     public XPathFuncExpr() {
     } //for deserialization
 
@@ -86,6 +93,10 @@ public class XPathFuncExpr extends XPathExpression {
         if (id.name.equals("instance") && args[0] instanceof XPathStringLiteral) {
             XFormParser.recordInstanceFunctionCall(((XPathStringLiteral) args[0]).s);
         }
+
+        if (args != null) {
+            binding = bind(id, args);
+        }
     }
 
     public XPathFuncExpr(XPathQName id) {
@@ -118,12 +129,16 @@ public class XPathFuncExpr extends XPathExpression {
             //Dec 8, 2011 - Added "uuid", since we should never assume one uuid equals another
             //May 6, 2013 - Added "random", since two calls asking for a random
             //Jun 4, 2013 - Added "now" and "today", since these could change during the course of a survey
-            if (!id.equals(x.id) || args.length != x.args.length ||
-                id.toString().equals("uuid") ||
-                id.toString().equals("random") ||
-                id.toString().equals("once") ||
-                id.toString().equals("now") ||
-                id.toString().equals("today")) {
+            if (!id.equals(x.id) || args.length != x.args.length) {
+                return false;
+            }
+
+            String name = getBinding().name;
+            if (name.equals("uuid") ||
+                name.equals("random") ||
+                name.equals("once") ||
+                name.equals("now") ||
+                name.equals("today")) {
                 return false;
             }
 
@@ -133,6 +148,10 @@ public class XPathFuncExpr extends XPathExpression {
         }
     }
 
+    public int hashCode() {
+        return 31 * id.hashCode() + Arrays.hashCode(args);
+    }
+
     public void readExternal(DataInputStream in, PrototypeFactory pf) throws IOException, DeserializationException {
         id = (XPathQName) ExtUtil.read(in, XPathQName.class);
         List<Object> v = (List<Object>) ExtUtil.read(in, new ExtWrapListPoly(), pf);
@@ -140,6 +159,8 @@ public class XPathFuncExpr extends XPathExpression {
         args = new XPathExpression[v.size()];
         for (int i = 0; i < args.length; i++)
             args[i] = (XPathExpression) v.get(i);
+
+        binding = bind(id, args);
     }
 
     public void writeExternal(DataOutputStream out) throws IOException {
@@ -152,152 +173,341 @@ public class XPathFuncExpr extends XPathExpression {
     /**
      * Evaluate the function call.
      * <p>
-     * First check if the function is a member of the built-in function suite. If not, then check
-     * for any custom handlers registered to handler the function. If not, throw and exception.
+     * The function isn't looked up by name on every evaluation. Instead, the expression is bound to a function once
+     * (see {@link #bind(XPathQName, XPathExpression[])}) and evaluating it is a call to that function. Built-in functions are
+     * matched by name and number of arguments. Anything else is passed on to the custom handler registered for the
+     * function (or the fallback handler) in the evaluation context. For custom functions, the supplied arguments must
+     * match one of the function prototypes defined by the handler.
      * <p>
-     * Both function name and appropriate arguments are taken into account when finding a suitable
-     * handler. For built-in functions, the number of arguments must match; for custom functions,
-     * the supplied arguments must match one of the function prototypes defined by the handler.
+     * Calls that are shared between several triggerables of a form are only evaluated once per cascade (see
+     * {@link SubexpressionCache}).
      */
     public Object eval(DataInstance model, EvaluationContext evalContext) {
+        SubexpressionCache subexpressionCache = evalContext.getSubexpressionCache();
+        if (subexpressionCache != null && subexpressionCache.isShared(this)) {
+            return subexpressionCache.eval(this, evalContext, () -> evalFunction(model, evalContext));
+        }
+
+        return evalFunction(model, evalContext);
+    }
+
+    private Object evalFunction(DataInstance model, EvaluationContext evalContext) {
+        Binding binding = getBinding();
+        return binding.function.eval(binding.name, args, model, evalContext);
+    }
+
+    /**
+     * @return whether this call evaluates a built-in function rather than one provided by a custom handler
+     */
+    public boolean isBuiltIn() {
+        return getBinding().function != CUSTOM_FUNCTION;
+    }
+
+    private Binding getBinding() {
+        Binding binding = this.binding;
+
+        // id and args are public so check that they haven't been changed since the expression was bound
+        if (binding == null || binding.id != id || binding.argCount != args.length
+            || (binding.regex != null && !isLiteral(args[1], binding.regex))) {
+            binding = bind(id, args);
+            this.binding = binding;
+        }
+
+        return binding;
+    }
+
+    /**
+     * Finds the function that a call to {@code id} with {@code args} evaluates. Built-in functions take precedence
+     * over custom handlers but some of them only accept certain numbers of arguments and leave other calls to custom
+     * handlers.
+     * <p>
+     * Calls to {@code regex()} with a literal pattern are bound to a function that matches against the pattern
+     * compiled here rather than compiling it on every evaluation. Invalid patterns are left for evaluation to report.
+     */
+    private static Binding bind(XPathQName id, XPathExpression[] args) {
         String name = id.toString();
+        int argCount = args.length;
+
+        BuiltInFunction builtInFunction = BUILT_IN_FUNCTIONS.get(name);
+        if (builtInFunction != null && builtInFunction.acceptsArgCount.test(argCount)) {
+            if (name.equals("regex") && argCount == 2 && args[1] instanceof XPathStringLiteral) {
+                String regex = ((XPathStringLiteral) args[1]).s;
+
+                Pattern pattern;
+                try {
+                    pattern = Pattern.compile(regex);
+                } catch (PatternSyntaxException e) {
+                    return new Binding(id, argCount, name, builtInFunction.function, null);
+                }
+
+                return new Binding(id, argCount, name, (functionName, regexArgs, model, evalContext) ->
+                    pattern.matcher(toString(regexArgs[0].eval(model, evalContext))).matches(), regex);
+            }
+
+            return new Binding(id, argCount, name, builtInFunction.function, null);
+        } else {
+            return new Binding(id, argCount, name, CUSTOM_FUNCTION, null);
+        }
+    }
+
+    private static boolean isLiteral(XPathExpression expression, String value) {
+        return expression instanceof XPathStringLiteral && ((XPathStringLiteral) expression).s.equals(value);
+    }
+
+    private static Object[] evalArgs(XPathExpression[] args, DataInstance model, EvaluationContext evalContext) {
         Object[] argVals = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            argVals[i] = args[i].eval(model, evalContext);
+        }
+
+        return argVals;
+    }
+
+    /**
+     * A function as bound to an expression. It's passed the expression's (unevaluated) arguments.
+     */
+    private interface Function {
+        Object eval(String name, XPathExpression[] args, DataInstance model, EvaluationContext evalContext);
+    }
+
+    /**
+     * A function that needs all of its arguments evaluated before it's called.
+     */
+    private interface EagerFunction {
+        Object eval(String name, Object[] argVals, DataInstance model, EvaluationContext evalContext);
+    }
+
+    private static final class BuiltInFunction {
+        final IntPredicate acceptsArgCount;
+        final Function function;
+
+        BuiltInFunction(IntPredicate acceptsArgCount, Function function) {
+            this.acceptsArgCount = acceptsArgCount;
+            this.function = function;
+        }
+    }
+
+    private static final class Binding {
+        final XPathQName id;
+        final int argCount;
+        final String name;
+        final Function function;
+        /**
+         * The literal pattern that a {@code regex()} call's function was compiled with, if any
+         */
+        final String regex;
+
+        Binding(XPathQName id, int argCount, String name, Function function, String regex) {
+            this.id = id;
+            this.argCount = argCount;
+            this.name = name;
+            this.function = function;
+            this.regex = regex;
+        }
+    }
+
+    private static final Function CUSTOM_FUNCTION = (name, args, model, evalContext) -> {
+        Object[] argVals = evalArgs(args, model, evalContext);
+
+        //check for custom handler
+        IFunctionHandler handler = evalContext.getFunctionHandlers().get(name);
+        if (handler != null)
+            return evalCustomFunction(handler, argVals, evalContext);
+
+        // check for fallback handler
+        IFallbackFunctionHandler fallbackHandler = evalContext.getFallbackFunctionHandler();
+        if (fallbackHandler != null)
+            return evalCustomFunction(fallbackHandler, name, argVals, evalContext);
 
-        HashMap<String, IFunctionHandler> funcHandlers = evalContext.getFunctionHandlers();
+        throw new XPathUnhandledException("function \'" + name + "\'");
+    };
+
+    private static final Map<String, BuiltInFunction> BUILT_IN_FUNCTIONS = new HashMap<>();
+
+    /**
+     * Registers a built-in function that evaluates its own arguments (for short circuiting)
+     */
+    private static void registerLazy(String name, Function function) {
+        BUILT_IN_FUNCTIONS.put(name, new BuiltInFunction(argCount -> true, function));
+    }
+
+    private static void register(String name, EagerFunction function) {
+        register(name, argCount -> true, function);
+    }
+
+    /**
+     * Registers a built-in function that is only used for calls with a number of arguments accepted by
+     * {@code acceptsArgCount}
+     */
+    private static void register(String name, IntPredicate acceptsArgCount, EagerFunction function) {
+        BUILT_IN_FUNCTIONS.put(name, new BuiltInFunction(acceptsArgCount, (functionName, args, model, evalContext) ->
+            function.eval(functionName, evalArgs(args, model, evalContext), model, evalContext)));
+    }
 
+    static {
         //TODO: Func handlers should be able to declare the desire for short circuiting as well
-        if (name.equals("if")) {
+        registerLazy("if", (name, args, model, evalContext) -> {
             assertArgsCount(name, args, 3);
-            return ifThenElse(model, evalContext, args, argVals);
-        } else if (name.equals("coalesce")) {
+            return ifThenElse(model, evalContext, args, new Object[args.length]);
+        });
+        registerLazy("coalesce", (name, args, model, evalContext) -> {
             assertArgsCount(name, args, 2);
-            argVals[0] = args[0].eval(model, evalContext);
-            if (!isNull(argVals[0])) {
-                return argVals[0];
+            Object argVal = args[0].eval(model, evalContext);
+            if (!isNull(argVal)) {
+                return argVal;
             } else {
                 // that was null, so try the other one...
-                argVals[1] = args[1].eval(model, evalContext);
-                return argVals[1];
+                return args[1].eval(model, evalContext);
             }
-        } else if (name.equals("indexed-repeat")) {
+        });
+        registerLazy("indexed-repeat", (name, args, model, evalContext) -> {
             if ((args.length == 3 || args.length == 5 || args.length == 7 || args.length == 9 || args.length == 11)) {
-                return indexedRepeat(model, evalContext, args, argVals);
+                return indexedRepeat(model, evalContext, args, new Object[args.length]);
             } else {
                 throw new XPathUnhandledException("function \'" + name + "\' requires " +
                     "3, 5, 7, 9 or 11 arguments. Only " + args.length + " provided.");
             }
-        }
-
-        for (int i = 0; i < args.length; i++) {
-            argVals[i] = args[i].eval(model, evalContext);
-        }
+        });
 
-        //check built-in functions
-        if (name.equals("true")) {
-            assertArgsCount(name, args, 0);
+        register("true", (name, argVals, model, evalContext) -> {
+            assertArgsCount(name, argVals, 0);
             return Boolean.TRUE;
-        } else if (name.equals("false")) {
-            assertArgsCount(name, args, 0);
+        });
+        register("false", (name, argVals, model, evalContext) -> {
+            assertArgsCount(name, argVals, 0);
             return Boolean.FALSE;
-        } else if (name.equals("boolean")) {
-            assertArgsCount(name, args, 1);
+        });
+        register("boolean", (name, argVals, model, evalContext) -> {
+            assertArgsCount(name, argVals, 1);
             return toBoolean(argVals[0]);
-        } else if (name.equals("number")) {
-            assertArgsCount(name, args, 1);
+        });
+        register("number", (name, argVals, model, evalContext) -> {
+            assertArgsCount(name, argVals, 1);
             return toNumeric(argVals[0]);
-        } else if (name.equals("int")) { //non-standard
-            assertArgsCount(name, args, 1);
+        });
+        register("int", (name, argVals, model, evalContext) -> { //non-standard
+            assertArgsCount(name, argVals, 1);
             return toInt(argVals[0]);
-        } else if (name.equals("round")) { // Proximate XPath 3.0 and Excel-style round(value,decimal place)
+        });
+        register("round", (name, argVals, model, evalContext) -> { // Proximate XPath 3.0 and Excel-style round(value,decimal place)
             final int places;
-            if (args.length == 1) {
+            if (argVals.length == 1) {
                 places = 0;
             } else {
-                assertArgsCount(name, args, 2);
+                assertArgsCount(name, argVals, 2);
                 places = toNumeric(argVals[1]).intValue();
             }
             return round(toNumeric(argVals[0]), places);
-        } else if (name.equals("string")) {
-            assertArgsCount(name, args, 1);
+        });
+        register("string", (name, argVals, model, evalContext) -> {
+            assertArgsCount(name, argVals, 1);
             return toString(argVals[0]);
-        } else if (name.equals("date")) { //non-standard
-            assertArgsCount(name, args, 1);
+        });
+        register("date", (name, argVals, model, evalContext) -> { //non-standard
+            assertArgsCount(name, argVals, 1);
             return toDate(argVals[0], false);
-        } else if (name.equals("date-time")) { //non-standard -- convert double/int/string to Date object
-            assertArgsCount(name, args, 1);
+        });
+        register("date-time", (name, argVals, model, evalContext) -> { //non-standard -- convert double/int/string to Date object
+            assertArgsCount(name, argVals, 1);
             return toDate(argVals[0], true);
-        } else if (name.equals("decimal-date-time")) { //non-standard -- convert string/date to decimal days off 1970-01-01T00:00:00.000-000
-            assertArgsCount(name, args, 1);
+        });
+        register("decimal-date-time", (name, argVals, model, evalContext) -> { //non-standard -- convert string/date to decimal days off 1970-01-01T00:00:00.000-000
+            assertArgsCount(name, argVals, 1);
             return toDecimalDateTime(argVals[0], true);
-        } else if (name.equals("decimal-time")) { //non-standard -- convert string/date to decimal days off 1970-01-01T00:00:00.000-000
-            assertArgsCount(name, args, 1);
+        });
+        register("decimal-time", (name, argVals, model, evalContext) -> { //non-standard -- convert string/date to decimal days off 1970-01-01T00:00:00.000-000
+            assertArgsCount(name, argVals, 1);
             return toDecimalDateTime(argVals[0], false);
-        } else if (name.equals("not")) {
-            assertArgsCount(name, args, 1);
+        });
+        register("not", (name, argVals, model, evalContext) -> {
+            assertArgsCount(name, argVals, 1);
             return boolNot(argVals[0]);
-        } else if (name.equals("boolean-from-string")) {
-            assertArgsCount(name, args, 1);
+        });
+        register("boolean-from-string", (name, argVals, model, evalContext) -> {
+            assertArgsCount(name, argVals, 1);
             return boolStr(argVals[0]);
-        } else if (name.equals("format-date")) {
-            assertArgsCount(name, args, 2);
+        });
+        register("format-date", (name, argVals, model, evalContext) -> {
+            assertArgsCount(name, argVals, 2);
             return formatDateTime(argVals[0], argVals[1]);
-        } else if (name.equals("abs")) { //XPath 3.0
-            checkArity(name, 1, args.length);
+        });
+        register("abs", (name, argVals, model, evalContext) -> { //XPath 3.0
+            checkArity(name, 1, argVals.length);
             return Math.abs(toDouble(argVals[0]));
-        } else if (name.equals("acos")) { //XPath 3.0
-            checkArity(name, 1, args.length);
+        });
+        register("acos", (name, argVals, model, evalContext) -> { //XPath 3.0
+            checkArity(name, 1, argVals.length);
             return Math.acos(toDouble(argVals[0]));
-        } else if (name.equals("asin")) { //XPath 3.0
-            checkArity(name, 1, args.length);
+        });
+        register("asin", (name, argVals, model, evalContext) -> { //XPath 3.0
+            checkArity(name, 1, argVals.length);
             return Math.asin(toDouble(argVals[0]));
-        } else if (name.equals("atan")) { //XPath 3.0
-            checkArity(name, 1, args.length);
+        });
+        register("atan", (name, argVals, model, evalContext) -> { //XPath 3.0
+            checkArity(name, 1, argVals.length);
             return Math.atan(toDouble(argVals[0]));
-        } else if (name.equals("atan2")) { //XPath 3.0
-            checkArity(name, 2, args.length);
+        });
+        register("atan2", (name, argVals, model, evalContext) -> { //XPath 3.0
+            checkArity(name, 2, argVals.length);
             return Math.atan2(toDouble(argVals[0]), toDouble(argVals[1]));
-        } else if (name.equals("cos")) { //XPath 3.0
-            checkArity(name, 1, args.length);
+        });
+        register("cos", (name, argVals, model, evalContext) -> { //XPath 3.0
+            checkArity(name, 1, argVals.length);
             return Math.cos(toDouble(argVals[0]));
-        } else if (name.equals("exp")) { //XPath 3.0
-            checkArity(name, 1, args.length);
+        });
+        register("exp", (name, argVals, model, evalContext) -> { //XPath 3.0
+            checkArity(name, 1, argVals.length);
             return Math.exp(toDouble(argVals[0]));
-        } else if (name.equals("exp10")) { //XPath 3.0
-            checkArity(name, 1, args.length);
+        });
+        register("exp10", (name, argVals, model, evalContext) -> { //XPath 3.0
+            checkArity(name, 1, argVals.length);
             return Math.pow(10.0, toDouble(argVals[0]));
-        } else if (name.equals("log")) { //XPath 3.0
-            checkArity(name, 1, args.length);
+        });
+        register("log", (name, argVals, model, evalContext) -> { //XPath 3.0
+            checkArity(name, 1, argVals.length);
             return Math.log(toDouble(argVals[0]));
-        } else if (name.equals("log10")) { //XPath 3.0
-            checkArity(name, 1, args.length);
+        });
+        register("log10", (name, argVals, model, evalContext) -> { //XPath 3.0
+            checkArity(name, 1, argVals.length);
             return Math.log10(toDouble(argVals[0]));
-        } else if (name.equals("pi")) { //XPath 3.0
-            checkArity(name, 0, args.length);
+        });
+        register("pi", (name, argVals, model, evalContext) -> { //XPath 3.0
+            checkArity(name, 0, argVals.length);
             return Math.PI;
-        } else if (name.equals("sin")) { //XPath 3.0
-            checkArity(name, 1, args.length);
+        });
+        register("sin", (name, argVals, model, evalContext) -> { //XPath 3.0
+            checkArity(name, 1, argVals.length);
             return Math.sin(toDouble(argVals[0]));
-        } else if (name.equals("sqrt")) { //XPath 3.0
-            checkArity(name, 1, args.length);
+        });
+        register("sqrt", (name, argVals, model, evalContext) -> { //XPath 3.0
+            checkArity(name, 1, argVals.length);
             return Math.sqrt(toDouble(argVals[0]));
-        } else if (name.equals("tan")) { //XPath 3.0
-            checkArity(name, 1, args.length);
+        });
+        register("tan", (name, argVals, model, evalContext) -> { //XPath 3.0
+            checkArity(name, 1, argVals.length);
             return Math.tan(toDouble(argVals[0]));
-        } else if (name.equals("format-date-time")) { // non-standard
-            assertArgsCount(name, args, 2);
+        });
+        register("format-date-time", (name, argVals, model, evalContext) -> { // non-standard
+            assertArgsCount(name, argVals, 2);
             return formatDateTime(argVals[0], argVals[1]);
-        } else if ((name.equals("selected") || name.equals("is-selected"))) { //non-standard
-            assertArgsCount(name, args, 2);
+        });
+        EagerFunction selected = (name, argVals, model, evalContext) -> { //non-standard
+            assertArgsCount(name, argVals, 2);
             return multiSelected(argVals[0], argVals[1], name);
-        } else if (name.equals("count-selected")) { //non-standard
-            assertArgsCount(name, args, 1);
+        };
+        register("selected", selected);
+        register("is-selected", selected);
+        register("count-selected", (name, argVals, model, evalContext) -> { //non-standard
+            assertArgsCount(name, argVals, 1);
             return countSelected(argVals[0]);
-        } else if (name.equals("selected-at")) { //non-standard
-            assertArgsCount(name, args, 2);
+        });
+        register("selected-at", (name, argVals, model, evalContext) -> { //non-standard
+            assertArgsCount(name, argVals, 2);
             return selectedAt(argVals[0], argVals[1]);
-        } else if (name.equals("position")) {
+        });
+        register("position", (name, argVals, model, evalContext) -> {
             //TODO: Technically, only the 0 length argument is valid here.
-            if (args.length == 1) {
+            if (argVals.length == 1) {
                 XPathNodeset nodes = (XPathNodeset) argVals[0];
                 if (nodes.size() == 0) {
                     // Added to prevent an exception within ODK Validate.
@@ -309,73 +519,85 @@ public class XPathFuncExpr extends XPathExpression {
                     // if or how this might manifest into a bug... .
                     return position(nodes.getRefAt(0));
                 }
-            } else if (args.length == 0) {
+            } else if (argVals.length == 0) {
                 if (evalContext.getContextPosition() != -1) {
                     return (double) (1 + evalContext.getContextPosition());
                 }
                 return position(evalContext.getContextRef());
             } else {
                 throw new XPathUnhandledException("function \'" + name +
-                    "\' requires either exactly one argument or no arguments. Only " + args.length + " provided.");
+                    "\' requires either exactly one argument or no arguments. Only " + argVals.length + " provided.");
             }
-        } else if (name.equals("count")) {
-            assertArgsCount(name, args, 1);
+        });
+        register("count", (name, argVals, model, evalContext) -> {
+            assertArgsCount(name, argVals, 1);
             return count(argVals[0]);
-        } else if (name.equals("count-non-empty")) {
-            assertArgsCount(name, args, 1);
+        });
+        register("count-non-empty", (name, argVals, model, evalContext) -> {
+            assertArgsCount(name, argVals, 1);
             return countNonEmpty(argVals[0]);
-        } else if (name.equals("sum")) {
-            assertArgsCount(name, args, 1);
+        });
+        register("sum", (name, argVals, model, evalContext) -> {
+            assertArgsCount(name, argVals, 1);
             if (argVals[0] instanceof XPathNodeset) {
                 return sum(((XPathNodeset) argVals[0]).toArgList());
             } else {
                 throw new XPathTypeMismatchException("not a nodeset");
             }
-        } else if (name.equals("max")) {
-            if (args.length == 1 && argVals[0] instanceof XPathNodeset) {
+        });
+        register("max", (name, argVals, model, evalContext) -> {
+            if (argVals.length == 1 && argVals[0] instanceof XPathNodeset) {
                 return max(((XPathNodeset) argVals[0]).toArgList());
             } else {
                 return max(argVals);
             }
-        } else if (name.equals("min")) {
-            if (args.length == 1 && argVals[0] instanceof XPathNodeset) {
+        });
+        register("min", (name, argVals, model, evalContext) -> {
+            if (argVals.length == 1 && argVals[0] instanceof XPathNodeset) {
                 return min(((XPathNodeset) argVals[0]).toArgList());
             } else {
                 return min(argVals);
             }
-        } else if (name.equals("today")) {
-            assertArgsCount(name, args, 0);
+        });
+        register("today", (name, argVals, model, evalContext) -> {
+            assertArgsCount(name, argVals, 0);
             return DateUtils.roundDate(new Date());
-        } else if (name.equals("now")) {
-            assertArgsCount(name, args, 0);
+        });
+        register("now", (name, argVals, model, evalContext) -> {
+            assertArgsCount(name, argVals, 0);
             return new DateTime().toDate();
-        } else if (name.equals("concat")) {
-            if (args.length == 1 && argVals[0] instanceof XPathNodeset) {
+        });
+        register("concat", (name, argVals, model, evalContext) -> {
+            if (argVals.length == 1 && argVals[0] instanceof XPathNodeset) {
                 return join("", ((XPathNodeset) argVals[0]).toArgList());
             } else {
                 return join("", argVals);
             }
-        } else if (name.equals("join") && args.length >= 1) {
-            if (args.length == 2 && argVals[1] instanceof XPathNodeset) {
+        });
+        register("join", argCount -> argCount >= 1, (name, argVals, model, evalContext) -> {
+            if (argVals.length == 2 && argVals[1] instanceof XPathNodeset) {
                 return join(argVals[0], ((XPathNodeset) argVals[1]).toArgList());
             } else {
                 return join(argVals[0], subsetArgList(argVals, 1));
             }
-        } else if (name.equals("substr") && (args.length == 2 || args.length == 3)) {
-            return substring(argVals[0], argVals[1], args.length == 3 ? argVals[2] : null);
-        } else if (name.equals("substring-before") && args.length == 2) {
+        });
+        register("substr", argCount -> argCount == 2 || argCount == 3, (name, argVals, model, evalContext) ->
+            substring(argVals[0], argVals[1], argVals.length == 3 ? argVals[2] : null));
+        register("substring-before", argCount -> argCount == 2, (name, argVals, model, evalContext) -> {
             String str = toString(argVals[0]);
             String substr = toString(argVals[1]);
             int pos = str.indexOf(substr);
             // XPath reference states that we should return the empty string when we don't find the substring
             return pos >= 0 ? str.substring(0, pos) : "";
-        } else if (name.equals("substring-after") && args.length == 2) {
+        });
+        register("substring-after", argCount -> argCount == 2, (name, argVals, model, evalContext) -> {
             String str = toString(argVals[0]);
             String substr = toString(argVals[1]);
             int pos = str.indexOf(substr);
             // XPath reference states that we should return the empty string when we don't find the substring
             return pos >= 0 ? str.substring(pos + substr.length()) : "";
-        } else if (name.equals("translate") && args.length == 3) {
+        });
+        register("translate", argCount -> argCount == 3, (name, argVals, model, evalContext) -> {
             String str = toString(argVals[0]);
             String fromChars = toString(argVals[1]);
             String toChars = toString(argVals[2]);
@@ -396,36 +618,40 @@ public class XPathFuncExpr extends XPathExpression {
                 // else the char is mapped to nothing, so per XPath definition we 'delete' it from the string by simply not appending it
             }
             return result.toString();
-        } else if (name.equals("contains") && args.length == 2) {
-            return toString(argVals[0]).contains(toString(argVals[1]));
-        } else if (name.equals("starts-with") && args.length == 2) {
-            return toString(argVals[0]).startsWith(toString(argVals[1]));
-        } else if (name.equals("ends-with") && args.length == 2) {
-            return toString(argVals[0]).endsWith(toString(argVals[1]));
-        } else if (name.equals("string-length") && args.length <= 1) {
+        });
+        register("contains", argCount -> argCount == 2, (name, argVals, model, evalContext) ->
+            toString(argVals[0]).contains(toString(argVals[1])));
+        register("starts-with", argCount -> argCount == 2, (name, argVals, model, evalContext) ->
+            toString(argVals[0]).startsWith(toString(argVals[1])));
+        register("ends-with", argCount -> argCount == 2, (name, argVals, model, evalContext) ->
+            toString(argVals[0]).endsWith(toString(argVals[1])));
+        register("string-length", argCount -> argCount <= 1, (name, argVals, model, evalContext) -> {
             Object arg;
-            if (args.length == 1) {
+            if (argVals.length == 1) {
                 arg = argVals[0];
             } else {
                 arg = (XPathPathExpr.fromRef(evalContext.getContextRef())).eval(model, evalContext).unpack();
             }
             return stringLength(arg);
-        } else if (name.equals("normalize-space") && args.length <= 1) {
+        });
+        register("normalize-space", argCount -> argCount <= 1, (name, argVals, model, evalContext) -> {
             Object arg;
-            if (args.length == 1) {
+            if (argVals.length == 1) {
                 arg = argVals[0];
             } else {
                 arg = (XPathPathExpr.fromRef(evalContext.getContextRef())).eval(model, evalContext).unpack();
             }
             return normalizeSpace(arg);
-        } else if (name.equals("checklist") && args.length >= 2) { //non-standard
-            if (args.length == 3 && argVals[2] instanceof XPathNodeset) {
+        });
+        register("checklist", argCount -> argCount >= 2, (name, argVals, model, evalContext) -> { //non-standard
+            if (argVals.length == 3 && argVals[2] instanceof XPathNodeset) {
                 return checklist(argVals[0], argVals[1], ((XPathNodeset) argVals[2]).toArgList());
             } else {
                 return checklist(argVals[0], argVals[1], subsetArgList(argVals, 2));
             }
-        } else if (name.equals("weighted-checklist") && args.length >= 2 && args.length % 2 == 0) { //non-standard
-            if (args.length == 4 && argVals[2] instanceof XPathNodeset && argVals[3] instanceof XPathNodeset) {
+        });
+        register("weighted-checklist", argCount -> argCount >= 2 && argCount % 2 == 0, (name, argVals, model, evalContext) -> { //non-standard
+            if (argVals.length == 4 && argVals[2] instanceof XPathNodeset && argVals[3] instanceof XPathNodeset) {
                 Object[] factors = ((XPathNodeset) argVals[2]).toArgList();
                 Object[] weights = ((XPathNodeset) argVals[3]).toArgList();
                 if (factors.length != weights.length) {
@@ -435,17 +661,19 @@ public class XPathFuncExpr extends XPathExpression {
             } else {
                 return checklistWeighted(argVals[0], argVals[1], subsetArgList(argVals, 2, 2), subsetArgList(argVals, 3, 2));
             }
-        } else if (name.equals("regex")) { //non-standard
-            assertArgsCount(name, args, 2);
+        });
+        register("regex", (name, argVals, model, evalContext) -> { //non-standard
+            assertArgsCount(name, argVals, 2);
             return regex(argVals[0], argVals[1]);
-        } else if (name.equals("depend") && args.length >= 1) { //non-standard
-            return argVals[0];
-        } else if (name.equals("random")) { //non-standard
-            assertArgsCount(name, args, 0);
+        });
+        register("depend", argCount -> argCount >= 1, (name, argVals, model, evalContext) -> argVals[0]); //non-standard
+        register("random", (name, argVals, model, evalContext) -> { //non-standard
+            assertArgsCount(name, argVals, 0);
             //calculated expressions may be recomputed w/o warning! use with caution!!
             return MathUtils.getRand().nextDouble();
-        } else if (name.equals("once")) {
-            assertArgsCount(name, args, 1);
+        });
+        register("once", (name, argVals, model, evalContext) -> {
+            assertArgsCount(name, argVals, 1);
             XPathPathExpr currentFieldPathExpr = XPathPathExpr.fromRef(evalContext.getContextRef());
             Object currValue = currentFieldPathExpr.eval(model, evalContext).unpack();
             if (currValue == null || toString(currValue).length() == 0) {
@@ -454,35 +682,43 @@ public class XPathFuncExpr extends XPathExpression {
             } else {
                 return currValue;
             }
-        } else if (name.equals("uuid") && (args.length == 0 || args.length == 1)) { //non-standard
+        });
+        register("uuid", argCount -> argCount == 0 || argCount == 1, (name, argVals, model, evalContext) -> { //non-standard
             //calculated expressions may be recomputed w/o warning! use with caution!!
-            if (args.length == 0) {
+            if (argVals.length == 0) {
                 return PropertyUtils.genUUID();
             }
 
             int len = toInt(argVals[0]).intValue();
             return PropertyUtils.genGUID(len);
-        } else if (name.equals("version")) { //non-standard
-            assertArgsCount(name, args, 0);
+        });
+        register("version", (name, argVals, model, evalContext) -> { //non-standard
+            assertArgsCount(name, argVals, 0);
             final String formVersion = (model instanceof FormInstance) ? ((FormInstance) model).formVersion : "";
             return formVersion == null ? "" : formVersion;
-        } else if (name.equals("property")) { // non-standard
+        });
+        register("property", (name, argVals, model, evalContext) -> { // non-standard
             // return a property defined by the property manager.
             // NOTE: Property should be immutable.
             // i.e., does not work with 'start' or 'end' property.
-            assertArgsCount(name, args, 1);
+            assertArgsCount(name, argVals, 1);
             String s = toString(argVals[0]);
             return PropertyManager.__().getSingularProperty(s);
-        } else if (name.equals("pow") && (args.length == 2)) { //XPath 3.0
+        });
+        register("pow", argCount -> argCount == 2, (name, argVals, model, evalContext) -> { //XPath 3.0
             double a = toDouble(argVals[0]);
             double b = toDouble(argVals[1]);
             return Math.pow(a, b);
-        } else if (name.equals("enclosed-area") || name.equals("area")) {
-            assertArgsCount(name, args, 1);
+        });
+        EagerFunction area = (name, argVals, model, evalContext) -> {
+            assertArgsCount(name, argVals, 1);
             List<GeoUtils.LatLong> latLongs = new XPathFuncExprGeo().getGpsCoordinatesFromNodeset(name, argVals[0]);
             return GeoUtils.calculateAreaOfGPSPolygonOnEarthInSquareMeters(latLongs);
-        } else if (name.equals("distance")) {
-            if (args.length == 1) {
+        };
+        register("enclosed-area", area);
+        register("area", area);
+        register("distance", (name, argVals, model, evalContext) -> {
+            if (argVals.length == 1) {
                 if (argVals[0] instanceof XPathNodeset) {
                     List<GeoUtils.LatLong> latLongs = new XPathFuncExprGeo().getGpsCoordinatesFromNodeset(name, argVals[0]);
                     return GeoUtils.calculateDistance(latLongs);
@@ -492,52 +728,44 @@ public class XPathFuncExpr extends XPathExpression {
                 } else {
                     throw new XPathUnhandledException("function 'distance' requires a field or text as the parameter.");
                 }
-            } else if (args.length > 1) {
+            } else if (argVals.length > 1) {
                 return GeoUtils.calculateDistance(new XPathFuncExprGeo().geopointsToLatLongs(name, argVals));
             } else {
                 throw new XPathUnhandledException("function 'distance' requires at least one parameter.");
             }
-        } else if (name.equals("geofence")) {
-            assertArgsCount(name, args, 2);
+        });
+        register("geofence", (name, argVals, model, evalContext) -> {
+            assertArgsCount(name, argVals, 2);
             GeoPointData geoPointData = new GeoPointData().cast(new UncastData(XPathFuncExpr.toString(argVals[0])));
             GeoUtils.LatLong point = new GeoUtils.LatLong(geoPointData.getPart(0), geoPointData.getPart(1));
             List<GeoUtils.LatLong> latLongs = new XPathFuncExprGeo().getGpsCoordinatesFromNodeset(name, argVals[1]);
             return GeoUtils.calculateIsPointInGPSPolygon(point, latLongs);
-         } else if (name.equals("digest") && (args.length == 2 || args.length == 3)) {
-            return DigestAlgorithm.from(toString(argVals[1])).digest(
+        });
+        register("digest", argCount -> argCount == 2 || argCount == 3, (name, argVals, model, evalContext) ->
+            DigestAlgorithm.from(toString(argVals[1])).digest(
                 toString(argVals[0]),
-                args.length == 3 ? Encoding.from(toString(argVals[2])) : Encoding.BASE64
-            );
-        } else if (name.equals("randomize")) {
+                argVals.length == 3 ? Encoding.from(toString(argVals[2])) : Encoding.BASE64
+            ));
+        register("randomize", (name, argVals, model, evalContext) -> {
             if (!(argVals[0] instanceof XPathNodeset))
                 throw new XPathTypeMismatchException("First argument to randomize must be a nodeset");
 
-            if (args.length == 1)
+            if (argVals.length == 1)
                 return XPathNodeset.shuffle((XPathNodeset) argVals[0]);
 
-            if (args.length == 2)
+            if (argVals.length == 2)
                 return XPathNodeset.shuffle((XPathNodeset) argVals[0], toNumericWithLongHash(argVals[1]));
 
-            throw new XPathUnhandledException("function 'randomize' requires 1 or 2 arguments. " + args.length + " provided.");
-        } else if (name.equals("base64-decode")) {
-            assertArgsCount(name, args, 1);
+            throw new XPathUnhandledException("function 'randomize' requires 1 or 2 arguments. " + argVals.length + " provided.");
+        });
+        register("base64-decode", (name, argVals, model, evalContext) -> {
+            assertArgsCount(name, argVals, 1);
             return base64Decode(argVals[0]);
-        } else if (name.equals("extract-signed")) {
-            assertArgsCount(name, args, 2);
+        });
+        register("extract-signed", (name, argVals, model, evalContext) -> {
+            assertArgsCount(name, argVals, 2);
             return extractSigned(argVals[0], argVals[1]);
-        } else {
-            //check for custom handler
-            IFunctionHandler handler = funcHandlers.get(name);
-            if (handler != null)
-                return evalCustomFunction(handler, argVals, evalContext);
-
-            // check for fallback handler
-            IFallbackFunctionHandler fallbackHandler = evalContext.getFallbackFunctionHandler();
-            if (fallbackHandler != null)
-                return evalCustomFunction(fallbackHandler, name, argVals, evalContext);
-
-            throw new XPathUnhandledException("function \'" + name + "\'");
-        }
+        });
     }
 
     private static void assertArgsCount(String name, Object[] args, int count) {
@@ -990,7 +1218,7 @@ public class XPathFuncExpr extends XPathExpression {
             : "";
     }
 
-    private Double position(TreeReference refAt) {
+    private static Double position(TreeReference refAt) {
         return (double) (1 + refAt.getMultLast());
     }
 
@@ -1064,10 +1292,15 @@ public class XPathFuncExpr extends XPathExpression {
         if (!(indexObject instanceof String)) {
             throw new XPathTypeMismatchException("The second parameter to the " + functionName + "() function must be in quotes (like '1').");
         }
-        String s1 = (String) unpack(o1);
         String s2 = ((String) indexObject).trim();
 
-        return (" " + s1 + " ").contains(" " + s2 + " ");
+        if (s2.isEmpty() || s2.indexOf(' ') >= 0) {
+            // Not a single value so it can only be matched against the XML value
+            String s1 = (String) unpack(o1);
+            return (" " + s1 + " ").contains(" " + s2 + " ");
+        }
+
+        return unpackSelectedValues(o1).contains(s2);
     }
 
     /**
@@ -1076,9 +1309,7 @@ public class XPathFuncExpr extends XPathExpression {
      * @param o XML-serialized answer to multi-select question (i.e, space-delimited choice values)
      */
     public static Double countSelected(Object o) {
-        String s = (String) unpack(o);
-
-        return (double) DateUtils.split(s, " ", true).size();
+        return (double) unpackSelectedValues(o).size();
     }
 
     /**
@@ -1088,16 +1319,24 @@ public class XPathFuncExpr extends XPathExpression {
      * @param o2 the integer index into the list to return
      */
     public static String selectedAt(Object o1, Object o2) {
-        String selection = (String) unpack(o1);
+        SelectedValues selectedValues = unpackSelectedValues(o1);
         int index = toInt(o2).intValue();
-        List<String> stringVector = DateUtils.split(selection, " ", true);
-        if (stringVector.size() > index && index >= 0) {
-            return stringVector.get(index);
+        if (selectedValues.size() > index && index >= 0) {
+            return selectedValues.get(index);
         } else {
             return ""; // empty string if outside of array
         }
     }
 
+    /**
+     * Unpacks a multi-select answer to its selected values. Answers in the form instance keep them so they're only
+     * tokenized once; anything else (like a literal or the result of another function) is tokenized here.
+     */
+    private static SelectedValues unpackSelectedValues(Object o) {
+        Object value = o instanceof XPathNodeset ? ((XPathNodeset) o).unpack(true) : o;
+        return value instanceof SelectedValues ? (SelectedValues) value : SelectedValues.parse((String) value);
+    }
+
     /**
      * count the number of nodes in a nodeset
      */
@@ -1309,7 +1548,7 @@ public class XPathFuncExpr extends XPathExpression {
         String str = toString(o1);
         String re = toString(o2);
 
-        return Pattern.matches(re, str);
+        return RegexPatternCache.get(re).matcher(str).matches();
     }
 
     private static String base64Decode(Object o1) {
@@ -13,10 +13,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /** XPath function expression geographic logic */
-class XPathFuncExprGeo {
+public class XPathFuncExprGeo {
     private static final Logger logger = LoggerFactory.getLogger(XPathFuncExprGeo.class.getSimpleName());
 
-    List<GeoUtils.LatLong> getGpsCoordinatesFromNodeset(String name, Object argVal) {
+    public List<GeoUtils.LatLong> getGpsCoordinatesFromNodeset(String name, Object argVal) {
         if (!(argVal instanceof XPathNodeset)) {
             throw new XPathUnhandledException("function '" + name + "' requires a field as the parameter.");
         }
@@ -63,6 +63,11 @@ public class XPathNumericLiteral extends XPathExpression {
         }
     }
 
+    public int hashCode () {
+        // 0.0 and -0.0 are equal
+        return d == 0 ? 0 : Double.hashCode(d);
+    }
+
     public void readExternal(DataInputStream in, PrototypeFactory pf) throws IOException, DeserializationException {
         if (in.readByte() == (byte)0x00) {
             d = ExtUtil.readNumeric(in);
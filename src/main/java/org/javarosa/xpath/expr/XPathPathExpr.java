@@ -33,6 +33,7 @@ import org.javarosa.core.model.data.SelectOneData;
 import org.javarosa.core.model.data.StringData;
 import org.javarosa.core.model.data.TimeData;
 import org.javarosa.core.model.data.UncastData;
+import org.javarosa.core.model.data.helper.SelectedValues;
 import org.javarosa.core.model.data.helper.Selection;
 import org.javarosa.core.model.instance.AbstractTreeElement;
 import org.javarosa.core.model.instance.DataInstance;
@@ -214,9 +215,17 @@ public class XPathPathExpr extends XPathExpression {
     }
 
     public static Object getRefValue(DataInstance model, EvaluationContext ec, TreeReference ref) {
+        return getRefValue(model, ec, ref, false);
+    }
+
+    /**
+     * @param selectedValues whether multiple select answers should be unpacked to their {@link SelectedValues} (see
+     *                       {@link #unpackValue(IAnswerData, boolean)})
+     */
+    public static Object getRefValue(DataInstance model, EvaluationContext ec, TreeReference ref, boolean selectedValues) {
         if (ec.isConstraint && ref.equals(ec.getContextRef())) {
             //ITEMSET TODO: need to update this; for itemset/copy constraints, need to simulate a whole xml sub-tree here
-            Object result = unpackValue(ec.candidateValue);
+            Object result = unpackValue(ec.candidateValue, selectedValues);
             logger.trace("getRefValue returning candidate value {} for {}", result, ref);
             return result;
         }
@@ -227,7 +236,7 @@ public class XPathPathExpr extends XPathExpression {
         }
 
         IAnswerData maybeNodeValue = node.isRelevant() ? node.getValue() : null;
-        Object result = unpackValue(maybeNodeValue);
+        Object result = unpackValue(maybeNodeValue, selectedValues);
         if (maybeNodeValue == null) {
             logger.trace("getRefValue returning empty node value for {}", ref);
         } else {
@@ -237,6 +246,15 @@ public class XPathPathExpr extends XPathExpression {
     }
 
     public static Object unpackValue(IAnswerData val) {
+        return unpackValue(val, false);
+    }
+
+    /**
+     * @param selectedValues whether multiple select answers should be unpacked to their {@link SelectedValues}, which
+     *                       are tokenized once per answer, rather than to their XML value. Only functions that work on
+     *                       selections ask for them.
+     */
+    public static Object unpackValue(IAnswerData val, boolean selectedValues) {
         if (val == null) {
             return "";
         } else if (val instanceof UncastData) {
@@ -252,7 +270,9 @@ public class XPathPathExpr extends XPathExpression {
         } else if (val instanceof SelectOneData) {
             return ((Selection) val.getValue()).getValue();
         } else if (val instanceof MultipleItemsData) {
-            return (new XFormAnswerDataSerializer()).serializeAnswerData(val);
+            return selectedValues
+                ? ((MultipleItemsData) val).getSelectedValues()
+                : (new XFormAnswerDataSerializer()).serializeAnswerData(val);
         } else if (val instanceof DateData) {
             return val.getValue();
         } else if (val instanceof DateTimeData) {
@@ -317,6 +337,11 @@ public class XPathPathExpr extends XPathExpression {
         }
     }
 
+    public int hashCode() {
+        int hash = 31 * init_context + Arrays.hashCode(steps);
+        return init_context == INIT_CONTEXT_EXPR ? 31 * hash + filtExpr.hashCode() : hash;
+    }
+
     /**
      * Warning: this method has somewhat unclear semantics.
      *
@@ -31,21 +31,11 @@ public class XPathPathExprEval {
     public XPathNodeset eval(TreeReference reference, EvaluationContext ec) {
         TreeReference ref = getContextualizedTreeReference(reference, ec);
         DataInstance dataInstance = getDataInstance(ec, ref);
-        List<TreeReference> nodesetRefs = ec.expandReference(ref);
-        removeIrrelevantNodesets(dataInstance, nodesetRefs);
+        // Irrelevant nodes are left out to fix conditions based on non-relevant data
+        List<TreeReference> nodesetRefs = ec.expandRelevantReferences(ref);
         return new XPathNodeset(nodesetRefs, dataInstance, ec);
     }
 
-    /** Removes irrelevant nodesets, to fix conditions based on non-relevant data */
-    private void removeIrrelevantNodesets(DataInstance dataInstance, List<TreeReference> nodesetRefs) {
-        for (int i = 0; i < nodesetRefs.size(); i++) {
-            if (!dataInstance.resolveReference(nodesetRefs.get(i)).isRelevant()) {
-                nodesetRefs.remove(i);
-                i--;
-            }
-        }
-    }
-
     private DataInstance getDataInstance(EvaluationContext ec, TreeReference ref) {
         final DataInstance dataInstance;
 
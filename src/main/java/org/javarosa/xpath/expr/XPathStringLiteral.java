@@ -63,6 +63,10 @@ public class XPathStringLiteral extends XPathExpression {
         }
     }
 
+    public int hashCode () {
+        return s.hashCode();
+    }
+
     public void readExternal(DataInputStream in, PrototypeFactory pf) throws IOException, DeserializationException {
         s = ExtUtil.readString(in);
     }
@@ -44,6 +44,10 @@ public abstract class XPathUnaryOpExpr extends XPathOpExpr {
         }
     }
 
+    public int hashCode () {
+        return a.hashCode();
+    }
+
     @Override
     public boolean isIdempotent() {
         return a.isIdempotent();
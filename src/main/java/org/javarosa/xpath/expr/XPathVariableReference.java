@@ -63,6 +63,10 @@ public class XPathVariableReference extends XPathExpression {
         }
     }
 
+    public int hashCode () {
+        return id.hashCode();
+    }
+
     public void readExternal(DataInputStream in, PrototypeFactory pf) throws IOException, DeserializationException {
         id = (XPathQName)ExtUtil.read(in, XPathQName.class);
     }
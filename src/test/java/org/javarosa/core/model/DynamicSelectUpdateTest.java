@@ -16,6 +16,7 @@
 
 package org.javarosa.core.model;
 
+import static java.util.stream.Collectors.toList;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
@@ -283,12 +284,46 @@ public class DynamicSelectUpdateTest {
         List<SelectChoice> repeat0Choices = scenario.choicesOf("/data/repeat[1]/select");
         List<SelectChoice> repeat1Choices = scenario.choicesOf("/data/repeat[2]/select");
 
-        // The trigger keys are /data/repeat[1]/filter and /data/repeat[2]/filter which means no caching between them
-        assertThat(repeat0Choices, not(sameInstance(repeat1Choices)));
+        // The triggers /data/repeat[1]/filter and /data/repeat[2]/filter have the same value so the list is shared
+        assertThat(repeat0Choices, sameInstance(repeat1Choices));
 
         scenario.answer("/data/repeat[2]/filter", "bb");
         assertThat(scenario.choicesOf("/data/repeat[1]/select").size(), is(2));
         assertThat(scenario.choicesOf("/data/repeat[2]/select").size(), is(1));
     }
+
+    @Test
+    public void selectInRepeat_alternatingBetweenRepeatInstances_reusesCachedChoiceLists() throws Exception {
+        Scenario scenario = Scenario.init("Select in repeat", html(
+            head(
+                title("Select in repeat"),
+                model(
+                    mainInstance(
+                        t("data id='repeat-select'",
+                            t("repeat",
+                                t("filter"),
+                                t("select")))),
+
+                    instance("choices",
+                        item("a", "A"),
+                        item("aa", "AA"),
+                        item("b", "B"),
+                        item("bb", "BB")))),
+            body(
+                repeat("/data/repeat",
+                    input("filter"),
+                    select1Dynamic("/data/repeat/select", "instance('choices')/root/item[starts-with(value,current()/../filter)]"))
+            )));
+
+        scenario.answer("/data/repeat[1]/filter", "a");
+        scenario.answer("/data/repeat[2]/filter", "b");
+        List<SelectChoice> repeat0Choices = scenario.choicesOf("/data/repeat[1]/select");
+        List<SelectChoice> repeat1Choices = scenario.choicesOf("/data/repeat[2]/select");
+        assertThat(repeat0Choices.stream().map(SelectChoice::getValue).collect(toList()), contains("a", "aa"));
+        assertThat(repeat1Choices.stream().map(SelectChoice::getValue).collect(toList()), contains("b", "bb"));
+
+        assertThat(scenario.choicesOf("/data/repeat[1]/select"), sameInstance(repeat0Choices));
+        assertThat(scenario.choicesOf("/data/repeat[2]/select"), sameInstance(repeat1Choices));
+    }
     //endregion
 }
@@ -19,6 +19,8 @@ package org.javarosa.core.model;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.IsNull.nullValue;
+import static org.javarosa.core.test.AnswerDataMatchers.intAnswer;
+import static org.javarosa.core.test.AnswerDataMatchers.stringAnswer;
 import static org.javarosa.test.BindBuilderXFormsElement.bind;
 import static org.javarosa.test.XFormsElement.body;
 import static org.javarosa.test.XFormsElement.head;
@@ -31,8 +33,16 @@ import static org.javarosa.test.XFormsElement.select1Dynamic;
 import static org.javarosa.test.XFormsElement.t;
 import static org.javarosa.test.XFormsElement.title;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 
+import org.javarosa.core.services.PrototypeManager;
+import org.javarosa.core.util.JavaRosaCoreModule;
+import org.javarosa.core.util.externalizable.CompactDataInputStream;
+import org.javarosa.core.util.externalizable.CompactDataOutputStream;
+import org.javarosa.model.xform.XFormsModule;
 import org.javarosa.test.Scenario;
 import org.javarosa.core.util.externalizable.DeserializationException;
 import org.javarosa.xform.parse.XFormParser;
@@ -106,6 +116,55 @@ public class FormDefSerializationTest {
         scenario.serializeAndDeserializeForm();
     }
 
+    @Test public void compactFormat_isSmallerAndDeserializesToAnEquivalentForm() throws Exception {
+        Scenario scenario = Scenario.init("Compact", html(
+            head(
+                title("Compact"),
+                model(
+                    mainInstance(t("data id='compact'",
+                        t("choice"),
+                        t("label"),
+                        t("count")
+                    )),
+                    instance("choices",
+                        t("item", t("label", "A"), t("value", "a")),
+                        t("item", t("label", "B"), t("value", "b")),
+                        t("item", t("label", "C"), t("value", "c"))
+                    ),
+                    bind("/data/choice").type("string"),
+                    bind("/data/label").type("string").calculate("instance('choices')/root/item[value = /data/choice]/label"),
+                    bind("/data/count").type("int").calculate("count(instance('choices')/root/item[value != /data/choice])")
+                )
+            ),
+            body(
+                select1Dynamic("/data/choice", "instance('choices')/root/item")
+            )));
+
+        PrototypeManager.registerPrototypes(JavaRosaCoreModule.classNames);
+        PrototypeManager.registerPrototypes(CoreModelModule.classNames);
+        new XFormsModule().registerModule();
+
+        ByteArrayOutputStream plainBytes = new ByteArrayOutputStream();
+        scenario.getFormDef().writeExternal(new DataOutputStream(plainBytes));
+        ByteArrayOutputStream compactBytes = new ByteArrayOutputStream();
+        scenario.getFormDef().writeExternal(new CompactDataOutputStream(compactBytes));
+
+        assertThat(compactBytes.size() < plainBytes.size(), is(true));
+
+        FormDef deserializedFormDef = new FormDef();
+        deserializedFormDef.readExternal(new CompactDataInputStream(new ByteArrayInputStream(compactBytes.toByteArray())), PrototypeManager.getDefault());
+        Scenario deserialized = Scenario.init(deserializedFormDef);
+
+        deserialized.answer("/data/choice", "b");
+        assertThat(deserialized.answerOf("/data/label"), is(stringAnswer("B")));
+        assertThat(deserialized.answerOf("/data/count"), is(intAnswer(2)));
+    }
+
+    @Test(expected = DeserializationException.class)
+    public void compactFormat_isRejectedIfTheHeaderDoesNotMatch() throws Exception {
+        new CompactDataInputStream(new ByteArrayInputStream(new byte[]{0, 0, 0, 0, 1}));
+    }
+
     private static Scenario getSimplestFormScenario() throws IOException, XFormParser.ParseException {
         return Scenario.init("Simplest", html(
             head(
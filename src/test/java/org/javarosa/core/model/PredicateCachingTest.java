@@ -20,6 +20,7 @@ import static org.javarosa.test.XFormsElement.repeat;
 import static org.javarosa.test.XFormsElement.t;
 import static org.javarosa.test.XFormsElement.title;
 
+import org.javarosa.core.util.BoundedCache.CacheStats;
 import org.javarosa.test.Scenario;
 import org.javarosa.measure.Measure;
 import org.junit.Test;
@@ -219,6 +220,78 @@ public class PredicateCachingTest {
         assertThat(evaluations, lessThan(20));
     }
 
+    @Test
+    public void andedEqPredicatesAreOnlyEvaluatedOnce() throws Exception {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("state"),
+                        t("lga"),
+                        t("ward"),
+                        t("calc")
+                    )),
+                    instance("instance",
+                        t("item",
+                            t("state", "A"),
+                            t("lga", "1"),
+                            t("ward", "x"),
+                            t("id", "A1x")
+                        ),
+                        t("item",
+                            t("state", "A"),
+                            t("lga", "1"),
+                            t("ward", "y"),
+                            t("id", "A1y")
+                        ),
+                        t("item",
+                            t("state", "A"),
+                            t("lga", "2"),
+                            t("ward", "x"),
+                            t("id", "A2x")
+                        ),
+                        t("item",
+                            t("state", "B"),
+                            t("lga", "1"),
+                            t("ward", "x"),
+                            t("id", "B1x")
+                        )
+                    ),
+                    bind("/data/state").type("string"),
+                    bind("/data/lga").type("string"),
+                    bind("/data/ward").type("string"),
+                    bind("/data/calc").type("string")
+                        .calculate("instance('instance')/root/item[state = /data/state and lga = /data/lga and /data/ward = ward]/id")
+                )
+            ),
+            body(
+                input("/data/state"),
+                input("/data/lga"),
+                input("/data/ward")
+            )
+        ));
+
+        int evaluations = Measure.withMeasure(asList("PredicateEvaluation", "IndexEvaluation"), () -> {
+            scenario.answer("/data/state", "A");
+            scenario.answer("/data/lga", "1");
+            scenario.answer("/data/ward", "y");
+            assertThat(scenario.answerOf("/data/calc").getValue(), equalTo("A1y"));
+
+            scenario.answer("/data/ward", "x");
+            assertThat(scenario.answerOf("/data/calc").getValue(), equalTo("A1x"));
+
+            scenario.answer("/data/state", "B");
+            assertThat(scenario.answerOf("/data/calc").getValue(), equalTo("B1x"));
+
+            scenario.answer("/data/lga", "2");
+            assertThat(scenario.answerOf("/data/calc"), equalTo(null));
+        });
+
+        // Check that we do less than size of secondary instance * number of times we answer
+        assertThat(evaluations, lessThan(4));
+    }
+
     @Test
     public void repeatedCompPredicatesWithSameAbsoluteValueAreOnlyEvaluatedOnce() throws Exception {
         Scenario scenario = Scenario.init("Some form", html(
@@ -255,6 +328,135 @@ public class PredicateCachingTest {
         assertThat(evaluations, lessThan(4));
     }
 
+    @Test
+    public void compPredicatesWithDifferentAbsoluteValuesAreOnlyEvaluatedOnce() throws Exception {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("choice"),
+                        t("calculate")
+                    )),
+                    instance("instance",
+                        item("1", "A"),
+                        item("2", "B")
+                    ),
+                    bind("/data/choice").type("string"),
+                    bind("/data/calculate").type("string")
+                        .calculate("count(instance('instance')/root/item[value < /data/choice])")
+                )
+            ),
+            body(
+                input("/data/choice")
+            )
+        ));
+
+        int evaluations = Measure.withMeasure(asList("PredicateEvaluation", "IndexEvaluation"), () -> {
+            scenario.answer("/data/choice", "2");
+            scenario.answer("/data/choice", "3");
+            scenario.answer("/data/choice", "1.5");
+        });
+
+        // Check that we do less than size of secondary instance * number of times we answer
+        assertThat(evaluations, lessThan(4));
+        assertThat(scenario.answerOf("/data/calculate").getDisplayText(), equalTo("1"));
+    }
+
+    @Test
+    public void compExpressionsWorkForAllOperatorsIfEitherSideIsRelative() throws Exception {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("input"),
+                        t("lt"),
+                        t("lte"),
+                        t("gt"),
+                        t("gte"),
+                        t("ltrtl"),
+                        t("joined")
+                    )),
+                    instance("instance",
+                        item("3", "C"),
+                        item("1", "A"),
+                        item("not a number", "X"),
+                        item("2", "B"),
+                        item("", "Y")
+                    ),
+                    bind("/data/input").type("string"),
+                    bind("/data/lt").type("string")
+                        .calculate("count(instance('instance')/root/item[value < /data/input])"),
+                    bind("/data/lte").type("string")
+                        .calculate("count(instance('instance')/root/item[value <= /data/input])"),
+                    bind("/data/gt").type("string")
+                        .calculate("count(instance('instance')/root/item[value > /data/input])"),
+                    bind("/data/gte").type("string")
+                        .calculate("count(instance('instance')/root/item[value >= /data/input])"),
+                    bind("/data/ltrtl").type("string")
+                        .calculate("count(instance('instance')/root/item[/data/input < value])"),
+                    bind("/data/joined").type("string")
+                        .calculate("join(' ', instance('instance')/root/item[value >= /data/input]/label)")
+                )
+            ),
+            body(
+                input("/data/input")
+            )
+        ));
+
+        scenario.answer("/data/input", "2");
+        assertThat(scenario.answerOf("/data/lt").getDisplayText(), equalTo("1"));
+        assertThat(scenario.answerOf("/data/lte").getDisplayText(), equalTo("2"));
+        assertThat(scenario.answerOf("/data/gt").getDisplayText(), equalTo("1"));
+        assertThat(scenario.answerOf("/data/gte").getDisplayText(), equalTo("2"));
+        assertThat(scenario.answerOf("/data/ltrtl").getDisplayText(), equalTo("1"));
+        assertThat(scenario.answerOf("/data/joined").getValue(), equalTo("C B"));
+
+        scenario.answer("/data/input", "not a number");
+        assertThat(scenario.answerOf("/data/lt").getDisplayText(), equalTo("0"));
+        assertThat(scenario.answerOf("/data/gte").getDisplayText(), equalTo("0"));
+    }
+
+    @Test
+    public void compPredicatesComparedToFunctionsOfTheContextAreOnlyEvaluatedOnce() throws Exception {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("offset"),
+                        t("past"),
+                        t("future")
+                    )),
+                    instance("instance",
+                        item("0", "A"),
+                        item("100000", "B"),
+                        item("10", "C")
+                    ),
+                    bind("/data/offset").type("int"),
+                    bind("/data/past").type("string")
+                        .calculate("join(' ', instance('instance')/root/item[value <= today() - /data/offset]/label)"),
+                    bind("/data/future").type("string")
+                        .calculate("join(' ', instance('instance')/root/item[today() - /data/offset < value]/label)")
+                )
+            ),
+            body(
+                input("/data/offset")
+            )
+        ));
+
+        int evaluations = Measure.withMeasure(asList("PredicateEvaluation", "IndexEvaluation"), () -> {
+            scenario.answer("/data/offset", 0);
+            scenario.answer("/data/offset", 1);
+        });
+
+        // Check that we do less than size of secondary instance * number of times we answer
+        assertThat(evaluations, lessThan(6));
+        assertThat(scenario.answerOf("/data/past").getValue(), equalTo("A C"));
+        assertThat(scenario.answerOf("/data/future").getValue(), equalTo("B"));
+    }
+
     @Test
     public void repeatedIdempotentFuncPredicatesWithSameAbsoluteValueAreOnlyEvaluatedOnce() throws Exception {
         Scenario scenario = Scenario.init("Some form", html(
@@ -607,6 +809,141 @@ public class PredicateCachingTest {
         assertThat(scenario.answerOf("/data/result").getValue(), equalTo("70"));
     }
 
+    @Test
+    public void predicatesStayCorrectWhenCachesEvictEntries() throws Exception {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("input"),
+                        t("calc1"),
+                        t("calc2")
+                    )),
+                    instance("instance",
+                        item("a", "A"),
+                        item("b", "B")
+                    ),
+                    bind("/data/input").type("string"),
+                    bind("/data/calc1").type("string")
+                        .calculate("instance('instance')/root/item[value = /data/input]/label"),
+                    bind("/data/calc2").type("string")
+                        .calculate("instance('instance')/root/item[label = /data/input]/value")
+                )
+            ),
+            body(
+                input("/data/input")
+            )
+        ));
+
+        scenario.getFormDef().setPredicateCacheMaximumWeight(3);
+
+        scenario.answer("/data/input", "a");
+        assertThat(scenario.answerOf("/data/calc1").getValue(), equalTo("A"));
+        assertThat(scenario.answerOf("/data/calc2"), equalTo(null));
+
+        scenario.answer("/data/input", "B");
+        assertThat(scenario.answerOf("/data/calc1"), equalTo(null));
+        assertThat(scenario.answerOf("/data/calc2").getValue(), equalTo("b"));
+
+        CacheStats stats = scenario.getFormDef().getPredicateCacheStats().get(EqualityExpressionIndexFilterStrategy.class.getSimpleName());
+        assertThat(stats.getEvictionCount(), greaterThan(0L));
+        assertThat(stats.getWeight(), not(greaterThan(3L)));
+    }
+
+    @Test
+    public void chainedEqPredicatesAreIndexedForEachFilteredNodeSet() throws Exception {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("choice"),
+                        t("label"),
+                        t("calculate")
+                    )),
+                    instance("instance",
+                        item("a", "A1"),
+                        item("a", "A2"),
+                        item("a", "A3"),
+                        item("b", "B1")
+                    ),
+                    bind("/data/choice").type("string"),
+                    bind("/data/label").type("string"),
+                    bind("/data/calculate").type("int")
+                        .calculate("count(instance('instance')/root/item[value = /data/choice][label = /data/label])")
+                )
+            ),
+            body(
+                input("/data/choice"),
+                input("/data/label")
+            )
+        ));
+
+        scenario.answer("/data/choice", "a");
+        scenario.answer("/data/label", "A1");
+        assertThat(scenario.answerOf("/data/calculate").getValue(), equalTo(1));
+
+        int evaluations = Measure.withMeasure(asList("PredicateEvaluation", "IndexEvaluation"), () -> {
+            scenario.answer("/data/label", "A2");
+            scenario.answer("/data/label", "A3");
+            scenario.answer("/data/label", "B1");
+        });
+
+        // Both predicates are answered from their indexes rather than evaluating the second one for every "a" item
+        assertThat(evaluations, equalTo(0));
+        assertThat(scenario.answerOf("/data/calculate").getValue(), equalTo(0));
+
+        scenario.answer("/data/choice", "b");
+        assertThat(scenario.answerOf("/data/calculate").getValue(), equalTo(1));
+    }
+
+    @Test
+    public void geofencePredicatesAreAnsweredFromASpatialIndex() throws Exception {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("location"),
+                        t("districts")
+                    )),
+                    instance("districts",
+                        t("item", t("name", "A"), t("geometry", "0 0 0 0; 0 1 0 0; 1 1 0 0; 1 0 0 0; 0 0 0 0")),
+                        t("item", t("name", "B"), t("geometry", "0 1 0 0; 0 2 0 0; 1 2 0 0; 1 1 0 0; 0 1 0 0")),
+                        t("item", t("name", "C"), t("geometry", "0 5 0 0; 1 5 0 0; 1 6 0 0")),
+                        t("item", t("name", "D"), t("geometry", "0.5 0.5 0 0")),
+                        t("item", t("name", "E"), t("geometry", ""))
+                    ),
+                    bind("/data/location").type("geopoint"),
+                    bind("/data/districts").type("string")
+                        .calculate("join(' ', instance('districts')/root/item[geofence(/data/location, geometry)]/name)")
+                )
+            ),
+            body(
+                input("/data/location")
+            )
+        ));
+
+        int evaluations = Measure.withMeasure(asList("PredicateEvaluation", "IndexEvaluation"), () -> {
+            // C is a geotrace that doesn't end where it starts so it "contains" points outside of its bounding box
+            scenario.answer("/data/location", "0.5 0.5 0 0");
+            assertThat(scenario.answerOf("/data/districts").getValue(), equalTo("A C"));
+
+            scenario.answer("/data/location", "0.5 1.5 0 0");
+            assertThat(scenario.answerOf("/data/districts").getValue(), equalTo("B C"));
+
+            scenario.answer("/data/location", "0.5 3 0 0");
+            assertThat(scenario.answerOf("/data/districts").getValue(), equalTo("C"));
+
+            scenario.answer("/data/location", "5 5 0 0");
+            assertThat(scenario.answerOf("/data/districts"), equalTo(null));
+        });
+
+        // Each shape is only parsed once to build the index
+        assertThat(evaluations, not(greaterThan(5)));
+    }
+
     @Test
     public void eqPredicatesDoNotIncreaseLoadTime() {
         int evaluations = Measure.withMeasure(asList("PredicateEvaluation", "IndexEvaluation"), () -> {
@@ -0,0 +1,102 @@
+package org.javarosa.core.model;
+
+import org.javarosa.measure.Measure;
+import org.javarosa.test.Scenario;
+import org.javarosa.test.XFormsElement;
+import org.junit.Test;
+
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.javarosa.core.test.AnswerDataMatchers.intAnswer;
+import static org.javarosa.test.BindBuilderXFormsElement.bind;
+import static org.javarosa.test.XFormsElement.body;
+import static org.javarosa.test.XFormsElement.head;
+import static org.javarosa.test.XFormsElement.html;
+import static org.javarosa.test.XFormsElement.input;
+import static org.javarosa.test.XFormsElement.mainInstance;
+import static org.javarosa.test.XFormsElement.model;
+import static org.javarosa.test.XFormsElement.repeat;
+import static org.javarosa.test.XFormsElement.t;
+import static org.javarosa.test.XFormsElement.title;
+
+public class SharedSubexpressionsTest {
+
+    @Test
+    public void sharedSubexpressionsAreOnlyEvaluatedOncePerCascade() throws Exception {
+        Scenario scenario = Scenario.init("Shared subexpressions", peopleForm());
+        int sharedEvaluations = Measure.withMeasure(singletonList("PredicateEvaluation"), () -> {
+            scenario.answer("/data/person[1]/age", 30);
+        });
+
+        Scenario unsharedScenario = Scenario.init("Shared subexpressions", peopleForm());
+        unsharedScenario.getFormDef().disableSubexpressionSharing();
+        int unsharedEvaluations = Measure.withMeasure(singletonList("PredicateEvaluation"), () -> {
+            unsharedScenario.answer("/data/person[1]/age", 30);
+        });
+
+        // One evaluation of the predicate per person instead of one per person for each calculate
+        assertThat(sharedEvaluations, equalTo(3));
+        assertThat(unsharedEvaluations, equalTo(6));
+        assertThat(scenario.answerOf("/data/adults"), is(intAnswer(2)));
+        assertThat(scenario.answerOf("/data/children"), is(intAnswer(1)));
+    }
+
+    @Test
+    public void sharedSubexpressionsAreUpdatedWhenTheirInputsChange() throws Exception {
+        Scenario scenario = Scenario.init("Shared subexpressions", peopleForm());
+        assertThat(scenario.answerOf("/data/adults"), is(intAnswer(1)));
+        assertThat(scenario.answerOf("/data/children"), is(intAnswer(2)));
+
+        scenario.createNewRepeat("/data/person");
+        scenario.answer("/data/person[4]/age", 40);
+
+        assertThat(scenario.answerOf("/data/adults"), is(intAnswer(2)));
+        assertThat(scenario.answerOf("/data/children"), is(intAnswer(2)));
+    }
+
+    @Test
+    public void sharedSubexpressionsInRepeatsAreEvaluatedPerRepeatInstance() throws Exception {
+        Scenario scenario = Scenario.init("Shared subexpressions", peopleForm());
+
+        assertThat(scenario.answerOf("/data/person[1]/next"), is(intAnswer(11)));
+        assertThat(scenario.answerOf("/data/person[1]/previous"), is(intAnswer(9)));
+        assertThat(scenario.answerOf("/data/person[2]/next"), is(intAnswer(21)));
+        assertThat(scenario.answerOf("/data/person[2]/previous"), is(intAnswer(19)));
+
+        scenario.answer("/data/person[1]/age", 30);
+
+        assertThat(scenario.answerOf("/data/person[1]/next"), is(intAnswer(31)));
+        assertThat(scenario.answerOf("/data/person[1]/previous"), is(intAnswer(29)));
+        assertThat(scenario.answerOf("/data/person[2]/next"), is(intAnswer(21)));
+        assertThat(scenario.answerOf("/data/person[3]/previous"), is(intAnswer(4)));
+    }
+
+    private static XFormsElement peopleForm() {
+        return html(
+            head(
+                title("Shared subexpressions"),
+                model(
+                    mainInstance(t("data id=\"shared-subexpressions\"",
+                        t("person", t("age", "10"), t("next"), t("previous")),
+                        t("person", t("age", "20"), t("next"), t("previous")),
+                        t("person", t("age", "5"), t("next"), t("previous")),
+                        t("adults"),
+                        t("children")
+                    )),
+                    bind("/data/person/age").type("int"),
+                    bind("/data/person/next").type("int").calculate("number(/data/person/age) + 1"),
+                    bind("/data/person/previous").type("int").calculate("number(/data/person/age) - 1"),
+                    bind("/data/adults").type("int").calculate("count(/data/person[number(age) > 17])"),
+                    bind("/data/children").type("int").calculate("count(/data/person) - count(/data/person[number(age) > 17])")
+                )
+            ),
+            body(
+                repeat("/data/person",
+                    input("/data/person/age")
+                )
+            )
+        );
+    }
+}
@@ -8,6 +8,7 @@ import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
 import static org.javarosa.core.test.AnswerDataMatchers.booleanAnswer;
 import static org.javarosa.core.test.AnswerDataMatchers.intAnswer;
 import static org.javarosa.core.test.AnswerDataMatchers.stringAnswer;
@@ -15,7 +16,9 @@ import static org.javarosa.core.test.FormDefMatchers.valid;
 import static org.javarosa.core.test.QuestionDefMatchers.enabled;
 import static org.javarosa.core.test.QuestionDefMatchers.nonRelevant;
 import static org.javarosa.core.test.QuestionDefMatchers.readOnly;
+import static org.javarosa.core.reference.ReferenceManagerTestUtils.setUpSimpleReferenceManager;
 import static org.javarosa.core.test.QuestionDefMatchers.relevant;
+import static org.javarosa.test.ResourcePathHelper.r;
 import static org.javarosa.test.Scenario.getRef;
 import static org.javarosa.test.BindBuilderXFormsElement.bind;
 import static org.javarosa.test.XFormsElement.body;
@@ -34,20 +37,28 @@ import static org.javarosa.test.XFormsElement.title;
 import static org.javarosa.form.api.FormEntryController.ANSWER_CONSTRAINT_VIOLATED;
 import static org.javarosa.form.api.FormEntryController.ANSWER_REQUIRED_BUT_EMPTY;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Stream;
 import org.hamcrest.CoreMatchers;
 import org.javarosa.test.Scenario;
 import org.javarosa.test.BindBuilderXFormsElement;
 import org.javarosa.test.XFormsElement;
+import org.javarosa.core.model.instance.IndexedCsvExternalInstance;
 import org.javarosa.debug.Event;
 import org.javarosa.form.api.FormEntryController;
+import org.javarosa.xform.parse.ExternalInstanceParser;
 import org.javarosa.xform.parse.XFormParseException;
 import org.javarosa.xform.parse.XFormParser;
+import org.javarosa.xform.util.XFormUtils;
 import org.javarosa.xpath.expr.XPathPathExpr;
 import org.javarosa.xpath.expr.XPathPathExprEval;
 import org.junit.Before;
@@ -1765,6 +1776,191 @@ public class TriggerableDagTest {
     }
     //endregion
 
+    //region Value change propagation
+    @Test
+    public void whenValueChangePropagationIsEnabled_cascadesStopAtTriggerablesThatDoNotChange() throws IOException, XFormParser.ParseException {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("a"),
+                        t("parity"),
+                        t("b"),
+                        t("c")
+                    )),
+                    bind("/data/a").type("int"),
+                    bind("/data/parity").type("int").calculate("/data/a mod 2"),
+                    bind("/data/b").type("int").calculate("/data/parity * 10"),
+                    bind("/data/c").type("string").calculate("concat(/data/b, 'x')")
+                )
+            ),
+            body(input("/data/a"))
+        )).onDagEvent(dagEvents::add);
+        scenario.getFormDef().enableValueChangePropagation();
+
+        scenario.answer("/data/a", 1);
+        assertThat(scenario.answerOf("/data/c"), is(stringAnswer("10x")));
+
+        dagEvents.clear();
+        scenario.answer("/data/a", 3);
+
+        assertThat(scenario.answerOf("/data/parity"), is(intAnswer(1)));
+        assertThat(scenario.answerOf("/data/c"), is(stringAnswer("10x")));
+        assertDagEvents(dagEvents,
+            "Processing 'Recalculate' for parity [1] (1.0)",
+            "Processing 'New value: a [1]: 1 triggerables were fired.' for "
+        );
+
+        scenario.answer("/data/a", 4);
+        assertThat(scenario.answerOf("/data/b"), is(intAnswer(0)));
+        assertThat(scenario.answerOf("/data/c"), is(stringAnswer("0x")));
+    }
+
+    @Test
+    public void whenValueChangePropagationIsEnabled_triggerablesWithAChangedDependencyAreStillEvaluated() throws IOException, XFormParser.ParseException {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("a"),
+                        t("constant"),
+                        t("double"),
+                        t("sum"),
+                        t("q")
+                    )),
+                    bind("/data/a").type("int"),
+                    bind("/data/constant").type("int").calculate("/data/a * 0"),
+                    bind("/data/double").type("int").calculate("/data/a * 2"),
+                    bind("/data/sum").type("int").calculate("/data/constant + /data/double"),
+                    bind("/data/q").type("string").relevant("/data/sum > 4")
+                )
+            ),
+            body(
+                input("/data/a"),
+                input("/data/q")
+            )
+        ));
+        scenario.getFormDef().enableValueChangePropagation();
+
+        scenario.answer("/data/a", 1);
+        assertThat(scenario.answerOf("/data/sum"), is(intAnswer(2)));
+        assertThat(scenario.getAnswerNode("/data/q"), is(nonRelevant()));
+
+        scenario.answer("/data/a", 3);
+        assertThat(scenario.answerOf("/data/sum"), is(intAnswer(6)));
+        assertThat(scenario.getAnswerNode("/data/q"), is(relevant()));
+    }
+    //endregion
+
+    //region Parallel initialization
+    @Test
+    public void parallelInitialization_producesTheSameResultsAndEventsAsSerialInitialization() throws IOException, XFormParser.ParseException {
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("a", "3"),
+                        t("b", "4"),
+                        t("a-doubled"),
+                        t("b-doubled"),
+                        t("sum"),
+                        t("group",
+                            t("inner"),
+                            t("inner-calc")
+                        ),
+                        t("label")
+                    )),
+                    bind("/data/a").type("int"),
+                    bind("/data/b").type("int"),
+                    bind("/data/a-doubled").type("int").calculate("/data/a * 2"),
+                    bind("/data/b-doubled").type("int").calculate("/data/b * 2"),
+                    bind("/data/sum").type("int").calculate("/data/a-doubled + /data/b-doubled"),
+                    bind("/data/group").relevant("/data/a > 1"),
+                    bind("/data/group/inner-calc").type("int").calculate("/data/b + 1"),
+                    bind("/data/group/inner").type("string").relevant("/data/sum > 100"),
+                    bind("/data/label").type("string").calculate("concat(/data/sum, '-', /data/group/inner-calc)")
+                )
+            ),
+            body(
+                input("/data/a"),
+                input("/data/b"),
+                group("/data/group", input("/data/group/inner"))
+            )
+        )).onDagEvent(dagEvents::add);
+
+        scenario.newInstance();
+        List<String> serialEvents = dagEvents.stream().map(Event::getDisplayMessage).collect(toList());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            scenario.getFormDef().enableParallelInitialization(executor);
+
+            dagEvents.clear();
+            scenario.newInstance();
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(dagEvents.stream().map(Event::getDisplayMessage).collect(toList()), is(serialEvents));
+        assertThat(scenario.answerOf("/data/sum"), is(intAnswer(14)));
+        assertThat(scenario.answerOf("/data/label"), is(stringAnswer("14-5")));
+        assertThat(scenario.getAnswerNode("/data/group/inner"), is(nonRelevant()));
+    }
+
+    @Test
+    public void parallelInitialization_withPartialSecondaryInstance_isSerial() throws IOException, XFormParser.ParseException {
+        XFormUtils.setExternalInstanceParserFactory(() -> {
+            ExternalInstanceParser externalInstanceParser = new ExternalInstanceParser();
+            externalInstanceParser.addFileInstanceParser(new IndexedCsvExternalInstance());
+            return externalInstanceParser;
+        });
+
+        try {
+            List<String> lines = new ArrayList<>();
+            lines.add("label,name");
+            for (int i = 0; i < 1000; i++) {
+                lines.add("Item " + i + ",item" + i);
+            }
+
+            File directory = Files.createTempDirectory("partial-csv").toFile();
+            File csv = new File(directory, "items.csv");
+            csv.deleteOnExit();
+            directory.deleteOnExit();
+            Files.write(csv.toPath(), lines, StandardCharsets.UTF_8);
+            setUpSimpleReferenceManager(directory, "file-csv");
+
+            Scenario scenario = Scenario.init("Some form", html(
+                head(
+                    title("Some form"),
+                    model(
+                        mainInstance(t("data id=\"some-form\"",
+                            t("first-label"),
+                            t("second-label")
+                        )),
+                        t("instance id=\"items\" src=\"jr://file-csv/items.csv\""),
+                        bind("/data/first-label").type("string").calculate("instance('items')/root/item[name='item1']/label"),
+                        bind("/data/second-label").type("string").calculate("instance('items')/root/item[name='item2']/label")
+                    )
+                ),
+                body(
+                    input("/data/first-label")
+                )
+            ));
+
+            scenario.getFormDef().enableParallelInitialization(command -> fail("Triggerables were evaluated concurrently"));
+            scenario.newInstance();
+
+            assertThat(scenario.answerOf("/data/first-label"), is(stringAnswer("Item 1")));
+            assertThat(scenario.answerOf("/data/second-label"), is(stringAnswer("Item 2")));
+        } finally {
+            XFormUtils.setExternalInstanceParserFactory(ExternalInstanceParser::new);
+        }
+    }
+    //endregion
+
     //region Repeat misc
     @Test
     public void issue_135_verify_that_counts_in_inner_repeats_work_as_expected() throws IOException, XFormParser.ParseException {
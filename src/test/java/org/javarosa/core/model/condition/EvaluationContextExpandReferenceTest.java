@@ -122,4 +122,34 @@ public class EvaluationContextExpandReferenceTest {
             getRef("/data/group[5]")
         ));
     }
+
+    @Test
+    public void expand_relevant_references_leaves_out_non_relevant_nodes() throws IOException, XFormParser.ParseException {
+        Scenario relevanceScenario = Scenario.init("Relevance form", html(
+            head(
+                title("Relevance form"),
+                model(
+                    mainInstance(t("data id=\"relevance-form\"",
+                        t("group", t("show", "yes"), t("number", "1")),
+                        t("group", t("show", "no"), t("number", "2")),
+                        t("group", t("show", "yes"), t("number", "3")),
+                        t("group", t("show", "no"), t("number", "4"))
+                    )),
+                    bind("/data/group/number").type("int").relevant("../show = 'yes'")
+                )
+            ),
+            body(repeat("/data/group", input("/data/group/show"), input("/data/group/number")))
+        ));
+        EvaluationContext relevanceEc = relevanceScenario.getEvaluationContext();
+
+        assertThat(relevanceEc.expandRelevantReferences(getRef("/data/group/number")), contains(
+            getRef("/data/group[1]/number[1]"),
+            getRef("/data/group[3]/number[1]")
+        ));
+        assertThat(relevanceEc.expandRelevantReferences(getRef("/data/group[number > 1]/number")), contains(
+            getRef("/data/group[3]/number[1]")
+        ));
+        assertThat(relevanceEc.expandRelevantReferences(getRef("/data/group")).size(), is(4));
+        assertThat(relevanceEc.expandRelevantReferences(getRef("group/number")), is(nullValue()));
+    }
 }
@@ -0,0 +1,35 @@
+package org.javarosa.core.model.condition;
+
+import org.javarosa.core.model.instance.TreeReference;
+import org.javarosa.xpath.expr.XPathPathExpr;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.javarosa.xpath.XPathParseTool.parseXPath;
+
+public class FilteredNodeSetReferenceTest {
+
+    @Test
+    public void filteredReference_isNotEqualToUnfilteredReference() throws Exception {
+        TreeReference nodeSet = ((XPathPathExpr) parseXPath("instance('items')/root/item")).getReference();
+        TreeReference filtered = FilteredNodeSetReference.filter(nodeSet, parseXPath("name = 'a'"), null, null, null);
+
+        assertThat(filtered, is(not(nodeSet)));
+        assertThat(nodeSet, is(not(filtered)));
+        assertThat(filtered, is(FilteredNodeSetReference.filter(nodeSet, parseXPath("name = 'a'"), null, null, null)));
+        assertThat(filtered, is(not(FilteredNodeSetReference.filter(nodeSet, parseXPath("name = 'b'"), null, null, null))));
+    }
+
+    @Test
+    public void filter_withContextValue_doesNotEvaluateContextSide() throws Exception {
+        TreeReference nodeSet = ((XPathPathExpr) parseXPath("instance('items')/root/item")).getReference();
+
+        // There's no instance or context to evaluate /data/x against
+        TreeReference filtered = FilteredNodeSetReference.filter(nodeSet, parseXPath("name = /data/x"), "x", null, null);
+
+        assertThat(filtered.toString(), endsWith("{String:x}]"));
+    }
+}
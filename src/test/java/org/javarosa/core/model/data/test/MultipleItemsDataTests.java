@@ -17,6 +17,7 @@
 package org.javarosa.core.model.data.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
@@ -26,6 +27,7 @@ import org.javarosa.core.model.QuestionDef;
 import org.javarosa.core.model.SelectChoice;
 import org.javarosa.core.model.data.MultipleItemsData;
 import org.javarosa.core.model.data.SelectOneData;
+import org.javarosa.core.model.data.helper.SelectedValues;
 import org.javarosa.core.model.data.helper.Selection;
 import org.junit.Before;
 import org.junit.Test;
@@ -96,6 +98,18 @@ public class MultipleItemsDataTests {
 
     }
 
+    @Test
+    public void testSelectedValues() {
+        MultipleItemsData data = new MultipleItemsData(firstTwo);
+        SelectedValues selectedValues = data.getSelectedValues();
+
+        assertEquals("MultipleItemsData's selected values don't match its XML value", data.uncast().getString(), selectedValues.toString());
+        assertSame("MultipleItemsData tokenized an unchanged answer again", selectedValues, data.getSelectedValues());
+
+        data.setValue(lastTwo);
+        assertEquals("MultipleItemsData's selected values weren't updated with its value", data.uncast().getString(), data.getSelectedValues().toString());
+    }
+
     @Test
     public void testNullData() {
         boolean exceptionThrown = false;
@@ -0,0 +1,209 @@
+package org.javarosa.core.model.instance;
+
+import org.apache.commons.io.input.BOMInputStream;
+import org.javarosa.core.model.SelectChoice;
+import org.javarosa.core.util.externalizable.DeserializationException;
+import org.javarosa.test.Scenario;
+import org.javarosa.test.TempFileUtils;
+import org.javarosa.xform.parse.ExternalInstanceParser;
+import org.javarosa.xform.parse.XFormParser;
+import org.javarosa.xform.util.XFormUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.javarosa.core.reference.ReferenceManagerTestUtils.setUpSimpleReferenceManager;
+import static org.javarosa.test.BindBuilderXFormsElement.bind;
+import static org.javarosa.test.ResourcePathHelper.r;
+import static org.javarosa.test.XFormsElement.body;
+import static org.javarosa.test.XFormsElement.head;
+import static org.javarosa.test.XFormsElement.html;
+import static org.javarosa.test.XFormsElement.input;
+import static org.javarosa.test.XFormsElement.mainInstance;
+import static org.javarosa.test.XFormsElement.model;
+import static org.javarosa.test.XFormsElement.select1Dynamic;
+import static org.javarosa.test.XFormsElement.t;
+import static org.javarosa.test.XFormsElement.title;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnarCsvExternalInstanceTest {
+    private TreeElement commaSeparated;
+    private TreeElement semiColonSeparated;
+
+    @Before
+    public void setUp() throws IOException {
+        commaSeparated = new ColumnarCsvExternalInstance().parse("id", r("external-secondary-comma-complex.csv").toString());
+        semiColonSeparated = new ColumnarCsvExternalInstance().parse("id", r("external-secondary-semicolon-complex.csv").toString());
+
+        XFormUtils.setExternalInstanceParserFactory(() -> {
+            ExternalInstanceParser externalInstanceParser = new ExternalInstanceParser();
+            externalInstanceParser.addFileInstanceParser(new ColumnarCsvExternalInstance());
+            return externalInstanceParser;
+        });
+    }
+
+    @After
+    public void teardown() {
+        XFormUtils.setExternalInstanceParserFactory(ExternalInstanceParser::new);
+    }
+
+    @Test
+    public void heading_has_no_extra_quotes() {
+        assertEquals("label", commaSeparated.getChildAt(0).getChildAt(0).getName());
+        assertEquals("label", semiColonSeparated.getChildAt(0).getChildAt(0).getName());
+    }
+
+    @Test
+    public void value_has_no_extra_quotes() {
+        assertEquals("A", commaSeparated.getChildAt(0).getChildAt(0).getValue().getValue());
+        assertEquals("A", semiColonSeparated.getChildAt(0).getChildAt(0).getValue().getValue());
+    }
+
+    @Test
+    public void quoted_string_with_comma() {
+        assertEquals("121 Main St, NE", commaSeparated.getChildAt(6).getChildAt(0).getValue().getValue());
+        assertEquals("121 Main St, NE", semiColonSeparated.getChildAt(6).getChildAt(0).getValue().getValue());
+    }
+
+    @Test
+    public void quoted_string_with_semicolon() {
+        assertEquals("text; more text", commaSeparated.getChildAt(7).getChildAt(0).getValue().getValue());
+        assertEquals("text; more text", semiColonSeparated.getChildAt(7).getChildAt(0).getValue().getValue());
+    }
+
+    @Test
+    public void missing_fields_replaced_with_spaces() {
+        assertEquals("", commaSeparated.getChildAt(5).getChildAt(1).getValue().getValue());
+        assertEquals("", semiColonSeparated.getChildAt(5).getChildAt(1).getValue().getValue());
+    }
+
+    @Test
+    public void ignores_utf8_bom() throws IOException {
+        BOMInputStream bomIs = new BOMInputStream(new FileInputStream(r("external-secondary-csv-bom.csv")));
+        assertThat(bomIs.hasBOM(), is(true));
+
+        TreeElement bomCsv = new ColumnarCsvExternalInstance().parse("id", r("external-secondary-csv-bom.csv").toString());
+        assertThat(bomCsv.getChildAt(0).getChildAt(0).getName(), is("name"));
+        assertThat(bomCsv.getChildAt(0).getChild("elevation", 0).getValue().getValue(), is("testé"));
+    }
+
+    @Test
+    public void quotedHeaderWithNewline_isParsedLikeCsvExternalInstance() throws IOException {
+        File csv = TempFileUtils.createTempFile("multiline-header", ".csv");
+        Files.write(csv.toPath(), asList("name,\"first", "second\"", "a,b"), StandardCharsets.UTF_8);
+
+        TreeElement columnar = new ColumnarCsvExternalInstance().parse("id", csv.getAbsolutePath());
+        TreeElement parsed = new CsvExternalInstance().parse("id", csv.getAbsolutePath());
+
+        assertThat(columnar.getNumChildren(), is(parsed.getNumChildren()));
+        assertThat(columnar.getChildAt(0).getNumChildren(), is(parsed.getChildAt(0).getNumChildren()));
+        for (int i = 0; i < parsed.getChildAt(0).getNumChildren(); i++) {
+            assertThat(columnar.getChildAt(0).getChildAt(i).getName(), is(parsed.getChildAt(0).getChildAt(i).getName()));
+            assertThat(columnar.getChildAt(0).getChildAt(i).getValue().getValue(), is(parsed.getChildAt(0).getChildAt(i).getValue().getValue()));
+        }
+        assertThat(columnar.getChildAt(0).getChildAt(1).getName(), is("first\nsecond"));
+    }
+
+    @Test
+    public void duplicateHeaderNames_areRejectedLikeCsvExternalInstance() throws IOException {
+        File csv = TempFileUtils.createTempFile("duplicate-header", ".csv");
+        Files.write(csv.toPath(), asList("name,label,name", "a,A,b"), StandardCharsets.UTF_8);
+
+        assertThrows(IllegalArgumentException.class, () -> new CsvExternalInstance().parse("id", csv.getAbsolutePath()));
+        assertThrows(IllegalArgumentException.class, () -> new ColumnarCsvExternalInstance().parse("id", csv.getAbsolutePath()));
+    }
+
+    @Test
+    public void itemsAndFieldsCanBeLookedUpByNameAndMultiplicity() {
+        assertThat(commaSeparated.getChildMultiplicity("item"), is(commaSeparated.getNumChildren()));
+        assertThat(commaSeparated.getChildrenWithName("item").size(), is(commaSeparated.getNumChildren()));
+        assertNull(commaSeparated.getChild("item", commaSeparated.getNumChildren()));
+        assertNull(commaSeparated.getChild("other", 0));
+
+        TreeElement item = commaSeparated.getChild("item", 6);
+        assertThat(item.getMultiplicity(), is(6));
+        assertThat(item.getChildMultiplicity("label"), is(1));
+        assertThat(item.getChild("label", 0).getValue().getValue(), is("121 Main St, NE"));
+        assertNull(item.getChild("label", 1));
+    }
+
+    @Test
+    public void columnsWithFewDistinctValues_areDictionaryEncoded() throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("id,parity");
+        for (int i = 0; i < CsvTable.MAX_DICTIONARY_SIZE + 10; i++) {
+            lines.add(i + "," + (i % 2 == 0 ? "even" : "odd"));
+        }
+
+        File csv = TempFileUtils.createTempFile("large", ".csv");
+        Files.write(csv.toPath(), lines, StandardCharsets.UTF_8);
+
+        CsvTable table = CsvTable.parse(csv.getAbsolutePath());
+        assertThat(table.getRowCount(), is(CsvTable.MAX_DICTIONARY_SIZE + 10));
+        assertFalse(table.isDictionaryEncoded(0));
+        assertTrue(table.isDictionaryEncoded(1));
+
+        assertThat(table.get(CsvTable.MAX_DICTIONARY_SIZE + 9, 0), is(String.valueOf(CsvTable.MAX_DICTIONARY_SIZE + 9)));
+        assertThat(table.get(CsvTable.MAX_DICTIONARY_SIZE + 9, 1), is("odd"));
+    }
+
+    @Test
+    public void headerOnlyFile_hasNoItems() throws IOException {
+        CsvTable table = CsvTable.parse(r("header_only.csv").toString());
+
+        assertThat(table.getRowCount(), is(0));
+        assertThat(table.getColumnCount(), is(4));
+    }
+
+    @Test
+    public void choicesCanBeFilteredFromColumnarInstance_beforeAndAfterSerialization() throws IOException, XFormParser.ParseException, DeserializationException {
+        setUpSimpleReferenceManager(r("external-select-csv.xml").getParentFile(), "file-csv", "file");
+
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("first"),
+                        t("second")
+                    )),
+
+                    t("instance id=\"external-csv\" src=\"jr://file-csv/external-data.csv\""),
+
+                    bind("/data/first").type("string"),
+                    bind("/data/second").type("string")
+                )
+            ),
+            body(
+                input("/data/first"),
+                select1Dynamic("/data/second", "instance('external-csv')/root/item[first=/data/first]", "name", "label")
+            )));
+
+        assertThat(scenario.getFormDef().getNonMainInstance("external-csv").getRoot(), instanceOf(CsvTableElement.class));
+
+        scenario.answer("/data/first", "b");
+        assertThat(scenario.choicesOf("/data/second").stream().map(SelectChoice::getValue).collect(toList()), contains("ba", "bb", "bc"));
+
+        scenario = scenario.serializeAndDeserializeForm();
+        scenario.answer("/data/first", "c");
+        assertThat(scenario.choicesOf("/data/second").stream().map(SelectChoice::getValue).collect(toList()), contains("ca", "cb", "cc"));
+    }
+}
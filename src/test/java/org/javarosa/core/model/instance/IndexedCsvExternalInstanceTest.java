@@ -0,0 +1,211 @@
+package org.javarosa.core.model.instance;
+
+import org.javarosa.core.model.SelectChoice;
+import org.javarosa.core.util.externalizable.DeserializationException;
+import org.javarosa.test.Scenario;
+import org.javarosa.xform.parse.ExternalInstanceParser;
+import org.javarosa.xform.parse.XFormParser;
+import org.javarosa.xform.util.XFormUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.javarosa.core.reference.ReferenceManagerTestUtils.setUpSimpleReferenceManager;
+import static org.javarosa.test.BindBuilderXFormsElement.bind;
+import static org.javarosa.test.ResourcePathHelper.r;
+import static org.javarosa.test.XFormsElement.body;
+import static org.javarosa.test.XFormsElement.head;
+import static org.javarosa.test.XFormsElement.html;
+import static org.javarosa.test.XFormsElement.input;
+import static org.javarosa.test.XFormsElement.mainInstance;
+import static org.javarosa.test.XFormsElement.model;
+import static org.javarosa.test.XFormsElement.select1Dynamic;
+import static org.javarosa.test.XFormsElement.t;
+import static org.javarosa.test.XFormsElement.title;
+
+public class IndexedCsvExternalInstanceTest {
+
+    @Before
+    public void setup() {
+        XFormUtils.setExternalInstanceParserFactory(() -> {
+            ExternalInstanceParser externalInstanceParser = new ExternalInstanceParser();
+            externalInstanceParser.addFileInstanceParser(new IndexedCsvExternalInstance());
+            return externalInstanceParser;
+        });
+    }
+
+    @After
+    public void teardown() {
+        XFormUtils.setExternalInstanceParserFactory(ExternalInstanceParser::new);
+    }
+
+    @Test
+    public void partialParse_createsAPartialItemForEachRecordAfterTheFirst() throws IOException {
+        String path = r("external-secondary-comma-complex.csv").toString();
+        TreeElement root = new IndexedCsvExternalInstance().parse("id", path, true);
+
+        assertThat(root.getNumChildren(), is(new CsvExternalInstance().parse("id", path).getNumChildren()));
+        assertThat(root.getChildAt(0).isPartial(), is(false));
+        for (int i = 1; i < root.getNumChildren(); i++) {
+            assertThat(root.getChildAt(i).isPartial(), is(true));
+            assertThat(root.getChildAt(i).getMultiplicity(), is(i));
+        }
+    }
+
+    @Test
+    public void loadedElements_matchFullParse() throws IOException {
+        for (String file : new String[]{"external-secondary-comma-complex.csv", "external-secondary-semicolon-complex.csv", "external-secondary-csv-bom.csv"}) {
+            String path = r(file).toString();
+            TreeElement parsed = new CsvExternalInstance().parse("id", path);
+
+            IndexedCsvExternalInstance indexedCsvExternalInstance = new IndexedCsvExternalInstance();
+            indexedCsvExternalInstance.parse("id", path, true);
+            List<TreeElement> loaded = indexedCsvExternalInstance.getPartialElementLoader("id", path).getElements(1, parsed.getNumChildren() + 10);
+
+            assertThat(loaded.size(), is(parsed.getNumChildren() - 1));
+            for (int i = 0; i < loaded.size(); i++) {
+                TreeElement parsedItem = parsed.getChildAt(i + 1);
+                TreeElement loadedItem = loaded.get(i);
+                assertThat(loadedItem.getMultiplicity(), is(i + 1));
+                assertThat(loadedItem.getNumChildren(), is(parsedItem.getNumChildren()));
+
+                for (int j = 0; j < parsedItem.getNumChildren(); j++) {
+                    assertThat(loadedItem.getChildAt(j).getName(), is(parsedItem.getChildAt(j).getName()));
+                    assertThat(loadedItem.getChildAt(j).getValue().getValue(), is(parsedItem.getChildAt(j).getValue().getValue()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void partialParse_withNonAsciiContent_matchesFullParse() throws IOException {
+        File csv = File.createTempFile("non-ascii", ".csv");
+        csv.deleteOnExit();
+        Files.write(csv.toPath(), asList(
+            "name,région",
+            "a,Genève",
+            "b,Zürich",
+            "c,東京",
+            "d,\"São Paulo, \"\"Brasil\"\"\""
+        ), StandardCharsets.UTF_8);
+        String path = csv.getAbsolutePath();
+
+        IndexedCsvExternalInstance indexedCsvExternalInstance = new IndexedCsvExternalInstance();
+        TreeElement parsed = indexedCsvExternalInstance.parse("id", path, false);
+        TreeElement partial = indexedCsvExternalInstance.parse("id", path, true);
+        ExternalInstanceParser.PartialElementLoader loader = indexedCsvExternalInstance.getPartialElementLoader("id", path);
+        List<TreeElement> loaded = loader.getElements(0, parsed.getNumChildren());
+
+        assertThat(partial.getNumChildren(), is(parsed.getNumChildren()));
+        assertThat(loaded.size(), is(parsed.getNumChildren()));
+        for (int i = 0; i < loaded.size(); i++) {
+            TreeElement parsedItem = parsed.getChildAt(i);
+            TreeElement loadedItem = loaded.get(i);
+            assertThat(loadedItem.getNumChildren(), is(parsedItem.getNumChildren()));
+
+            for (int j = 0; j < parsedItem.getNumChildren(); j++) {
+                assertThat(loadedItem.getChildAt(j).getName(), is(parsedItem.getChildAt(j).getName()));
+                assertThat(loadedItem.getChildAt(j).getValue().getValue(), is(parsedItem.getChildAt(j).getValue().getValue()));
+            }
+        }
+
+        assertThat(parsed.getChildAt(2).getChildAt(1).getName(), is("région"));
+        assertThat(parsed.getChildAt(2).getChildAt(1).getValue().getValue(), is("東京"));
+        assertThat(loader.lookup("région", "Zürich"), is(new int[]{1}));
+        assertThat(loader.lookup("région", "São Paulo, \"Brasil\""), is(new int[]{3}));
+    }
+
+    @Test
+    public void partialParse_onlyKeepsIndexesUpToTheMaximumNumberOfRecords() throws IOException {
+        String firstPath = r("external-secondary-comma-complex.csv").toString();
+        String secondPath = r("external-data.csv").toString();
+
+        IndexedCsvExternalInstance indexedCsvExternalInstance = new IndexedCsvExternalInstance(15);
+        TreeElement first = indexedCsvExternalInstance.parse("first", firstPath, true);
+        indexedCsvExternalInstance.parse("second", secondPath, true);
+
+        assertThat(indexedCsvExternalInstance.getCacheStats().getSize(), is(1));
+        assertThat(indexedCsvExternalInstance.getCacheStats().getEvictionCount(), is(1L));
+
+        // The evicted index is rebuilt when it's needed
+        List<TreeElement> loaded = indexedCsvExternalInstance.getPartialElementLoader("first", firstPath).getElements(0, first.getNumChildren());
+        assertThat(loaded.size(), is(first.getNumChildren()));
+    }
+
+    @Test
+    public void lookup_returnsMultiplicitiesOfMatchingRecords() throws IOException {
+        String path = r("external-data.csv").toString();
+        ExternalInstanceParser.PartialElementLoader loader = new IndexedCsvExternalInstance().getPartialElementLoader("id", path);
+
+        assertThat(loader.lookup("first", "b"), is(new int[]{6, 7, 8}));
+        assertThat(loader.lookup("first", "z"), is(new int[0]));
+        assertThat(loader.lookup("other", "b"), is(nullValue()));
+    }
+
+    @Test
+    public void filteringChoices_onlyLoadsPagesWithSelectedItems() throws IOException, XFormParser.ParseException, DeserializationException {
+        int pages = 4;
+        int rows = pages * ExternalDataInstance.PARTIAL_ELEMENT_PAGE_SIZE;
+
+        List<String> lines = new ArrayList<>();
+        lines.add("label,name,first");
+        for (int i = 0; i < rows; i++) {
+            lines.add("Item " + i + ",item" + i + "," + (i % pages == 0 ? "x" : "y") + (i / ExternalDataInstance.PARTIAL_ELEMENT_PAGE_SIZE));
+        }
+
+        File directory = Files.createTempDirectory("indexed-csv").toFile();
+        File csv = new File(directory, "large.csv");
+        csv.deleteOnExit();
+        directory.deleteOnExit();
+        Files.write(csv.toPath(), lines, StandardCharsets.UTF_8);
+        setUpSimpleReferenceManager(directory, "file-csv", "file");
+
+        Scenario scenario = Scenario.init("Some form", html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("first"),
+                        t("second")
+                    )),
+
+                    t("instance id=\"large\" src=\"jr://file-csv/large.csv\""),
+
+                    bind("/data/first").type("string"),
+                    bind("/data/second").type("string")
+                )
+            ),
+            body(
+                input("/data/first"),
+                select1Dynamic("/data/second", "instance('large')/root/item[first=/data/first]", "name", "label")
+            )));
+
+        scenario.answer("/data/first", "x2");
+        assertThat(scenario.choicesOf("/data/second").stream().map(SelectChoice::getValue).collect(toList()),
+            contains("item128", "item132", "item136", "item140", "item144", "item148", "item152", "item156", "item160",
+                "item164", "item168", "item172", "item176", "item180", "item184", "item188"));
+
+        TreeElement root = (TreeElement) scenario.getFormDef().getNonMainInstance("large").getRoot();
+        for (int i = 0; i < rows; i++) {
+            boolean selectedPage = i / ExternalDataInstance.PARTIAL_ELEMENT_PAGE_SIZE == 2;
+            assertThat(root.getChildAt(i).isPartial(), is(i != 0 && !selectedPage));
+        }
+
+        scenario = scenario.serializeAndDeserializeForm();
+        scenario.answer("/data/first", "y0");
+        assertThat(scenario.choicesOf("/data/second").size(), is(48));
+    }
+}
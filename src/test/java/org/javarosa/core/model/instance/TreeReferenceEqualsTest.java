@@ -46,4 +46,11 @@ public class TreeReferenceEqualsTest {
     public void treeReferenceEqualsTest() {
         assertThat(getRef(pathA).equals(getRef(pathB)), is(expectToBeEqual));
     }
+
+    @Test
+    public void equalReferencesHaveTheSameHashCode() {
+        if (expectToBeEqual) {
+            assertThat(getRef(pathA).hashCode(), is(getRef(pathB).hashCode()));
+        }
+    }
 }
@@ -0,0 +1,53 @@
+package org.javarosa.core.model.instance;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.javarosa.test.Scenario.getRef;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+
+public class TreeReferenceFreezeTest {
+    @Test
+    public void hashCode_dependsOnTheOrderOfLevels() {
+        assertThat(getRef("/a/b").hashCode(), is(not(getRef("/b/a").hashCode())));
+    }
+
+    @Test
+    public void hashCode_changesWhenTheReferenceChanges() {
+        TreeReference ref = getRef("/data/a");
+        int hashCode = ref.hashCode();
+
+        ref.setMultiplicity(1, 2);
+
+        assertThat(ref.hashCode(), is(not(hashCode)));
+        assertThat(ref.hashCode(), is(getRef("/data/a[3]").hashCode()));
+    }
+
+    @Test
+    public void freeze_returnsAnEqualCopy() {
+        TreeReference ref = getRef("/data/a");
+        TreeReference frozen = ref.freeze();
+
+        assertThat(frozen, is(not(sameInstance(ref))));
+        assertThat(frozen, is(ref));
+        assertThat(frozen.hashCode(), is(ref.hashCode()));
+        assertThat(frozen.isFrozen(), is(true));
+        assertThat(ref.isFrozen(), is(false));
+        assertThat(frozen.freeze(), is(sameInstance(frozen)));
+    }
+
+    @Test
+    public void frozenReference_cantBeChanged() {
+        TreeReference frozen = getRef("/data/a").freeze();
+
+        assertThrows(IllegalStateException.class, () -> frozen.add("b", 0));
+        assertThrows(IllegalStateException.class, () -> frozen.setMultiplicity(1, 2));
+        assertThrows(IllegalStateException.class, frozen::removeLastLevel);
+
+        TreeReference child = frozen.extendRef("b", TreeReference.INDEX_UNBOUND);
+        assertThat(child, is(getRef("/data/a/b")));
+    }
+}
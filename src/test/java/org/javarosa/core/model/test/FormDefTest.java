@@ -414,6 +414,65 @@ public class FormDefTest {
         assertThat(caption.getQuestionText(), is("Position: 2"));
     }
 
+    @Test
+    public void fillTemplateString_reflectsChangesToOutputValuesAndRelevance() throws IOException, XFormParser.ParseException {
+        Scenario scenario = Scenario.init("output changes", html(
+            head(
+                title("output changes"),
+                model(
+                    mainInstance(t("data id=\"output-changes\"",
+                        t("show"),
+                        t("name"),
+                        t("greeting")
+                    )),
+                    bind("/data/name").relevant("/data/show = 'yes'")
+                )
+            ),
+            body(
+                input("/data/show"),
+                input("/data/name"),
+                input("/data/greeting", label("Hello <output value=\"/data/name\"/>, <output value=\"/data/name\"/>!"))
+            )
+        ));
+
+        scenario.answer("/data/show", "yes");
+        scenario.answer("/data/name", "Alice");
+        assertThat(getQuestionText(scenario, "/data/greeting"), is("Hello Alice, Alice!"));
+        assertThat(getQuestionText(scenario, "/data/greeting"), is("Hello Alice, Alice!"));
+        assertThat(scenario.getFormDef().getOutputValueCache().getStats().getHitCount(), Matchers.greaterThan(0L));
+
+        scenario.answer("/data/name", "Bob");
+        assertThat(getQuestionText(scenario, "/data/greeting"), is("Hello Bob, Bob!"));
+
+        scenario.answer("/data/show", "no");
+        assertThat(getQuestionText(scenario, "/data/greeting"), is("Hello , !"));
+    }
+
+    @Test
+    public void fillTemplateString_withOutputValueThatIsATemplate_fillsItToo() throws IOException, XFormParser.ParseException {
+        Scenario scenario = Scenario.init("output template value", html(
+            head(
+                title("output template value"),
+                model(
+                    mainInstance(t("data id=\"output-template-value\"",
+                        t("first", "${1}"),
+                        t("second", "nested"),
+                        t("label")
+                    ))
+                )
+            ),
+            body(
+                input("/data/label", label("Value: <output value=\"/data/first\"/> and <output value=\"/data/second\"/>"))
+            )
+        ));
+
+        assertThat(getQuestionText(scenario, "/data/label"), is("Value: nested and nested"));
+    }
+
+    private static String getQuestionText(Scenario scenario, String xPath) {
+        return new FormEntryCaption(scenario.getFormDef(), scenario.indexOf(xPath)).getQuestionText();
+    }
+
     @Test
     public void canAddFunctionHandlersBeforeInitialize() throws Exception {
         FormDef formDef = Scenario.createFormDef("custom-func-form", html(
@@ -907,4 +907,39 @@ public class LocalizerTest {
         assertNull("Localizer didn't return null value", shouldBeNull);
         assertNull("Localizer didn't return null value", shouldBeNull);
     }
+
+    @Test
+    public void textOfOtherLocalesReflectsResourceChanges() {
+        Localizer localizer = new Localizer(true, true);
+        localizer.addAvailableLocale("one");
+        localizer.addAvailableLocale("two");
+
+        TableLocaleSource firstLocale = new TableLocaleSource();
+        firstLocale.setLocaleMapping("data", "one");
+        localizer.registerLocaleResource("one", firstLocale);
+        localizer.setDefaultLocale("one");
+        localizer.setLocale("one");
+
+        assertEquals("one", localizer.getText("data", "two"));
+
+        TableLocaleSource secondLocale = new TableLocaleSource();
+        secondLocale.setLocaleMapping("data", "two");
+        localizer.registerLocaleResource("two", secondLocale);
+        assertEquals("two", localizer.getText("data", "two"));
+
+        TableLocaleSource defaultLocale = new TableLocaleSource();
+        defaultLocale.setLocaleMapping("other", "one");
+        localizer.registerLocaleResource("one", defaultLocale);
+        assertEquals("one", localizer.getText("other", "two"));
+
+        localizer.setLocale("two");
+        localizer.destroyLocale("one");
+        assertNull(localizer.getText("other", "two"));
+        try {
+            localizer.getText("data", "one");
+            fail("Did not get expected exception");
+        } catch (UnregisteredLocaleException expected) {
+            // expected
+        }
+    }
 }
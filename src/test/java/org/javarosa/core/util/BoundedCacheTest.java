@@ -0,0 +1,84 @@
+package org.javarosa.core.util;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+
+import org.javarosa.core.util.BoundedCache.CacheStats;
+import org.junit.Test;
+
+public class BoundedCacheTest {
+
+    @Test
+    public void get_onlyLoadsOncePerKey() {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, value -> 1);
+
+        int[] loads = {0};
+        cache.get("a", key -> {
+            loads[0]++;
+            return "A";
+        });
+        String value = cache.get("a", key -> {
+            loads[0]++;
+            return "A";
+        });
+
+        assertThat(value, equalTo("A"));
+        assertThat(loads[0], equalTo(1));
+
+        CacheStats stats = cache.getStats();
+        assertThat(stats.getHitCount(), equalTo(1L));
+        assertThat(stats.getMissCount(), equalTo(1L));
+    }
+
+    @Test
+    public void whenMaximumWeightIsExceeded_leastRecentlyUsedEntriesAreEvicted() {
+        BoundedCache<String, String> cache = new BoundedCache<>(2, value -> 1);
+
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.getIfPresent("a");
+        cache.put("c", "C");
+
+        assertThat(cache.getIfPresent("a"), equalTo("A"));
+        assertThat(cache.getIfPresent("b"), nullValue());
+        assertThat(cache.getIfPresent("c"), equalTo("C"));
+        assertThat(cache.getStats().getEvictionCount(), equalTo(1L));
+    }
+
+    @Test
+    public void valuesHeavierThanMaximumWeight_areNotCached() {
+        BoundedCache<String, String> cache = new BoundedCache<>(2, String::length);
+
+        cache.put("a", "AAA");
+
+        assertThat(cache.getIfPresent("a"), nullValue());
+        assertThat(cache.getStats().getWeight(), equalTo(0L));
+    }
+
+    @Test
+    public void puttingValueHeavierThanMaximumWeight_dropsPreviousValueForKey() {
+        BoundedCache<String, String> cache = new BoundedCache<>(2, String::length);
+
+        cache.put("a", "A");
+        cache.put("a", "AAA");
+
+        assertThat(cache.getIfPresent("a"), nullValue());
+        assertThat(cache.getStats().getWeight(), equalTo(0L));
+        assertThat(cache.getStats().getSize(), equalTo(0));
+    }
+
+    @Test
+    public void setMaximumWeight_evictsDownToNewMaximum() {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, String::length);
+
+        cache.put("a", "AA");
+        cache.put("b", "BB");
+        cache.put("c", "CC");
+        cache.setMaximumWeight(3);
+
+        assertThat(cache.getStats().getWeight(), lessThanOrEqualTo(3L));
+        assertThat(cache.getIfPresent("c"), equalTo("CC"));
+    }
+}
@@ -19,6 +19,7 @@ package org.javarosa.core.util.test;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.util.ArrayList;
 import java.util.Date;
@@ -27,6 +28,8 @@ import java.util.Iterator;
 import java.util.List;
 
 import org.javarosa.core.util.OrderedMap;
+import org.javarosa.core.util.externalizable.CompactDataInputStream;
+import org.javarosa.core.util.externalizable.CompactDataOutputStream;
 import org.javarosa.core.util.externalizable.ExtUtil;
 import org.javarosa.core.util.externalizable.ExtWrapBase;
 import org.javarosa.core.util.externalizable.ExtWrapList;
@@ -222,6 +225,17 @@ public class ExternalizableTest {
                 print("FAILURE");
                 fail(failMessage + ": Objects do not match");
             }
+
+            ByteArrayOutputStream compactBytes = new ByteArrayOutputStream();
+            ExtUtil.write(new CompactDataOutputStream(compactBytes), orig);
+            DataInputStream compactIn = new CompactDataInputStream(new ByteArrayInputStream(compactBytes.toByteArray()));
+            Object compactDeser = template instanceof Class
+                ? ExtUtil.read(compactIn, (Class) template, pf)
+                : ExtUtil.read(compactIn, (ExternalizableWrapper) template, pf);
+
+            if (!ExtUtil.equals(orig, compactDeser)) {
+                fail(failMessage + ": Objects do not match in compact format");
+            }
             print("---------------------------------------------");
         } catch (Exception e) {
             fail(failMessage + ": Exception! " + e.getClass().getName() + " " + e.getMessage());
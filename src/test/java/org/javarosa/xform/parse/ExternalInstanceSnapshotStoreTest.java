@@ -0,0 +1,214 @@
+package org.javarosa.xform.parse;
+
+import org.javarosa.core.model.CoreModelModule;
+import org.javarosa.core.model.SelectChoice;
+import org.javarosa.core.model.instance.ColumnarCsvExternalInstance;
+import org.javarosa.core.model.instance.CsvExternalInstance;
+import org.javarosa.core.model.instance.CsvTableElement;
+import org.javarosa.core.model.instance.IndexedCsvExternalInstance;
+import org.javarosa.core.model.instance.TreeElement;
+import org.javarosa.core.reference.ReferenceManager;
+import org.javarosa.core.services.PrototypeManager;
+import org.javarosa.test.Scenario;
+import org.javarosa.test.TempFileUtils;
+import org.javarosa.test.XFormsElement;
+import org.javarosa.xform.util.XFormUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.javarosa.core.reference.ReferenceManagerTestUtils.setUpSimpleReferenceManager;
+import static org.javarosa.test.BindBuilderXFormsElement.bind;
+import static org.javarosa.test.ResourcePathHelper.r;
+import static org.javarosa.test.XFormsElement.body;
+import static org.javarosa.test.XFormsElement.head;
+import static org.javarosa.test.XFormsElement.html;
+import static org.javarosa.test.XFormsElement.input;
+import static org.javarosa.test.XFormsElement.mainInstance;
+import static org.javarosa.test.XFormsElement.model;
+import static org.javarosa.test.XFormsElement.select1Dynamic;
+import static org.javarosa.test.XFormsElement.t;
+import static org.javarosa.test.XFormsElement.title;
+
+public class ExternalInstanceSnapshotStoreTest {
+
+    private static final String CSV = CsvExternalInstance.class.getName();
+    private static final String COLUMNAR_CSV = ColumnarCsvExternalInstance.class.getName();
+
+    private File directory;
+    private ExternalInstanceSnapshotStore store;
+
+    @Before
+    public void setup() throws IOException {
+        PrototypeManager.registerPrototypes(CoreModelModule.classNames);
+
+        directory = Files.createTempDirectory("snapshots").toFile();
+        directory.deleteOnExit();
+        store = new ExternalInstanceSnapshotStore(directory);
+    }
+
+    @After
+    public void teardown() {
+        XFormUtils.setExternalInstanceParserFactory(ExternalInstanceParser::new);
+    }
+
+    @Test
+    public void load_whenNothingWasSaved_returnsNull() {
+        assertThat(store.load("id", r("external-data.csv").toString(), CSV), is(nullValue()));
+    }
+
+    @Test
+    public void load_afterSave_returnsEquivalentTree() throws IOException {
+        String path = r("external-data.csv").toString();
+        TreeElement parsed = new CsvExternalInstance().parse("id", path);
+        store.save(path, CSV, parsed);
+
+        TreeElement loaded = store.load("other-id", path, CSV);
+        assertThat(loaded, is(notNullValue()));
+        assertThat(loaded.getInstanceName(), is("other-id"));
+        assertThat(loaded.getNumChildren(), is(parsed.getNumChildren()));
+        for (int i = 0; i < parsed.getNumChildren(); i++) {
+            TreeElement parsedItem = parsed.getChildAt(i);
+            TreeElement loadedItem = loaded.getChildAt(i);
+            assertThat(loadedItem.getInstanceName(), is("other-id"));
+            assertThat(loadedItem.getNumChildren(), is(parsedItem.getNumChildren()));
+
+            for (int j = 0; j < parsedItem.getNumChildren(); j++) {
+                assertThat(loadedItem.getChildAt(j).getName(), is(parsedItem.getChildAt(j).getName()));
+                assertThat(loadedItem.getChildAt(j).getValue().getValue(), is(parsedItem.getChildAt(j).getValue().getValue()));
+            }
+        }
+    }
+
+    @Test
+    public void load_afterSaveOfColumnarInstance_returnsColumnarInstance() throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("id,parity");
+        for (int i = 0; i < 70000; i++) {
+            lines.add(i + "," + (i % 2 == 0 ? "even" : "odd"));
+        }
+
+        File csv = TempFileUtils.createTempFile("large", ".csv");
+        Files.write(csv.toPath(), lines, StandardCharsets.UTF_8);
+
+        String path = csv.getAbsolutePath();
+        store.save(path, COLUMNAR_CSV, new ColumnarCsvExternalInstance().parse("id", path));
+
+        TreeElement loaded = store.load("id", path, COLUMNAR_CSV);
+        assertThat(loaded, instanceOf(CsvTableElement.class));
+        assertThat(loaded.getNumChildren(), is(70000));
+        assertThat(loaded.getChildAt(69999).getChild("id", 0).getValue().getValue(), is("69999"));
+        assertThat(loaded.getChildAt(69999).getChild("parity", 0).getValue().getValue(), is("odd"));
+        assertThat(loaded.getChildAt(12).getChild("parity", 0).getValue().getValue(), is("even"));
+    }
+
+    @Test
+    public void load_afterSourceIsModified_returnsNull() throws IOException {
+        File csv = TempFileUtils.createTempFile("external-data", ".csv");
+        Files.copy(r("external-data.csv").toPath(), csv.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        String path = csv.getAbsolutePath();
+        store.save(path, CSV, new CsvExternalInstance().parse("id", path));
+        assertThat(store.load("id", path, CSV), is(notNullValue()));
+
+        Files.write(csv.toPath(), singletonList("D,d,"), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        assertThat(store.load("id", path, CSV), is(nullValue()));
+    }
+
+    @Test
+    public void load_withDifferentFormat_returnsNull() throws IOException {
+        String path = r("external-data.csv").toString();
+        store.save(path, CSV, new CsvExternalInstance().parse("id", path));
+
+        assertThat(store.load("id", path, COLUMNAR_CSV), is(nullValue()));
+        assertThat(store.load("id", path, CSV), is(notNullValue()));
+    }
+
+    @Test
+    public void partialParse_afterSnapshotOfFullParse_isNotLoadedFromSnapshot() throws Exception {
+        ReferenceManager referenceManager = setUpSimpleReferenceManager(r("external-data.csv").getParentFile(), "file-csv");
+        ExternalInstanceParser externalInstanceParser = new ExternalInstanceParser();
+        externalInstanceParser.addFileInstanceParser(new IndexedCsvExternalInstance());
+        externalInstanceParser.setSnapshotStore(store);
+
+        TreeElement full = externalInstanceParser.parse(referenceManager, "id", "jr://file-csv/external-data.csv", false);
+        assertThat(full.getChildAt(1).isPartial(), is(false));
+        assertThat(directory.listFiles().length, is(1));
+
+        TreeElement partial = externalInstanceParser.parse(referenceManager, "id", "jr://file-csv/external-data.csv", true);
+        assertThat(partial.getNumChildren(), is(full.getNumChildren()));
+        assertThat(partial.getChildAt(1).isPartial(), is(true));
+        assertThat(externalInstanceParser.getPartialElementLoader(referenceManager, "id", "jr://file-csv/external-data.csv"), is(notNullValue()));
+    }
+
+    @Test
+    public void load_whenSnapshotIsCorrupt_returnsNullAndDeletesSnapshot() throws IOException {
+        String path = r("external-data.csv").toString();
+        store.save(path, CSV, new CsvExternalInstance().parse("id", path));
+
+        File[] snapshots = directory.listFiles();
+        assertThat(snapshots.length, is(1));
+        Files.write(snapshots[0].toPath(), new byte[]{1, 2, 3});
+
+        assertThat(store.load("id", path, CSV), is(nullValue()));
+        assertThat(directory.listFiles().length, is(0));
+    }
+
+    @Test
+    public void formsUsingExternalInstances_canBeLoadedFromSnapshots() throws IOException, XFormParser.ParseException {
+        setUpSimpleReferenceManager(r("external-select-csv.xml").getParentFile(), "file-csv", "file");
+        XFormUtils.setExternalInstanceParserFactory(() -> {
+            ExternalInstanceParser externalInstanceParser = new ExternalInstanceParser();
+            externalInstanceParser.setSnapshotStore(store);
+            return externalInstanceParser;
+        });
+
+        Scenario scenario = Scenario.init("Some form", form());
+        scenario.answer("/data/first", "b");
+        assertThat(scenario.choicesOf("/data/second").stream().map(SelectChoice::getValue).collect(toList()), contains("ba", "bb", "bc"));
+        assertThat(directory.listFiles().length, is(1));
+
+        scenario = Scenario.init("Some form", form());
+        scenario.answer("/data/first", "c");
+        assertThat(scenario.choicesOf("/data/second").stream().map(SelectChoice::getValue).collect(toList()), contains("ca", "cb", "cc"));
+    }
+
+    private static XFormsElement form() {
+        return html(
+            head(
+                title("Some form"),
+                model(
+                    mainInstance(t("data id=\"some-form\"",
+                        t("first"),
+                        t("second")
+                    )),
+
+                    t("instance id=\"external-csv\" src=\"jr://file-csv/external-data.csv\""),
+
+                    bind("/data/first").type("string"),
+                    bind("/data/second").type("string")
+                )
+            ),
+            body(
+                input("/data/first"),
+                select1Dynamic("/data/second", "instance('external-csv')/root/item[first=/data/first]", "name", "label")
+            ));
+    }
+}
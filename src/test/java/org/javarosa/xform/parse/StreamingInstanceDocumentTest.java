@@ -0,0 +1,132 @@
+package org.javarosa.xform.parse;
+
+import org.javarosa.core.model.FormDef;
+import org.javarosa.core.model.data.IAnswerData;
+import org.javarosa.core.model.instance.DataInstance;
+import org.javarosa.core.model.instance.TreeElement;
+import org.junit.Test;
+import org.kxml2.kdom.Element;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.javarosa.test.ResourcePathHelper.r;
+
+public class StreamingInstanceDocumentTest {
+
+    @Test
+    public void streamedInstances_matchInstancesBuiltFromTheDom() throws IOException, XFormParser.ParseException {
+        for (String form : new String[]{"secondary-instance.xml", "internal_select_10.xml", "two-secondary-instances.xml",
+            "repeat-secondary-instance.xml", "three-level-cascading-select.xml", "jr-choice-name.xml", "randomize.xml"}) {
+            FormDef domFormDef = parse(new FileReader(r(form)), false);
+            FormDef streamedFormDef = parse(new FileReader(r(form)), true);
+
+            assertSameNonMainInstances(form, domFormDef, streamedFormDef);
+        }
+    }
+
+    @Test
+    public void streamedInstances_matchInstancesBuiltFromTheDom_forUnusualContent() throws IOException, XFormParser.ParseException {
+        String form = "<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\" " +
+            "xmlns:jr=\"http://openrosa.org/javarosa\" xmlns:x=\"http://example.com/x\">\n" +
+            "<h:head><h:title>Unusual</h:title><model>\n" +
+            "  <instance><data id=\"unusual\"><q/></data></instance>\n" +
+            "  <instance id=\"things\">\n" +
+            "    <!-- before the root -->\n" +
+            "    <root version=\"3\" x:extra=\"y\">\n" +
+            "      <item a=\"1\"><name>one &amp; two</name><label><![CDATA[<b>]]> tail</label></item>\n" +
+            "      <item><name> <!-- comment first --> three</name><label>  spaced  </label><x:other>ns</x:other></item>\n" +
+            "      <other>mixed<child/>text</other>\n" +
+            "      <item jr:template=\"\"><name>template</name></item>\n" +
+            "      <item><name/><label></label></item>\n" +
+            "      <other jr:recordset=\"r\"/>\n" +
+            "    </root>\n" +
+            "  </instance>\n" +
+            "  <bind nodeset=\"/data/q\" calculate=\"count(instance('things')/root/item)\"/>\n" +
+            "</model></h:head>\n" +
+            "<h:body><input ref=\"/data/q\"><label>Q</label></input></h:body></h:html>";
+
+        FormDef domFormDef = parse(new StringReader(form), false);
+        FormDef streamedFormDef = parse(new StringReader(form), true);
+
+        assertThat(streamedFormDef.getNonMainInstance("things"), notNullValue());
+        assertSameNonMainInstances("unusual", domFormDef, streamedFormDef);
+    }
+
+    @Test
+    public void onlyInternalSecondaryInstancesAreStreamed() throws IOException {
+        StreamingInstanceDocument document = new StreamingInstanceDocument(null);
+        XFormParser.getXMLDocument(new FileReader(r("two-secondary-instances.xml")), null, document);
+
+        List<Element> instances = new ArrayList<>();
+        Element model = document.getRootElement().getElement(null, "head").getElement(null, "model");
+        for (int i = 0; i < model.getChildCount(); i++) {
+            Element child = model.getElement(i);
+            if (child != null && child.getName().equals("instance")) {
+                instances.add(child.getElement(0));
+            }
+        }
+
+        assertThat(instances.size(), is(3));
+        assertThat(document.getStreamedInstance(instances.get(0)), nullValue());
+        assertThat(document.getStreamedInstance(instances.get(1)), notNullValue());
+        assertThat(document.getStreamedInstance(instances.get(2)), notNullValue());
+    }
+
+    private static FormDef parse(Reader reader, boolean streamSecondaryInstances) throws XFormParser.ParseException {
+        XFormParser parser = new XFormParser(reader);
+        parser.setStreamSecondaryInstances(streamSecondaryInstances);
+        return parser.parse();
+    }
+
+    private static void assertSameNonMainInstances(String form, FormDef expected, FormDef actual) {
+        Enumeration<DataInstance> expectedInstances = expected.getNonMainInstances();
+        while (expectedInstances.hasMoreElements()) {
+            DataInstance expectedInstance = expectedInstances.nextElement();
+            DataInstance actualInstance = actual.getNonMainInstance(expectedInstance.getName());
+            assertThat(form, actualInstance, notNullValue());
+            assertSameTree(form, (TreeElement) expectedInstance.getRoot(), (TreeElement) actualInstance.getRoot());
+        }
+    }
+
+    private static void assertSameTree(String form, TreeElement expected, TreeElement actual) {
+        String location = form + " " + expected.getRef();
+        assertThat(location, actual.getName(), is(expected.getName()));
+        assertThat(location, actual.getMultiplicity(), is(expected.getMultiplicity()));
+        assertThat(location, actual.getInstanceName(), is(expected.getInstanceName()));
+        assertThat(location, actual.getNamespace(), is(expected.getNamespace()));
+        assertThat(location, actual.getNamespacePrefix(), is(expected.getNamespacePrefix()));
+        assertThat(location, actual.getDataType(), is(expected.getDataType()));
+        assertThat(location, actual.isRepeatable(), is(expected.isRepeatable()));
+
+        assertThat(location, actual.getAttributeCount(), is(expected.getAttributeCount()));
+        for (int i = 0; i < expected.getAttributeCount(); i++) {
+            assertThat(location, actual.getAttributeValue(expected.getAttributeNamespace(i), expected.getAttributeName(i)),
+                is(expected.getAttributeValue(i)));
+        }
+
+        IAnswerData expectedValue = expected.getValue();
+        IAnswerData actualValue = actual.getValue();
+        if (expectedValue == null) {
+            assertThat(location, actualValue, nullValue());
+        } else {
+            assertThat(location, actualValue, notNullValue());
+            assertThat(location, actualValue.getClass().getName(), is(expectedValue.getClass().getName()));
+            assertThat(location, actualValue.getDisplayText(), is(expectedValue.getDisplayText()));
+        }
+
+        assertThat(location, actual.getNumChildren(), is(expected.getNumChildren()));
+        for (int i = 0; i < expected.getNumChildren(); i++) {
+            assertSameTree(form, expected.getChildAt(i), actual.getChildAt(i));
+        }
+    }
+}
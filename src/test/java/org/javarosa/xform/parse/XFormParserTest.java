@@ -30,7 +30,11 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.javarosa.core.model.FormDef;
 import org.javarosa.core.model.GroupDef;
 import org.javarosa.core.model.IDataReference;
@@ -142,6 +146,32 @@ public class XFormParserTest {
         assertEquals("Form with secondary instance", formDef.getTitle());
     }
 
+    @Test
+    public void parsesFormsConcurrently() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<FormDef>> secondaryInstanceParses = new ArrayList<>();
+            List<Future<FormDef>> simpleParses = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                secondaryInstanceParses.add(executor.submit(() -> parse(SECONDARY_INSTANCE_XML)));
+                simpleParses.add(executor.submit(() -> parse(r("simple-form.xml"))));
+            }
+
+            // Instances referenced by one form must not leak into (or be cleared by) another form's parse
+            for (Future<FormDef> secondaryInstanceParse : secondaryInstanceParses) {
+                FormDef formDef = secondaryInstanceParse.get();
+                assertEquals("Form with secondary instance", formDef.getTitle());
+                assertNotNull(formDef.getNonMainInstance("towns"));
+            }
+
+            for (Future<FormDef> simpleParse : simpleParses) {
+                assertEquals("Simple Form", simpleParse.get().getTitle());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Test
     public void parsesSecondaryInstanceForm2() throws IOException, XFormParser.ParseException {
         File formName = r("internal_select_10.xml");
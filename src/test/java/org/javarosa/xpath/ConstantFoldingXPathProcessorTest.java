@@ -0,0 +1,103 @@
+package org.javarosa.xpath;
+
+import org.javarosa.test.Scenario;
+import org.javarosa.test.XFormsElement;
+import org.javarosa.xform.parse.XFormParser;
+import org.javarosa.xpath.expr.XPathExpression;
+import org.javarosa.xpath.parser.XPathSyntaxException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.javarosa.core.test.AnswerDataMatchers.stringAnswer;
+import static org.javarosa.test.BindBuilderXFormsElement.bind;
+import static org.javarosa.test.XFormsElement.body;
+import static org.javarosa.test.XFormsElement.head;
+import static org.javarosa.test.XFormsElement.input;
+import static org.javarosa.test.XFormsElement.mainInstance;
+import static org.javarosa.test.XFormsElement.model;
+import static org.javarosa.test.XFormsElement.t;
+import static org.javarosa.test.XFormsElement.title;
+
+public class ConstantFoldingXPathProcessorTest {
+
+    @Test
+    public void foldsConstantFunctionCalls() throws XPathSyntaxException {
+        assertFolded("/data/a = concat('a', 'b')", "/data/a = 'ab'");
+        assertFolded("/data/a > number('3') + 1", "/data/a > 4");
+        assertFolded("concat(/data/a, substr('hello', 1, 3), string(2 * 3))", "concat(/data/a, 'el', '6')");
+        assertFolded("not(/data/a) or selected('a b', 'a')", "not(/data/a) or true()");
+    }
+
+    @Test
+    public void dropsBranchesThatAreNotTaken() throws XPathSyntaxException {
+        assertFolded("string(if(true(), /data/a, /data/b))", "string(/data/a)");
+        assertFolded("string(if(1 > 2, /data/a, /data/b))", "string(/data/b)");
+        assertFolded("string(coalesce('', /data/b))", "string(/data/b)");
+        assertFolded("string(coalesce('a', /data/b))", "string('a')");
+    }
+
+    @Test
+    public void simplifiesBooleanIdentities() throws XPathSyntaxException {
+        assertFolded("not(false() and /data/a)", "not(false())");
+        assertFolded("not(true() or /data/a)", "not(true())");
+        assertFolded("not(/data/a and true())", "not(boolean(/data/a))");
+        assertFolded("not(/data/a = 1 or false())", "not(/data/a = 1)");
+        assertFolded("not(/data/a and false())", "not(/data/a and false())");
+    }
+
+    @Test
+    public void foldsPredicates() throws XPathSyntaxException {
+        assertFolded("instance('things')/root/item[name = concat('a', 'b')]/label", "instance('things')/root/item[name = 'ab']/label");
+    }
+
+    @Test
+    public void doesNotFoldFunctionsWithChangingResults() throws XPathSyntaxException {
+        assertFolded("string(now())", "string(now())");
+        assertFolded("concat(random(), 'a')", "concat(random(), 'a')");
+        assertFolded("string(uuid())", "string(uuid())");
+        assertFolded("string(string-length())", "string(string-length())");
+    }
+
+    @Test
+    public void doesNotFoldExpressionsThatFailToEvaluate() throws XPathSyntaxException {
+        assertFolded("string(contains('a', 'b', 'c'))", "string(contains('a', 'b', 'c'))");
+        assertFolded("string(true(1))", "string(true(1))");
+    }
+
+    @Test
+    public void foldedFormsEvaluateTheSame() throws Exception {
+        XFormsElement form = XFormsElement.html(
+            head(
+                title("Constant folding"),
+                model(
+                    mainInstance(t("data id=\"constant-folding\"",
+                        t("a"),
+                        t("b")
+                    )),
+                    bind("/data/a").type("string"),
+                    bind("/data/b").type("string").calculate("if(true(), concat(/data/a, '-', substr('hello', 0, 2)), 'never')")
+                )
+            ),
+            body(input("/data/a"))
+        );
+
+        XFormParser parser = new XFormParser(new InputStreamReader(new ByteArrayInputStream(form.asXml().getBytes())));
+        parser.addProcessor(new ConstantFoldingXPathProcessor());
+        Scenario scenario = Scenario.init(parser.parse(null));
+
+        scenario.answer("/data/a", "x");
+        assertThat(scenario.answerOf("/data/b"), is(stringAnswer("x-he")));
+    }
+
+    private static void assertFolded(String xpath, String expected) throws XPathSyntaxException {
+        XPathExpression expression = XPathParseTool.parseXPath(xpath);
+        new ConstantFoldingXPathProcessor().processXPath(expression);
+
+        assertThat(expression.toString(), equalTo(XPathParseTool.parseXPath(expected).toString()));
+    }
+}
@@ -0,0 +1,125 @@
+package org.javarosa.xpath.expr;
+
+import org.javarosa.test.Scenario;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.javarosa.core.test.AnswerDataMatchers.booleanAnswer;
+import static org.javarosa.core.test.AnswerDataMatchers.intAnswer;
+import static org.javarosa.core.test.AnswerDataMatchers.stringAnswer;
+import static org.javarosa.test.BindBuilderXFormsElement.bind;
+import static org.javarosa.test.XFormsElement.body;
+import static org.javarosa.test.XFormsElement.head;
+import static org.javarosa.test.XFormsElement.html;
+import static org.javarosa.test.XFormsElement.input;
+import static org.javarosa.test.XFormsElement.item;
+import static org.javarosa.test.XFormsElement.mainInstance;
+import static org.javarosa.test.XFormsElement.model;
+import static org.javarosa.test.XFormsElement.t;
+import static org.javarosa.test.XFormsElement.title;
+
+public class SelectedTest {
+
+    @Test
+    public void selectionFunctions_onMultipleSelectAnswer_reflectChangesToTheAnswer() throws Exception {
+        Scenario scenario = Scenario.init("Selected", html(
+            head(
+                title("Selected"),
+                model(
+                    mainInstance(t("data id=\"selected\"",
+                        t("choice"),
+                        t("is-b"),
+                        t("count"),
+                        t("second")
+                    )),
+                    bind("/data/is-b").calculate("selected(/data/choice, 'b')"),
+                    bind("/data/count").calculate("count-selected(/data/choice)"),
+                    bind("/data/second").calculate("selected-at(/data/choice, 1)")
+                )
+            ),
+            body(
+                t("select ref=\"/data/choice\"",
+                    item("a", "A"),
+                    item("b", "B"),
+                    item("c", "C")
+                )
+            )));
+
+        scenario.answer("/data/choice", "a", "b");
+        assertThat(scenario.answerOf("/data/is-b"), is(booleanAnswer(true)));
+        assertThat(scenario.answerOf("/data/count"), is(intAnswer(2)));
+        assertThat(scenario.answerOf("/data/second"), is(stringAnswer("b")));
+
+        scenario.answer("/data/choice", "c", "a", "b");
+        assertThat(scenario.answerOf("/data/is-b"), is(booleanAnswer(true)));
+        assertThat(scenario.answerOf("/data/count"), is(intAnswer(3)));
+        assertThat(scenario.answerOf("/data/second"), is(stringAnswer("a")));
+
+        scenario.answer("/data/choice", "c");
+        assertThat(scenario.answerOf("/data/is-b"), is(booleanAnswer(false)));
+        assertThat(scenario.answerOf("/data/count"), is(intAnswer(1)));
+        assertThat(scenario.answerOf("/data/second"), is(nullValue()));
+    }
+
+    @Test
+    public void selected_inConstraint_usesCandidateValue() throws Exception {
+        Scenario scenario = Scenario.init("Selected", html(
+            head(
+                title("Selected"),
+                model(
+                    mainInstance(t("data id=\"selected\"",
+                        t("choice")
+                    )),
+                    bind("/data/choice").constraint("not(selected(., 'a') and selected(., 'b')) and count-selected(.) < 3")
+                )
+            ),
+            body(
+                t("select ref=\"/data/choice\"",
+                    item("a", "A"),
+                    item("b", "B"),
+                    item("c", "C")
+                )
+            )));
+
+        assertThat(scenario.answer("/data/choice", "a", "c"), is(Scenario.AnswerResult.OK));
+        assertThat(scenario.answer("/data/choice", "a", "b"), is(Scenario.AnswerResult.CONSTRAINT_VIOLATED));
+        assertThat(scenario.answer("/data/choice", "b", "c"), is(Scenario.AnswerResult.OK));
+    }
+
+    @Test
+    public void selected_withValueContainingSpaces_matchesTheXmlValue() throws Exception {
+        Scenario scenario = Scenario.init("Selected", html(
+            head(
+                title("Selected"),
+                model(
+                    mainInstance(t("data id=\"selected\"",
+                        t("choice"),
+                        t("value"),
+                        t("is-selected")
+                    )),
+                    bind("/data/is-selected").calculate("selected(/data/choice, /data/value)")
+                )
+            ),
+            body(
+                t("select ref=\"/data/choice\"",
+                    item("a", "A"),
+                    item("b", "B"),
+                    item("c", "C")
+                ),
+                input("/data/value")
+            )));
+
+        scenario.answer("/data/choice", "a", "b", "c");
+
+        scenario.answer("/data/value", "a b");
+        assertThat(scenario.answerOf("/data/is-selected"), is(booleanAnswer(true)));
+
+        scenario.answer("/data/value", "a c");
+        assertThat(scenario.answerOf("/data/is-selected"), is(booleanAnswer(false)));
+
+        scenario.answer("/data/value", " c ");
+        assertThat(scenario.answerOf("/data/is-selected"), is(booleanAnswer(true)));
+    }
+}
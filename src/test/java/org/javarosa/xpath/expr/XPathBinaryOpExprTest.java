@@ -2,10 +2,13 @@ package org.javarosa.xpath.expr;
 
 import org.javarosa.core.model.condition.EvaluationContext;
 import org.javarosa.core.model.instance.DataInstance;
+import org.javarosa.xpath.parser.XPathSyntaxException;
 import org.junit.Test;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.javarosa.xpath.XPathParseTool.parseXPath;
 
 public class XPathBinaryOpExprTest {
 
@@ -30,6 +33,20 @@ public class XPathBinaryOpExprTest {
         assertThat(expr.containsFunc("b"), equalTo(true));
     }
 
+    @Test
+    public void hashCode_isTheSameForEqualExpressions() throws XPathSyntaxException {
+        XPathExpression expr = parseXPath("name = /data/search and count(../item[a > 1]) != -1.5");
+
+        assertThat(expr.hashCode(), equalTo(parseXPath("name = /data/search and count(../item[a > 1]) != -1.5").hashCode()));
+    }
+
+    @Test
+    public void hashCode_dependsOnTheOperator() throws XPathSyntaxException {
+        assertThat(parseXPath("a = 1").hashCode(), not(equalTo(parseXPath("a != 1").hashCode())));
+        assertThat(parseXPath("a < 1").hashCode(), not(equalTo(parseXPath("a > 1").hashCode())));
+        assertThat(parseXPath("a and b").hashCode(), not(equalTo(parseXPath("a or b").hashCode())));
+    }
+
     private static class FakeXPathBinaryOpExpr extends XPathBinaryOpExpr {
 
         public FakeXPathBinaryOpExpr(XPathExpression a, XPathExpression b) {
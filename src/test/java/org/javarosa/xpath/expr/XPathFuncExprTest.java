@@ -1,9 +1,17 @@
 package org.javarosa.xpath.expr;
 
+import org.javarosa.core.model.condition.EvaluationContext;
+import org.javarosa.core.model.instance.FormInstance;
+import org.javarosa.core.model.instance.TreeElement;
+import org.javarosa.core.util.externalizable.ExtUtil;
+import org.javarosa.core.util.externalizable.PrototypeFactory;
 import org.junit.Test;
 
+import java.util.regex.PatternSyntaxException;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThrows;
 
 public class XPathFuncExprTest {
 
@@ -40,4 +48,90 @@ public class XPathFuncExprTest {
         XPathFuncExpr expr = new XPathFuncExpr(new XPathQName("random"));
         assertThat(expr.containsFunc("other"), equalTo(false));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void eval_whenBuiltInFunctionDoesNotAcceptNumberOfArgs_usesFallbackHandler() {
+        // contains('a', 'b', 'c')
+        XPathFuncExpr expr = new XPathFuncExpr(new XPathQName("contains"), new XPathExpression[] {
+            new XPathStringLiteral("a"), new XPathStringLiteral("b"), new XPathStringLiteral("c")
+        });
+
+        EvaluationContext evalContext = new EvaluationContext(new FormInstance(new TreeElement("data")));
+        evalContext.addFallbackFunctionHandler((name, args, ec) -> name + " with " + args.length + " args");
+
+        assertThat(expr.eval(evalContext.getMainInstance(), evalContext), equalTo("contains with 3 args"));
+    }
+
+    @Test
+    public void eval_whenArgsAreReplaced_usesFunctionForNewNumberOfArgs() {
+        // contains('abc', 'b', 'c') then contains('abc', 'b')
+        XPathFuncExpr expr = new XPathFuncExpr(new XPathQName("contains"), new XPathExpression[] {
+            new XPathStringLiteral("abc"), new XPathStringLiteral("b"), new XPathStringLiteral("c")
+        });
+
+        EvaluationContext evalContext = new EvaluationContext(new FormInstance(new TreeElement("data")));
+        evalContext.addFallbackFunctionHandler((name, args, ec) -> "fallback");
+        assertThat(expr.eval(evalContext.getMainInstance(), evalContext), equalTo("fallback"));
+
+        expr.args = new XPathExpression[] {new XPathStringLiteral("abc"), new XPathStringLiteral("b")};
+        assertThat(expr.eval(evalContext.getMainInstance(), evalContext), equalTo(true));
+    }
+
+    @Test
+    public void eval_afterDeserialization_usesBuiltInFunction() throws Exception {
+        // concat('a', 'b')
+        XPathFuncExpr expr = new XPathFuncExpr(new XPathQName("concat"), new XPathExpression[] {
+            new XPathStringLiteral("a"), new XPathStringLiteral("b")
+        });
+
+        PrototypeFactory prototypeFactory = new PrototypeFactory();
+        prototypeFactory.addClass(XPathStringLiteral.class);
+        XPathFuncExpr deserialized = (XPathFuncExpr) ExtUtil.deserialize(ExtUtil.serialize(expr), XPathFuncExpr.class, prototypeFactory);
+
+        EvaluationContext evalContext = new EvaluationContext(new FormInstance(new TreeElement("data")));
+        assertThat(deserialized.eval(evalContext.getMainInstance(), evalContext), equalTo("ab"));
+    }
+
+    @Test
+    public void eval_regexWithLiteralPattern_whenPatternIsReplaced_usesNewPattern() {
+        // regex('abc', '[a-c]+') then regex('abc', '[0-9]+')
+        XPathFuncExpr expr = new XPathFuncExpr(new XPathQName("regex"), new XPathExpression[] {
+            new XPathStringLiteral("abc"), new XPathStringLiteral("[a-c]+")
+        });
+
+        EvaluationContext evalContext = new EvaluationContext(new FormInstance(new TreeElement("data")));
+        assertThat(expr.eval(evalContext.getMainInstance(), evalContext), equalTo(true));
+
+        ((XPathStringLiteral) expr.args[1]).s = "[0-9]+";
+        assertThat(expr.eval(evalContext.getMainInstance(), evalContext), equalTo(false));
+    }
+
+    @Test
+    public void eval_regexWithInvalidLiteralPattern_throwsWhenEvaluated() {
+        // regex('abc', '[a-c')
+        XPathFuncExpr expr = new XPathFuncExpr(new XPathQName("regex"), new XPathExpression[] {
+            new XPathStringLiteral("abc"), new XPathStringLiteral("[a-c")
+        });
+
+        EvaluationContext evalContext = new EvaluationContext(new FormInstance(new TreeElement("data")));
+        assertThrows(PatternSyntaxException.class, () -> expr.eval(evalContext.getMainInstance(), evalContext));
+    }
+
+    @Test
+    public void eval_regexWithDynamicPattern_usesCachedPattern() {
+        // regex('abc', concat('[a-c]', '+'))
+        XPathFuncExpr expr = new XPathFuncExpr(new XPathQName("regex"), new XPathExpression[] {
+            new XPathStringLiteral("abc"),
+            new XPathFuncExpr(new XPathQName("concat"), new XPathExpression[] {
+                new XPathStringLiteral("[a-c]"), new XPathStringLiteral("+")
+            })
+        });
+
+        EvaluationContext evalContext = new EvaluationContext(new FormInstance(new TreeElement("data")));
+        long hitCount = RegexPatternCache.getStats().getHitCount();
+
+        assertThat(expr.eval(evalContext.getMainInstance(), evalContext), equalTo(true));
+        assertThat(expr.eval(evalContext.getMainInstance(), evalContext), equalTo(true));
+        assertThat(RegexPatternCache.getStats().getHitCount() > hitCount, equalTo(true));
+    }
+}